@@ -15,7 +15,7 @@ public class SimpleDb {
         switch (args[0]) {
             case "convert":
                 try {
-                    if (args.length < 3 || args.length > 5) {
+                    if (args.length < 3 || args.length > 7) {
                         System.err.println("Unexpected number of arguments to convert ");
                         return;
                     }
@@ -46,12 +46,30 @@ public class SimpleDb {
                                 return;
                             }
                         }
-                        if (args.length == 5)
+                        if (args.length >= 5)
                             fieldSeparator = args[4].charAt(0);
                     }
+                    HeapFile.PageFormat format = HeapFile.PageFormat.FIXED;
+                    if (args.length >= 6) {
+                        try {
+                            format = HeapFile.PageFormat.valueOf(args[5].toUpperCase());
+                        } catch (IllegalArgumentException e) {
+                            System.err.println("Unknown page format " + args[5]);
+                            return;
+                        }
+                    }
+                    int pageSize = BufferPool.getPageSize();
+                    if (args.length >= 7) {
+                        try {
+                            pageSize = Integer.parseInt(args[6]);
+                        } catch (NumberFormatException e) {
+                            System.err.println("Invalid page size " + args[6]);
+                            return;
+                        }
+                    }
 
                     HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                            pageSize, numOfAttributes, ts, fieldSeparator, format);
 
                 } catch (IOException e) {
                     throw new RuntimeException(e);
@@ -1,5 +1,7 @@
 package simpledb.common;
 
+import simpledb.index.SecondaryIndex;
+import simpledb.storage.BufferPool;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
@@ -11,6 +13,7 @@ import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -51,6 +54,7 @@ public class Catalog {
 
     private final ConcurrentMap<Integer, Table> tableIdToTableMap;
     private final ConcurrentMap<String, Integer> nameToTableIdMap;
+    private final ConcurrentMap<Integer, List<SecondaryIndex>> tableIdToIndexesMap;
 
     /**
      * Constructor.
@@ -60,6 +64,7 @@ public class Catalog {
         // some code goes here
         tableIdToTableMap = new ConcurrentHashMap<>();
         nameToTableIdMap = new ConcurrentHashMap<>();
+        tableIdToIndexesMap = new ConcurrentHashMap<>();
     }
 
     /**
@@ -79,6 +84,22 @@ public class Catalog {
         nameToTableIdMap.put(name, file.getId());
     }
 
+    /**
+     * Add a new table to the catalog, optionally switching its file to
+     * read-only mode first.
+     *
+     * @param readOnly if true, the table's file is memory mapped and
+     *                 serves pages from the mapping; it can no longer be
+     *                 modified (see {@link DbFile#mapReadOnly})
+     * @throws IOException if the file cannot be mapped
+     */
+    public void addTable(DbFile file, String name, String pkeyField, boolean readOnly) throws IOException {
+        if (readOnly) {
+            file.mapReadOnly();
+        }
+        addTable(file, name, pkeyField);
+    }
+
     public void addTable(DbFile file, String name) {
         addTable(file, name, "");
     }
@@ -95,6 +116,36 @@ public class Catalog {
         addTable(file, (UUID.randomUUID()).toString());
     }
 
+    /**
+     * Add a secondary index on a table of the catalog.  The B+ tree of the
+     * index is added as a table of its own, named after the table and the
+     * field it indexes, and BufferPool.insertTuple and deleteTuple keep the
+     * index up to date from then on.  If the table already holds tuples, the
+     * index must be built with SecondaryIndex.build before the table changes.
+     *
+     * @param index the index to add
+     * @throws NoSuchElementException if the indexed table is not in the catalog
+     */
+    public void addIndex(SecondaryIndex index) throws NoSuchElementException {
+        int tableid = index.getTable().getId();
+        getDatabaseFile(tableid);
+        String fieldName = index.getTable().getTupleDesc().getFieldName(index.getField());
+        addTable(index.getFile(), getTableName(tableid) + "."
+                + (fieldName != null ? fieldName : String.valueOf(index.getField())) + ".idx");
+        tableIdToIndexesMap.computeIfAbsent(tableid, id -> new CopyOnWriteArrayList<>()).add(index);
+    }
+
+    /**
+     * Returns the secondary indexes on the specified table
+     *
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *                function passed to addTable
+     * @return the indexes, an empty list if the table has none
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        return tableIdToIndexesMap.getOrDefault(tableid, Collections.emptyList());
+    }
+
     /**
      * Return the id of the table with a specified name,
      *
@@ -120,6 +171,18 @@ public class Catalog {
         return getDatabaseFile(tableid).getTupleDesc();
     }
 
+    /**
+     * Returns the size of the pages of the specified table
+     *
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *                function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     * @see DbFile#getPageSize()
+     */
+    public int getPageSize(int tableid) throws NoSuchElementException {
+        return getDatabaseFile(tableid).getPageSize();
+    }
+
     /**
      * Returns the DbFile that can be used to read the contents of the
      * specified table.
@@ -158,6 +221,7 @@ public class Catalog {
         // some code goes here
         tableIdToTableMap.clear();
         nameToTableIdMap.clear();
+        tableIdToIndexesMap.clear();
     }
 
     /**
@@ -173,6 +237,9 @@ public class Catalog {
 
             while ((line = br.readLine()) != null) {
                 //assume line is of the format name (field type, field type, ...)
+                //optionally followed by the page format of the table, "slotted" or "pax",
+                //"compressed" if its pages are, and "pagesize=<bytes>" if its pages are
+                //not the size of the database's
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -203,7 +270,32 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                HeapFile.PageFormat format = HeapFile.PageFormat.FIXED;
+                boolean compressed = false;
+                int pageSize = BufferPool.getPageSize();
+                for (String option : options.isEmpty() ? new String[0] : options.split("\\s+")) {
+                    if (option.equalsIgnoreCase("compressed")) {
+                        compressed = true;
+                        continue;
+                    }
+                    if (option.toLowerCase().startsWith("pagesize=")) {
+                        try {
+                            pageSize = Integer.parseInt(option.substring("pagesize=".length()));
+                        } catch (NumberFormatException e) {
+                            System.out.println("Invalid page size " + option);
+                            System.exit(0);
+                        }
+                        continue;
+                    }
+                    try {
+                        format = HeapFile.PageFormat.valueOf(option.toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
+                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t, format, compressed, pageSize);
                 addTable(tabHf, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
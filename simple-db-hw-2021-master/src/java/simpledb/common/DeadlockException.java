@@ -1,9 +1,13 @@
 package simpledb.common;
 
-import java.lang.Exception;
+import simpledb.transaction.TransactionAbortedException;
 
-/** Exception that is thrown when a deadlock occurs. */
-public class DeadlockException extends Exception {
+/**
+ * Exception that is thrown when a deadlock occurs.
+ * The transaction receiving it was chosen as the victim and must abort,
+ * so it is a TransactionAbortedException to every caller of getPage().
+ */
+public class DeadlockException extends TransactionAbortedException {
     private static final long serialVersionUID = 1L;
 
     public DeadlockException() {
@@ -0,0 +1,201 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.PaxPage;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+import simpledb.utils.ReadAhead;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * ColumnScan is a sequential scan of a table stored in PAX pages that
+ * returns only some of its fields, like a SeqScan under a Project.  Each
+ * page's int columns among them are decoded at once into int arrays, and
+ * the other columns of the table are never read.
+ * <p>
+ * Besides returning tuples, a ColumnScan can hand out a page of rows at a
+ * time as those int arrays, see {@link #nextBatch}, for callers that can
+ * work on columns without building a tuple per row.
+ *
+ * @see PaxPage
+ */
+public class ColumnScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+
+    private final int tableId;
+
+    private final int[] fields;
+
+    private final TupleDesc tupleDesc;
+
+    private final HeapFile file;
+
+    private transient ReadAhead readAhead;
+
+    private transient PaxPage page;
+
+    private int numPages;
+
+    private int nextPageNo;
+
+    /** Slots of the tuples on the current page, and the int values of the projected fields. */
+    private int[] slots;
+
+    private int[][] columns;
+
+    private int rows;
+
+    private int row;
+
+    /**
+     * Creates a scan of some of the fields of the specified table as a part
+     * of the specified transaction.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan.
+     * @param tableAlias the alias of this table; the returned tupleDesc has
+     *                   fields named tableAlias.fieldName, as with SeqScan.
+     * @param fieldList  the fields of the table to return, in order.
+     * @throws IllegalArgumentException if the table is not stored in PAX
+     *                                  pages.
+     */
+    public ColumnScan(TransactionId tid, int tableid, String tableAlias, List<Integer> fieldList) {
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(dbFile instanceof HeapFile) || ((HeapFile) dbFile).getPageFormat() != HeapFile.PageFormat.PAX) {
+            throw new IllegalArgumentException("table " + tableid + " is not stored in PAX pages");
+        }
+        this.tid = tid;
+        this.tableId = tableid;
+        this.file = (HeapFile) dbFile;
+        this.fields = new int[fieldList.size()];
+        TupleDesc td = file.getTupleDesc();
+        Type[] typeAr = new Type[fields.length];
+        String[] fieldAr = new String[fields.length];
+        String prefix = tableAlias == null ? "null" : tableAlias;
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = fieldList.get(i);
+            typeAr[i] = td.getFieldType(fields[i]);
+            fieldAr[i] = String.format("%s.%s", prefix, td.getFieldName(fields[i]));
+        }
+        this.tupleDesc = new TupleDesc(typeAr, fieldAr);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        numPages = file.numPages();
+        nextPageNo = 0;
+        rows = 0;
+        row = 0;
+        readAhead = new ReadAhead(tableId, numPages);
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (readAhead == null) {
+            throw new IllegalStateException("ColumnScan not yet open");
+        }
+        while (row >= rows) {
+            if (nextPageNo >= numPages) {
+                return false;
+            }
+            readNextPage();
+        }
+        return true;
+    }
+
+    private void readNextPage() throws DbException, TransactionAbortedException {
+        readAhead.advance(nextPageNo);
+        HeapPageId pid = new HeapPageId(tableId, nextPageNo++);
+        page = (PaxPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        if (slots == null) {
+            slots = new int[page.getNumSlots()];
+            columns = new int[fields.length][];
+            for (int i = 0; i < fields.length; i++) {
+                if (tupleDesc.getFieldType(i) == Type.INT_TYPE) {
+                    columns[i] = new int[page.getNumSlots()];
+                }
+            }
+        }
+        rows = page.readUsedSlots(slots);
+        for (int i = 0; i < fields.length; i++) {
+            if (columns[i] != null) {
+                page.readIntColumn(fields[i], columns[i]);
+            }
+        }
+        row = 0;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = new Tuple(tupleDesc);
+        for (int i = 0; i < fields.length; i++) {
+            t.setField(i, columns[i] != null ? new IntField(columns[i][row]) : page.getField(slots[row], fields[i]));
+        }
+        t.setRecordId(new RecordId(page.getId(), slots[row]));
+        row++;
+        return t;
+    }
+
+    /**
+     * Skip the rows of the current page not returned yet and move to the
+     * rows of the next page that has any.  Their values are then in
+     * {@link #getIntColumn}, and next() continues after them.
+     *
+     * @return the number of rows in the batch, or 0 at the end of the table.
+     */
+    public int nextBatch() throws DbException, TransactionAbortedException {
+        row = rows;
+        if (!hasNext()) {
+            return 0;
+        }
+        row = rows;
+        return rows;
+    }
+
+    /**
+     * @return the values of int field i of the returned fields for the rows
+     *         of the current batch, in its first nextBatch() entries.
+     * @throws IllegalArgumentException if field i is not an int field.
+     */
+    public int[] getIntColumn(int i) {
+        if (columns == null) {
+            throw new IllegalStateException("no batch read yet");
+        }
+        if (columns[i] == null) {
+            throw new IllegalArgumentException("field " + i + " is not an int field");
+        }
+        return columns[i];
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        if (readAhead != null) {
+            readAhead.close();
+            readAhead = null;
+        }
+        page = null;
+    }
+}
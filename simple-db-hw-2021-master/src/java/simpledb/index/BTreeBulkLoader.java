@@ -0,0 +1,601 @@
+package simpledb.index;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * BTreeBulkLoader fills an empty BTreeFile with the tuples of a table, the way
+ * CREATE INDEX would, instead of inserting them one by one.  The tuples are
+ * sorted on the key field with an external merge sort, and the tree is then
+ * built bottom-up: first the leaf pages, then each level of internal pages
+ * above them, up to the root.  Since the number of tuples is known once they
+ * are sorted, the number of leaf pages is worked out beforehand, and the
+ * pages of each level are grouped under the pages of the level above as the
+ * keys that separate them come, so every page is written once, with its
+ * parent, siblings, high key and right link set, and the pages are written in
+ * order, from the front of the file to the back, except for the root pointer
+ * page, which is written last.
+ * <p>
+ * Pages are filled up to a fill factor, a fraction of their capacity, leaving
+ * room for later inserts before pages have to split.  The internal pages of
+ * an index on a string field hold as many entries as their keys leave room
+ * for.  No page ends up less than half full, except the root.
+ * <p>
+ * The index is written straight to its file, around the buffer pool and the
+ * log, as BTreeFileEncoder does, and forced to disk before load returns.  It
+ * is not rolled back if the transaction that read the table aborts.
+ */
+public class BTreeBulkLoader {
+
+	/** Fill factor of the pages, if none is given */
+	public static final double DEFAULT_FILL_FACTOR = 0.9;
+
+	/** Pages worth of tuples sorted in memory at a time, if not given otherwise */
+	public static final int DEFAULT_SORT_PAGES = 1000;
+
+	/** Most sorted runs merged at once */
+	public static final int MERGE_FAN_IN = 64;
+
+	/**
+	 * Load the tuples of a table into an empty B+ tree, with pages filled to
+	 * DEFAULT_FILL_FACTOR, sorting DEFAULT_SORT_PAGES pages of tuples in memory at
+	 * a time.
+	 *
+	 * @see #load(TransactionId, DbFile, BTreeFile, double, int)
+	 */
+	public static void load(TransactionId tid, DbFile table, BTreeFile index)
+			throws DbException, IOException, TransactionAbortedException {
+		load(tid, table, index, DEFAULT_FILL_FACTOR, DEFAULT_SORT_PAGES);
+	}
+
+	/**
+	 * Load the tuples of a table into an empty B+ tree.  The B+ tree must be in
+	 * the catalog, and have the same tuple descriptor as the table.
+	 *
+	 * @param tid - the transaction reading the table
+	 * @param table - the table to index
+	 * @param index - the B+ tree, whose file must be empty
+	 * @param fillFactor - how full to make the pages, between 0.5 and 1
+	 * @param sortPages - how many index pages worth of tuples to sort in memory at a time
+	 * @throws DbException if the B+ tree is not empty or does not match the table
+	 * @throws IllegalArgumentException if fillFactor or sortPages are out of range
+	 */
+	public static void load(TransactionId tid, DbFile table, BTreeFile index, double fillFactor, int sortPages)
+			throws DbException, IOException, TransactionAbortedException {
+		if(!table.getTupleDesc().equals(index.getTupleDesc())) {
+			throw new DbException("the tuples of the table do not match the B+ tree");
+		}
+		load(table.iterator(tid), index, fillFactor, sortPages);
+	}
+
+	/**
+	 * Load the tuples of an iterator, which must match the tuple descriptor of
+	 * the B+ tree, into an empty B+ tree.
+	 *
+	 * @see #load(TransactionId, DbFile, BTreeFile, double, int)
+	 */
+	static void load(DbFileIterator it, BTreeFile index, double fillFactor, int sortPages)
+			throws DbException, IOException, TransactionAbortedException {
+		if(fillFactor < 0.5 || fillFactor > 1) {
+			throw new IllegalArgumentException("fill factor " + fillFactor + " is not between 0.5 and 1");
+		}
+		if(sortPages < 1) {
+			throw new IllegalArgumentException("cannot sort in " + sortPages + " pages");
+		}
+		if(index.getFile().length() != 0) {
+			throw new DbException("B+ tree file " + index.getFile().getName() + " is not empty");
+		}
+
+		int tableid = index.getId();
+		int keyField = index.keyField();
+		int leafCapacity = new BTreeLeafPage(new BTreePageId(tableid, 0, BTreePageId.LEAF),
+				BTreePage.createEmptyPageData(index.getPageSize()), keyField).getMaxTuples();
+		int maxEntries = new BTreeInternalPage(new BTreePageId(tableid, 0, BTreePageId.INTERNAL),
+				BTreePage.createEmptyPageData(index.getPageSize()), keyField).getMaxEntries();
+
+		List<File> runs = new ArrayList<>();
+		try {
+			Sorter sorter = new Sorter(index.getTupleDesc(), keyField, sortPages * leafCapacity, runs);
+			it.open();
+			while(it.hasNext()) {
+				sorter.add(it.next());
+			}
+			it.close();
+			int numTuples = sorter.size();
+			if(numTuples == 0) {
+				// an empty root pointer page and leaf page, as an empty B+ tree starts out with
+				try (OutputStream out = new BufferedOutputStream(new FileOutputStream(index.getFile()))) {
+					out.write(BTreeRootPtrPage.createEmptyPageData());
+					out.write(BTreeLeafPage.createEmptyPageData(index.getPageSize()));
+				}
+				return;
+			}
+			Merge sorted = sorter.finish();
+
+			// the number of tuples on each leaf page
+			int[] leafSizes = spread(numTuples, Math.max(1, (int) (fillFactor * leafCapacity)), leafCapacity / 2);
+			new Builder(index, leafSizes, fillFactor, maxEntries).build(sorted);
+		}
+		finally {
+			for(File run : runs) {
+				run.delete();
+			}
+		}
+	}
+
+	/**
+	 * The number of items on each page of a level of n items, perPage of them to a
+	 * page, but no fewer than minPerPage unless there is only one page.
+	 */
+	private static int[] spread(int n, int perPage, int minPerPage) {
+		int pages = (n + perPage - 1) / perPage;
+		if(pages > 1 && n / pages < minPerPage) {
+			pages = Math.max(1, n / minPerPage);
+		}
+		int[] sizes = new int[pages];
+		for(int i = 0; i < pages; i++) {
+			sizes[i] = n / pages + (i < n % pages ? 1 : 0);
+		}
+		return sizes;
+	}
+
+	/**
+	 * Sorts tuples into runs of at most runSize tuples, writing all but the last
+	 * one to temporary files.
+	 */
+	private static class Sorter {
+		private final TupleDesc td;
+		private final Comparator<Tuple> comparator;
+		private final int runSize;
+		private final List<File> runs;
+		private List<Tuple> buffer = new ArrayList<>();
+		private int size = 0;
+
+		Sorter(TupleDesc td, int keyField, int runSize, List<File> runs) {
+			this.td = td;
+			this.comparator = new BTreeFileEncoder.TupleComparator(keyField);
+			this.runSize = runSize;
+			this.runs = runs;
+		}
+
+		void add(Tuple t) throws IOException {
+			if(buffer.size() == runSize) {
+				buffer.sort(comparator);
+				runs.add(writeRun(new MemoryRun(buffer)));
+				buffer = new ArrayList<>();
+			}
+			buffer.add(t);
+			size++;
+		}
+
+		int size() {
+			return size;
+		}
+
+		/**
+		 * Merge the runs down to MERGE_FAN_IN of them, and return a merge of those
+		 * and the tuples still in memory
+		 */
+		Merge finish() throws IOException {
+			buffer.sort(comparator);
+			while(runs.size() >= MERGE_FAN_IN) {
+				List<File> merged = new ArrayList<>();
+				for(int i = 0; i < runs.size(); i += MERGE_FAN_IN) {
+					List<Run> group = new ArrayList<>();
+					for(File f : runs.subList(i, Math.min(runs.size(), i + MERGE_FAN_IN))) {
+						group.add(new FileRun(f, td));
+					}
+					merged.add(writeRun(new Merge(group, comparator)));
+					for(File f : runs.subList(i, Math.min(runs.size(), i + MERGE_FAN_IN))) {
+						f.delete();
+					}
+				}
+				runs.clear();
+				runs.addAll(merged);
+			}
+			List<Run> last = new ArrayList<>();
+			for(File f : runs) {
+				last.add(new FileRun(f, td));
+			}
+			last.add(new MemoryRun(buffer));
+			return new Merge(last, comparator);
+		}
+
+		private File writeRun(Run run) throws IOException {
+			File f = File.createTempFile("btreesort", ".run");
+			f.deleteOnExit();
+			try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16))) {
+				for(Tuple t = run.next(); t != null; t = run.next()) {
+					for(int i = 0; i < td.numFields(); i++) {
+						t.getField(i).serialize(dos);
+					}
+				}
+			}
+			return f;
+		}
+	}
+
+	/**
+	 * A sorted sequence of tuples
+	 */
+	private interface Run {
+		/**
+		 * @return the next tuple, or null at the end
+		 */
+		Tuple next() throws IOException;
+	}
+
+	private static class MemoryRun implements Run {
+		private final Iterator<Tuple> it;
+
+		MemoryRun(List<Tuple> tuples) {
+			this.it = tuples.iterator();
+		}
+
+		public Tuple next() {
+			return it.hasNext() ? it.next() : null;
+		}
+	}
+
+	private static class FileRun implements Run {
+		private final DataInputStream dis;
+		private final TupleDesc td;
+		private long remaining;
+
+		FileRun(File f, TupleDesc td) throws IOException {
+			this.dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+			this.td = td;
+			// the fields of every tuple take up td.getSize() bytes
+			this.remaining = f.length() / td.getSize();
+		}
+
+		public Tuple next() throws IOException {
+			if(remaining == 0) {
+				dis.close();
+				return null;
+			}
+			remaining--;
+			Tuple t = new Tuple(td);
+			try {
+				for(int i = 0; i < td.numFields(); i++) {
+					t.setField(i, td.getFieldType(i).parse(dis));
+				}
+			}
+			catch(java.text.ParseException e) {
+				throw new IOException(e);
+			}
+			return t;
+		}
+	}
+
+	/**
+	 * Merges sorted runs into one
+	 */
+	private static class Merge implements Run {
+		private final PriorityQueue<Head> heads;
+
+		// a run and its next tuple
+		private static class Head {
+			final Run run;
+			Tuple tuple;
+
+			Head(Run run, Tuple tuple) {
+				this.run = run;
+				this.tuple = tuple;
+			}
+		}
+
+		Merge(List<Run> runs, Comparator<Tuple> comparator) throws IOException {
+			heads = new PriorityQueue<>(Math.max(1, runs.size()), (h1, h2) -> comparator.compare(h1.tuple, h2.tuple));
+			for(Run run : runs) {
+				Tuple t = run.next();
+				if(t != null) {
+					heads.add(new Head(run, t));
+				}
+			}
+		}
+
+		public Tuple next() throws IOException {
+			Head head = heads.poll();
+			if(head == null) {
+				return null;
+			}
+			Tuple t = head.tuple;
+			head.tuple = head.run.next();
+			if(head.tuple != null) {
+				heads.add(head);
+			}
+			return t;
+		}
+	}
+
+	/**
+	 * Groups the pages of a level under the pages of the level above, deciding for one
+	 * child after another, from the key that separates it from the one before, whether
+	 * it starts a new parent.  With fixed-length keys, the children are spread evenly.
+	 * With string keys, a parent takes children until their entries fill it to the fill
+	 * factor, counting the bytes its keys take without the prefix they share; the last
+	 * few parents split what is left between them, so that none is less than half full.
+	 * <p>
+	 * The prefix of a parent is the one its low key and its high key share, and the high
+	 * key is the separator of the child that starts the next parent, so a parent that
+	 * turns out to have no room for its entries next to that high key hands its last
+	 * child on to the next parent instead, which the caller allows for by not writing out
+	 * a child until the one after it has been placed.
+	 */
+	private static class Grouping {
+		private final int n;
+		private final int maxEntries;
+		// children of each parent with fixed-length keys, null with string keys
+		private final int[] sizes;
+		private final int pageSize;
+		private final int fillBytes;
+		private final List<Integer> starts = new ArrayList<>();
+		private final int[] parents;
+		// children the current parent is to take, or 0 if it is to be filled up by bytes
+		private int limit;
+		// with string keys, the low key of the current parent, its number of entries and
+		// the characters of their keys, and the separator of its last child
+		private Field low;
+		private int entries;
+		private int chars;
+		private Field last;
+
+		Grouping(int n, boolean compact, double fillFactor, int maxEntries, int pageSize) {
+			this.n = n;
+			this.maxEntries = maxEntries;
+			this.sizes = compact ? null : spread(n, (int) (fillFactor * maxEntries) + 1, maxEntries / 2 + 1);
+			this.pageSize = pageSize;
+			this.fillBytes = (int) (fillFactor * pageSize);
+			this.parents = new int[n];
+		}
+
+		/**
+		 * Place child i, which the given key separates from child i - 1.  This may move
+		 * child i - 1 to the next parent.
+		 * @return the parent of the child
+		 */
+		int add(int i, Field separator) {
+			if(i == 0) {
+				start(0, null);
+			}
+			else if(joins(i, separator)) {
+				if(sizes == null) {
+					entries++;
+					chars += length(separator);
+				}
+			}
+			else if(sizes != null || limit > 0
+					|| BTreeInternalPage.compactPageSize(low, separator, entries, chars) <= pageSize) {
+				start(i, separator);
+			}
+			else {
+				// no room for the high key this child would give the parent; the child before
+				// starts the next parent, and is sure to leave room, as it joined this one by
+				// making room for its own key as well
+				start(i - 1, last);
+				return add(i, separator);
+			}
+			last = separator;
+			return parents[i];
+		}
+
+		private void start(int i, Field separator) {
+			starts.add(i);
+			int remaining = n - i;
+			limit = remaining <= maxEntries + 1 ? remaining : remaining <= 2 * maxEntries + 2 ? remaining / 2 : 0;
+			low = separator;
+			entries = 0;
+			chars = 0;
+			parents[i] = starts.size() - 1;
+		}
+
+		private boolean joins(int i, Field separator) {
+			int children = i - starts.get(starts.size() - 1);
+			parents[i] = starts.size() - 1;
+			if(sizes != null) {
+				return children < sizes[starts.size() - 1];
+			}
+			if(limit > 0) {
+				return children < limit;
+			}
+			// leave enough children for two more parents. A page holds maxEntries entries
+			// whatever their keys, so it can be made more than half full without counting;
+			// past that, the entry must fit in the fill factor, with the key of the child as
+			// the high key
+			if(n - i <= maxEntries + 2) {
+				return false;
+			}
+			return entries <= Math.min(maxEntries - 1, maxEntries / 2)
+					|| BTreeInternalPage.compactPageSize(low, separator, entries + 1, chars + length(separator))
+					<= fillBytes;
+		}
+
+		private static int length(Field separator) {
+			return ((StringField) separator).getValue().length();
+		}
+
+		int numParents() {
+			return starts.size();
+		}
+
+		/** @return the first child of parent j, or n past the last parent */
+		int start(int j) {
+			return j < starts.size() ? starts.get(j) : n;
+		}
+
+		int parent(int i) {
+			return parents[i];
+		}
+	}
+
+	/**
+	 * Writes the pages of a B+ tree from sorted tuples
+	 */
+	private static class Builder {
+		private final BTreeFile index;
+		private final int tableid;
+		private final int keyField;
+		private final int pageSize;
+		private final Type[] types;
+		private final int[] leafSizes;
+		private final double fillFactor;
+		private final int maxEntries;
+		private final boolean compact;
+		// the number of the first page of each level
+		private final List<Integer> first = new ArrayList<>();
+
+		Builder(BTreeFile index, int[] leafSizes, double fillFactor, int maxEntries) {
+			this.index = index;
+			this.tableid = index.getId();
+			this.keyField = index.keyField();
+			this.pageSize = index.getPageSize();
+			TupleDesc td = index.getTupleDesc();
+			this.types = new Type[td.numFields()];
+			for(int i = 0; i < types.length; i++) {
+				types[i] = td.getFieldType(i);
+			}
+			this.leafSizes = leafSizes;
+			this.fillFactor = fillFactor;
+			this.maxEntries = maxEntries;
+			this.compact = types[keyField] == Type.STRING_TYPE;
+		}
+
+		private BTreePageId pageId(int level, int i) {
+			return new BTreePageId(tableid, first.get(level) + i,
+					level == 0 ? BTreePageId.LEAF : BTreePageId.INTERNAL);
+		}
+
+		void build(Run sorted) throws DbException, IOException {
+			try (FileOutputStream fos = new FileOutputStream(index.getFile())) {
+				OutputStream out = new BufferedOutputStream(fos, 1 << 16);
+				// room for the root pointer page, which is written once the root is known
+				out.write(new byte[BTreeRootPtrPage.getPageSize()]);
+
+				// the leaf pages, grouped under the pages above them as they come. Each is written
+				// once the first key of the next one, and so its high key, is known
+				int numLeaves = leafSizes.length;
+				first.add(1);
+				first.add(1 + numLeaves);
+				Grouping grouping = new Grouping(numLeaves, compact, fillFactor, maxEntries, pageSize);
+				// the keys that separate each page of a level from the one before it
+				List<Field> separators = new ArrayList<>(numLeaves);
+				List<Tuple> prev = null;
+				for(int i = 0; i < numLeaves; i++) {
+					List<Tuple> tuples = new ArrayList<>(leafSizes[i]);
+					for(int n = 0; n < leafSizes[i]; n++) {
+						tuples.add(sorted.next());
+					}
+					Field separator = prev == null ? null : BTreeFile.separator(
+							prev.get(prev.size() - 1).getField(keyField), tuples.get(0).getField(keyField));
+					separators.add(separator);
+					// this may still move the page before to the next parent, so that one is
+					// written after
+					grouping.add(i, separator);
+					if(prev != null) {
+						out.write(leafPage(i - 1, prev, leafParent(grouping, i - 1), separator));
+					}
+					prev = tuples;
+				}
+				out.write(leafPage(numLeaves - 1, prev, leafParent(grouping, numLeaves - 1), null));
+
+				// group each level of internal pages under the next, up to the root, now that the
+				// keys that separate them are known
+				List<Grouping> groupings = new ArrayList<>();
+				List<List<Field>> levelSeparators = new ArrayList<>();
+				groupings.add(grouping);
+				levelSeparators.add(separators);
+				int root = 0;
+				if(numLeaves > 1) {
+					root = 1;
+					while(grouping.numParents() > 1) {
+						// a page is separated from the one before it by the separator of its first child
+						int pages = grouping.numParents();
+						Grouping below = grouping;
+						List<Field> childSeparators = separators;
+						separators = new ArrayList<>(pages);
+						grouping = new Grouping(pages, compact, fillFactor, maxEntries, pageSize);
+						for(int j = 0; j < pages; j++) {
+							separators.add(childSeparators.get(below.start(j)));
+							grouping.add(j, separators.get(j));
+						}
+						first.add(first.get(root) + pages);
+						groupings.add(grouping);
+						levelSeparators.add(separators);
+						root++;
+					}
+				}
+
+				// each level of internal pages, keyed on the separators of the pages below
+				for(int level = 1; level <= root; level++) {
+					Grouping children = groupings.get(level - 1);
+					List<Field> childSeparators = levelSeparators.get(level - 1);
+					int pages = children.numParents();
+					for(int j = 0; j < pages; j++) {
+						int start = children.start(j);
+						int end = children.start(j + 1);
+						List<BTreeEntry> entries = new ArrayList<>(end - start - 1);
+						for(int c = start + 1; c < end; c++) {
+							entries.add(new BTreeEntry(childSeparators.get(c), pageId(level - 1, c - 1),
+									pageId(level - 1, c)));
+						}
+						Field highKey = j + 1 < pages ? childSeparators.get(end) : null;
+						BTreeInternalPage page = internalPage(level, j, entries, childSeparators.get(start), highKey);
+						page.setParentId(level == root ? BTreeRootPtrPage.getId(tableid)
+								: pageId(level + 1, groupings.get(level).parent(j)));
+						out.write(page.getPageData());
+					}
+				}
+				out.flush();
+
+				byte[] rootPtrBytes = BTreeFileEncoder.convertToRootPtrPage(first.get(root),
+						root == 0 ? BTreePageId.LEAF : BTreePageId.INTERNAL, 0);
+				fos.getChannel().write(ByteBuffer.wrap(
+						new BTreeRootPtrPage(BTreeRootPtrPage.getId(tableid), rootPtrBytes).getPageData()), 0);
+				fos.getFD().sync();
+			}
+		}
+
+		private BTreeInternalPage internalPage(int level, int j, List<BTreeEntry> entries, Field lowKey,
+				Field highKey) throws DbException, IOException {
+			BTreePageId pid = pageId(level, j);
+			BTreePageId rightLink = highKey == null ? null : pageId(level, j + 1);
+			if(!compact) {
+				BTreeInternalPage page = new BTreeInternalPage(pid, BTreeFileEncoder.convertToInternalPage(entries,
+						pageSize, types[keyField], level == 1 ? BTreePageId.LEAF : BTreePageId.INTERNAL), keyField);
+				page.setRightLink(rightLink, highKey);
+				return page;
+			}
+			// the low and high keys go first, so that the entries fit without the prefix they share
+			BTreeInternalPage page = new BTreeInternalPage(pid, BTreePage.createEmptyPageData(pageSize), keyField);
+			page.setLowKey(lowKey);
+			page.setRightLink(rightLink, highKey);
+			for(BTreeEntry e : entries) {
+				page.insertEntry(e);
+			}
+			return page;
+		}
+
+		private BTreePageId leafParent(Grouping grouping, int i) {
+			return leafSizes.length == 1 ? BTreeRootPtrPage.getId(tableid) : pageId(1, grouping.parent(i));
+		}
+
+		private byte[] leafPage(int i, List<Tuple> tuples, BTreePageId parent, Field highKey)
+				throws DbException, IOException {
+			BTreeLeafPage page = new BTreeLeafPage(pageId(0, i),
+					BTreeFileEncoder.convertToLeafPage(tuples, pageSize, types.length, types, keyField), keyField);
+			page.setParentId(parent);
+			page.setLeftSiblingId(i > 0 ? pageId(0, i - 1) : null);
+			page.setRightSiblingId(i + 1 < leafSizes.length ? pageId(0, i + 1) : null);
+			page.setHighKey(highKey);
+			return page.getPageData();
+		}
+	}
+}
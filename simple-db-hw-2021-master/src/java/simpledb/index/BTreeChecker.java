@@ -9,8 +9,10 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -64,6 +66,7 @@ public class BTreeChecker {
      * 3) range invariants.
      * 4) record to page pointers.
      * 5) occupancy invariants. (if enabled)
+     * 6) high keys, low keys and right links, where pages have them.
      */
     public static void checkRep(BTreeFile bt, TransactionId tid, Map<PageId, Page> dirtypages,
                                 boolean checkOccupancy) throws
@@ -89,11 +92,15 @@ public class BTreeChecker {
         if (page.getId().pgcateg() == BTreePageId.LEAF) {
             BTreeLeafPage bpage = (BTreeLeafPage) page;
             bpage.checkRep(bt.keyField(), lowerBound, upperBound, checkOccupancy, depth);
+            assert(bpage.getHighKey() == null || bpage.getHighKey().equals(upperBound));
             return new SubtreeSummary(bpage, depth);
         } else if (page.getId().pgcateg() == BTreePageId.INTERNAL) {
 
             BTreeInternalPage ipage = (BTreeInternalPage) page;
             ipage.checkRep(lowerBound, upperBound, checkOccupancy, depth);
+            assert(ipage.getHighKey() == null || ipage.getHighKey().equals(upperBound));
+            assert(ipage.getLowKey() == null || ipage.getLowKey().equals(lowerBound));
+            checkRightLinks(bt, tid, dirtypages, ipage);
 
             SubtreeSummary acc = null;
             BTreeEntry prev = null;
@@ -129,4 +136,35 @@ public class BTreeChecker {
             return null;
         }
     }
+
+    /**
+     * Checks that each internal child of the page that has a right link links to the
+     * next child, and that the last child has one only if the page has one.
+     */
+    static void checkRightLinks(BTreeFile bt, TransactionId tid, Map<PageId, Page> dirtypages,
+                                BTreeInternalPage page) throws
+            TransactionAbortedException, DbException {
+        List<BTreePageId> children = new ArrayList<>();
+        Iterator<BTreeEntry> it = page.iterator();
+        while (it.hasNext()) {
+            BTreeEntry e = it.next();
+            if (children.isEmpty()) {
+                children.add(e.getLeftChild());
+            }
+            children.add(e.getRightChild());
+        }
+        for (int i = 0; i < children.size(); i++) {
+            if (children.get(i).pgcateg() != BTreePageId.INTERNAL) {
+                return;
+            }
+            BTreeInternalPage child = (BTreeInternalPage) bt.getPage(tid, dirtypages, children.get(i),
+                    Permissions.READ_ONLY);
+            BTreePageId link = child.getRightLinkId();
+            if (i + 1 < children.size()) {
+                assert(link == null || link.equals(children.get(i + 1)));
+            } else {
+                assert(link == null || page.getRightLinkId() != null);
+            }
+        }
+    }
 }
\ No newline at end of file
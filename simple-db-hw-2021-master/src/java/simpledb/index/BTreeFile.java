@@ -5,6 +5,7 @@ import java.util.*;
 
 import simpledb.common.Database;
 import simpledb.common.Permissions;
+import simpledb.common.Type;
 import simpledb.execution.IndexPredicate;
 import simpledb.execution.Predicate.Op;
 import simpledb.common.DbException;
@@ -32,6 +33,9 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private final int keyField;
+	private final int pageSize;
+	// pages are served from this mapping once the file is read-only
+	private volatile MappedFile mapping;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -42,10 +46,28 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, key, td, BufferPool.getPageSize());
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file, as above, whose
+	 * pages other than the root pointer page are pageSize bytes instead of the
+	 * page size of the database.
+	 * 
+	 * @param pageSize - the size of the pages of the file
+	 * @throws IllegalArgumentException if a leaf page of that size cannot hold
+	 *                                  two tuples
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, int pageSize) {
+		// a leaf holds the tuples and three page pointers; splitting needs two
+		if ((pageSize * 8 - 3 * Type.INT_TYPE.getLen() * 8) / (td.getSize() * 8 + 1) < 2) {
+			throw new IllegalArgumentException("a page of " + pageSize + " bytes cannot hold two tuples");
+		}
 		this.f = f;
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.pageSize = pageSize;
 	}
 
 	/**
@@ -77,6 +99,11 @@ public class BTreeFile implements DbFile {
 		return td;
 	}
 
+	// see DbFile.java for javadocs
+	public int getPageSize() {
+		return pageSize;
+	}
+
 	/**
 	 * Read a page from the file on disk. This should not be called directly
 	 * but should be called from the BufferPool via getPage()
@@ -86,6 +113,13 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
+		if (mapping != null) {
+			try {
+				return readMappedPage(id);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
 
         try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
@@ -101,19 +135,19 @@ public class BTreeFile implements DbFile {
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
                 return new BTreeRootPtrPage(id, pageBuf);
             } else {
-                byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
+                byte[] pageBuf = new byte[pageSize];
+                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * pageSize) !=
+                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * pageSize) {
                     throw new IllegalArgumentException(
                             "Unable to seek to correct place in BTreeFile");
                 }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
+                int retval = bis.read(pageBuf, 0, pageSize);
                 if (retval == -1) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
-                if (retval < BufferPool.getPageSize()) {
+                if (retval < pageSize) {
                     throw new IllegalArgumentException("Unable to read "
-                            + BufferPool.getPageSize() + " bytes from BTreeFile");
+                            + pageSize + " bytes from BTreeFile");
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
                 if (id.pgcateg() == BTreePageId.INTERNAL) {
@@ -138,6 +172,9 @@ public class BTreeFile implements DbFile {
 	 * @param page - the page to write to disk
 	 */
 	public void writePage(Page page) throws IOException {
+		if (mapping != null) {
+			throw new IOException("table " + f.getName() + " is read-only");
+		}
 		BTreePageId id = (BTreePageId) page.getId();
 		
 		byte[] data = page.getPageData();
@@ -147,7 +184,7 @@ public class BTreeFile implements DbFile {
 			rf.close();
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
+			rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * pageSize);
 			rf.write(data);
 			rf.close();
 		}
@@ -158,7 +195,44 @@ public class BTreeFile implements DbFile {
 	 */
 	public int numPages() {
 		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		MappedFile mapped = mapping;
+		long length = mapped != null ? mapped.length() : f.length();
+		return (int) ((length - BTreeRootPtrPage.getPageSize())/ pageSize);
+	}
+
+	// see DbFile.java for javadocs
+	public synchronized void mapReadOnly() throws IOException {
+		if (mapping == null) {
+			mapping = new MappedFile(f, Math.max(pageSize, BTreeRootPtrPage.getPageSize()));
+		}
+	}
+
+	// see DbFile.java for javadocs
+	public boolean isReadOnly() {
+		return mapping != null;
+	}
+
+	/**
+	 * Read a page in read-only mode, copying it out of the mapping.
+	 * 
+	 * @throws IllegalArgumentException if the page lies past the end of the file
+	 */
+	private Page readMappedPage(BTreePageId id) throws IOException {
+		if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+			byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
+			mapping.slice(0, pageBuf.length).get(pageBuf);
+			return new BTreeRootPtrPage(id, pageBuf);
+		}
+		byte[] pageBuf = new byte[pageSize];
+		long offset = BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * pageSize;
+		mapping.slice(offset, pageBuf.length).get(pageBuf);
+		if (id.pgcateg() == BTreePageId.INTERNAL) {
+			return new BTreeInternalPage(id, pageBuf, keyField);
+		} else if (id.pgcateg() == BTreePageId.LEAF) {
+			return new BTreeLeafPage(id, pageBuf, keyField);
+		} else { // id.pgcateg() == BTreePageId.HEADER
+			return new BTreeHeaderPage(id, pageBuf);
+		}
 	}
 
 	/**
@@ -169,10 +243,16 @@ public class BTreeFile implements DbFile {
 	}
 
 	/**
-	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
-	 * the left-most page possibly containing the key field f. It locks all internal
-	 * nodes along the path to the leaf node with READ_ONLY permission, and locks the 
-	 * leaf node with permission perm.
+	 * Function which finds and locks the leaf page in the B+ tree corresponding to the
+	 * left-most page possibly containing the key field f. Internal pages on the way down are
+	 * not locked but latched, one at a time and only while they are read, and the leaf page
+	 * is locked with permission perm once no latch is held, waiting for the lock if need be.
+	 * 
+	 * A split may move f off a page after the search has read the page's parent, but only
+	 * to the right: to a page linked in right after the split page, which is left with a
+	 * high key below f. So whenever f is greater than the high key of a page, the search
+	 * moves right, along the right link of an internal page or the right sibling pointer of
+	 * a leaf page, rather than start over from the root.
 	 * 
 	 * If f is null, it finds the left-most leaf page -- used for the iterator
 	 * 
@@ -181,31 +261,133 @@ public class BTreeFile implements DbFile {
 	 * @param pid - the current page being searched
 	 * @param perm - the permissions with which to lock the leaf page
 	 * @param f - the field to search for
-	 * @return the left-most leaf page possibly containing the key field f
+	 * @return the left-most leaf page possibly containing the key field f, or null if the
+	 * search came upon a page the rollback of a split has emptied, and must start over
 	 * 
 	 */
-	private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
-                                       Field f)
+	private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid,
+									   Permissions perm, Field f)
 					throws DbException, TransactionAbortedException {
 		// some code goes here
-        return null;
+		BufferPool bp = Database.getBufferPool();
+		while(pid.pgcateg() == BTreePageId.INTERNAL) {
+			BTreeInternalPage page = (BTreeInternalPage) bp.latchPage(pid, Permissions.READ_ONLY);
+			try {
+				if(page.getNumEntries() == 0) {
+					return null;
+				}
+				if(f != null && page.getHighKey() != null && f.compare(Op.GREATER_THAN, page.getHighKey())) {
+					pid = page.getRightLinkId();
+				}
+				else {
+					pid = getChildId(page, f);
+				}
+			}
+			finally {
+				bp.unlatchPage(page.getId(), Permissions.READ_ONLY);
+			}
+		}
+
+		while(true) {
+			boolean locked = bp.holdsLock(tid, pid);
+			BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+			if(page.getParentId().pgcateg() == BTreePageId.ROOT_PTR && !pid.equals(getRootId())) {
+				// not in the tree; nothing was read from it, so the lock can go
+				dirtypages.remove(pid);
+				if(!locked) {
+					bp.unsafeReleasePage(tid, pid);
+				}
+				return null;
+			}
+			if(f == null || page.getHighKey() == null || !f.compare(Op.GREATER_THAN, page.getHighKey())) {
+				return page;
+			}
+			pid = page.getRightSiblingId();
+		}
+	}
+
+	/**
+	 * The shortest key that separates two neighbouring leaf pages, to copy up into their
+	 * parent: greater than the largest key on the left page and no greater than the
+	 * smallest on the right.  For a string, that is the shortest prefix of the smallest
+	 * key on the right that is greater than the largest on the left, which keeps the keys
+	 * of internal pages short; other keys are copied up whole.
+	 * 
+	 * @param leftMax - the largest key on the left-hand page
+	 * @param rightMin - the smallest key on the right-hand page
+	 * @return the key to separate the two pages with
+	 */
+	static Field separator(Field leftMax, Field rightMin) {
+		if(!(rightMin instanceof StringField)) {
+			return rightMin;
+		}
+		String right = ((StringField) rightMin).getValue();
+		int n = BTreeInternalPage.commonPrefixLength(leftMax, rightMin);
+		if(n >= right.length()) {
+			// the keys are equal
+			return rightMin;
+		}
+		return new StringField(right.substring(0, n + 1), Type.STRING_LEN);
+	}
+
+	/**
+	 * @return the left-most child of an internal page whose subtree may contain the key field
+	 * f, or the left-most child if f is null
+	 */
+	private BTreePageId getChildId(BTreeInternalPage page, Field f) throws DbException {
+		Iterator<BTreeEntry> it = page.iterator();
+		BTreeEntry e = null;
+		while(it.hasNext()) {
+			e = it.next();
+			if(f == null || f.compare(Op.LESS_THAN_OR_EQ, e.getKey())) {
+				return e.getLeftChild();
+			}
+		}
+		if(e == null) {
+			throw new DbException("internal page " + page.getId().getPageNumber() + " has no entries");
+		}
+		return e.getRightChild();
 	}
 	
 	/**
-	 * Convenience method to find a leaf page when there is no dirtypages HashMap.
-	 * Used by the BTreeFile iterator.
+	 * Convenience method to find and lock a leaf page for reading, starting from the root.
+	 * Used by the BTreeFile iterators.
 	 * @see #findLeafPage(TransactionId, Map, BTreePageId, Permissions, Field)
 	 * 
 	 * @param tid - the transaction id
-	 * @param pid - the current page being searched
 	 * @param f - the field to search for
-	 * @return the left-most leaf page possibly containing the key field f
+	 * @return the left-most leaf page possibly containing the key field f, or null if the
+	 * tree has no root page yet
 	 * 
 	 */
-	BTreeLeafPage findLeafPage(TransactionId tid, BTreePageId pid,
-                               Field f)
+	BTreeLeafPage findLeafPage(TransactionId tid, Field f)
 					throws DbException, TransactionAbortedException {
-		return findLeafPage(tid, new HashMap<>(), pid, Permissions.READ_ONLY, f);
+		while(true) {
+			BTreePageId rootId = getRootId();
+			if(rootId == null) {
+				return null;
+			}
+			BTreeLeafPage page = findLeafPage(tid, new HashMap<>(), rootId, Permissions.READ_ONLY, f);
+			if(page != null) {
+				return page;
+			}
+		}
+	}
+
+	/**
+	 * @return the id of the root page, read under a latch on the root pointer page, or null
+	 * if the root pointer has yet to be set
+	 */
+	private BTreePageId getRootId() throws DbException, TransactionAbortedException {
+		BufferPool bp = Database.getBufferPool();
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bp.latchPage(rootPtrId, Permissions.READ_ONLY);
+		try {
+			return rootPtr.getRootId();
+		}
+		finally {
+			bp.unlatchPage(rootPtrId, Permissions.READ_ONLY);
+		}
 	}
 
 	/**
@@ -239,8 +421,44 @@ public class BTreeFile implements DbFile {
 		// the new entry.  getParentWithEmtpySlots() will be useful here.  Don't forget to update
 		// the sibling pointers of all the affected leaf pages.  Return the page into which a 
 		// tuple with the given key field should be inserted.
-        return null;
-		
+		BTreeLeafPage rightPage = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+
+		// move the upper half of the tuples to the new right-hand page
+		int moveCount = page.getNumTuples() / 2;
+		Tuple[] moving = new Tuple[moveCount];
+		Iterator<Tuple> it = page.reverseIterator();
+		for(int i = moveCount - 1; i >= 0; i--) {
+			moving[i] = it.next();
+		}
+		Field leftMax = it.next().getField(keyField);
+		for(Tuple t : moving) {
+			page.deleteTuple(t);
+			rightPage.insertTuple(t);
+		}
+
+		// splice the new page into the sibling chain
+		BTreePageId oldRightId = page.getRightSiblingId();
+		if(oldRightId != null) {
+			BTreeLeafPage oldRight = (BTreeLeafPage) getPage(tid, dirtypages, oldRightId, Permissions.READ_WRITE);
+			oldRight.setLeftSiblingId(rightPage.getId());
+		}
+		rightPage.setRightSiblingId(oldRightId);
+		rightPage.setLeftSiblingId(page.getId());
+		page.setRightSiblingId(rightPage.getId());
+
+		// copy the shortest key that separates the two pages up into the parent, and make
+		// it the high key of the left-hand page
+		Field midKey = separator(leftMax, moving[0].getField(keyField));
+		rightPage.setHighKey(page.getHighKey());
+		page.setHighKey(midKey);
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), midKey);
+		parent.insertEntry(new BTreeEntry(midKey, page.getId(), rightPage.getId()));
+		updateParentPointers(tid, dirtypages, parent);
+
+		if(field.compare(Op.GREATER_THAN_OR_EQ, midKey)) {
+			return rightPage;
+		}
+		return page;
 	}
 	
 	/**
@@ -277,7 +495,41 @@ public class BTreeFile implements DbFile {
 		// the parent pointers of all the children moving to the new page.  updateParentPointers()
 		// will be useful here.  Return the page into which an entry with the given key field
 		// should be inserted.
-		return null;
+		BTreeInternalPage rightPage = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+
+		// the upper half of the entries moves to the new right-hand page, and the largest
+		// remaining key is pushed up; its right child is already the left-most child of
+		// the new page
+		int moveCount = page.getNumEntries() / 2;
+		BTreeEntry[] moving = new BTreeEntry[moveCount];
+		Iterator<BTreeEntry> it = page.reverseIterator();
+		for(int i = 0; i < moveCount; i++) {
+			moving[i] = it.next();
+		}
+		BTreeEntry mid = it.next();
+
+		// the new page takes the range of keys above the pushed up key, before its entries,
+		// so that a compact page leaves their common prefix off them
+		rightPage.setLowKey(mid.getKey());
+		rightPage.setRightLink(page.getRightLinkId(), page.getHighKey());
+		for(BTreeEntry e : moving) {
+			page.deleteKeyAndRightChild(e);
+			rightPage.insertEntry(e);
+		}
+		page.deleteKeyAndRightChild(mid);
+		updateParentPointers(tid, dirtypages, rightPage);
+
+		// link the new page in to the right, with the pushed up key as the high key between them
+		page.setRightLink(rightPage.getId(), mid.getKey());
+
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), mid.getKey());
+		parent.insertEntry(new BTreeEntry(mid.getKey(), page.getId(), rightPage.getId()));
+		updateParentPointers(tid, dirtypages, parent);
+
+		if(field.compare(Op.GREATER_THAN, mid.getKey())) {
+			return rightPage;
+		}
+		return page;
 	}
 	
 	/**
@@ -345,9 +597,21 @@ public class BTreeFile implements DbFile {
 	private void updateParentPointer(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, BTreePageId child)
 			throws DbException, TransactionAbortedException {
 
-		BTreePage p = (BTreePage) getPage(tid, dirtypages, child, Permissions.READ_ONLY);
+		// look without locking the child, which may well be a leaf other transactions
+		// are writing: its parent pointer only changes under a latch on the parent
+		BTreePage p = (BTreePage) dirtypages.get(child);
+		BTreePageId parentId;
+		if(p != null) {
+			parentId = p.getParentId();
+		}
+		else {
+			BufferPool bp = Database.getBufferPool();
+			p = (BTreePage) bp.latchPage(child, Permissions.READ_ONLY);
+			parentId = p.getParentId();
+			bp.unlatchPage(child, Permissions.READ_ONLY);
+		}
 
-		if(!p.getParentId().equals(pid)) {
+		if(!parentId.equals(pid)) {
 			p = (BTreePage) getPage(tid, dirtypages, child, Permissions.READ_WRITE);
 			p.setParentId(pid);
 		}
@@ -417,6 +681,10 @@ public class BTreeFile implements DbFile {
 	 * Insert a tuple into this BTreeFile, keeping the tuples in sorted order. 
 	 * May cause pages to split if the page where tuple t belongs is full.
 	 * 
+	 * Only the pages the insert changes are locked. The way down to the leaf page is
+	 * latched instead: one page at a time if the leaf page has room, and otherwise each
+	 * internal page until the next one is, unless a split of the leaf may reach it.
+	 * 
 	 * @param tid - the transaction id
 	 * @param t - the tuple to insert
 	 * @return a list of all pages that were dirtied by this operation. Could include
@@ -425,29 +693,201 @@ public class BTreeFile implements DbFile {
 	 */
 	public List<Page> insertTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
+		if (mapping != null) {
+			throw new DbException("table " + f.getName() + " is read-only");
+		}
+		createRootIfEmpty();
+		while(true) {
+			try {
+				List<Page> dirtypages = insertWithoutSplit(tid, t);
+				return dirtypages != null ? dirtypages : insertWithSplit(tid, t);
+			}
+			catch(LockWait w) {
+				w.await(tid);
+			}
+		}
+	}
+
+	/**
+	 * Insert a tuple into the leaf page it belongs on, if that page has room, found the way
+	 * readers find it.
+	 * 
+	 * @param tid - the transaction id
+	 * @param t - the tuple to insert
+	 * @return the dirtied leaf page, or null if the leaf page is full or the root pointer
+	 * has yet to be set. The leaf page stays locked.
+	 * @see #findLeafPage(TransactionId, Map, BTreePageId, Permissions, Field)
+	 */
+	private List<Page> insertWithoutSplit(TransactionId tid, Tuple t)
+			throws DbException, TransactionAbortedException {
 		Map<PageId, Page> dirtypages = new HashMap<>();
+		BTreeLeafPage leafPage = null;
+		while(leafPage == null) {
+			BTreePageId rootId = getRootId();
+			if(rootId == null) {
+				return null;
+			}
+			leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
+		}
+		if(leafPage.getNumEmptySlots() == 0) {
+			return null;
+		}
+		leafPage.insertTuple(t);
+		return new ArrayList<>(dirtypages.values());
+	}
 
-		// get a read lock on the root pointer page and use it to locate the root page
-		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-		BTreePageId rootId = rootPtr.getRootId();
+	/**
+	 * Insert a tuple, splitting the leaf page it belongs on if that page is full. The way
+	 * down is latched exclusively, and the latches above each internal page with an empty
+	 * slot are let go, since a split from below stops there; the root pointer stays share
+	 * latched for getEmptyPageNo. Every page the split changes is locked before any of them
+	 * is, and the changed pages are marked dirty in the buffer pool before the latches are
+	 * let go.
+	 * 
+	 * @param tid - the transaction id
+	 * @param t - the tuple to insert
+	 * @return a list of all pages that were dirtied by this operation
+	 */
+	private List<Page> insertWithSplit(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException, LockWait {
+		BufferPool bp = Database.getBufferPool();
+		Field field = t.getField(keyField);
+		Map<PageId, Page> dirtypages = new HashMap<>();
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+		// the pages latched exclusively, top-down
+		Deque<BTreePageId> path = new ArrayDeque<>();
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bp.latchPage(rootPtrId, Permissions.READ_WRITE);
+		path.add(rootPtrId);
+		boolean shared = false;
+		try {
+			bp.latchPage(rootPtrId, Permissions.READ_ONLY);
+			shared = true;
+
+			BTreePageId pid = rootPtr.getRootId();
+			if(pid == null) { // the root has just been created, so set the root pointer to point to it
+				lockForUpdate(tid, rootPtrId);
+				pid = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
+				rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_WRITE);
+				rootPtr.setRootId(pid);
+			}
+			while(pid.pgcateg() != BTreePageId.LEAF) {
+				BTreeInternalPage page = (BTreeInternalPage) bp.latchPage(pid, Permissions.READ_WRITE);
+				path.add(pid);
+				if(page.getNumEmptySlots() > 0) {
+					while(path.size() > 1) {
+						bp.unlatchPage(path.removeFirst(), Permissions.READ_WRITE);
+					}
+				}
+				pid = getChildId(page, field);
+			}
 
-		if(rootId == null) { // the root has just been created, so set the root pointer to point to it		
-			rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
-			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
-			rootPtr.setRootId(rootId);
+			lockForUpdate(tid, pid);
+			BTreeLeafPage leafPage = (BTreeLeafPage) getPage(tid, dirtypages, pid, Permissions.READ_WRITE);
+			if(leafPage.getNumEmptySlots() == 0) {
+				lockForSplit(tid, dirtypages, rootPtr, path, leafPage);
+				leafPage = splitLeafPage(tid, dirtypages, leafPage, field);
+			}
+			leafPage.insertTuple(t);
+
+			List<Page> dirty = new ArrayList<>(dirtypages.values());
+			bp.markDirty(tid, dirty);
+			return dirty;
 		}
+		finally {
+			if(shared) {
+				bp.unlatchPage(rootPtrId, Permissions.READ_ONLY);
+			}
+			for(BTreePageId latched : path) {
+				bp.unlatchPage(latched, Permissions.READ_WRITE);
+			}
+		}
+	}
 
-		// find and lock the left-most leaf page corresponding to the key field,
-		// and split the leaf page if there are no more slots available
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
-		if(leafPage.getNumEmptySlots() == 0) {
-			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));	
+	/**
+	 * Lock every page that splitting a full leaf page will change, without waiting, so that
+	 * the split cannot be left half done by a lock it has to wait for: the leaf page and its
+	 * right sibling, every internal page on the path, the root pointer if the root splits,
+	 * the children that move to the new half of each internal page that splits, and the
+	 * header pages new pages may come from. Pages the split creates are new to everyone.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param rootPtr - the root pointer page
+	 * @param path - the pages above the leaf page, latched exclusively, top-down: the root
+	 * pointer if the root will split, otherwise the page that will take the new entry without
+	 * splitting, followed by the full pages below it
+	 * @param leafPage - the full leaf page, already locked
+	 * @throws LockWait if another transaction holds a lock on one of the pages
+	 */
+	private void lockForSplit(TransactionId tid, Map<PageId, Page> dirtypages, BTreeRootPtrPage rootPtr,
+			Deque<BTreePageId> path, BTreeLeafPage leafPage)
+			throws DbException, TransactionAbortedException, LockWait {
+		if(leafPage.getRightSiblingId() != null) {
+			lockForUpdate(tid, leafPage.getRightSiblingId());
+		}
+		boolean top = true;
+		for(BTreePageId pid : path) {
+			lockForUpdate(tid, pid);
+			if(!top) {
+				// splitInternalPage moves the upper half of the entries and pushes up one more key
+				BTreeInternalPage page = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_WRITE);
+				List<BTreePageId> children = new ArrayList<>();
+				Iterator<BTreeEntry> it = page.iterator();
+				while(it.hasNext()) {
+					BTreeEntry e = it.next();
+					if(children.isEmpty()) {
+						children.add(e.getLeftChild());
+					}
+					children.add(e.getRightChild());
+				}
+				int moving = page.getNumEntries() / 2 + 1;
+				for(BTreePageId child : children.subList(children.size() - moving, children.size())) {
+					lockForUpdate(tid, child);
+				}
+			}
+			top = false;
 		}
+		BTreePageId headerId = rootPtr.getHeaderId();
+		while(headerId != null) {
+			lockForUpdate(tid, headerId);
+			headerId = ((BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY)).getNextPageId();
+		}
+	}
 
-		// insert the tuple into the leaf page
-		leafPage.insertTuple(t);
+	/**
+	 * Lock a page for writing, without waiting, on behalf of an operation that holds latches.
+	 * @throws LockWait if another transaction holds a lock on the page
+	 */
+	private void lockForUpdate(TransactionId tid, BTreePageId pid) throws TransactionAbortedException, LockWait {
+		if(!Database.getBufferPool().tryLockPage(tid, pid, Permissions.READ_WRITE)) {
+			throw new LockWait(pid, Permissions.READ_WRITE);
+		}
+	}
 
-        return new ArrayList<>(dirtypages.values());
+	/**
+	 * Thrown by an operation holding latches when it needs a lock another transaction holds.
+	 * Waiting for the lock with the latches held could deadlock with the lock holder, so the
+	 * operation lets go of them, waits, and starts over.
+	 */
+	private static class LockWait extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		private final BTreePageId pid;
+		private final Permissions perm;
+
+		LockWait(BTreePageId pid, Permissions perm) {
+			super(null, null, false, false);
+			this.pid = pid;
+			this.perm = perm;
+		}
+
+		/**
+		 * Wait for the lock, once the latches are let go. The lock is kept, as the
+		 * operation is likely to need it again.
+		 */
+		void await(TransactionId tid) throws TransactionAbortedException {
+			Database.getBufferPool().lockPage(tid, pid, perm);
+		}
 	}
 	
 	/**
@@ -767,7 +1207,7 @@ public class BTreeFile implements DbFile {
 		// or merge with one of the siblings
 		parent.deleteKeyAndRightChild(parentEntry);
 		int maxEmptySlots = parent.getMaxEntries() - parent.getMaxEntries()/2; // ceiling
-		if(parent.getNumEmptySlots() == parent.getMaxEntries()) {
+		if(parent.getNumEntries() == 0) {
 			// This was the last entry in the parent.
 			// In this case, the parent (root node) should be deleted, and the merged 
 			// page will become the new root
@@ -800,6 +1240,9 @@ public class BTreeFile implements DbFile {
 	 */
 	public List<Page> deleteTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
+		if (mapping != null) {
+			throw new DbException("table " + f.getName() + " is read-only");
+		}
 		Map<PageId, Page> dirtypages = new HashMap<>();
 
 		BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().getPageNumber(),
@@ -829,23 +1272,29 @@ public class BTreeFile implements DbFile {
 	 * @throws TransactionAbortedException
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, Map<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
-		synchronized(this) {
-			if(f.length() == 0) {
-				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
-				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
-			}
-		}
+		createRootIfEmpty();
 
 		// get a read lock on the root pointer page
 		return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
 	}
 
+	/**
+	 * Create the root pointer page and the root page if the file is empty.
+	 * @throws IOException
+	 */
+	private synchronized void createRootIfEmpty() throws IOException {
+		if(f.length() == 0) {
+			// create the root pointer page and the root page
+			BufferedOutputStream bw = new BufferedOutputStream(
+					new FileOutputStream(f, true));
+			byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
+			byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData(pageSize);
+			bw.write(emptyRootPtrData);
+			bw.write(emptyLeafData);
+			bw.close();
+		}
+	}
+
 	/**
 	 * Get the page number of the first empty page in this BTreeFile.
 	 * Creates a new page if none of the existing pages are empty.
@@ -860,9 +1309,14 @@ public class BTreeFile implements DbFile {
 	 */
 	public int getEmptyPageNo(TransactionId tid, Map<PageId, Page> dirtypages)
 			throws DbException, IOException, TransactionAbortedException {
-		// get a read lock on the root pointer page and use it to locate the first header page
-		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-		BTreePageId headerId = rootPtr.getHeaderId();
+		// latch the root pointer page and use it to locate the first header page. It is not
+		// locked, since splits of transactions that have yet to commit allocate pages too; a
+		// split latches it throughout, and locks the header pages beforehand
+		createRootIfEmpty();
+		BufferPool bp = Database.getBufferPool();
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+		BTreePageId headerId = ((BTreeRootPtrPage) bp.latchPage(rootPtrId, Permissions.READ_ONLY)).getHeaderId();
+		bp.unlatchPage(rootPtrId, Permissions.READ_ONLY);
 		int emptyPageNo = 0;
 
 		if(headerId != null) {
@@ -885,7 +1339,7 @@ public class BTreeFile implements DbFile {
 				headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
 				int emptySlot = headerPage.getEmptySlot();
 				headerPage.markSlotUsed(emptySlot, true);
-				emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots() + emptySlot;
+				emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots(pageSize) + emptySlot;
 			}
 		}
 
@@ -896,7 +1350,7 @@ public class BTreeFile implements DbFile {
 				// create the new page
 				BufferedOutputStream bw = new BufferedOutputStream(
 						new FileOutputStream(f, true));
-				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
+				byte[] emptyData = BTreeInternalPage.createEmptyPageData(pageSize);
 				bw.write(emptyData);
 				bw.close();
 				emptyPageNo = numPages();
@@ -930,8 +1384,8 @@ public class BTreeFile implements DbFile {
 		
 		// write empty page to disk
 		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
+		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * pageSize);
+		rf.write(BTreePage.createEmptyPageData(pageSize));
 		rf.close();
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
@@ -967,7 +1421,7 @@ public class BTreeFile implements DbFile {
 //					// It just means we have an empty root page
 //					return;
 //				}
-//				long newSize = f.length() - BufferPool.getPageSize();
+//				long newSize = f.length() - pageSize;
 //				FileOutputStream fos = new FileOutputStream(f, true);
 //				FileChannel fc = fos.getChannel();
 //				fc.truncate(newSize);
@@ -997,7 +1451,7 @@ public class BTreeFile implements DbFile {
 
 		// iterate through all the existing header pages to find the one containing the slot
 		// corresponding to emptyPageNo
-		while(headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
+		while(headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getNumSlots(pageSize) < emptyPageNo) {
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
 			prevId = headerId;
 			headerId = headerPage.getNextPageId();
@@ -1007,7 +1461,7 @@ public class BTreeFile implements DbFile {
 		// at this point headerId should either be null or set with 
 		// the headerPage containing the slot corresponding to emptyPageNo.
 		// Add header pages until we have one with a slot corresponding to emptyPageNo
-		while((headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
+		while((headerPageCount + 1) * BTreeHeaderPage.getNumSlots(pageSize) < emptyPageNo) {
 			BTreeHeaderPage prevPage = (BTreeHeaderPage) getPage(tid, dirtypages, prevId, Permissions.READ_WRITE);
 			
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getEmptyPage(tid, dirtypages, BTreePageId.HEADER);
@@ -1023,7 +1477,7 @@ public class BTreeFile implements DbFile {
 		// now headerId should be set with the headerPage containing the slot corresponding to 
 		// emptyPageNo
 		BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
-		int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots();
+		int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots(pageSize);
 		headerPage.markSlotUsed(emptySlot, false);
 	}
 
@@ -1080,11 +1534,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 * Open this iterator by getting an iterator on the first leaf page
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, null);
-		it = curp.iterator();
+		curp = f.findLeafPage(tid, null);
+		it = curp != null ? curp.iterator() : null;
 	}
 
 	/**
@@ -1165,17 +1616,14 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * for the given predicate operation
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
 		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, ipred.getField());
+			curp = f.findLeafPage(tid, ipred.getField());
 		}
 		else {
-			curp = f.findLeafPage(tid, root, null);
+			curp = f.findLeafPage(tid, null);
 		}
-		it = curp.iterator();
+		it = curp != null ? curp.iterator() : null;
 	}
 
 	/**
@@ -218,7 +218,7 @@ public class BTreeFileEncoder {
 		tuples.sort(new TupleComparator(keyField));
 
 		// add the tuples to B+ tree file
-		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
+		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField, npagebytes);
 		Type keyType = typeAr[keyField];
 		int tableid = bf.getId();
 
@@ -226,13 +226,13 @@ public class BTreeFileEncoder {
 		for (int i = 0; i < numFields ; i++) {
 			nrecbytes += typeAr[i].getLen();
 		}
-		// pointerbytes: left sibling pointer, right sibling pointer, parent pointer
-		int leafpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE; 
+		// pointerbytes: left sibling pointer, right sibling pointer, parent pointer, high key
+		int leafpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE + 1 + keyType.getLen(); 
 		int nrecords = (npagebytes * 8 - leafpointerbytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
 
 		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
-		// pointerbytes: one extra child pointer, parent pointer, child page category
-		int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
+		// pointerbytes: one extra child pointer, parent pointer, child page category, right link, high key
+		int internalpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE + 1 + keyType.getLen(); 
 		int nentries = (npagebytes * 8 - internalpointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
 
 		List<List<BTreeEntry>> entries = new ArrayList<>();
@@ -329,7 +329,7 @@ public class BTreeFileEncoder {
 		bf.writePage(new BTreeRootPtrPage(BTreeRootPtrPage.getId(tableid), rootPtrBytes));
 
 		// set all the parent and sibling pointers
-		setParents(bf, new BTreePageId(tableid, root, rootCategory), BTreeRootPtrPage.getId(tableid));
+		setParents(bf, new BTreePageId(tableid, root, rootCategory), BTreeRootPtrPage.getId(tableid), null, null);
 		setRightSiblingPtrs(bf, lastPid, null);
 
 		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
@@ -357,34 +357,44 @@ public class BTreeFileEncoder {
 	}
 
 	/**
-	 * Recursive function to set all the parent pointers
+	 * Recursive function to set all the parent pointers, and the high keys and the right
+	 * links of internal pages
 	 * 
 	 * @param bf - the BTreeFile
 	 * @param pid - id of the page to update with the parent pointer
 	 * @param parent - the id of the page's parent
+	 * @param highKey - the page's high key, or null if it is the right-most page of its level
+	 * @param next - the id of the next page at the same level, or null
 	 * @throws IOException
 	 * @throws DbException
 	 */
-	private static void setParents(BTreeFile bf, BTreePageId pid, BTreePageId parent) 
-			throws IOException, DbException {
+	private static void setParents(BTreeFile bf, BTreePageId pid, BTreePageId parent, Field highKey,
+			BTreePageId next) throws IOException, DbException {
 		if(pid.pgcateg() == BTreePageId.INTERNAL) {
 			BTreeInternalPage page = (BTreeInternalPage) bf.readPage(pid);
 			page.setParentId(parent);
+			page.setRightLink(next, highKey);
 
+			// the last child is followed by the first child of the next page
+			BTreePageId nextChild = null;
+			if(next != null) {
+				nextChild = ((BTreeInternalPage) bf.readPage(next)).iterator().next().getLeftChild();
+			}
 			Iterator<BTreeEntry> it = page.iterator();
 			BTreeEntry e = null;
 			while(it.hasNext()) {
 				e = it.next();
-				setParents(bf, e.getLeftChild(), pid);
+				setParents(bf, e.getLeftChild(), pid, e.getKey(), e.getRightChild());
 			}
 			if(e != null) {
-				setParents(bf, e.getRightChild(), pid);
+				setParents(bf, e.getRightChild(), pid, highKey, nextChild);
 			}
 			bf.writePage(page);
 		}
 		else { // pid.pgcateg() == BTreePageId.LEAF
 			BTreeLeafPage page = (BTreeLeafPage) bf.readPage(pid);
 			page.setParentId(parent);
+			page.setHighKey(highKey);
 			bf.writePage(page);
 		}
 	}
@@ -507,8 +517,8 @@ public class BTreeFileEncoder {
 		for (int i = 0; i < numFields ; i++) {
 			nrecbytes += typeAr[i].getLen();
 		}
-		// pointerbytes: left sibling pointer, right sibling pointer, parent pointer
-		int pointerbytes = 3 * BTreeLeafPage.INDEX_SIZE; 
+		// pointerbytes: left sibling pointer, right sibling pointer, parent pointer, high key
+		int pointerbytes = 3 * BTreeLeafPage.INDEX_SIZE + 1 + typeAr[keyField].getLen(); 
 		int nrecords = (npagebytes * 8 - pointerbytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
 
 		//  per record, we need one bit; there are nrecords per page, so we need
@@ -534,6 +544,8 @@ public class BTreeFileEncoder {
 		dos.writeInt(0); // parent pointer
 		dos.writeInt(0); // left sibling pointer
 		dos.writeInt(0); // right sibling pointer
+		dos.writeBoolean(false); // no high key
+		dos.write(new byte[typeAr[keyField].getLen()]);
 
 		int i = 0;
 		byte headerbyte = 0;
@@ -609,7 +621,8 @@ public class BTreeFileEncoder {
 	}
 
 	/**
-	 * Convert a set of entries to a byte array in the format of a BTreeInternalPage
+	 * Convert a set of entries to a byte array in the format of a BTreeInternalPage,
+	 * the compact format for string keys, with no low or high key and no prefix left off
 	 * 
 	 * @param entries - the set of entries
 	 * @param npagebytes - number of bytes per page
@@ -621,9 +634,12 @@ public class BTreeFileEncoder {
 	public static byte[] convertToInternalPage(List<BTreeEntry> entries, int npagebytes,
 			Type keyType, int childPageCategory)
 					throws IOException {
+		if(keyType == Type.STRING_TYPE) {
+			return convertToCompactInternalPage(entries, npagebytes, childPageCategory);
+		}
 		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
-		// pointerbytes: one extra child pointer, parent pointer, child page category
-		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
+		// pointerbytes: one extra child pointer, parent pointer, child page category, right link, high key
+		int pointerbytes = 3 * BTreeLeafPage.INDEX_SIZE + 1 + keyType.getLen(); 
 		int nentries = (npagebytes * 8 - pointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
 
 		//  per entry, we need one bit; there are nentries per page, so we need
@@ -647,6 +663,8 @@ public class BTreeFileEncoder {
 
 		dos.writeInt(0); // parent pointer
 		dos.writeByte((byte) childPageCategory);
+		dos.writeInt(0); // right link
+		dos.write(new byte[keyType.getLen()]); // no high key
 
 		int i = 0;
 		byte headerbyte = 0;
@@ -694,6 +712,41 @@ public class BTreeFileEncoder {
 
 	}
 
+	private static byte[] convertToCompactInternalPage(List<BTreeEntry> entries, int npagebytes,
+			int childPageCategory) throws IOException {
+		entries.sort(new EntryComparator());
+
+		// as many entries as fit
+		int nbytes = 3 * BTreeInternalPage.INDEX_SIZE + 1 + 2 * 2 + 2 * 2;
+		int entrycount = 0;
+		while(entrycount < entries.size() &&
+				nbytes + BTreeInternalPage.compactEntrySize(entries.get(entrycount).getKey()) <= npagebytes) {
+			nbytes += BTreeInternalPage.compactEntrySize(entries.get(entrycount).getKey());
+			entrycount++;
+		}
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(npagebytes);
+		DataOutputStream dos = new DataOutputStream(baos);
+		dos.writeInt(0); // parent pointer
+		dos.writeByte((byte) childPageCategory);
+		dos.writeInt(0); // right link
+		dos.writeShort(0); // no high key
+		dos.writeShort(0); // no low key
+		dos.writeShort(0); // no prefix
+		dos.writeShort(entrycount);
+		dos.writeInt(entries.get(0).getLeftChild().getPageNumber());
+		for(int e = 0; e < entrycount; e++) {
+			String key = ((StringField) entries.get(e).getKey()).getValue();
+			dos.writeShort(key.length());
+			dos.writeBytes(key);
+			dos.writeInt(entries.get(e).getRightChild().getPageNumber());
+		}
+
+		// pad the rest of the page with zeroes
+		dos.write(new byte[npagebytes - nbytes]);
+		return baos.toByteArray();
+	}
+
 	/**
 	 * Create a byte array in the format of a BTreeRootPtrPage
 	 * 
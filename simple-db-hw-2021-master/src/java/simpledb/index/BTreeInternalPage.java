@@ -13,10 +13,19 @@ import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.RecordId;
+import simpledb.storage.StringField;
 
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A page of an index on a string field is compact: its entries take as many
+ * bytes as their keys have characters, rather than Type.STRING_LEN each, and
+ * the prefix that every key of the page shares is stored once, so that a page
+ * holds as many entries as fit, and not only as many keys of the greatest
+ * length as fit.  The keys that bound the page, its low key and high key, are
+ * kept on the page to tell which prefix the keys of the page share no matter
+ * what is inserted later.
  *
  * @see BTreeFile
  * @see BufferPool
@@ -29,6 +38,18 @@ public class BTreeInternalPage extends BTreePage {
 	private final int numSlots;
 	
 	private int childCategory; // either leaf or internal
+	private int rightLink; // internal node at the same level or 0
+	private Field highKey; // separator of this page and its right link, or null
+	private Field lowKey; // separator of this page and the page to its left, or null
+	private final boolean compact; // variable-length entries, for string keys
+
+	// compact format: parent pointer, child page category, right link, prefix length,
+	// number of entries and first child pointer; the low key and high key come in between
+	private static final int COMPACT_HEADER_SIZE = 3 * INDEX_SIZE + 1 + 2 + 2;
+	// a key with no characters left after the prefix, and its child pointer
+	private static final int MIN_COMPACT_ENTRY_SIZE = 2 + INDEX_SIZE;
+	/** Bytes taken on a compact page by an entry with the longest key and no prefix left off */
+	static final int MAX_COMPACT_ENTRY_SIZE = MIN_COMPACT_ENTRY_SIZE + Type.STRING_LEN;
 
 	public void checkRep(Field lowerBound, Field upperBound, boolean checkOccupancy, int depth) {
 		Field prev = lowerBound;
@@ -44,6 +65,8 @@ public class BTreeInternalPage extends BTreePage {
         assert null == upperBound || null == prev || (prev.compare(Op.LESS_THAN_OR_EQ, upperBound));
 
         assert !checkOccupancy || depth <= 0 || (getNumEntries() >= getMaxEntries() / 2);
+
+		assert !compact || compactSize(null) <= pageSize;
 	}
 	
 	/**
@@ -51,10 +74,10 @@ public class BTreeInternalPage extends BTreePage {
 	 * The format of a BTreeInternalPage is a set of header bytes indicating
 	 * the slots of the page that are in use, some number of entry slots, and extra
 	 * bytes for the parent pointer, one extra child pointer (a node with m entries 
-	 * has m+1 pointers to children), and the category of all child pages (either 
-	 * leaf or internal).
+	 * has m+1 pointers to children), the category of all child pages (either 
+	 * leaf or internal), and the right link and high key.
 	 *  Specifically, the number of entries is equal to: <p>
-	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (entry size * 8 + 1))
+	 *          floor((page size*8 - extra bytes*8) / (entry size * 8 + 1))
 	 * <p> where entry size is the size of entries in this index node
 	 * (key + child pointer), which can be determined via the key field and 
 	 * {@link Catalog#getTupleDesc}.
@@ -62,9 +85,18 @@ public class BTreeInternalPage extends BTreePage {
 	 * <p>
 	 *      ceiling((no. entry slots + 1) / 8)
 	 * <p>
+	 * A compact page, of an index on a string field, instead holds the parent
+	 * pointer, the child page category, the right link, the high key and the low
+	 * key, each a length plus one (0 for none) as an unsigned short followed by
+	 * its characters, the length of the prefix the keys share, the number of
+	 * entries, and the first child pointer.  The entries follow in order of their
+	 * keys: the characters of the key after the prefix, with their number as an
+	 * unsigned short in front, and the child pointer.  The prefix is taken from
+	 * the front of the low key.
+	 * 
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
-	 * @see BufferPool#getPageSize()
+	 * @see Catalog#getPageSize
 	 * 
 	 * @param id - the id of this page
 	 * @param data - the raw data of this page
@@ -72,7 +104,12 @@ public class BTreeInternalPage extends BTreePage {
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
 		super(id, key);
-		this.numSlots = getMaxEntries() + 1;
+		this.compact = td.getFieldType(keyField) == Type.STRING_TYPE;
+		// a compact page has room for as many entries as have no characters after the prefix
+		this.numSlots = compact ? (pageSize - COMPACT_HEADER_SIZE) / MIN_COMPACT_ENTRY_SIZE + 1 : getMaxEntries() + 1;
+		header = new byte[getHeaderSize()];
+		keys = new Field[numSlots];
+		children = new int[numSlots];
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
 		// Read the parent pointer
@@ -86,14 +123,29 @@ public class BTreeInternalPage extends BTreePage {
 		// read the child page category
 		childCategory = dis.readByte();
 
-		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
+		if(compact) {
+			readCompactEntries(dis);
+			dis.close();
+			setBeforeImage();
+			return;
+		}
+
+		// read the right link and the high key, which only a page with a right link has
+		try {
+			Field f = Type.INT_TYPE.parse(dis);
+			this.rightLink = ((IntField) f).getValue();
+			f = td.getFieldType(keyField).parse(dis);
+			this.highKey = rightLink != 0 ? f : null;
+		} catch (java.text.ParseException e) {
+			e.printStackTrace();
+		}
+
+		// read the header slots of this page
 		for (int i=0; i<header.length; i++)
 			header[i] = dis.readByte();
 
-		keys = new Field[numSlots];
 		try{
-			// allocate and read the keys of this page
+			// read the keys of this page
 			// start from 1 because the first key slot is not used
 			// since a node with m keys has m+1 pointers
 			keys[0] = null;
@@ -103,9 +155,8 @@ public class BTreeInternalPage extends BTreePage {
 			e.printStackTrace();
 		}
 
-		children = new int[numSlots];
 		try{
-			// allocate and read the child pointers of this page
+			// read the child pointers of this page
 			for (int i=0; i<children.length; i++)
 				children[i] = readNextChild(dis,i);
 		}catch(NoSuchElementException e){
@@ -116,16 +167,153 @@ public class BTreeInternalPage extends BTreePage {
 		setBeforeImage();
 	}
 
+	/**
+	 * Read the right link, the low and high keys and the entries of a compact page
+	 */
+	private void readCompactEntries(DataInputStream dis) throws IOException {
+		rightLink = dis.readInt();
+		highKey = readFence(dis);
+		lowKey = readFence(dis);
+		int prefixLength = dis.readUnsignedShort();
+		if(prefixLength > 0 && (lowKey == null || prefixLength > ((StringField) lowKey).getValue().length())) {
+			throw new IOException("page " + pid.getPageNumber() + " has a prefix longer than its low key");
+		}
+		String prefix = prefixLength > 0 ? ((StringField) lowKey).getValue().substring(0, prefixLength) : "";
+		int numEntries = dis.readUnsignedShort();
+		if(numEntries >= numSlots) {
+			throw new IOException("page " + pid.getPageNumber() + " has more entries than fit");
+		}
+		// child page 0 is the root pointer page, so 0 stands for no child
+		children[0] = dis.readInt();
+		markSlotUsed(0, children[0] != 0);
+		for(int i = 1; i <= numEntries; i++) {
+			byte[] bs = new byte[dis.readUnsignedShort()];
+			dis.readFully(bs);
+			keys[i] = new StringField(prefix + new String(bs), Type.STRING_LEN);
+			children[i] = dis.readInt();
+			markSlotUsed(i, true);
+		}
+	}
+
+	private static Field readFence(DataInputStream dis) throws IOException {
+		int len = dis.readUnsignedShort();
+		if(len == 0) {
+			return null;
+		}
+		byte[] bs = new byte[len - 1];
+		dis.readFully(bs);
+		return new StringField(new String(bs), Type.STRING_LEN);
+	}
+
+	private static void writeFence(DataOutputStream dos, Field f) throws IOException {
+		if(f == null) {
+			dos.writeShort(0);
+		}
+		else {
+			String s = ((StringField) f).getValue();
+			dos.writeShort(s.length() + 1);
+			dos.writeBytes(s);
+		}
+	}
+
+	/**
+	 * @return the number of leading characters two string keys have in common
+	 */
+	static int commonPrefixLength(Field f1, Field f2) {
+		String s1 = ((StringField) f1).getValue();
+		String s2 = ((StringField) f2).getValue();
+		int n = 0;
+		while(n < s1.length() && n < s2.length() && s1.charAt(n) == s2.charAt(n)) {
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * @return the bytes an entry with the given key takes on a compact page, with no
+	 * prefix left off
+	 */
+	static int compactEntrySize(Field key) {
+		return MIN_COMPACT_ENTRY_SIZE + ((StringField) key).getValue().length();
+	}
+
+	/**
+	 * @return the bytes a compact page takes with the given low and high keys, and
+	 * entries whose keys, which lie between the two, have keyChars characters in all
+	 */
+	static int compactPageSize(Field lowKey, Field highKey, int numEntries, int keyChars) {
+		int prefix = lowKey == null || highKey == null ? 0 : commonPrefixLength(lowKey, highKey);
+		return COMPACT_HEADER_SIZE + fenceSize(lowKey) + fenceSize(highKey)
+				+ numEntries * (MIN_COMPACT_ENTRY_SIZE - prefix) + keyChars;
+	}
+
+	private static int fenceSize(Field f) {
+		return 2 + (f == null ? 0 : ((StringField) f).getValue().length());
+	}
+
+	/**
+	 * The length of the prefix that a compact page leaves off its keys: the prefix of
+	 * its low key that its high key and all its keys share.  Every key that belongs
+	 * on the page lies between the two, and so has that prefix as well.
+	 */
+	private int prefixLength() {
+		if(lowKey == null || highKey == null) {
+			return 0;
+		}
+		int n = commonPrefixLength(lowKey, highKey);
+		// the keys are in order, so the first and the last have the least in common
+		int first = -1, last = -1;
+		for(int i = 1; i < numSlots; i++) {
+			if(isSlotUsed(i)) {
+				if(first == -1) {
+					first = i;
+				}
+				last = i;
+			}
+		}
+		if(first != -1) {
+			n = Math.min(n, Math.min(commonPrefixLength(lowKey, keys[first]), commonPrefixLength(lowKey, keys[last])));
+		}
+		return n;
+	}
+
+	/**
+	 * @return the bytes this compact page takes with its entries, and one more with
+	 * the given key if it is not null
+	 */
+	private int compactSize(Field extraKey) {
+		int prefix = prefixLength();
+		if(extraKey != null && prefix > 0) {
+			prefix = Math.min(prefix, commonPrefixLength(lowKey, extraKey));
+		}
+		int size = COMPACT_HEADER_SIZE + fenceSize(lowKey) + fenceSize(highKey);
+		for(int i = 1; i < numSlots; i++) {
+			if(isSlotUsed(i)) {
+				size += compactEntrySize(keys[i]) - prefix;
+			}
+		}
+		if(extraKey != null) {
+			size += compactEntrySize(extraKey) - prefix;
+		}
+		return size;
+	}
+
 	/** 
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
+	 * A compact page holds this many entries whatever their keys, and more if they
+	 * are shorter than the longest.
  	 */
 	public int getMaxEntries() {        
+		if(compact) {
+			return (pageSize - COMPACT_HEADER_SIZE - 2 * (2 + Type.STRING_LEN)) / MAX_COMPACT_ENTRY_SIZE;
+		}
 		int keySize = td.getFieldType(keyField).getLen();
 		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
-		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
-		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1;
-        return (BufferPool.getPageSize()*8 - extraBits) / bitsPerEntryIncludingHeader;
+		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header,
+		// the right link and the high key
+		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1 + (INDEX_SIZE + keySize) * 8;
+        return (pageSize*8 - extraBits) / bitsPerEntryIncludingHeader;
 	}
 
 	/**
@@ -133,7 +321,7 @@ public class BTreeInternalPage extends BTreePage {
 	 * @return the number of bytes in the header
 	 */
 	private int getHeaderSize() {        
-		int slotsPerPage = getMaxEntries() + 1;
+		int slotsPerPage = numSlots;
 		int hb = (slotsPerPage / 8);
 		if (hb * 8 < slotsPerPage) hb++;
 
@@ -236,7 +424,10 @@ public class BTreeInternalPage extends BTreePage {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
+		if(compact) {
+			return getCompactPageData();
+		}
+		int len = pageSize;
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
 		DataOutputStream dos = new DataOutputStream(baos);
 
@@ -256,6 +447,19 @@ public class BTreeInternalPage extends BTreePage {
 			e.printStackTrace();
 		}
 
+		// write out the right link and the high key
+		try {
+			dos.writeInt(rightLink);
+			if(highKey != null) {
+				highKey.serialize(dos);
+			}
+			else {
+				dos.write(new byte[td.getFieldType(keyField).getLen()]);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
 		// create the header of the page
         for (byte b : header) {
             try {
@@ -319,7 +523,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
+		int zerolen = pageSize - (INDEX_SIZE + 1 + INDEX_SIZE + td.getFieldType(keyField).getLen() + header.length + 
 				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
 		byte[] zeroes = new byte[zerolen];
 		try {
@@ -337,6 +541,36 @@ public class BTreeInternalPage extends BTreePage {
 		return baos.toByteArray();
 	}
 
+	private byte[] getCompactPageData() {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize);
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeInt(parent);
+			dos.writeByte((byte) childCategory);
+			dos.writeInt(rightLink);
+			writeFence(dos, highKey);
+			writeFence(dos, lowKey);
+			int prefix = prefixLength();
+			dos.writeShort(prefix);
+			dos.writeShort(getNumEntries());
+			dos.writeInt(isSlotUsed(0) ? children[0] : 0);
+			// the entries are written out in order, without the empty slots between them
+			for(int i = 1; i < numSlots; i++) {
+				if(isSlotUsed(i)) {
+					String s = ((StringField) keys[i]).getValue().substring(prefix);
+					dos.writeShort(s.length());
+					dos.writeBytes(s);
+					dos.writeInt(children[i]);
+				}
+			}
+			dos.write(new byte[pageSize - dos.size()]);
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return baos.toByteArray();
+	}
+
 	/**
 	 * Delete the specified entry (key + 1 child pointer) from the page. The recordId
 	 * is used to find the specified entry, so it must not be null. After deletion, the 
@@ -413,6 +647,14 @@ public class BTreeInternalPage extends BTreePage {
 			throw new DbException("tried to update entry on invalid page or table");
 		if (!isSlotUsed(rid.getTupleNumber()))
 			throw new DbException("tried to update null entry.");
+		if(compact) {
+			Field old = keys[rid.getTupleNumber()];
+			keys[rid.getTupleNumber()] = e.getKey();
+			boolean fits = compactSize(null) <= pageSize;
+			keys[rid.getTupleNumber()] = old;
+			if(!fits)
+				throw new DbException("no room on the page for updated key " + e.getKey());
+		}
 		
 		for(int i = rid.getTupleNumber() + 1; i < numSlots; i++) {
 			if(isSlotUsed(i)) {
@@ -440,7 +682,7 @@ public class BTreeInternalPage extends BTreePage {
 	/**
 	 * Adds the specified entry to the page; the entry's recordId should be updated to 
 	 * reflect that it is now stored on this page.
-	 * @throws DbException if the page is full (no empty slots) or key field type,
+	 * @throws DbException if the page is full (no empty slots, or no room for the key) or key field type,
 	 *         table id, or child page category is a mismatch, or the entry is invalid
 	 * @param e The entry to add.
 	 */
@@ -460,8 +702,11 @@ public class BTreeInternalPage extends BTreePage {
 		else if(e.getLeftChild().pgcateg() != childCategory || e.getRightChild().pgcateg() != childCategory)
 			throw new DbException("child page category mismatch in insertEntry");
 
+		if(compact && compactSize(e.getKey()) > pageSize)
+			throw new DbException("called insertEntry on page with no room for key " + e.getKey());
+
 		// if this is the first entry, add it and return
-		if(getNumEmptySlots() == getMaxEntries()) {
+		if(getNumEntries() == 0) {
 			children[0] = e.getLeftChild().getPageNumber();
 			children[1] = e.getRightChild().getPageNumber();
 			keys[1] = e.getKey();
@@ -563,24 +808,119 @@ public class BTreeInternalPage extends BTreePage {
 	}
 
 	/**
-	 * Returns the number of entries (keys) currently stored on this page
+	 * Get the id of the right link of this page: the internal page split off it last,
+	 * which comes next at the same level of the tree.
+	 * @return the id of the right link, or null if this is the right-most page of its level
 	 */
-	public int getNumEntries() {
-		return numSlots - getNumEmptySlots() - 1;
+	public BTreePageId getRightLinkId() {
+		if(rightLink == 0) {
+			return null;
+		}
+		return new BTreePageId(pid.getTableId(), rightLink, BTreePageId.INTERNAL);
 	}
-	
+
 	/**
-	 * Returns the number of empty slots on this page.
+	 * Get the high key of this page: no key under it is greater, and no key under its right
+	 * link smaller. A search for a greater key that finds this page has raced a split of it,
+	 * and goes on to the right link.
+	 * @return the high key, or null if the page has no right link
 	 */
-	public int getNumEmptySlots() {
+	public Field getHighKey() {
+		return highKey;
+	}
+
+	/**
+	 * Get the low key of this page: no key under it is smaller.  It is kept only on
+	 * compact pages, the pages of indexes on string fields.
+	 * @return the low key, or null if the page does not have one
+	 */
+	public Field getLowKey() {
+		return lowKey;
+	}
+
+	/**
+	 * Set the low key of this page, the key that separates it from the page to its
+	 * left, which tells which prefix the keys of a compact page share.  Other pages
+	 * gain nothing from a low key, and do not keep it.
+	 * @param key - the new low key, or null
+	 * @throws DbException if the key is of the wrong type, or the page has no room for it
+	 */
+	public void setLowKey(Field key) throws DbException {
+		if(!compact) {
+			return;
+		}
+		if(key != null && !key.getType().equals(td.getFieldType(keyField)))
+			throw new DbException("key field type mismatch, in setLowKey");
+		Field old = lowKey;
+		lowKey = key;
+		if(compactSize(null) > pageSize) {
+			lowKey = old;
+			throw new DbException("no room on the page for low key " + key);
+		}
+	}
+
+	/**
+	 * Set the right link of this page and the high key that separates the two
+	 * @param id - the new right link, or null if this is the right-most page of its level
+	 * @param key - the new high key, which must be null if and only if id is
+	 * @throws DbException if the id is not valid, or the page has no room for the key
+	 */
+	public void setRightLink(BTreePageId id, Field key) throws DbException {
+		if((id == null) != (key == null)) {
+			throw new DbException("a page has a high key if and only if it has a right link");
+		}
+		if(id != null) {
+			if(id.getTableId() != pid.getTableId()) {
+				throw new DbException("table id mismatch in setRightLink");
+			}
+			if(id.pgcateg() != BTreePageId.INTERNAL) {
+				throw new DbException("right link must be an internal node");
+			}
+		}
+		if(compact) {
+			// the keys of the page may share a shorter prefix with the new high key
+			Field old = highKey;
+			highKey = key;
+			if(compactSize(null) > pageSize) {
+				highKey = old;
+				throw new DbException("no room on the page for high key " + key);
+			}
+		}
+		rightLink = id == null ? 0 : id.getPageNumber();
+		highKey = key;
+	}
+
+	/**
+	 * Returns the number of entries (keys) currently stored on this page
+	 */
+	public int getNumEntries() {
 		int cnt = 0;
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
 		for(int i=1; i<numSlots; i++)
-			if(!isSlotUsed(i))
+			if(isSlotUsed(i))
 				cnt++;
 		return cnt;
 	}
+	
+	/**
+	 * Returns the number of empty slots on this page.  On a compact page, the number
+	 * of entries with keys of any length that there is room for, up to getMaxEntries().
+	 */
+	public int getNumEmptySlots() {
+		if(compact) {
+			return Math.min(numSlots - 1 - getNumEntries(),
+					Math.min(getMaxEntries(), (pageSize - compactSize(null)) / MAX_COMPACT_ENTRY_SIZE));
+		}
+		return numSlots - 1 - getNumEntries();
+	}
+
+	/**
+	 * Returns the number of slots on this page, including the one without a key
+	 */
+	int getNumSlots() {
+		return numSlots;
+	}
 
 	/**
 	 * Returns true if associated slot on this page is filled.
@@ -745,7 +1085,7 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 
 	public BTreeInternalPageReverseIterator(BTreeInternalPage p) {
 		this.p = p;
-		this.curEntry = p.getMaxEntries();
+		this.curEntry = p.getNumSlots() - 1;
 		while(!p.isSlotUsed(curEntry) && curEntry > 0) {
 			--curEntry;
 		}
@@ -26,6 +26,7 @@ public class BTreeLeafPage extends BTreePage {
 	
 	private int leftSibling; // leaf node or 0
 	private int rightSibling; // leaf node or 0
+	private Field highKey; // separator of this page and its right sibling, or null
 
 	public void checkRep(int fieldid, Field lowerBound, Field upperBound, boolean checkoccupancy, int depth) {
 		Field prev = lowerBound;
@@ -48,9 +49,10 @@ public class BTreeLeafPage extends BTreePage {
 	 * Create a BTreeLeafPage from a set of bytes of data read from disk.
 	 * The format of a BTreeLeafPage is a set of header bytes indicating
 	 * the slots of the page that are in use, and some number of tuple slots, 
-	 * as well as some extra bytes for the parent and sibling pointers.
+	 * as well as some extra bytes for the parent and sibling pointers and the
+	 * high key: a byte telling whether the page has one, and a key field.
 	 *  Specifically, the number of tuples is equal to: <p>
-	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (tuple size * 8 + 1))
+	 *          floor((page size*8 - extra bytes*8) / (tuple size * 8 + 1))
 	 * <p> where tuple size is the size of tuples in this
 	 * database table, which can be determined via {@link Catalog#getTupleDesc}.
 	 * The number of 8-bit header words is equal to:
@@ -59,7 +61,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * <p>
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
-	 * @see BufferPool#getPageSize()
+	 * @see Catalog#getPageSize
 	 * 
 	 * @param id - the id of this page
 	 * @param data - the raw data of this page
@@ -92,6 +94,15 @@ public class BTreeLeafPage extends BTreePage {
 			e.printStackTrace();
 		}
 
+		// read the high key
+		boolean hasHighKey = dis.readBoolean();
+		try {
+			Field f = td.getFieldType(keyField).parse(dis);
+			this.highKey = hasHighKey ? f : null;
+		} catch (java.text.ParseException e) {
+			e.printStackTrace();
+		}
+
 		// allocate and read the header slots of this page
 		header = new byte[getHeaderSize()];
 		for (int i=0; i<header.length; i++)
@@ -115,9 +126,9 @@ public class BTreeLeafPage extends BTreePage {
 	 */
 	public int getMaxTuples() {        
 		int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
-		// extraBits are: left sibling pointer, right sibling pointer, parent pointer
-		int extraBits = 3 * INDEX_SIZE * 8;
-        return (BufferPool.getPageSize()*8 - extraBits) / bitsPerTupleIncludingHeader;
+		// extraBits are: left sibling pointer, right sibling pointer, parent pointer, high key
+		int extraBits = (3 * INDEX_SIZE + getHighKeySize()) * 8;
+        return (pageSize*8 - extraBits) / bitsPerTupleIncludingHeader;
 	}
 
 	/**
@@ -202,7 +213,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * @return A byte array corresponding to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
+		int len = pageSize;
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
 		DataOutputStream dos = new DataOutputStream(baos);
 
@@ -226,6 +237,19 @@ public class BTreeLeafPage extends BTreePage {
 			e.printStackTrace();
 		}
 
+		// write out the high key
+		try {
+			dos.writeBoolean(highKey != null);
+			if(highKey != null) {
+				highKey.serialize(dos);
+			}
+			else {
+				dos.write(new byte[td.getFieldType(keyField).getLen()]);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
 		// create the header of the page
         for (byte b : header) {
             try {
@@ -265,7 +289,7 @@ public class BTreeLeafPage extends BTreePage {
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
+		int zerolen = pageSize - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE + getHighKeySize()); //- numSlots * td.getSize();
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
@@ -437,6 +461,32 @@ public class BTreeLeafPage extends BTreePage {
 		}
 	}
 
+	/**
+	 * Get the high key of this page: no tuple on it has a greater key, and no tuple on its
+	 * right sibling a smaller one. A search for a greater key that finds this page has raced
+	 * a split of it, and goes on to the right sibling.
+	 * @return the high key, or null if the page has no right sibling or was written before
+	 * its last split set one
+	 */
+	public Field getHighKey() {
+		return highKey;
+	}
+
+	/**
+	 * Set the high key of this page
+	 * @param key - the new high key, or null
+	 */
+	public void setHighKey(Field key) {
+		highKey = key;
+	}
+
+	/**
+	 * @return the number of bytes the high key takes up on the page
+	 */
+	private int getHighKeySize() {
+		return 1 + td.getFieldType(keyField).getLen();
+	}
+
 	/**
 	 * Returns the number of tuples currently stored on this page
 	 */
@@ -281,7 +281,9 @@ public class BTreeUtility {
 	 */
 	public static int getNumTuplesPerPage(int columns) {
 		int bytesPerTuple = Type.INT_TYPE.getLen() * columns * 8;
-        return (BufferPool.getPageSize() * 8 - 3 * BTreeLeafPage.INDEX_SIZE * 8) /  (bytesPerTuple + 1);
+		// pointers: left sibling, right sibling and parent, then the high key
+		int pointerbytes = 3 * BTreeLeafPage.INDEX_SIZE + 1 + Type.INT_TYPE.getLen();
+        return (BufferPool.getPageSize() * 8 - pointerbytes * 8) /  (bytesPerTuple + 1);
 	}
 	
 	/**
@@ -324,8 +326,8 @@ public class BTreeUtility {
 	 */
 	public static int getNumEntriesPerPage() {
 		int nentrybytes = Type.INT_TYPE.getLen() + BTreeInternalPage.INDEX_SIZE;
-		// pointerbytes: one extra child pointer, parent pointer, child page category
-		int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1;
+		// pointerbytes: one extra child pointer, parent pointer, child page category, right link, high key
+		int internalpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE + 1 + Type.INT_TYPE.getLen();
         return (BufferPool.getPageSize() * 8 - internalpointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);
 	}
 	
@@ -421,9 +423,13 @@ public class BTreeUtility {
 	 * @return the opened table.
 	 */
 	public static BTreeFile openBTreeFile(int cols, File f, int keyField) {
+		return openBTreeFile(cols, f, keyField, BufferPool.getPageSize());
+	}
+
+	public static BTreeFile openBTreeFile(int cols, File f, int keyField, int pageSize) {
 		// create the BTreeFile and add it to the catalog
 		TupleDesc td = Utility.getTupleDesc(cols);
-		BTreeFile bf = new BTreeFile(f, keyField, td);
+		BTreeFile bf = new BTreeFile(f, keyField, td, pageSize);
 		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
 		return bf;
 	}
@@ -0,0 +1,177 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+
+/**
+ * SecondaryIndex is a B+ tree on a field of a HeapFile whose leaves hold the
+ * RecordIds of the tuples of the table rather than the tuples themselves, so
+ * the table keeps its tuples where they are.  The tree holds an entry of
+ * three fields for each tuple of the table: the value of the indexed field,
+ * the number of the page the tuple is on and its slot on the page; it is
+ * keyed on the first.  Tuples of a HeapFile stay in their slot for as long as
+ * they are in the table, so the RecordIds stay valid.
+ * <p>
+ * The catalog keeps the indexes of each table (see Catalog.addIndex), and
+ * BufferPool.insertTuple and deleteTuple update them along with the table, in
+ * the same transaction.  SecondaryIndexScan reads the tuples an index points
+ * to.
+ */
+public class SecondaryIndex {
+
+	private final HeapFile table;
+	private final int field;
+	private final BTreeFile tree;
+
+	/**
+	 * Create an index on a field of a table, kept in a B+ tree.
+	 *
+	 * @param table - the table to index
+	 * @param field - the index of the field to index
+	 * @param tree - the B+ tree of the index, keyed on its first field, with the
+	 *               tuple descriptor getTupleDesc gives for the type of the field
+	 * @throws IllegalArgumentException if the B+ tree does not match the field
+	 */
+	public SecondaryIndex(HeapFile table, int field, BTreeFile tree) {
+		if(tree.keyField() != 0 || !tree.getTupleDesc().equals(getTupleDesc(table.getTupleDesc().getFieldType(field)))) {
+			throw new IllegalArgumentException("B+ tree does not match field " + field + " of the table");
+		}
+		this.table = table;
+		this.field = field;
+		this.tree = tree;
+	}
+
+	/**
+	 * @param keyType - the type of the indexed field
+	 * @return the tuple descriptor of the entries of an index on a field of the given type
+	 */
+	public static TupleDesc getTupleDesc(Type keyType) {
+		return new TupleDesc(new Type[]{keyType, Type.INT_TYPE, Type.INT_TYPE},
+				new String[]{"key", "pageno", "tupleno"});
+	}
+
+	/**
+	 * @return the indexed table
+	 */
+	public HeapFile getTable() {
+		return table;
+	}
+
+	/**
+	 * @return the index of the indexed field
+	 */
+	public int getField() {
+		return field;
+	}
+
+	/**
+	 * @return the B+ tree of the index
+	 */
+	public BTreeFile getFile() {
+		return tree;
+	}
+
+	/**
+	 * @param t - a tuple of the table, with its RecordId set
+	 * @return the entry of the index for the tuple
+	 */
+	public Tuple getEntry(Tuple t) {
+		RecordId rid = t.getRecordId();
+		Tuple entry = new Tuple(tree.getTupleDesc());
+		entry.setField(0, t.getField(field));
+		entry.setField(1, new IntField(rid.getPageId().getPageNumber()));
+		entry.setField(2, new IntField(rid.getTupleNumber()));
+		return entry;
+	}
+
+	/**
+	 * @param entry - an entry of the index
+	 * @return the RecordId of the tuple the entry points to
+	 */
+	public RecordId getRecordId(Tuple entry) {
+		return new RecordId(new HeapPageId(table.getId(), ((IntField) entry.getField(1)).getValue()),
+				((IntField) entry.getField(2)).getValue());
+	}
+
+	/**
+	 * Fill the B+ tree, which must be empty, with an entry for each tuple of the
+	 * table, with BTreeBulkLoader.  An index added to the catalog for a table that
+	 * already holds tuples must be built before the table is changed.
+	 *
+	 * @param tid - the transaction reading the table
+	 * @throws DbException if the B+ tree is not empty
+	 */
+	public void build(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+		DbFileIterator tuples = table.iterator(tid);
+		BTreeBulkLoader.load(new AbstractDbFileIterator() {
+			public void open() throws DbException, TransactionAbortedException {
+				tuples.open();
+			}
+
+			public void rewind() throws DbException, TransactionAbortedException {
+				close();
+				open();
+			}
+
+			public void close() {
+				super.close();
+				tuples.close();
+			}
+
+			protected Tuple readNext() throws DbException, TransactionAbortedException {
+				return tuples.hasNext() ? getEntry(tuples.next()) : null;
+			}
+		}, tree, BTreeBulkLoader.DEFAULT_FILL_FACTOR, BTreeBulkLoader.DEFAULT_SORT_PAGES);
+	}
+
+	/**
+	 * Add the entry for a tuple that has been inserted into the table.
+	 *
+	 * @param tid - the transaction inserting the tuple
+	 * @param t - the tuple, with the RecordId it was given
+	 */
+	public void insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		Database.getBufferPool().insertTuple(tid, tree.getId(), getEntry(t));
+	}
+
+	/**
+	 * Remove the entry for a tuple of the table, which is looked up among the
+	 * entries with the key of the tuple.
+	 *
+	 * @param tid - the transaction deleting the tuple
+	 * @param t - the tuple, with its RecordId
+	 * @throws DbException if the index has no entry for the tuple
+	 */
+	public void deleteTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		Tuple entry = getEntry(t);
+		Tuple found = null;
+		DbFileIterator it = tree.indexIterator(tid, new IndexPredicate(Op.EQUALS, entry.getField(0)));
+		it.open();
+		try {
+			while(found == null && it.hasNext()) {
+				Tuple e = it.next();
+				if(e.getField(1).equals(entry.getField(1)) && e.getField(2).equals(entry.getField(2))) {
+					found = e;
+				}
+			}
+		}
+		finally {
+			it.close();
+		}
+		if(found == null) {
+			throw new DbException("index on field " + field + " has no entry for the tuple in slot "
+					+ entry.getField(2) + " of page " + entry.getField(1));
+		}
+		Database.getBufferPool().deleteTuple(tid, found);
+	}
+}
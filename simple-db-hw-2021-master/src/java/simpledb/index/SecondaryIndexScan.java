@@ -0,0 +1,138 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TuplePage;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+/**
+ * SecondaryIndexScan is an operator which reads the tuples of a table that
+ * match a predicate on an indexed field, in sorted order of the field: it
+ * looks up the entries that match in a SecondaryIndex and fetches the tuple
+ * each entry points to from its page of the table, through the buffer pool.
+ */
+public class SecondaryIndexScan implements OpIterator {
+
+	private static final long serialVersionUID = 1L;
+
+	private boolean isOpen = false;
+	private final TransactionId tid;
+	private final SecondaryIndex index;
+	private final TupleDesc myTd;
+	private final String tablename;
+	private final String alias;
+	private transient DbFileIterator it;
+
+	/**
+	 * Creates a scan of a table through a secondary index on it, as a part of
+	 * the specified transaction.
+	 *
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param index
+	 *            the index to look the tuples up in.
+	 * @param tableAlias
+	 *            the alias of the indexed table; the returned tupleDesc has
+	 *            fields with name tableAlias.fieldName, as with BTreeScan.
+	 * @param ipred
+	 *            The index predicate on the indexed field to match. If null,
+	 *            the scan will return all tuples in sorted order of the field
+	 */
+	public SecondaryIndexScan(TransactionId tid, SecondaryIndex index, String tableAlias, IndexPredicate ipred) {
+		this.tid = tid;
+		this.index = index;
+		this.alias = tableAlias;
+		int tableid = index.getTable().getId();
+		this.tablename = Database.getCatalog().getTableName(tableid);
+		if(ipred == null) {
+			this.it = index.getFile().iterator(tid);
+		}
+		else {
+			this.it = index.getFile().indexIterator(tid, ipred);
+		}
+		TupleDesc td = index.getTable().getTupleDesc();
+		String[] newNames = new String[td.numFields()];
+		Type[] newTypes = new Type[td.numFields()];
+		for (int i = 0; i < td.numFields(); i++) {
+			newNames[i] = tableAlias + "." + td.getFieldName(i);
+			newTypes[i] = td.getFieldType(i);
+		}
+		myTd = new TupleDesc(newTypes, newNames);
+	}
+
+	public SecondaryIndexScan(TransactionId tid, SecondaryIndex index, IndexPredicate ipred) {
+		this(tid, index, Database.getCatalog().getTableName(index.getTable().getId()), ipred);
+	}
+
+	/**
+	 * @return the name of the indexed table in the catalog
+	 */
+	public String getTableName() {
+		return this.tablename;
+	}
+
+	/**
+	 * @return Return the alias of the table this operator scans.
+	 */
+	public String getAlias() {
+		return this.alias;
+	}
+
+	public void open() throws DbException, TransactionAbortedException {
+		if (isOpen)
+			throw new DbException("double open on one OpIterator.");
+
+		it.open();
+		isOpen = true;
+	}
+
+	/**
+	 * Returns the TupleDesc with field names from the indexed table, prefixed
+	 * with the tableAlias string from the constructor.
+	 */
+	public TupleDesc getTupleDesc() {
+		return myTd;
+	}
+
+	public boolean hasNext() throws TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+		return it.hasNext();
+	}
+
+	/**
+	 * @return the tuple of the table the next matching entry of the index
+	 *         points to
+	 */
+	public Tuple next() throws NoSuchElementException,
+	TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+
+		RecordId rid = index.getRecordId(it.next());
+		TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+		return page.getTuple(rid.getTupleNumber());
+	}
+
+	public void close() {
+		it.close();
+		isOpen = false;
+	}
+
+	public void rewind() throws DbException, NoSuchElementException,
+	TransactionAbortedException {
+		close();
+		open();
+	}
+}
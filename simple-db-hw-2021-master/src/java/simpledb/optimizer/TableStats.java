@@ -8,6 +8,7 @@ import simpledb.execution.SeqScan;
 import simpledb.storage.*;
 import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
 
 import java.util.HashMap;
 import java.util.Iterator;
@@ -115,7 +116,9 @@ public class TableStats {
         this.stringHistogramMap = new HashMap<>();
         this.maxValMap = new HashMap<>();
         this.minValMap = new HashMap<>();
-        DbFileIterator dbFileIterator = dbFile.iterator(null);
+        // the statistics scan runs as its own read-only transaction
+        TransactionId tid = new TransactionId();
+        DbFileIterator dbFileIterator = dbFile.iterator(tid);
         try {
             dbFileIterator.open();
             // Count the max/min value of each field.
@@ -162,6 +165,7 @@ public class TableStats {
             e.printStackTrace();
         } finally {
             dbFileIterator.close();
+            Database.getBufferPool().transactionComplete(tid);
         }
     }
 
@@ -4,19 +4,30 @@ import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
 import simpledb.common.DeadlockException;
+import simpledb.index.SecondaryIndex;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
+import simpledb.utils.LatchTable;
 import simpledb.utils.Lock;
 import simpledb.utils.LockManager;
-import simpledb.utils.LruCache;
+import simpledb.utils.LruPolicy;
+import simpledb.utils.ReplacementPolicy;
+import simpledb.utils.ShardedCache;
 
 import java.io.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -40,10 +51,45 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    private final LruCache<PageId, Page> lruCache;
+    /** Threads reading pages ahead of scans; a single one keeps the reads in file order. */
+    private static final int READ_AHEAD_THREADS = 1;
+
+    /** Most pages that may wait to be picked up after they were read ahead. */
+    private static final int MAX_READ_AHEAD_PAGES = 256;
+
+    private static final ExecutorService readAheadExecutor = Executors.newFixedThreadPool(READ_AHEAD_THREADS, r -> {
+        Thread t = new Thread(r, "read-ahead");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Hash-sharded page table; hits on pages in different shards never contend. */
+    private final ShardedCache<PageId, Page> pageTable;
 
     private final LockManager lockManager;
 
+    /** Short-duration page latches, for DbFiles that read pages without locking them. */
+    private final LatchTable latches;
+
+    /**
+     * LSN of the last UPDATE record logged for each cached page.  The log
+     * must be durable up to a page's LSN before the page is written to disk.
+     */
+    private final Map<PageId, Long> pageLsns;
+
+    /**
+     * Pages being read ahead, or read ahead and not asked for yet.  They take
+     * no room in the page table until getPage picks them up.
+     */
+    private final Map<PageId, Future<Page>> readAhead;
+
+    /**
+     * Number of pins on each pinned page, and the pages each transaction
+     * has pinned.  Pinned pages are not evicted.
+     */
+    private final Map<PageId, Integer> pinCounts;
+    private final Map<TransactionId, List<PageId>> pins;
+
     private int numPages;
 
     /**
@@ -52,12 +98,43 @@ public class BufferPool {
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, capacity -> new LruPolicy<>());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and chooses
+     * victims with the given replacement policy, e.g.
+     * <code>new BufferPool(n, TwoQueuePolicy::new)</code> for a pool whose hot
+     * pages survive large sequential scans.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy creates the replacement state of one page table shard,
+     *               given the number of pages that shard holds.
+     */
+    public BufferPool(int numPages, IntFunction<ReplacementPolicy<PageId>> policy) {
         // some code goes here
         this.numPages = numPages;
-        this.lruCache = new LruCache<>(numPages);
+        this.pageTable = new ShardedCache<>(numPages, policy);
         this.lockManager = new LockManager();
+        this.latches = new LatchTable();
+        this.pageLsns = new ConcurrentHashMap<>();
+        this.readAhead = new ConcurrentHashMap<>();
+        this.pinCounts = new ConcurrentHashMap<>();
+        this.pins = new ConcurrentHashMap<>();
     }
     
+    /**
+     * @return the number of pages this pool caches, at most.
+     */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * @return the page size of the database, which tables use unless they
+     *         are created with a page size of their own.
+     * @see DbFile#getPageSize()
+     */
     public static int getPageSize() {
       return pageSize;
     }
@@ -90,25 +167,208 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        Page page = lruCache.get(pid);
-        // 1. page exists in cache.
+        // 1. Lock the page first, hit or miss: a cached page is no less shared.
+        // Blocks while another transaction holds a conflicting lock; throws
+        // DeadlockException if this transaction is picked to break a deadlock.
+        lockManager.acquireLock(tid, pid, perm);
+        return fetchPage(pid);
+    }
+
+    // Look pid up in the page table, reading it into the table on a miss.
+    private Page fetchPage(PageId pid) throws TransactionAbortedException, DbException {
+        // 2. page exists in cache.
+        Page page = pageTable.get(pid);
         if (page != null) {
             return page;
         }
 
-        // 2.There is no page in the cache,
-        // go to the disk to read the page and load it into the cache,
-        // and the reading process needs to be locked.
-        final int timeout = new Random().nextInt(2000) + 1000;
-        if (!lockManager.tryAcquireLock(tid, pid, perm, timeout)) {
-            throw new TransactionAbortedException();
-        }
-        page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        // 3. There is no page in the cache,
+        // go to the disk to read the page and load it into the cache.
+        page = readPage(pid);
         if (page == null) {
             throw new TransactionAbortedException();
         }
-        lruCache.put(pid, page);
-        return page;
+        // make room before caching, so the page we just read is never the victim
+        if (pageTable.getSize() >= numPages) {
+            evictPage();
+        }
+        // another thread may have loaded the same page meanwhile; keep a single copy
+        Page cached = pageTable.putIfAbsent(pid, page);
+        return cached != null ? cached : page;
+    }
+
+    /**
+     * Latch the specified page, shared for READ_ONLY and exclusive for
+     * READ_WRITE, and retrieve it without taking a transaction lock.  A
+     * latch only keeps other threads from changing (or, if exclusive,
+     * reading) the page while the caller works on it, and must be released
+     * with {@link #unlatchPage} as soon as that is done.  Latched pages are
+     * not evicted.
+     * <p>
+     * A thread holding a latch must not wait for a lock, and may only try
+     * one with {@link #tryLockPage}: the holder of the lock may be waiting
+     * for the latch.
+     *
+     * @param pid the ID of the requested page
+     * @param perm the kind of latch to take
+     */
+    public Page latchPage(PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        latches.latch(pid, perm);
+        try {
+            return fetchPage(pid);
+        } catch (TransactionAbortedException | DbException | RuntimeException e) {
+            latches.unlatch(pid, perm);
+            throw e;
+        }
+    }
+
+    /**
+     * Release a latch the calling thread took with {@link #latchPage}.
+     *
+     * @param pid the ID of the latched page
+     * @param perm the permissions the latch was taken with
+     */
+    public void unlatchPage(PageId pid, Permissions perm) {
+        latches.unlatch(pid, perm);
+    }
+
+    /**
+     * Lock the specified page if that is possible without waiting.  A lock
+     * that is not granted at once is never queued, so the attempt cannot
+     * complete a deadlock: it neither aborts another transaction nor tid.
+     *
+     * @return true if tid now holds the lock.
+     */
+    public boolean tryLockPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        return lockManager.acquireLock(tid, pid, perm, 0);
+    }
+
+    /**
+     * Lock the specified page, blocking until the lock is granted, without
+     * retrieving it.
+     */
+    public void lockPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        lockManager.acquireLock(tid, pid, perm);
+    }
+
+    // Read pid from its file, or take it from a read ahead of it.
+    private Page readPage(PageId pid) {
+        Future<Page> pending = readAhead.remove(pid);
+        if (pending != null) {
+            try {
+                Page page = pending.get();
+                if (page != null) {
+                    return page;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // read it again below, so the caller sees the error
+            }
+        }
+        return Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+    }
+
+    /**
+     * Start reading the specified pages in the background, for a scan that
+     * will ask for them soon.  The pages must be consecutive pages of one
+     * file, in page order; the ones not cached are read with
+     * {@link DbFile#readPages}.  No lock is taken: a page only reaches a
+     * transaction through getPage, which locks it as usual and then takes
+     * the page read here instead of reading it again.  Pages are not read
+     * ahead once MAX_READ_AHEAD_PAGES wait to be picked up.
+     *
+     * @return the read of each page, which may have been started earlier,
+     *         or a completed future with a null page if it is not read
+     */
+    public List<Future<Page>> readAhead(List<PageId> pids) {
+        List<Future<Page>> reads = new ArrayList<>(pids.size());
+        List<PageId> run = new ArrayList<>();
+        List<CompletableFuture<Page>> runReads = new ArrayList<>();
+        for (PageId pid : pids) {
+            Future<Page> pending = readAhead.get(pid);
+            if (pending == null && !pageTable.containsKey(pid) && readAhead.size() < MAX_READ_AHEAD_PAGES) {
+                CompletableFuture<Page> read = new CompletableFuture<>();
+                pending = readAhead.putIfAbsent(pid, read);
+                if (pending == null) {
+                    run.add(pid);
+                    runReads.add(read);
+                    reads.add(read);
+                    continue;
+                }
+            }
+            // a gap: read the pages before it with one I/O
+            readRun(run, runReads);
+            reads.add(pending != null ? pending : CompletableFuture.completedFuture(null));
+        }
+        readRun(run, runReads);
+        return reads;
+    }
+
+    private void readRun(List<PageId> run, List<CompletableFuture<Page>> runReads) {
+        if (run.isEmpty()) {
+            return;
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(run.get(0).getTableId());
+        List<PageId> pids = new ArrayList<>(run);
+        List<CompletableFuture<Page>> reads = new ArrayList<>(runReads);
+        run.clear();
+        runReads.clear();
+        readAheadExecutor.execute(() -> {
+            try {
+                List<Page> pages = file.readPages(pids);
+                for (int i = 0; i < reads.size(); i++) {
+                    reads.get(i).complete(pages != null ? pages.get(i) : null);
+                }
+            } catch (RuntimeException e) {
+                for (CompletableFuture<Page> read : reads) {
+                    read.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Drop the read ahead of the specified page, if it has not been picked
+     * up yet; used by scans that end before they get to the page.
+     */
+    public void cancelReadAhead(PageId pid) {
+        Future<Page> pending = readAhead.remove(pid);
+        if (pending != null) {
+            pending.cancel(false);
+        }
+    }
+
+    /**
+     * Keep the specified page in the pool until the transaction unpins it
+     * or completes.  Scans pin the pages they are working through, so that
+     * other work cannot evict them in the meantime.  A page may be pinned
+     * more than once, and stays until every pin on it is released.
+     *
+     * @param tid the transaction the pin belongs to
+     * @param pid the page to pin
+     */
+    public void pinPage(TransactionId tid, PageId pid) {
+        pins.computeIfAbsent(tid, t -> Collections.synchronizedList(new ArrayList<>())).add(pid);
+        pinCounts.merge(pid, 1, Integer::sum);
+    }
+
+    /**
+     * Release one pin the transaction holds on the specified page.  Does
+     * nothing if the transaction holds none, e.g. because it has completed.
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        List<PageId> pinned = pins.get(tid);
+        if (pinned != null && pinned.remove(pid)) {
+            unpin(pid);
+        }
+    }
+
+    private void unpin(PageId pid) {
+        pinCounts.computeIfPresent(pid, (p, n) -> n == 1 ? null : n - 1);
     }
 
     /**
@@ -134,6 +394,7 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) {
         // some code goes here
         // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
@@ -153,6 +414,25 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
+        try {
+            if (commit) {
+                // FORCE: the committed pages reach disk before the locks are dropped
+                flushPages(tid);
+            } else {
+                // NO STEAL: disk still holds the pre-transaction version
+                discardPages(tid);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            List<PageId> pinned = pins.remove(tid);
+            if (pinned != null) {
+                synchronized (pinned) {
+                    pinned.forEach(this::unpin);
+                }
+            }
+            lockManager.releaseAllLocks(tid);
+        }
     }
 
     /**
@@ -166,6 +446,9 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
      *
+     * The secondary indexes on the table (see Catalog#addIndex) get an entry
+     * for the tuple, in the same transaction.
+     *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
      * @param t the tuple to add
@@ -175,11 +458,27 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         DbFile table = Database.getCatalog().getDatabaseFile(tableId);
-        List<Page> dirtyPages = table.insertTuple(tid, t);
-        for (Page page : dirtyPages) {
+        markDirty(tid, table.insertTuple(tid, t));
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            index.insertTuple(tid, t);
+        }
+    }
+
+    /**
+     * Mark pages the transaction has changed as dirty, and cache them in
+     * place of any other version.  insertTuple does this with the pages
+     * the DbFile returns.  A DbFile that lets other threads read its pages
+     * under a latch must do it itself before it releases its latches, or
+     * one of them may read an older version of a page back from disk.
+     *
+     * @param tid the transaction that changed the pages
+     * @param pages the changed pages
+     */
+    public void markDirty(TransactionId tid, List<Page> pages) throws DbException {
+        for (Page page : pages) {
             page.markDirty(true, tid);
-            this.lruCache.put(page.getId(), page);
-            if (lruCache.getSize() > numPages) {
+            this.pageTable.put(page.getId(), page);
+            if (pageTable.getSize() > numPages) {
                 evictPage();
             }
         }
@@ -195,6 +494,9 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
      *
+     * The entries for the tuple are removed from the secondary indexes on
+     * its table, in the same transaction.
+     *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
      */
@@ -204,10 +506,14 @@ public class BufferPool {
         // not necessary for lab1
         int tableId = t.getRecordId().getPageId().getTableId();
         DbFile table = Database.getCatalog().getDatabaseFile(tableId);
+        // the entries go first, while the tuple is still on its page
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            index.deleteTuple(tid, t);
+        }
         List<Page> dirtyPages = table.deleteTuple(tid, t);
         for (Page page : dirtyPages) {
             page.markDirty(true, tid);
-            this.lruCache.put(page.getId(), page);
+            this.pageTable.put(page.getId(), page);
         }
     }
 
@@ -219,10 +525,12 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        Iterator<PageId> pageIterator =  lruCache.valueIterator();
+        List<PageId> pids = new ArrayList<>(pageTable.getSize());
+        Iterator<PageId> pageIterator = pageTable.keyIterator();
         while (pageIterator.hasNext()) {
-            flushPage(pageIterator.next());
+            pids.add(pageIterator.next());
         }
+        writePages(pids);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -236,7 +544,10 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        lruCache.remove(pid);
+        pageTable.remove(pid);
+        pageLsns.remove(pid);
+        // a read ahead may have seen the file before the page was rolled back
+        cancelReadAhead(pid);
     }
 
     /**
@@ -246,18 +557,119 @@ public class BufferPool {
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        Page page = lruCache.get(pid);
-        // log
-        DbFile table = Database.getCatalog().getDatabaseFile(pid.getTableId());
-        table.writePage(page);
-        lruCache.get(pid).markDirty(false, null);
+        writePages(Collections.singletonList(pid));
+    }
+
+    /**
+     * Writes the cached pages among pids to disk.  Dirty pages are logged
+     * first, then the log is forced once, up to the newest page LSN of the
+     * batch, before any of the pages is written.
+     */
+    private synchronized void writePages(List<PageId> pids) throws IOException {
+        List<Page> pages = new ArrayList<>(pids.size());
+        long lsn = logPages(pids, pages);
+        if (lsn > 0) {
+            Database.getLogFile().force(lsn);
+        }
+        writeLoggedPages(pages);
+    }
+
+    /**
+     * Logs the dirty pages among the cached pages of pids and adds each
+     * cached page to pages.
+     *
+     * @return the newest page LSN of the pages, or 0 if none has one
+     */
+    private synchronized long logPages(List<PageId> pids, List<Page> pages) throws IOException {
+        LogFile log = Database.getLogFile();
+        long lsn = 0;
+        for (PageId pid : pids) {
+            Page page = pageTable.get(pid);
+            if (page == null) {
+                continue;
+            }
+            TransactionId dirtier = page.isDirty();
+            if (dirtier != null) {
+                pageLsns.put(pid, log.logWrite(dirtier, page.getBeforeImage(), page));
+                // the next update of this page is logged relative to this one
+                page.setBeforeImage();
+            }
+            lsn = Math.max(lsn, pageLsns.getOrDefault(pid, 0L));
+            pages.add(page);
+        }
+        return lsn;
+    }
+
+    /**
+     * Writes pages logged by logPages to disk; the log must have been forced
+     * up to their page LSNs.
+     */
+    private synchronized void writeLoggedPages(List<Page> pages) throws IOException {
+        LogFile log = Database.getLogFile();
+        for (Page page : pages) {
+            DbFile table = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+            table.writePage(page);
+            // a read ahead may have seen the file before this write
+            cancelReadAhead(page.getId());
+            page.markDirty(false, null);
+            log.logPageWritten(page.getId());
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        // a transaction can only have dirtied pages it holds a lock on
+        List<Page> pages = new ArrayList<>();
+        long lsn;
+        synchronized (this) {
+            List<PageId> dirty = new ArrayList<>();
+            for (PageId pid : lockManager.getLockedPages(tid)) {
+                Page page = pageTable.get(pid);
+                if (page != null && tid.equals(page.isDirty())) {
+                    dirty.add(pid);
+                }
+            }
+            lsn = logPages(dirty, pages);
+        }
+        // forced outside the monitor, so that a group commit can gather the
+        // pages of concurrent committers; tid's exclusive locks keep its
+        // pages as they were logged, and dirty pages are never evicted
+        if (lsn > 0) {
+            Database.getLogFile().force(lsn);
+        }
+        writeLoggedPages(pages);
+    }
+
+    /** Drop every page dirtied by the specified transaction from the pool.
+     */
+    private void discardPages(TransactionId tid) throws IOException {
+        List<PageId> heapPages = new ArrayList<>();
+        // threads reading pages under a latch must see all of them rolled
+        // back or none; taken before the monitor, which latch holders may need
+        latches.latchAll();
+        try {
+            synchronized (this) {
+                for (PageId pid : lockManager.getLockedPages(tid)) {
+                    Page page = pageTable.get(pid);
+                    if (page != null && tid.equals(page.isDirty())) {
+                        discardPage(pid);
+                        if (page instanceof TuplePage) {
+                            heapPages.add(pid);
+                        }
+                    }
+                }
+            }
+        } finally {
+            latches.unlatchAll();
+        }
+        // the free-space maps go back to the pages on disk; tid still holds
+        // the locks, so no other transaction has changed them since
+        for (PageId pid : heapPages) {
+            ((HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId())).pageDiscarded(pid.getPageNumber());
+        }
     }
 
     /**
@@ -267,13 +679,11 @@ public class BufferPool {
     private synchronized  void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
-        Iterator<Page> pageIterator = lruCache.reverseIterator();
-        while (pageIterator.hasNext()) {
-            Page page = pageIterator.next();
-            if (page.isDirty() == null) {
-                discardPage(page.getId());
-                return;
-            }
+        // NO STEAL: only clean pages may leave the pool, and pinned or latched ones stay
+        Page victim = pageTable.evict(page -> page.isDirty() == null && !pinCounts.containsKey(page.getId())
+                && !latches.isLatched(page.getId()));
+        if (victim != null) {
+            pageLsns.remove(victim.getId());
         }
     }
 }
@@ -0,0 +1,46 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small pool of direct buffers for page I/O.  FileChannel copies a heap
+ * buffer through a temporary direct buffer on every read and write, so
+ * reading into a pooled direct buffer instead saves that copy as well as
+ * allocating a fresh array for every page.  Tables may have pages of
+ * different sizes, so buffers are pooled by capacity.
+ */
+final class ByteBufferPool {
+    /** Buffers beyond this many are left to the garbage collector. */
+    private static final int MAX_POOLED = 64;
+
+    private static final ConcurrentMap<Integer, ConcurrentLinkedQueue<ByteBuffer>> pools = new ConcurrentHashMap<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private ByteBufferPool() {
+    }
+
+    /** @return a cleared direct buffer with the given capacity. */
+    static ByteBuffer acquire(int size) {
+        ConcurrentLinkedQueue<ByteBuffer> pool = pools.get(size);
+        ByteBuffer buf = pool != null ? pool.poll() : null;
+        if (buf == null) {
+            return ByteBuffer.allocateDirect(size);
+        }
+        pooled.decrementAndGet();
+        buf.clear();
+        return buf;
+    }
+
+    /** Return a buffer to the pool; the caller must not use it afterwards. */
+    static void release(ByteBuffer buf) {
+        if (pooled.incrementAndGet() <= MAX_POOLED) {
+            pools.computeIfAbsent(buf.capacity(), size -> new ConcurrentLinkedQueue<>()).offer(buf);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The pages of a compressed HeapFile.  Each page is compressed with
+ * Deflate when it is written and stored as an extent of the data file,
+ * so pages pack densely instead of each taking a full page of disk.  A
+ * page that does not shrink is stored as it is.
+ * <p>
+ * The page map says where each page is: the offset and length of its
+ * compressed bytes, and the capacity of its extent, a multiple of
+ * GRANULE.  A page is rewritten in place while it fits its extent, and
+ * moves to a new extent at the end of the file when it does not; the
+ * space it leaves behind is not reused.
+ * <p>
+ * The map is kept on disk in a sidecar file next to the data file, one
+ * entry of ENTRY_SIZE bytes per page, written after the page itself.  A
+ * page that moved is therefore read from its old extent until its map
+ * entry is written.  Unlike the free-space map the page map is not a
+ * hint: the data file cannot be read without it.
+ *
+ * @see HeapFile#HeapFile(File, TupleDesc, HeapFile.PageFormat, boolean)
+ */
+class CompressedPages {
+    private static final int GRANULE = 64;
+    /** Offset (8 bytes), length and capacity (4 bytes each) of a page. */
+    private static final int ENTRY_SIZE = 16;
+
+    private static final ThreadLocal<Deflater> deflaters =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> inflaters =
+            ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final FileChannel channel;
+    private final int pageSize;
+    private final RandomAccessFile map;
+
+    private long[] offsets;
+    private int[] lengths;
+    private int[] capacities;
+    private int numPages;
+    /** End of the last extent of the data file. */
+    private long end;
+
+    /**
+     * Open the pages, of pageSize bytes each, of the data file read through
+     * channel, and the page map next to it, creating an empty one if there
+     * is none.
+     */
+    CompressedPages(File dataFile, FileChannel channel, int pageSize) throws IOException {
+        this.channel = channel;
+        this.pageSize = pageSize;
+        this.map = new RandomAccessFile(getMapFile(dataFile), "rw");
+        numPages = (int) (map.length() / ENTRY_SIZE);
+        offsets = new long[Math.max(numPages, 16)];
+        lengths = new int[offsets.length];
+        capacities = new int[offsets.length];
+        byte[] entries = new byte[numPages * ENTRY_SIZE];
+        map.readFully(entries);
+        ByteBuffer buf = ByteBuffer.wrap(entries);
+        for (int i = 0; i < numPages; i++) {
+            offsets[i] = buf.getLong();
+            lengths[i] = buf.getInt();
+            capacities[i] = buf.getInt();
+            end = Math.max(end, offsets[i] + capacities[i]);
+        }
+    }
+
+    /**
+     * @return the page map of a compressed heap file.
+     */
+    static File getMapFile(File dataFile) {
+        return new File(dataFile.getPath() + ".pmap");
+    }
+
+    synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * @return the data of page pageNo, read from mapping if it is not null
+     *         and through the channel otherwise; a page past the last one
+     *         reads as zeros.
+     */
+    byte[] read(int pageNo, MappedFile mapping) throws IOException {
+        long offset;
+        int length;
+        synchronized (this) {
+            if (pageNo >= numPages) {
+                return new byte[pageSize];
+            }
+            offset = offsets[pageNo];
+            length = lengths[pageNo];
+        }
+        ByteBuffer src;
+        if (mapping != null) {
+            src = mapping.slice(offset, length);
+        } else {
+            src = ByteBuffer.allocate(length);
+            readFully(src, offset);
+            src.flip();
+        }
+        return decompress(src);
+    }
+
+    /**
+     * Read the consecutive pages from first on with a single I/O, if their
+     * extents lie together; one at a time otherwise.
+     */
+    List<byte[]> read(int first, int count) throws IOException {
+        long start = Long.MAX_VALUE;
+        long stop = 0;
+        long[] pageOffsets = new long[count];
+        int[] pageLengths = new int[count];
+        synchronized (this) {
+            for (int i = 0; i < count && first + i < numPages; i++) {
+                pageOffsets[i] = offsets[first + i];
+                pageLengths[i] = lengths[first + i];
+                start = Math.min(start, pageOffsets[i]);
+                stop = Math.max(stop, pageOffsets[i] + pageLengths[i]);
+            }
+        }
+        List<byte[]> pages = new ArrayList<>(count);
+        if (stop - start > (long) count * pageSize) {
+            // the extents are scattered; one read each costs less
+            for (int i = 0; i < count; i++) {
+                pages.add(read(first + i, null));
+            }
+            return pages;
+        }
+        ByteBuffer src = ByteBuffer.allocate((int) Math.max(stop - start, 0));
+        readFully(src, start);
+        for (int i = 0; i < count; i++) {
+            if (pageLengths[i] == 0) {
+                pages.add(new byte[pageSize]);
+                continue;
+            }
+            int at = (int) (pageOffsets[i] - start);
+            src.limit(at + pageLengths[i]).position(at);
+            pages.add(decompress(src));
+        }
+        return pages;
+    }
+
+    /**
+     * Compress and write page pageNo, which is at most one past the last
+     * page, then its map entry.
+     */
+    void write(int pageNo, byte[] data) throws IOException {
+        byte[] compressed = compress(data);
+        int length = compressed.length;
+        long offset;
+        int capacity;
+        synchronized (this) {
+            if (pageNo > numPages) {
+                throw new IOException("page " + pageNo + " is past the end of the file");
+            }
+            grow(pageNo + 1);
+            if (pageNo < numPages && length <= capacities[pageNo]) {
+                offset = offsets[pageNo];
+                capacity = capacities[pageNo];
+            } else {
+                offset = end;
+                capacity = (length + GRANULE - 1) / GRANULE * GRANULE;
+                end += capacity;
+            }
+        }
+        ByteBuffer buf = ByteBuffer.wrap(compressed);
+        while (buf.hasRemaining()) {
+            channel.write(buf, offset + buf.position());
+        }
+        synchronized (this) {
+            offsets[pageNo] = offset;
+            lengths[pageNo] = length;
+            capacities[pageNo] = capacity;
+            numPages = Math.max(numPages, pageNo + 1);
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+            entry.putLong(offset).putInt(length).putInt(capacity);
+            map.seek((long) pageNo * ENTRY_SIZE);
+            map.write(entry.array());
+        }
+    }
+
+    void close() throws IOException {
+        map.close();
+    }
+
+    private void grow(int pages) {
+        if (pages > offsets.length) {
+            int size = Math.max(pages, offsets.length * 2);
+            offsets = Arrays.copyOf(offsets, size);
+            lengths = Arrays.copyOf(lengths, size);
+            capacities = Arrays.copyOf(capacities, size);
+        }
+    }
+
+    private void readFully(ByteBuffer buf, long pos) throws IOException {
+        long start = pos - buf.position();
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, start + buf.position()) < 0) {
+                throw new IOException("compressed page past the end of the file");
+            }
+        }
+    }
+
+    /**
+     * @return the page compressed, or the page itself if that is no
+     *         shorter.
+     */
+    private static byte[] compress(byte[] page) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(page);
+        deflater.finish();
+        byte[] out = new byte[page.length];
+        int length = deflater.deflate(out);
+        if (!deflater.finished() || length >= page.length) {
+            return page;
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    /**
+     * @return the page whose compressed bytes lie between the position and
+     *         the limit of src.
+     */
+    private byte[] decompress(ByteBuffer src) throws IOException {
+        byte[] in = new byte[src.remaining()];
+        src.get(in);
+        if (in.length == pageSize) {
+            return in;
+        }
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(in);
+        byte[] page = new byte[pageSize];
+        try {
+            int length = inflater.inflate(page);
+            if (length != pageSize || !inflater.finished()) {
+                throw new IOException("compressed page inflates to " + length + " bytes");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt compressed page: " + e.getMessage());
+        }
+        return page;
+    }
+}
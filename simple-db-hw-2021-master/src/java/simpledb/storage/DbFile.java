@@ -24,6 +24,22 @@ public interface DbFile {
      */
     Page readPage(PageId id);
 
+    /**
+     * Read the specified pages, which are consecutive pages of this file in
+     * page order, as readPage would.  Files may read them all with a single
+     * I/O; this is how scans read ahead.
+     *
+     * @throws IllegalArgumentException if a page does not exist in this file.
+     * @see BufferPool#readAhead
+     */
+    default List<Page> readPages(List<PageId> pids) {
+        List<Page> pages = new ArrayList<>(pids.size());
+        for (PageId pid : pids) {
+            pages.add(readPage(pid));
+        }
+        return pages;
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -93,4 +109,38 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     TupleDesc getTupleDesc();
+
+    /**
+     * Returns the size in bytes of the pages of this DbFile, fixed when the
+     * file is created.  Pages of the file look it up through
+     * {@link Catalog#getPageSize}.
+     *
+     * @return the page size of this DbFile; by default that of the
+     *   database, {@link BufferPool#getPageSize}.
+     */
+    default int getPageSize() {
+        return BufferPool.getPageSize();
+    }
+
+    /**
+     * Switch this file to read-only mode, for tables that are loaded once
+     * and then only queried: the file is memory mapped and readPage serves
+     * pages straight from the mapping.  Afterwards, inserts and deletes
+     * fail and the file must not change on disk.
+     *
+     * @throws IOException if the file cannot be mapped
+     * @throws UnsupportedOperationException if this kind of file has no
+     *   read-only mode
+     * @see Catalog#addTable(DbFile, String, String, boolean)
+     */
+    default void mapReadOnly() throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot be mapped read-only");
+    }
+
+    /**
+     * @return true if this file is in read-only mode.
+     */
+    default boolean isReadOnly() {
+        return false;
+    }
 }
@@ -0,0 +1,128 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Free-space map of a HeapFile: the number of empty slots on each of its
+ * pages, capped at 255, so that an insert can go straight to a page with
+ * room instead of reading and locking every page in front of it.
+ * <p>
+ * The map is only a hint.  HeapFile still checks that the page it picks has
+ * room, and corrects the map when it does not, so a map that lags behind
+ * the pages costs an extra page read, not a lost tuple.  HeapFile updates
+ * the map as pages are read, written and changed, and when the buffer pool
+ * throws away the changes an aborted transaction made to a page.
+ * <p>
+ * The map is kept on disk in a sidecar file next to the heap file, one
+ * byte per page.  Each byte is written when its page is, so the sidecar
+ * describes the pages on disk.  The map is loaded on first use; if the
+ * sidecar is missing, the wrong length, or older than the heap file (the
+ * heap file was written without the map being loaded, or by some other
+ * program), it is rebuilt from the page headers instead.
+ *
+ * @see HeapFile#insertTuple
+ */
+class FreeSpaceMap {
+    private static final int MAX_FREE = 255;
+
+    private final HeapFile heapFile;
+    private final File file;
+    private RandomAccessFile raf; // null until loaded
+
+    private byte[] free = new byte[0];
+    private int numPages;
+    /** Every page before this one is full, as far as the map knows. */
+    private int firstWithRoom;
+
+    FreeSpaceMap(HeapFile heapFile) {
+        this.heapFile = heapFile;
+        this.file = new File(heapFile.getFile().getPath() + ".fsm");
+    }
+
+    /**
+     * @return the first page at or after from that the map thinks has an
+     *         empty slot, or -1 if there is none.
+     */
+    synchronized int nextPageWithRoom(int from) throws IOException {
+        load();
+        for (int i = Math.max(from, firstWithRoom); i < numPages; i++) {
+            if (free[i] != 0) {
+                if (from <= firstWithRoom) {
+                    firstWithRoom = i;
+                }
+                return i;
+            }
+        }
+        if (from <= firstWithRoom) {
+            firstWithRoom = numPages;
+        }
+        return -1;
+    }
+
+    /** Record the current number of empty slots of a page, in memory only. */
+    synchronized void update(int pageNo, int emptySlots) {
+        if (raf == null) {
+            // loading will read the page from disk anyway
+            return;
+        }
+        set(pageNo, emptySlots);
+    }
+
+    /** Record the number of empty slots of a page that was just written to disk. */
+    synchronized void pageWritten(int pageNo, int emptySlots) throws IOException {
+        if (raf == null) {
+            return;
+        }
+        set(pageNo, emptySlots);
+        raf.seek(pageNo);
+        raf.write(free[pageNo]);
+    }
+
+    /**
+     * Record the number of empty slots of a page as it is on disk, for a
+     * page whose changes in memory were thrown away.
+     */
+    synchronized void pageDiscarded(int pageNo) throws IOException {
+        if (raf == null) {
+            return;
+        }
+        set(pageNo, heapFile.readNumEmptySlots(pageNo));
+    }
+
+    private void set(int pageNo, int emptySlots) {
+        if (pageNo >= free.length) {
+            free = Arrays.copyOf(free, Math.max(pageNo + 1, free.length * 2));
+        }
+        numPages = Math.max(numPages, pageNo + 1);
+        free[pageNo] = (byte) Math.min(emptySlots, MAX_FREE);
+        if (emptySlots > 0) {
+            firstWithRoom = Math.min(firstWithRoom, pageNo);
+        }
+    }
+
+    private void load() throws IOException {
+        if (raf != null) {
+            return;
+        }
+        numPages = heapFile.numPages();
+        free = new byte[Math.max(numPages, 16)];
+        firstWithRoom = 0;
+        boolean current = file.length() == numPages && file.exists()
+                && Files.getLastModifiedTime(file.toPath()).compareTo(
+                        Files.getLastModifiedTime(heapFile.getFile().toPath())) >= 0;
+        raf = new RandomAccessFile(file, "rw");
+        if (current) {
+            raf.readFully(free, 0, numPages);
+        } else {
+            for (int i = 0; i < numPages; i++) {
+                free[i] = (byte) Math.min(heapFile.readNumEmptySlots(i), MAX_FREE);
+            }
+            raf.setLength(0);
+            raf.write(free, 0, numPages);
+        }
+    }
+}
@@ -9,6 +9,8 @@ import simpledb.transaction.TransactionId;
 import simpledb.utils.HeapFileIterator;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -16,17 +18,47 @@ import java.util.*;
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor; a table can use SlottedHeapPages or PaxPages instead, see
+ * PageFormat.
  *
  * @author Sam Madden
  * @see HeapPage#HeapPage
  */
 public class HeapFile implements DbFile {
 
+    /**
+     * The format of the pages of a heap file.
+     */
+    public enum PageFormat {
+        /** Fixed-size tuples with a slot bitmap, see HeapPage. */
+        FIXED,
+        /**
+         * Variable-length records with a slot directory, see SlottedHeapPage;
+         * takes less space for tables with short strings.
+         */
+        SLOTTED,
+        /**
+         * Fixed-size tuples stored column by column within each page, see
+         * PaxPage; for scans that read few of many columns.
+         */
+        PAX
+    }
+
     private final File file;
 
     private final TupleDesc td;
-    private RandomAccessFile randomAccessFile;
+
+    private final PageFormat format;
+
+    private final int pageSize;
+    /** Positional reads and writes on this channel are safe from any number of threads. */
+    private FileChannel channel;
+
+    private final FreeSpaceMap freeSpaceMap;
+    /** Pages are served from this mapping once the file is read-only. */
+    private volatile MappedFile mapping;
+    /** Where each page is in the file, if the pages are compressed; null otherwise. */
+    private CompressedPages compressed;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -36,11 +68,54 @@ public class HeapFile implements DbFile {
      */
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
+        this(f, td, PageFormat.FIXED);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * in the specified format.
+     */
+    public HeapFile(File f, TupleDesc td, PageFormat format) {
+        this(f, td, format, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * in the specified format and, if compressed is set, compressed on
+     * disk; the page map of a compressed file is kept next to it.
+     *
+     * @see CompressedPages
+     */
+    public HeapFile(File f, TupleDesc td, PageFormat format, boolean compressed) {
+        this(f, td, format, compressed, BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, as above, whose
+     * pages are pageSize bytes instead of the page size of the database.
+     * The page size is not recorded in the file; the catalog keeps it.
+     *
+     * @throws IllegalArgumentException if a page of that size cannot hold a
+     *                                  tuple, or is too large for the format.
+     */
+    public HeapFile(File f, TupleDesc td, PageFormat format, boolean compressed, int pageSize) {
+        if (HeapPage.getNumTuples(td, pageSize) < 1) {
+            throw new IllegalArgumentException("a page of " + pageSize + " bytes cannot hold a tuple");
+        }
+        if (format == PageFormat.SLOTTED && pageSize > SlottedHeapPage.MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("slotted pages are at most " + SlottedHeapPage.MAX_PAGE_SIZE + " bytes");
+        }
         this.file = f;
         this.td = td;
+        this.format = format;
+        this.pageSize = pageSize;
+        this.freeSpaceMap = new FreeSpaceMap(this);
         try {
-            this.randomAccessFile = new RandomAccessFile(this.file, "rw");
-        } catch (FileNotFoundException e) {
+            this.channel = new RandomAccessFile(this.file, "rw").getChannel();
+            if (compressed) {
+                this.compressed = new CompressedPages(this.file, this.channel, pageSize);
+            }
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
@@ -79,6 +154,38 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /**
+     * Returns the format of the pages of this HeapFile.
+     */
+    public PageFormat getPageFormat() {
+        return format;
+    }
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Returns true if the pages of this HeapFile are compressed on disk.
+     */
+    public boolean isCompressed() {
+        return compressed != null;
+    }
+
+    // Build a page in this file's format from the page data between the
+    // position and the limit of buf.
+    private TuplePage newPage(HeapPageId pid, ByteBuffer buf) throws IOException {
+        switch (format) {
+            case SLOTTED:
+                return new SlottedHeapPage(pid, td, pageSize, buf);
+            case PAX:
+                return new PaxPage(pid, td, pageSize, buf);
+            default:
+                return new HeapPage(pid, buf);
+        }
+    }
+
     /**
      *
      * @param pid
@@ -87,19 +194,91 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-        int pos = BufferPool.getPageSize() * pid.getPageNumber();
-        byte[] byteData = new byte[BufferPool.getPageSize()];
+        long pos = (long) pageSize * pid.getPageNumber();
+        if (compressed != null) {
+            try {
+                byte[] data = compressed.read(pid.getPageNumber(), mapping);
+                TuplePage page = newPage((HeapPageId) pid, ByteBuffer.wrap(data));
+                freeSpaceMap.update(pid.getPageNumber(), page.getNumEmptySlots());
+                return page;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+        if (mapping != null) {
+            try {
+                return newPage((HeapPageId) pid, mapping.slice(pos, pageSize));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+        ByteBuffer buf = ByteBufferPool.acquire(pageSize);
         try {
-            randomAccessFile.seek(pos);
-            randomAccessFile.read(byteData, 0, byteData.length);
-            HeapPage heapPage = new HeapPage((HeapPageId) pid, byteData);
-            return heapPage;
+            readFully(buf, pos);
+            buf.flip();
+            TuplePage page = newPage((HeapPageId) pid, buf);
+            freeSpaceMap.update(pid.getPageNumber(), page.getNumEmptySlots());
+            return page;
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            ByteBufferPool.release(buf);
         }
         return null;
     }
 
+    // see DbFile.java for javadocs
+    public List<Page> readPages(List<PageId> pids) {
+        // a subclass may override readPage, so let every page go through it
+        if (mapping != null || pids.isEmpty() || getClass() != HeapFile.class) {
+            return DbFile.super.readPages(pids);
+        }
+        List<Page> pages = new ArrayList<>(pids.size());
+        if (compressed != null) {
+            try {
+                List<byte[]> data = compressed.read(pids.get(0).getPageNumber(), pids.size());
+                for (int i = 0; i < pids.size(); i++) {
+                    TuplePage page = newPage((HeapPageId) pids.get(i), ByteBuffer.wrap(data.get(i)));
+                    freeSpaceMap.update(pids.get(i).getPageNumber(), page.getNumEmptySlots());
+                    pages.add(page);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+            return pages;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(pids.size() * pageSize);
+        try {
+            readFully(buf, (long) pageSize * pids.get(0).getPageNumber());
+            for (int i = 0; i < pids.size(); i++) {
+                buf.limit((i + 1) * pageSize).position(i * pageSize);
+                TuplePage page = newPage((HeapPageId) pids.get(i), buf);
+                freeSpaceMap.update(pids.get(i).getPageNumber(), page.getNumEmptySlots());
+                pages.add(page);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return pages;
+    }
+
+    // Fill buf from the file starting at pos; whatever lies past the end
+    // of the file reads as zeros.
+    private void readFully(ByteBuffer buf, long pos) throws IOException {
+        long start = pos - buf.position();
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, start + buf.position()) < 0) {
+                while (buf.hasRemaining()) {
+                    buf.put((byte) 0);
+                }
+            }
+        }
+    }
+
     /**
      *
      * @param page
@@ -109,13 +288,62 @@ public class HeapFile implements DbFile {
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
+        if (mapping != null) {
+            throw new IOException("table " + file.getName() + " is read-only");
+        }
         int pageNo = page.getId().getPageNumber();
         if (pageNo > numPages()) {
             throw new IOException("Over file.");
         }
-        int pos = BufferPool.getPageSize() * pageNo;
-        randomAccessFile.seek(pos);
-        randomAccessFile.write(page.getPageData());
+        if (compressed != null) {
+            compressed.write(pageNo, page.getPageData());
+            freeSpaceMap.pageWritten(pageNo, ((TuplePage) page).getNumEmptySlots());
+            return;
+        }
+        long pos = (long) pageSize * pageNo;
+        ByteBuffer buf = ByteBufferPool.acquire(pageSize);
+        try {
+            buf.put(page.getPageData());
+            buf.flip();
+            while (buf.hasRemaining()) {
+                channel.write(buf, pos + buf.position());
+            }
+        } finally {
+            ByteBufferPool.release(buf);
+        }
+        freeSpaceMap.pageWritten(pageNo, ((TuplePage) page).getNumEmptySlots());
+    }
+
+    /**
+     * Called by the buffer pool after it throws away the changes made to a
+     * page by a transaction that aborted, so that the free-space map goes
+     * back to the page as it is on disk.
+     */
+    void pageDiscarded(int pageNo) throws IOException {
+        freeSpaceMap.pageDiscarded(pageNo);
+    }
+
+    /**
+     * Count the empty slots of a page on disk by reading only its header,
+     * or the whole page for slotted pages.  Used to rebuild the free-space
+     * map.
+     */
+    int readNumEmptySlots(int pageNo) throws IOException {
+        if (compressed != null) {
+            ByteBuffer page = ByteBuffer.wrap(compressed.read(pageNo, mapping));
+            return newPage(new HeapPageId(getId(), pageNo), page).getNumEmptySlots();
+        }
+        if (format == PageFormat.SLOTTED) {
+            ByteBuffer page = ByteBuffer.allocate(pageSize);
+            readFully(page, (long) pageSize * pageNo);
+            page.flip();
+            return newPage(new HeapPageId(getId(), pageNo), page).getNumEmptySlots();
+        }
+        int numSlots = HeapPage.getNumTuples(td, pageSize);
+        ByteBuffer header = ByteBuffer.allocate((numSlots + 7) / 8);
+        // a short page reads as empty; the map is only a hint
+        readFully(header, (long) pageSize * pageNo);
+        return HeapPage.getNumEmptySlots(header.array(), numSlots);
     }
 
     /**
@@ -123,7 +351,24 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        return (int) (file.length() / BufferPool.getPageSize());
+        if (compressed != null) {
+            return compressed.numPages();
+        }
+        MappedFile mapped = mapping;
+        long length = mapped != null ? mapped.length() : file.length();
+        return (int) (length / pageSize);
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void mapReadOnly() throws IOException {
+        if (mapping == null) {
+            mapping = new MappedFile(file, pageSize);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public boolean isReadOnly() {
+        return mapping != null;
     }
 
     /**
@@ -140,25 +385,33 @@ public class HeapFile implements DbFile {
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
+        if (mapping != null) {
+            throw new DbException("table " + file.getName() + " is read-only");
+        }
         ArrayList<Page> dirtyPageList = new ArrayList<>();
-        for (int i = 0; i < numPages(); ++i) {
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), i), Permissions.READ_WRITE);
-            if (page != null && page.getNumEmptySlots() > 0) {
+        // only visit the pages the free-space map says have room
+        for (int i = freeSpaceMap.nextPageWithRoom(0); i >= 0 && i < numPages(); i = freeSpaceMap.nextPageWithRoom(i + 1)) {
+            TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), i), Permissions.READ_WRITE);
+            if (page != null && page.hasRoomFor(t)) {
                 page.insertTuple(t);
                 page.markDirty(true, tid);
+                freeSpaceMap.update(i, page.getNumEmptySlots());
                 dirtyPageList.add(page);
                 break;
             }
+            // a slotted page may still have room for a smaller tuple
+            freeSpaceMap.update(i, page != null ? page.getNumEmptySlots() : 0);
         }
 
         // all pages are full, so create a page
         if (dirtyPageList.size() == 0) {
             HeapPageId heapPageId = new HeapPageId(getId(), numPages());
-            HeapPage newPage = new HeapPage(heapPageId, HeapPage.createEmptyPageData());
+            TuplePage newPage = newPage(heapPageId, ByteBuffer.wrap(HeapPage.createEmptyPageData(pageSize)));
             writePage(newPage);
-            newPage = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
+            newPage = (TuplePage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
             newPage.insertTuple(t);
             newPage.markDirty(true, tid);
+            freeSpaceMap.update(heapPageId.getPageNumber(), newPage.getNumEmptySlots());
             dirtyPageList.add(newPage);
         }
 
@@ -170,12 +423,16 @@ public class HeapFile implements DbFile {
             TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        if (mapping != null) {
+            throw new DbException("table " + file.getName() + " is read-only");
+        }
         ArrayList<Page> dirtyTupleList = new ArrayList<>();
         RecordId recordId = t.getRecordId();
         PageId pageId = recordId.getPageId();
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
+        TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
         if (page != null && page.isSlotUsed(recordId.getTupleNumber())) {
             page.deleteTuple(t);
+            freeSpaceMap.update(pageId.getPageNumber(), page.getNumEmptySlots());
             dirtyTupleList.add(page);
         }
         return dirtyTupleList;
@@ -1,11 +1,15 @@
 package simpledb.storage;
 
+import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -92,6 +96,26 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, HeapFile.PageFormat.FIXED);
+  }
+
+   /** Convert the specified input text file into a binary page file with
+    * pages in the specified format.  The input file is as described above.
+    *
+    * @see SlottedHeapPage
+    * @see PaxPage
+    * @param format the format of the pages written
+    * @throws IOException if the input/output file can't be opened
+    * @throws IllegalArgumentException if slotted or PAX pages are asked for
+    *   and npagebytes is not the BufferPool page size
+    */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, HeapFile.PageFormat format)
+      throws IOException {
+      if (format != HeapFile.PageFormat.FIXED) {
+          convertPages(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, format);
+          return;
+      }
 
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
@@ -224,4 +248,90 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Write the pages of the heap file inFile to outFile, compressed, along
+   * with its page map.  outFile is then read by a compressed HeapFile with
+   * the page format of inFile.
+   *
+   * @see CompressedPages
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void compress(File inFile, File outFile) throws IOException {
+      compress(inFile, outFile, BufferPool.getPageSize());
+  }
+
+  /** As compress(inFile, outFile), for a heap file of pageSize byte pages.
+   *
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void compress(File inFile, File outFile, int pageSize) throws IOException {
+      Files.deleteIfExists(CompressedPages.getMapFile(outFile).toPath());
+      try (RandomAccessFile in = new RandomAccessFile(inFile, "r");
+           RandomAccessFile out = new RandomAccessFile(outFile, "rw")) {
+          out.setLength(0);
+          CompressedPages pages = new CompressedPages(outFile, out.getChannel(), pageSize);
+          byte[] page = new byte[pageSize];
+          for (int i = 0; i < in.length() / pageSize; i++) {
+              in.readFully(page);
+              pages.write(i, page);
+          }
+          pages.close();
+      }
+  }
+
+  // Fill pages of the given format with the tuples of the input file, in
+  // order, starting a new page when the next tuple does not fit.
+  private static void convertPages(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, HeapFile.PageFormat format)
+      throws IOException {
+      if (format == HeapFile.PageFormat.SLOTTED && npagebytes > SlottedHeapPage.MAX_PAGE_SIZE) {
+          throw new IllegalArgumentException("slotted pages are at most " + SlottedHeapPage.MAX_PAGE_SIZE + " bytes");
+      }
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      int npages = 0;
+      try (BufferedReader br = new BufferedReader(new FileReader(inFile));
+           OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile))) {
+          TuplePage page = null;
+          String line;
+          while ((line = br.readLine()) != null) {
+              if (line.trim().isEmpty())
+                  continue;
+              String[] values = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+              Tuple t = new Tuple(td);
+              try {
+                  for (int i = 0; i < numFields; i++) {
+                      String s = values[i].trim();
+                      if (typeAr[i] == Type.INT_TYPE)
+                          t.setField(i, new IntField(Integer.parseInt(s)));
+                      else
+                          t.setField(i, new StringField(s, Type.STRING_LEN));
+                  }
+              } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                  System.out.println ("BAD LINE : " + line);
+                  continue;
+              }
+              if (page != null && !page.hasRoomFor(t)) {
+                  os.write(page.getPageData());
+                  npages++;
+                  page = null;
+              }
+              if (page == null) {
+                  HeapPageId pid = new HeapPageId(0, npages);
+                  ByteBuffer empty = ByteBuffer.wrap(HeapPage.createEmptyPageData(npagebytes));
+                  if (format == HeapFile.PageFormat.PAX)
+                      page = new PaxPage(pid, td, npagebytes, empty);
+                  else
+                      page = new SlottedHeapPage(pid, td, npagebytes, empty);
+              }
+              try {
+                  page.insertTuple(t);
+              } catch (DbException e) {
+                  throw new IOException("cannot add " + line + " to a page: " + e.getMessage());
+              }
+          }
+          // an empty table still gets an (empty) page
+          if (page != null || npages == 0)
+              os.write(page != null ? page.getPageData() : HeapPage.createEmptyPageData(npagebytes));
+      }
+  }
 }
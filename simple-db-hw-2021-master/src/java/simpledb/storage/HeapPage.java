@@ -5,10 +5,10 @@ import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
 import simpledb.transaction.TransactionId;
-import simpledb.utils.IteratorWrapper;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
@@ -17,21 +17,36 @@ import java.io.*;
  * @see HeapFile
  * @see BufferPool
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     private HeapPageId pid;
 
     private TupleDesc td;
 
-    private byte[] header;
+    /**
+     * The page as it is stored: the header, then the tuple slots, then
+     * padding.  Tuples are decoded from it only when they are asked for.
+     */
+    private byte[] data;
 
+    /** The tuples handed out or inserted so far, by slot; allocated on first use. */
     private Tuple[] tuples;
 
     private int numSlots;
 
+    private int headerSize;
+
+    private int tupleSize;
+
     private byte[] oldData;
 
-    private Byte oldDataLock = (byte) 0;
+    /**
+     * True while data is also the before image, or backs tuples that have
+     * been handed out; it is then copied before it is changed.
+     */
+    private volatile boolean shared;
+
+    private final Object oldDataLock = new Object();
 
     private TransactionId tid;
 
@@ -42,9 +57,10 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      * Specifically, the number of tuples is equal to: <p>
-     * floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     * floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size that of its pages, via {@link Catalog#getPageSize}.
      * The number of 8-bit header words is equal to:
      * <p>
      * ceiling(no. tuple slots / 8)
@@ -52,28 +68,33 @@ public class HeapPage implements Page {
      *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#getPageSize()
+     * @see Catalog#getPageSize
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from the page data between the position and the
+     * limit of a buffer, such as one HeapFile read the page into.  The
+     * buffer is not referenced after the constructor returns.
+     */
+    HeapPage(HeapPageId id, ByteBuffer buf) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        data = new byte[Database.getCatalog().getPageSize(id.getTableId())];
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.headerSize = getHeaderSize();
+        this.tupleSize = td.getSize();
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
-
-        tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
+        buf.get(data, 0, Math.min(buf.remaining(), data.length));
+        // empty slots and padding are written out as zeros
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                Arrays.fill(data, slotOffset(i), slotOffset(i + 1), (byte) 0);
+            }
         }
-        dis.close();
+        Arrays.fill(data, slotOffset(numSlots), data.length, (byte) 0);
 
         setBeforeImage();
     }
@@ -85,7 +106,33 @@ public class HeapPage implements Page {
      */
     private int getNumTuples() {
         // some code goes here
-        return (int) Math.floor((BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1));
+        return getNumTuples(td, data.length);
+    }
+
+    /**
+     * @return the number of tuple slots on a page of pageSize bytes of a
+     *         table with this TupleDesc
+     */
+    static int getNumTuples(TupleDesc td, int pageSize) {
+        return (int) Math.floor((pageSize * 8) / (td.getSize() * 8 + 1));
+    }
+
+    /**
+     * Count the empty slots of a page from its header bytes alone, without
+     * reading its tuples.
+     *
+     * @param header   the first header bytes of the page data, or more
+     * @param numSlots the number of slots on the page
+     */
+    static int getNumEmptySlots(byte[] header, int numSlots) {
+        int used = 0;
+        for (int i = 0; i < numSlots / 8; i++) {
+            used += Integer.bitCount(header[i] & 0xff);
+        }
+        if (numSlots % 8 != 0) {
+            used += Integer.bitCount(header[numSlots / 8] & ((1 << (numSlots % 8)) - 1));
+        }
+        return numSlots - used;
     }
 
     /**
@@ -98,6 +145,13 @@ public class HeapPage implements Page {
         return (int) Math.ceil(getNumTuples() / 8.0);
     }
 
+    /**
+     * @return the offset of slot i in the page data
+     */
+    private int slotOffset(int i) {
+        return headerSize + i * tupleSize;
+    }
+
     /**
      * Return a view of this page before it was modified
      * -- used by recovery
@@ -119,7 +173,21 @@ public class HeapPage implements Page {
 
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            oldData = data;
+            shared = true;
+        }
+    }
+
+    /**
+     * Copy the page data if the before image or a handed out tuple still
+     * refers to it; called before every change to it.
+     */
+    private void beforeWrite() {
+        synchronized (oldDataLock) {
+            if (shared) {
+                data = data.clone();
+                shared = false;
+            }
         }
     }
 
@@ -132,36 +200,24 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the tuple in slot i.  Its fields are decoded from the page
+     *         data the first time they are read.
+     * @throws NoSuchElementException if slot i is not in use.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    public Tuple getTuple(int i) throws NoSuchElementException {
+        if (i < 0 || i >= numSlots || !isSlotUsed(i)) {
+            throw new NoSuchElementException("slot " + i + " of page " + pid.getPageNumber() + " is not in use");
         }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+        if (tuples == null) {
+            tuples = new Tuple[numSlots];
+        }
+        Tuple t = tuples[i];
+        if (t == null) {
+            t = new Tuple(td, data, slotOffset(i));
+            t.setRecordId(new RecordId(pid, i));
+            tuples[i] = t;
+            shared = true;
         }
-
         return t;
     }
 
@@ -177,63 +233,7 @@ public class HeapPage implements Page {
      * @see #HeapPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return data.clone();
     }
 
     /**
@@ -246,8 +246,14 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.getPageSize();
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * As createEmptyPageData(), for a table whose pages are pageSize bytes.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -270,8 +276,12 @@ public class HeapPage implements Page {
         if (!isSlotUsed(tupleNo)) {
             throw new DbException("Slot is not");
         }
+        beforeWrite();
         markSlotUsed(tupleNo, false);
-        this.tuples[tupleNo] = null;
+        Arrays.fill(data, slotOffset(tupleNo), slotOffset(tupleNo + 1), (byte) 0);
+        if (tuples != null) {
+            tuples[tupleNo] = null;
+        }
     }
 
     /**
@@ -290,8 +300,14 @@ public class HeapPage implements Page {
         }
         for (int i = 0; i < numSlots; ++i) {
             if (!isSlotUsed(i)) {
+                byte[] bytes = serialize(t);
+                beforeWrite();
+                System.arraycopy(bytes, 0, data, slotOffset(i), tupleSize);
                 markSlotUsed(i, true);
                 t.setRecordId(new RecordId(pid, i));
+                if (tuples == null) {
+                    tuples = new Tuple[numSlots];
+                }
                 tuples[i] = t;
                 return;
             }
@@ -299,6 +315,28 @@ public class HeapPage implements Page {
         throw new DbException("The page is full");
     }
 
+    /**
+     * @return the fields of t as they are stored in a slot
+     * @throws DbException if a field of t has not been set
+     */
+    private byte[] serialize(Tuple t) throws DbException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(tupleSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                Field f = t.getField(j);
+                if (f == null) {
+                    throw new DbException("field " + j + " of the tuple is not set");
+                }
+                f.serialize(dos);
+            }
+        } catch (IOException e) {
+            // this really shouldn't happen
+            throw new DbException("cannot serialize tuple: " + e.getMessage());
+        }
+        return baos.toByteArray();
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -324,13 +362,14 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int emptyNum = 0;
-        for (int i = 0; i < numSlots; ++i) {
-            if (!isSlotUsed(i)) {
-                ++emptyNum;
-            }
-        }
-        return emptyNum;
+        return getNumEmptySlots(data, numSlots);
+    }
+
+    /**
+     * Tuples all have the same size, so any tuple fits if a slot is empty.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
     }
 
     /**
@@ -340,7 +379,7 @@ public class HeapPage implements Page {
         // some code goes here
         int index = i / 8;
         int offset = i % 8;
-        return (byte) (header[index] & (1 << offset)) != 0;
+        return (byte) (data[index] & (1 << offset)) != 0;
     }
 
     /**
@@ -352,8 +391,8 @@ public class HeapPage implements Page {
         int index = i / 8;
         int offset = i % 8;
         byte newValue = (byte) (1 << offset);
-        byte headerByte = this.header[index];
-        this.header[index] = value ? (byte) (headerByte | newValue) : (byte) (headerByte & ~newValue);
+        byte headerByte = this.data[index];
+        this.data[index] = value ? (byte) (headerByte | newValue) : (byte) (headerByte & ~newValue);
     }
 
     /**
@@ -362,7 +401,31 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        return new IteratorWrapper<>(tuples);
+        return new Iterator<Tuple>() {
+            private int next = nextUsedSlot(0);
+
+            @Override
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = getTuple(next);
+                next = nextUsedSlot(next + 1);
+                return t;
+            }
+        };
+    }
+
+    private int nextUsedSlot(int from) {
+        while (from < numSlots && !isSlotUsed(from)) {
+            from++;
+        }
+        return from;
     }
 
 }
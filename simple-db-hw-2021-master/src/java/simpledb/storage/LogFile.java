@@ -6,8 +6,11 @@ import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
-import java.lang.reflect.*;
+import java.util.concurrent.locks.LockSupport;
 
 /*
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -36,6 +39,51 @@ must not be declared synchronized and must begin with a block like:
        }
     }
 </pre>
+
+<p>
+<u> Group commit: </u>
+<p>
+
+With group commit enabled (the default), logCommit() appends its
+COMMIT record under the LogFile lock but does not force the log
+itself.  It then waits, outside that lock, until some force has
+covered its record.  The first committer to find no force in progress
+becomes the flusher: it optionally lingers for up to the maximum batch
+delay so that more committers can append, forces every record
+appended so far with a single fsync, and wakes all committers whose
+records are now durable.  Durability is tracked by LSN rather than
+file offset, so it stays monotonic across logTruncate().  The flush
+monitor is only ever taken after, never while holding, the LogFile
+lock.
+
+<p>
+<u> Log buffer and LSNs: </u>
+<p>
+
+Records are appended to an in-memory log buffer rather than written
+field by field to the file; the buffer is written to the end of the
+file with a single positional write whenever it fills up, and before
+the log is forced or read back.  Every appended record is assigned a
+log sequence number, one greater than the previous record's, which the
+append methods return.  force(lsn) makes the log durable up to a given
+record without waiting for records appended after it, which is what
+BufferPool uses to honor the write-ahead rule before writing a page.
+
+<p>
+<u> Checkpoints and recovery: </u>
+<p>
+
+The log keeps a dirty page table: for every page with logged updates
+that BufferPool has not yet written back, the offset of the oldest such
+record.  Checkpoints are fuzzy: they record the active transactions
+and the dirty page table without flushing the buffer pool, and only
+hold the LogFile lock while appending the checkpoint record.  Rolling
+back an update, at abort or during recovery, appends a compensation
+log record (CLR) so that redo never resurrects an undone change.
+recover() follows ARIES: an analysis pass from the last checkpoint
+rebuilds the active transaction and dirty page tables, a redo pass
+repeats history from the oldest dirty page entry, and an undo pass
+rolls back every transaction that neither committed nor aborted.
 */
 
 /**
@@ -55,8 +103,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are seven record types: ABORT, COMMIT, UPDATE, DELTA, CLR,
+BEGIN, and CHECKPOINT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -65,11 +113,29 @@ after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
+<li>DELTA RECORDS describe the same change as an UPDATE record, but
+only log the bytes of the page that changed.  They consist of the page
+type and page id (as at the start of serialized page data),
+followed by a {@link PageDelta}: the page length, the number of changed
+ranges, and for each range its offset, its length, its before bytes
+and its after bytes.  logWrite() writes a DELTA record whenever the
+before and after images have the same length.
+
+<li>CLR RECORDS compensate an update undone by rollback or recovery.
+They have the same contents as a DELTA record, whose redo re-applies
+the undo, followed by a long integer offset of the compensated record.
+
 <li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+the checkpoint was taken and their first log record on disk, followed
+by the dirty page table.  The format of the record is an integer count
+of the number of transactions, as well as a long integer transaction
+id and a long integer first record offset for each active transaction;
+then an integer count of dirty pages, as well as a page id (see
+writePageId) and a long integer record offset for each dirty page.
+
+<li> Pages and page ids are identified by the one byte code of their
+{@link PageType} rather than by class name, followed by a byte count of
+page id fields and the fields themselves as integers.
 
 </ul>
 */
@@ -84,17 +150,49 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int DELTA_RECORD = 6;
+    static final int CLR_RECORD = 7;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
+    /** Size of the in-memory log buffer, in bytes. */
+    static final int LOG_BUFFER_SIZE = 256 * 1024;
+    /** Size of the buffer through which rollback, recovery and truncation read the log. */
+    static final int READ_BUFFER_SIZE = 64 * 1024;
+
     long currentOffset = -1;//protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
+    /** LSN of the most recently appended record; 0 before the first. */
+    private long lastLsn = 0; //protected by this
+    /** Appended records not yet written to the file. */
+    private final ByteBuffer logBuffer = ByteBuffer.allocateDirect(LOG_BUFFER_SIZE); //protected by this
+    /** File offset at which the first byte of logBuffer belongs. */
+    private long bufferOffset = 0; //protected by this
+    /** Appends to logBuffer; all record fields are written through this. */
+    private final DataOutputStream out = new DataOutputStream(new LogBufferStream()); //protected by this
+
     final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
 
+    /** Dirty page table: offset of the oldest logged update of each page
+        that has not been written back since. */
+    final Map<PageId,Long> dirtyPages = new HashMap<>(); //protected by this
+
+    /** If false, every commit forces the log itself while holding the LogFile lock. */
+    private volatile boolean groupCommit = true;
+    /** How long a group commit flusher waits for more commit records to join its batch. */
+    private volatile long maxBatchDelayMicros = 0;
+
+    /** Guards durableLsn and flushing; never held while acquiring the LogFile lock. */
+    private final Object flushLock = new Object();
+    /** Records with LSNs up to and including durableLsn are known to be on disk. */
+    private long durableLsn = 0;
+    /** True while some committer is forcing the log on behalf of the group. */
+    private boolean flushing = false;
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -129,17 +227,58 @@ public class LogFile {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
             raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            logBuffer.clear();
+            bufferOffset = 0;
+            out.writeLong(NO_CHECKPOINT_ID);
+            currentOffset = appendOffset();
+        }
+    }
+
+    // File offset the next appended byte will land at.
+    private long appendOffset() {
+        return bufferOffset + logBuffer.position();
+    }
+
+    // Finish the record being appended with its start offset, and assign it
+    // the next LSN.
+    private long endRecord() throws IOException {
+        out.writeLong(currentOffset);
+        currentOffset = appendOffset();
+        return ++lastLsn;
+    }
+
+    /** Write the contents of the log buffer to the end of the log file.
+        Must be called before anything is read back through raf.
+    */
+    private synchronized void drainBuffer() throws IOException {
+        logBuffer.flip();
+        FileChannel channel = raf.getChannel();
+        while (logBuffer.hasRemaining()) {
+            bufferOffset += channel.write(logBuffer, bufferOffset);
         }
+        logBuffer.clear();
     }
 
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
+
+    /** @return the LSN of the most recently appended record, or 0 if none */
+    public synchronized long getLastLsn() {
+        return lastLsn;
+    }
+
+    /** Enable or disable group commit.
+        @param enabled If false, each logCommit() forces the log on its own.
+        @param maxBatchDelayMicros How long the flusher of a group waits for
+        more commit records before forcing the log; 0 forces immediately and
+        only batches commits that arrive while a force is in progress.
+    */
+    public void setGroupCommit(boolean enabled, long maxBatchDelayMicros) {
+        this.groupCommit = enabled;
+        this.maxBatchDelayMicros = maxBatchDelayMicros;
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
@@ -160,10 +299,9 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                out.writeInt(ABORT_RECORD);
+                out.writeLong(tid.getId());
+                endRecord();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -171,21 +309,89 @@ public class LogFile {
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk.  Returns only once the record is durable;
+        with group commit, the force may be shared with concurrent committers.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        long lsn;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            out.writeInt(COMMIT_RECORD);
+            out.writeLong(tid.getId());
+            lsn = endRecord();
+            if (!groupCommit) {
+                force();
+            }
+            tidToFirstLogRecord.remove(tid.getId());
+        }
+        if (groupCommit) {
+            awaitDurable(lsn);
+        }
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /** Block until the log is durable through the given LSN, either by
+        waiting for the force in progress or by forcing the log on behalf of
+        every caller that has appended so far.  Must not be called while
+        holding the LogFile lock.
+    */
+    private void awaitDurable(long lsn) throws IOException {
+        synchronized (flushLock) {
+            while (durableLsn < lsn) {
+                if (!flushing) {
+                    flushing = true;
+                    break;
+                }
+                try {
+                    flushLock.wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("interrupted waiting for group commit");
+                }
+            }
+            if (durableLsn >= lsn) {
+                return;
+            }
+        }
+
+        // we are the flusher of this group
+        long target = 0;
+        try {
+            if (maxBatchDelayMicros > 0) {
+                LockSupport.parkNanos(maxBatchDelayMicros * 1000);
+            }
+            FileChannel channel;
+            synchronized (this) {
+                drainBuffer();
+                target = lastLsn;
+                channel = raf.getChannel();
+            }
+            try {
+                channel.force(true);
+            } catch (ClosedChannelException e) {
+                // logTruncate() replaced the file meanwhile, and forced the
+                // rewritten log before closing this one
+            }
+        } finally {
+            synchronized (flushLock) {
+                durableLsn = Math.max(durableLsn, target);
+                flushing = false;
+                flushLock.notifyAll();
+            }
+        }
+    }
+
+    // Caller holds the LogFile lock and has just forced everything appended so far.
+    private void markDurable() {
+        synchronized (flushLock) {
+            if (lastLsn > durableLsn) {
+                durableLsn = lastLsn;
+                flushLock.notifyAll();
+            }
+        }
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -193,99 +399,291 @@ public class LogFile {
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
+        @return the LSN of the UPDATE record; the record is not necessarily
+        on disk until the log is forced up to it
 
         @see Page#getBeforeImage
+        @see #force(long)
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
         preAppend();
-        /* update record conists of
-
-           record type
-           transaction id
-           before page data (see writePageData)
-           after page data
-           start offset
-        */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        Debug.log("WRITE, offset = " + currentOffset);
+        byte[] beforeData = before.getPageData();
+        byte[] afterData = after.getPageData();
+        if (beforeData.length == afterData.length) {
+            /* delta record consists of
+
+               record type
+               transaction id
+               page type and page id (see writePageId)
+               changed byte ranges (see PageDelta.write)
+               start offset
+            */
+            out.writeInt(DELTA_RECORD);
+            out.writeLong(tid.getId());
+            writePageId(out, PageType.forPage(after), after.getId());
+            PageDelta.diff(beforeData, afterData).write(out);
+        } else {
+            /* update record conists of
+
+               record type
+               transaction id
+               before page data (see writePageData)
+               after page data
+               start offset
+            */
+            out.writeInt(UPDATE_RECORD);
+            out.writeLong(tid.getId());
+
+            writePageData(out,before);
+            writePageData(out,after);
+        }
+        dirtyPages.putIfAbsent(after.getId(), currentOffset);
+        long lsn = endRecord();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return lsn;
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int[] pageInfo = pid.serialize();
-
+    void writePageData(DataOutput out, Page p) throws IOException{
         //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
+        // page type code
+        // id field count
+        // id fields
+        // page data length
+        // page data
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
+        writePageId(out, PageType.forPage(p), p.getId());
 
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+        byte[] pageData = p.getPageData();
+        out.writeInt(pageData.length);
+        out.write(pageData);
+    }
 
-        raf.writeInt(pageInfo.length);
+    // Write a page id under the code of the given type of page.
+    void writePageId(DataOutput out, PageType type, PageId pid) throws IOException {
+        int[] pageInfo = pid.serialize();
+        out.writeByte(type.getCode());
+        out.writeByte(pageInfo.length);
         for (int j : pageInfo) {
-            raf.writeInt(j);
+            out.writeInt(j);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
+    // Write a page id that is not tied to a page, as in the dirty page table.
+    void writePageId(DataOutput out, PageId pid) throws IOException {
+        writePageId(out, PageType.forPageId(pid), pid);
+    }
+
+    Page readPageData(DataInput in) throws IOException {
+        PageType type = readPageType(in);
+        PageId pid = readPageId(in, type);
+
+        int pageSize = in.readInt();
+        byte[] pageData = new byte[pageSize];
+        in.readFully(pageData); //read before image
+
+        return type.newPage(pid, pageData);
+    }
+
+    PageType readPageType(DataInput in) throws IOException {
+        int code = in.readUnsignedByte();
+        PageType type = PageType.forCode(code);
+        if (type == null) {
+            throw new IOException("unknown page type " + code);
+        }
+        return type;
+    }
+
+    // Read the id fields that follow the page type written by writePageId.
+    PageId readPageId(DataInput in, PageType type) throws IOException {
+        int[] pageInfo = new int[in.readUnsignedByte()];
+        for (int i = 0; i < pageInfo.length; i++) {
+            pageInfo[i] = in.readInt();
+        }
+        return type.newPageId(pageInfo);
+    }
+
+    PageId readPageId(DataInput in) throws IOException {
+        return readPageId(in, readPageType(in));
+    }
+
+    /** Remove a page from the dirty page table once BufferPool has written
+        it back, so that recovery need not redo its logged updates.
+        @param pid The page that was written
+    */
+    public synchronized void logPageWritten(PageId pid) {
+        dirtyPages.remove(pid);
+    }
+
+    /** A log record read back by rollback, recovery or truncation. */
+    static class LogRecord {
+        int type;
+        final long tid;
+        final long offset;
+
+        // DELTA and CLR records; UPDATE records are read back as DELTA
+        PageType pageType;
         PageId pid;
-        Page newPage = null;
+        PageDelta delta;
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+        // CLR records: offset of the compensated update
+        long undoNext;
 
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
+        // CHECKPOINT records
+        Map<Long,Long> activeTxns;
+        Map<PageId,Long> dirtyPages;
 
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object[] idArgs = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = raf.readInt();
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
+        LogRecord(int type, long tid, long offset) {
+            this.type = type;
+            this.tid = tid;
+            this.offset = offset;
+        }
+    }
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+    // Read the record starting at the current position of in.  Returns
+    // null at the end of the log, including a last record that was only
+    // partly written when the database crashed.
+    LogRecord readRecord(LogReader in) throws IOException {
+        long start = in.position();
+        try {
+            LogRecord r = new LogRecord(in.readInt(), in.readLong(), start);
+            switch (r.type) {
+            case BEGIN_RECORD:
+            case COMMIT_RECORD:
+            case ABORT_RECORD:
+                break;
+            case UPDATE_RECORD:
+                Page before = readPageData(in);
+                Page after = readPageData(in);
+                r.type = DELTA_RECORD;
+                r.pageType = PageType.forPage(after);
+                r.pid = after.getId();
+                r.delta = PageDelta.diff(before.getPageData(), after.getPageData());
+                break;
+            case DELTA_RECORD:
+            case CLR_RECORD:
+                r.pageType = readPageType(in);
+                r.pid = readPageId(in, r.pageType);
+                r.delta = PageDelta.read(in);
+                if (r.type == CLR_RECORD) {
+                    r.undoNext = in.readLong();
+                }
+                break;
+            case CHECKPOINT_RECORD:
+                r.activeTxns = new HashMap<>();
+                int numXactions = in.readInt();
+                while (numXactions-- > 0) {
+                    long xid = in.readLong();
+                    r.activeTxns.put(xid, in.readLong());
+                }
+                r.dirtyPages = new HashMap<>();
+                int numDirty = in.readInt();
+                while (numDirty-- > 0) {
+                    PageId pid = readPageId(in);
+                    r.dirtyPages.put(pid, in.readLong());
+                }
+                break;
+            default:
+                return null;
+            }
+            if (in.readLong() != start) {
+                return null;
+            }
+            return r;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+    // Write a record read by readRecord() at newStart in another log file,
+    // moving the offsets it refers to back by shift bytes.
+    void writeRecord(DataOutput out, LogRecord r, long newStart, long shift) throws IOException {
+        out.writeInt(r.type);
+        out.writeLong(r.tid);
+        switch (r.type) {
+        case DELTA_RECORD:
+        case CLR_RECORD:
+            writePageId(out, r.pageType, r.pid);
+            r.delta.write(out);
+            if (r.type == CLR_RECORD) {
+                out.writeLong(r.undoNext - shift);
+            }
+            break;
+        case CHECKPOINT_RECORD:
+            out.writeInt(r.activeTxns.size());
+            for (Map.Entry<Long,Long> e : r.activeTxns.entrySet()) {
+                out.writeLong(e.getKey());
+                out.writeLong(e.getValue() - shift);
+            }
+            out.writeInt(r.dirtyPages.size());
+            for (Map.Entry<PageId,Long> e : r.dirtyPages.entrySet()) {
+                writePageId(out, e.getKey());
+                out.writeLong(e.getValue() - shift);
+            }
+            break;
+        }
+        out.writeLong(newStart);
+    }
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+    // Undo the update r on its page image and append a CLR compensating it.
+    private void undoUpdate(LogRecord r, PageImages images) throws IOException {
+        r.delta.undo(images.get(r));
+
+        out.writeInt(CLR_RECORD);
+        out.writeLong(r.tid);
+        writePageId(out, r.pageType, r.pid);
+        r.delta.inverse().write(out);
+        out.writeLong(r.offset);
+        dirtyPages.putIfAbsent(r.pid, currentOffset);
+        endRecord();
+    }
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+    /** Images of the pages touched by a rollback or by recovery.  Each page
+        is read from its file on first use, updated in memory by any number
+        of log records, and written back once at the end.
+    */
+    private class PageImages {
+        private final Map<PageId, byte[]> images = new HashMap<>();
+        private final Map<PageId, PageType> pageTypes = new HashMap<>();
+
+        byte[] get(LogRecord r) {
+            byte[] image = images.get(r.pid);
+            if (image == null) {
+                image = readImage(r);
+                images.put(r.pid, image);
+                pageTypes.put(r.pid, r.pageType);
+            }
+            return image;
+        }
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
-            e.printStackTrace();
-            throw new IOException();
+        private byte[] readImage(LogRecord r) {
+            DbFile file = Database.getCatalog().getDatabaseFile(r.pid.getTableId());
+            try {
+                Page page = file.readPage(r.pid);
+                if (page != null) {
+                    return page.getPageData();
+                }
+            } catch (IllegalArgumentException e) {
+                // the page was logged but never made it into the file
+            }
+            return new byte[r.delta.getPageLength()];
         }
-        return newPage;
 
+        // Caller holds the BufferPool lock and has forced the log.
+        void writeBack() throws IOException {
+            List<PageId> pids = new ArrayList<>(images.keySet());
+            // files can only grow one page at a time
+            pids.sort(Comparator.comparingInt(PageId::getPageNumber));
+            for (PageId pid : pids) {
+                DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                file.writePage(pageTypes.get(pid).newPage(pid, images.get(pid)));
+                Database.getBufferPool().discardPage(pid);
+                dirtyPages.remove(pid);
+            }
+        }
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -300,51 +698,49 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        out.writeInt(BEGIN_RECORD);
+        out.writeLong(tid.getId());
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        endRecord();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.  The checkpoint is
+        fuzzy: it records the active transactions and the dirty page table
+        instead of flushing the buffer pool, so transactions keep running
+        while it is taken.
+    */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+            preAppend();
+            long startCpOffset = appendOffset();
+            out.writeInt(CHECKPOINT_RECORD);
+            out.writeLong(-1); //no tid , but leave space for convenience
+
+            //write list of outstanding transactions
+            out.writeInt(tidToFirstLogRecord.size());
+            for (Map.Entry<Long,Long> e : tidToFirstLogRecord.entrySet()) {
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                out.writeLong(e.getKey());
+                out.writeLong(e.getValue());
+            }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+            //write the dirty page table
+            out.writeInt(dirtyPages.size());
+            for (Map.Entry<PageId,Long> e : dirtyPages.entrySet()) {
+                writePageId(out, e.getKey());
+                out.writeLong(e.getValue());
             }
+            endRecord();
+
+            //once the CP is durable, make sure the CP location at the
+            // beginning of the log file is updated
+            force();
+            raf.seek(0);
+            raf.writeLong(startCpOffset);
+            //Debug.log("CP OFFSET = " + currentOffset);
         }
 
         logTruncate();
@@ -354,95 +750,66 @@ public class LogFile {
         consumption */
     public synchronized void logTruncate() throws IOException {
         preAppend();
+        drainBuffer();
         raf.seek(0);
         long cpLoc = raf.readLong();
 
-        long minLogRecord = cpLoc;
-
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
+        // without a checkpoint, every record may still be needed
+        long minLogRecord = cpLoc == NO_CHECKPOINT_ID ? LONG_SIZE : cpLoc;
 
-            if (cpType != CHECKPOINT_RECORD) {
+        if (cpLoc != NO_CHECKPOINT_ID) {
+            LogRecord cp = readRecord(new LogReader(cpLoc));
+            if (cp == null || cp.type != CHECKPOINT_RECORD) {
                 throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
             }
 
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
+            // keep the first record of every active transaction, for
+            // undo, and the oldest record of every dirty page, for redo
+            for (long firstLogRecord : cp.activeTxns.values()) {
+                minLogRecord = Math.min(minLogRecord, firstLogRecord);
+            }
+            for (long recOffset : cp.dirtyPages.values()) {
+                minLogRecord = Math.min(minLogRecord, recOffset);
             }
         }
+        long shift = minLogRecord - LONG_SIZE;
 
         // we can truncate everything before minLogRecord
         File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
+        FileOutputStream logNew = new FileOutputStream(newFile);
+        DataOutputStream newOut = new DataOutputStream(new BufferedOutputStream(logNew));
+        newOut.writeLong(cpLoc == NO_CHECKPOINT_ID ? NO_CHECKPOINT_ID : cpLoc - shift);
 
         //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
+        LogReader in = new LogReader(minLogRecord);
+        LogRecord r;
+        while ((r = readRecord(in)) != null) {
+            long newStart = newOut.size();
+            Debug.log("NEW START = " + newStart);
+            if (r.type == BEGIN_RECORD) {
+                tidToFirstLogRecord.put(r.tid, newStart);
             }
+            writeRecord(newOut, r, newStart, shift);
         }
+        newOut.flush();
+        dirtyPages.replaceAll((pid, recOffset) -> recOffset - shift);
 
         Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
 
+        // a group commit flusher may still hold the old channel; the
+        // records it is waiting for must be durable before it goes away
+        logNew.getChannel().force(true);
+        logNew.close();
+        markDurable();
+
         raf.close();
         logFile.delete();
         newFile.renameTo(logFile);
         raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
         newFile.delete();
 
-        currentOffset = raf.getFilePointer();
+        bufferOffset = raf.length();
+        currentOffset = bufferOffset;
         //print();
     }
 
@@ -459,7 +826,29 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
+                drainBuffer();
                 // some code goes here
+                Long firstRecord = tidToFirstLogRecord.get(tid.getId());
+                if (firstRecord == null) {
+                    throw new NoSuchElementException("transaction " + tid.getId() + " is not live");
+                }
+
+                // collect the transaction's updates, then undo them newest first
+                List<LogRecord> updates = new ArrayList<>();
+                LogReader in = new LogReader(firstRecord);
+                LogRecord r;
+                while ((r = readRecord(in)) != null) {
+                    if (r.type == DELTA_RECORD && r.tid == tid.getId()) {
+                        updates.add(r);
+                    }
+                }
+                PageImages images = new PageImages();
+                for (int i = updates.size() - 1; i >= 0; i--) {
+                    undoUpdate(updates.get(i), images);
+                }
+                // write-ahead: the CLRs reach disk before the pages they describe
+                force();
+                images.writeBack();
             }
         }
     }
@@ -487,12 +876,102 @@ public class LogFile {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
+                logBuffer.clear();
+                tidToFirstLogRecord.clear();
+                dirtyPages.clear();
+                if (raf.length() < LONG_SIZE) {
+                    // nothing was ever logged; start an empty log
+                    raf.setLength(0);
+                    bufferOffset = 0;
+                    out.writeLong(NO_CHECKPOINT_ID);
+                    currentOffset = appendOffset();
+                    return;
+                }
+
+                // analysis: rebuild the active transaction and dirty page
+                // tables as of the crash, starting from the last checkpoint
+                raf.seek(0);
+                long cpLoc = raf.readLong();
+                LogReader in = new LogReader(cpLoc == NO_CHECKPOINT_ID ? LONG_SIZE : cpLoc);
+                Map<Long,Long> active = new HashMap<>();
+                Map<PageId,Long> dirty = new HashMap<>();
+                long end = in.position();
+                LogRecord r;
+                while ((r = readRecord(in)) != null) {
+                    end = in.position();
+                    switch (r.type) {
+                    case BEGIN_RECORD:
+                        active.put(r.tid, r.offset);
+                        break;
+                    case COMMIT_RECORD:
+                    case ABORT_RECORD:
+                        active.remove(r.tid);
+                        break;
+                    case DELTA_RECORD:
+                    case CLR_RECORD:
+                        active.putIfAbsent(r.tid, r.offset);
+                        dirty.putIfAbsent(r.pid, r.offset);
+                        break;
+                    case CHECKPOINT_RECORD:
+                        active.putAll(r.activeTxns);
+                        dirty.putAll(r.dirtyPages);
+                        break;
+                    }
+                }
+                // drop a record the crash left half written, and append after the rest
+                raf.setLength(end);
+                bufferOffset = end;
+                currentOffset = end;
+
+                // redo: repeat history for every page that may be missing
+                // some of its logged updates, CLRs included
+                PageImages images = new PageImages();
+                if (!dirty.isEmpty()) {
+                    in = new LogReader(Collections.min(dirty.values()));
+                    while ((r = readRecord(in)) != null) {
+                        Long recOffset = r.delta == null ? null : dirty.get(r.pid);
+                        if (recOffset != null && r.offset >= recOffset) {
+                            r.delta.redo(images.get(r));
+                        }
+                    }
+                }
+
+                // undo: roll back the losers newest update first, skipping
+                // updates that a CLR shows were already undone before the crash
+                if (!active.isEmpty()) {
+                    List<LogRecord> loserUpdates = new ArrayList<>();
+                    in = new LogReader(Collections.min(active.values()));
+                    while ((r = readRecord(in)) != null) {
+                        if (r.delta != null && active.containsKey(r.tid)) {
+                            loserUpdates.add(r);
+                        }
+                    }
+                    Map<Long,Long> undoNext = new HashMap<>();
+                    for (int i = loserUpdates.size() - 1; i >= 0; i--) {
+                        r = loserUpdates.get(i);
+                        long next = undoNext.getOrDefault(r.tid, Long.MAX_VALUE);
+                        if (r.type == CLR_RECORD) {
+                            undoNext.put(r.tid, Math.min(next, r.undoNext));
+                        } else if (r.offset < next) {
+                            undoUpdate(r, images);
+                        }
+                    }
+                    for (long tid : active.keySet()) {
+                        out.writeInt(ABORT_RECORD);
+                        out.writeLong(tid);
+                        endRecord();
+                    }
+                }
+
+                force();
+                images.writeBack();
             }
          }
     }
 
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
+        drainBuffer();
         long curOffset = raf.getFilePointer();
 
         raf.seek(0);
@@ -532,6 +1011,16 @@ public class LogFile {
                         System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
                         System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
                     }
+                    int numDirty = raf.readInt();
+                    System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF DIRTY PAGES: " + numDirty);
+
+                    while (numDirty-- > 0) {
+                        long pidStart = raf.getFilePointer();
+                        PageId pid = readPageId(raf);
+                        long recOffset = raf.readLong();
+                        System.out.println(pidStart + ": DIRTY PAGE: table id " + pid.getTableId() + " page number " + pid.getPageNumber());
+                        System.out.println((raf.getFilePointer() - LONG_SIZE) + ": RECOVERY LOG RECORD: " + recOffset);
+                    }
                     System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
 
                     break;
@@ -554,6 +1043,24 @@ public class LogFile {
 
                     System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
 
+                    break;
+                case DELTA_RECORD:
+                case CLR_RECORD:
+                    System.out.println(cpType == DELTA_RECORD ? " (DELTA)" : " (CLR)");
+
+                    long deltaStart = raf.getFilePointer();
+                    PageType pageType = readPageType(raf);
+                    PageId pid = readPageId(raf, pageType);
+                    PageDelta delta = PageDelta.read(raf);
+
+                    System.out.println(deltaStart + ": page type " + pageType.getCode() + " table id " + pid.getTableId() + " page number " + pid.getPageNumber());
+                    System.out.println(deltaStart + " TO " + raf.getFilePointer() + ": " + delta.numRanges() + " changed ranges");
+                    if (cpType == CLR_RECORD) {
+                        System.out.println(raf.getFilePointer() + ": UNDO NEXT: " + raf.readLong());
+                    }
+
+                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+
                     break;
                 }
 
@@ -567,8 +1074,115 @@ public class LogFile {
         raf.seek(curOffset);
     }
 
+    /** Force every record appended so far to disk. */
     public  synchronized void force() throws IOException {
+        drainBuffer();
         raf.getChannel().force(true);
+        markDurable();
+    }
+
+    /** Force the log to disk at least up to the record with the given LSN.
+        Returns at once if that record is already durable.  Otherwise the
+        force is shared with concurrent committers when group commit is on,
+        unless the caller holds the LogFile lock (e.g. a checkpoint flushing
+        the buffer pool), in which case it forces the log itself.
+
+        @param lsn The LSN returned when the record was appended
+    */
+    public void force(long lsn) throws IOException {
+        synchronized (flushLock) {
+            if (durableLsn >= lsn) {
+                return;
+            }
+        }
+        if (groupCommit && !Thread.holdsLock(this)) {
+            awaitDurable(lsn);
+        } else {
+            force();
+        }
+    }
+
+    // Appends bytes to the log buffer, writing the buffer out whenever it fills up.
+    private class LogBufferStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            if (!logBuffer.hasRemaining()) {
+                drainBuffer();
+            }
+            logBuffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!logBuffer.hasRemaining()) {
+                    drainBuffer();
+                }
+                int n = Math.min(len, logBuffer.remaining());
+                logBuffer.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+    }
+
+    /** Reads the log from a given file offset onwards.  Reads go through a
+        buffer, rather than costing a system call per field as reading raf
+        directly does, so scanning a long log stays cheap.
+    */
+    class LogReader extends DataInputStream {
+        LogReader(long offset) {
+            super(new LogFileStream(offset));
+        }
+
+        /** @return the file offset of the next byte to be read. */
+        long position() {
+            return ((LogFileStream) in).position();
+        }
+    }
+
+    // Reads the log file in READ_BUFFER_SIZE chunks, starting at an offset.
+    private class LogFileStream extends InputStream {
+        private final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private long bufferStart; // file offset of the first byte in buffer
+
+        LogFileStream(long offset) {
+            bufferStart = offset;
+            buffer.limit(0);
+        }
+
+        long position() {
+            return bufferStart + buffer.position();
+        }
+
+        private boolean fill() throws IOException {
+            bufferStart += buffer.position();
+            buffer.clear();
+            int n = raf.getChannel().read(buffer, bufferStart);
+            buffer.flip();
+            return n > 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!buffer.hasRemaining() && !fill()) {
+                return -1;
+            }
+            return buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining() && !fill()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
     }
 
 }
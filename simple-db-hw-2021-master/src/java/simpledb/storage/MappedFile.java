@@ -0,0 +1,71 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only memory mapping of a whole file, from which DbFiles in
+ * read-only mode serve their pages.  A single MappedByteBuffer cannot
+ * exceed 2GB, so the file is mapped in segments; consecutive segments
+ * overlap by the largest slice that will be asked for, so that every slice
+ * lies within one segment.
+ * <p>
+ * The mapping covers the file as it was when it was mapped.  Slices are
+ * independent views of the mapping and can be used from any thread.
+ *
+ * @see DbFile#mapReadOnly
+ */
+public class MappedFile {
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final long length;
+    private final int maxSlice;
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * Map f read-only.
+     *
+     * @param maxSlice the length of the longest slice that will be asked
+     *                 for, usually the page size
+     */
+    public MappedFile(File f, int maxSlice) throws IOException {
+        this.maxSlice = maxSlice;
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r");
+             FileChannel channel = raf.getChannel()) {
+            length = channel.size();
+            segments = new MappedByteBuffer[(int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * SEGMENT_SIZE;
+                long size = Math.min(length - start, SEGMENT_SIZE + maxSlice);
+                // the mapping stays valid after the channel is closed
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            }
+        }
+    }
+
+    /** @return the length of the file when it was mapped, in bytes. */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * @return a read-only view of length bytes of the file from offset, with
+     *         its position at the first of them.
+     * @throws IllegalArgumentException if the bytes lie past the end of the
+     *                                  mapping or length exceeds maxSlice
+     */
+    public ByteBuffer slice(long offset, int length) {
+        if (offset < 0 || length > maxSlice || offset + length > this.length) {
+            throw new IllegalArgumentException("no " + length + " bytes at offset " + offset + " in mapped file");
+        }
+        ByteBuffer segment = segments[(int) (offset / SEGMENT_SIZE)].duplicate();
+        int start = (int) (offset % SEGMENT_SIZE);
+        segment.limit(start + length);
+        segment.position(start);
+        return segment.slice();
+    }
+}
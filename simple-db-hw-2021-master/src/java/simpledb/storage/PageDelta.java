@@ -0,0 +1,153 @@
+package simpledb.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The difference between two images of the same page, as the byte ranges
+ * in which they differ together with the before and after bytes of each
+ * range.  Since pages serialize their header and each slot or entry at a
+ * fixed offset, the ranges of a HeapPage update are the changed header
+ * bytes and tuple slots, and those of a B+ tree page the entries that were
+ * written or shifted.
+ * <p>
+ * A delta can be replayed onto a page image in either direction: redo turns
+ * the before image into the after image and undo the reverse.  Both only
+ * touch the changed ranges, so applying either one twice is harmless.
+ *
+ * @see LogFile
+ */
+public class PageDelta {
+    /**
+     * Ranges separated by at most this many unchanged bytes are logged as
+     * one; storing the gap twice costs no more than another range header.
+     */
+    private static final int MERGE_GAP = 4;
+
+    private final int pageLength;
+    private final int[] offsets;
+    private final byte[][] before;
+    private final byte[][] after;
+
+    private PageDelta(int pageLength, int[] offsets, byte[][] before, byte[][] after) {
+        this.pageLength = pageLength;
+        this.offsets = offsets;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * @return the delta that turns the page data before into after.
+     * @throws IllegalArgumentException if the images differ in length.
+     */
+    public static PageDelta diff(byte[] before, byte[] after) {
+        if (before.length != after.length) {
+            throw new IllegalArgumentException("page images differ in length");
+        }
+        List<int[]> ranges = new ArrayList<>();
+        int i = 0;
+        while (i < after.length) {
+            if (before[i] == after[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1;
+            // extend over further changes until the gap gets too wide
+            for (int j = end; j < after.length && j - end <= MERGE_GAP; j++) {
+                if (before[j] != after[j]) {
+                    end = j + 1;
+                }
+            }
+            ranges.add(new int[]{start, end});
+            i = end;
+        }
+
+        int[] offsets = new int[ranges.size()];
+        byte[][] beforeBytes = new byte[ranges.size()][];
+        byte[][] afterBytes = new byte[ranges.size()][];
+        for (int r = 0; r < ranges.size(); r++) {
+            int start = ranges.get(r)[0];
+            int end = ranges.get(r)[1];
+            offsets[r] = start;
+            beforeBytes[r] = copy(before, start, end);
+            afterBytes[r] = copy(after, start, end);
+        }
+        return new PageDelta(before.length, offsets, beforeBytes, afterBytes);
+    }
+
+    private static byte[] copy(byte[] data, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        System.arraycopy(data, start, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    /** Apply the after bytes of every range to the page data, in place. */
+    public void redo(byte[] page) {
+        apply(page, after);
+    }
+
+    /** Apply the before bytes of every range to the page data, in place. */
+    public void undo(byte[] page) {
+        apply(page, before);
+    }
+
+    private void apply(byte[] page, byte[][] bytes) {
+        if (page.length != pageLength) {
+            throw new IllegalArgumentException("delta is for pages of " + pageLength + " bytes");
+        }
+        for (int r = 0; r < offsets.length; r++) {
+            System.arraycopy(bytes[r], 0, page, offsets[r], bytes[r].length);
+        }
+    }
+
+    /** @return the delta that undoes this one: its redo is this delta's undo. */
+    public PageDelta inverse() {
+        return new PageDelta(pageLength, offsets, after, before);
+    }
+
+    /** @return the length of the page images this delta applies to. */
+    public int getPageLength() {
+        return pageLength;
+    }
+
+    /** @return the number of changed ranges. */
+    public int numRanges() {
+        return offsets.length;
+    }
+
+    /**
+     * Serialized form: page length, number of ranges, then for each range
+     * its offset, its length, the before bytes and the after bytes.
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(pageLength);
+        out.writeInt(offsets.length);
+        for (int r = 0; r < offsets.length; r++) {
+            out.writeInt(offsets[r]);
+            out.writeInt(before[r].length);
+            out.write(before[r]);
+            out.write(after[r]);
+        }
+    }
+
+    public static PageDelta read(DataInput in) throws IOException {
+        int pageLength = in.readInt();
+        int n = in.readInt();
+        int[] offsets = new int[n];
+        byte[][] before = new byte[n][];
+        byte[][] after = new byte[n][];
+        for (int r = 0; r < n; r++) {
+            offsets[r] = in.readInt();
+            int length = in.readInt();
+            before[r] = new byte[length];
+            in.readFully(before[r]);
+            after[r] = new byte[length];
+            in.readFully(after[r]);
+        }
+        return new PageDelta(pageLength, offsets, before, after);
+    }
+}
@@ -0,0 +1,137 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeHeaderPage;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the kinds of pages that can appear in the log.  Each page type
+ * has a small numeric code, which LogFile writes in place of the page and
+ * page id class names, and factories that rebuild its page ids and pages
+ * from their serialized form without reflection.  New page implementations
+ * register themselves with {@link #register}.
+ *
+ * @see LogFile
+ */
+public class PageType {
+    /** Builds a page id from the fields returned by {@link PageId#serialize()}. */
+    public interface PageIdFactory {
+        PageId create(int[] fields);
+    }
+
+    /** Builds a page from its id and page data. */
+    public interface PageFactory {
+        Page create(PageId pid, byte[] data) throws IOException;
+    }
+
+    private static final Map<Integer, PageType> byCode = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, PageType> byPageClass = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, PageType> byIdClass = new ConcurrentHashMap<>();
+
+    public static final PageType HEAP = register(1, HeapPage.class, HeapPageId.class,
+            fields -> new HeapPageId(fields[0], fields[1]),
+            (pid, data) -> new HeapPage((HeapPageId) pid, data));
+    public static final PageType BTREE_ROOT_PTR = register(2, BTreeRootPtrPage.class, BTreePageId.class,
+            PageType::btreePageId,
+            (pid, data) -> new BTreeRootPtrPage((BTreePageId) pid, data));
+    public static final PageType BTREE_INTERNAL = register(3, BTreeInternalPage.class, BTreePageId.class,
+            PageType::btreePageId,
+            (pid, data) -> new BTreeInternalPage((BTreePageId) pid, data, keyField(pid)));
+    public static final PageType BTREE_LEAF = register(4, BTreeLeafPage.class, BTreePageId.class,
+            PageType::btreePageId,
+            (pid, data) -> new BTreeLeafPage((BTreePageId) pid, data, keyField(pid)));
+    public static final PageType BTREE_HEADER = register(5, BTreeHeaderPage.class, BTreePageId.class,
+            PageType::btreePageId,
+            (pid, data) -> new BTreeHeaderPage((BTreePageId) pid, data));
+    public static final PageType SLOTTED_HEAP = register(6, SlottedHeapPage.class, HeapPageId.class,
+            fields -> new HeapPageId(fields[0], fields[1]),
+            (pid, data) -> new SlottedHeapPage((HeapPageId) pid, data));
+    public static final PageType PAX_HEAP = register(7, PaxPage.class, HeapPageId.class,
+            fields -> new HeapPageId(fields[0], fields[1]),
+            (pid, data) -> new PaxPage((HeapPageId) pid, data));
+
+    private final int code;
+    private final PageIdFactory ids;
+    private final PageFactory pages;
+
+    private PageType(int code, PageIdFactory ids, PageFactory pages) {
+        this.code = code;
+        this.ids = ids;
+        this.pages = pages;
+    }
+
+    /**
+     * Register a page implementation.  The first type registered for a page
+     * id class is also used to encode bare page ids of that class.
+     *
+     * @param code      the code written to the log, between 1 and 255.
+     * @param pageClass the page implementation.
+     * @param idClass   the page id implementation its pages use.
+     * @throws IllegalArgumentException if the code is out of range or taken.
+     */
+    public static PageType register(int code, Class<? extends Page> pageClass, Class<? extends PageId> idClass,
+                                    PageIdFactory ids, PageFactory pages) {
+        if (code < 1 || code > 255) {
+            throw new IllegalArgumentException("page type code out of range: " + code);
+        }
+        PageType type = new PageType(code, ids, pages);
+        if (byCode.putIfAbsent(code, type) != null) {
+            throw new IllegalArgumentException("page type code already registered: " + code);
+        }
+        byPageClass.put(pageClass, type);
+        byIdClass.putIfAbsent(idClass, type);
+        return type;
+    }
+
+    /** @return the type registered under code, or null if there is none. */
+    public static PageType forCode(int code) {
+        return byCode.get(code);
+    }
+
+    /** @throws IllegalArgumentException if the page's class was never registered. */
+    public static PageType forPage(Page page) {
+        PageType type = byPageClass.get(page.getClass());
+        if (type == null) {
+            throw new IllegalArgumentException("unregistered page type " + page.getClass().getName());
+        }
+        return type;
+    }
+
+    /** @throws IllegalArgumentException if the page id's class was never registered. */
+    public static PageType forPageId(PageId pid) {
+        PageType type = byIdClass.get(pid.getClass());
+        if (type == null) {
+            throw new IllegalArgumentException("unregistered page id type " + pid.getClass().getName());
+        }
+        return type;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public PageId newPageId(int[] fields) {
+        return ids.create(fields);
+    }
+
+    public Page newPage(PageId pid, byte[] data) throws IOException {
+        return pages.create(pid, data);
+    }
+
+    private static PageId btreePageId(int[] fields) {
+        return new BTreePageId(fields[0], fields[1], fields[2]);
+    }
+
+    // B+ tree leaf and internal pages also need the key field of their file
+    private static int keyField(PageId pid) {
+        return ((BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId())).keyField();
+    }
+}
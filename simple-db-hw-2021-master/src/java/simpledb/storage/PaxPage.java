@@ -0,0 +1,276 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A page of a HeapFile in the PAX format: the page holds as many tuples as
+ * a HeapPage and has the same header, a bitmap of the used slots, but the
+ * values are grouped by column.  After the header comes one minipage per
+ * field, holding the values of that field for every slot, in slot order,
+ * each in the format Field.serialize writes.
+ * <p>
+ * A scan that needs only some of the columns reads them as contiguous runs
+ * of values, see {@link #readIntColumn}, and never touches the bytes of the
+ * others.
+ *
+ * @see HeapFile.PageFormat#PAX
+ * @see simpledb.execution.ColumnScan
+ */
+public class PaxPage implements TuplePage {
+    private final HeapPageId pid;
+    private final TupleDesc td;
+    private final int numSlots;
+    /** Offset of the minipage of each field in the page data. */
+    private final int[] columnOffsets;
+    private byte[] data;
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+    private TransactionId tid;
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.
+     */
+    public PaxPage(HeapPageId id, byte[] data) {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()),
+                Database.getCatalog().getPageSize(id.getTableId()), ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a PaxPage of pageSize bytes of a table with the specified
+     * TupleDesc from the page data between the position and the limit of a
+     * buffer.  The buffer is not referenced after the constructor returns.
+     */
+    PaxPage(HeapPageId id, TupleDesc td, int pageSize, ByteBuffer buf) {
+        this.pid = id;
+        this.td = td;
+        this.numSlots = HeapPage.getNumTuples(td, pageSize);
+        this.columnOffsets = new int[td.numFields()];
+        int offset = (numSlots + 7) / 8;
+        for (int i = 0; i < td.numFields(); i++) {
+            columnOffsets[i] = offset;
+            offset += numSlots * td.getFieldType(i).getLen();
+        }
+        this.data = new byte[pageSize];
+        buf.get(this.data, 0, Math.min(buf.remaining(), this.data.length));
+        setBeforeImage();
+    }
+
+    // offset of the value of field i of slot
+    private int valueOffset(int slot, int i) {
+        return columnOffsets[i] + slot * td.getFieldType(i).getLen();
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public PaxPage getBeforeImage() {
+        byte[] oldDataRef;
+        synchronized (oldDataLock) {
+            oldDataRef = oldData;
+        }
+        return new PaxPage(pid, td, oldDataRef.length, ByteBuffer.wrap(oldDataRef));
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = data.clone();
+        }
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.tid = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return tid;
+    }
+
+    public int getNumEmptySlots() {
+        return HeapPage.getNumEmptySlots(data, numSlots);
+    }
+
+    /**
+     * Tuples all have the same size, so any tuple fits if a slot is empty.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlots && (data[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value) {
+            data[i / 8] |= (byte) (1 << (i % 8));
+        } else {
+            data[i / 8] &= (byte) ~(1 << (i % 8));
+        }
+    }
+
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("TupleDesc mismatch");
+        }
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (!isSlotUsed(slot)) {
+                for (int i = 0; i < td.numFields(); i++) {
+                    Field f = t.getField(i);
+                    if (f == null) {
+                        throw new DbException("field " + i + " of the tuple is not set");
+                    }
+                    byte[] value = serialize(f);
+                    System.arraycopy(value, 0, data, valueOffset(slot, i), value.length);
+                }
+                markSlotUsed(slot, true);
+                t.setRecordId(new RecordId(pid, slot));
+                return;
+            }
+        }
+        throw new DbException("The page is full");
+    }
+
+    private static byte[] serialize(Field f) throws DbException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(f.getType().getLen());
+        try {
+            f.serialize(new DataOutputStream(baos));
+        } catch (IOException e) {
+            // this really shouldn't happen
+            throw new DbException("cannot serialize field: " + e.getMessage());
+        }
+        return baos.toByteArray();
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId recordId = t.getRecordId();
+        if (recordId == null || !pid.equals(recordId.getPageId())) {
+            throw new DbException("PageId mismatches.");
+        }
+        int slot = recordId.getTupleNumber();
+        if (!isSlotUsed(slot)) {
+            throw new DbException("Slot is not used");
+        }
+        markSlotUsed(slot, false);
+        // empty slots are written out as zeros
+        for (int i = 0; i < td.numFields(); i++) {
+            int offset = valueOffset(slot, i);
+            Arrays.fill(data, offset, offset + td.getFieldType(i).getLen(), (byte) 0);
+        }
+    }
+
+    /**
+     * @return the value of field i of the tuple in slot, which must be used.
+     */
+    public Field getField(int slot, int i) {
+        return td.getFieldType(i).parse(data, valueOffset(slot, i));
+    }
+
+    /**
+     * @return the number of tuple slots on this page.
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Copy the numbers of the used slots into slots, in order.
+     *
+     * @param slots an array of at least {@link #getNumSlots} slots.
+     * @return the number of used slots.
+     */
+    public int readUsedSlots(int[] slots) {
+        int n = 0;
+        for (int slot = 0; slot < numSlots; slot++) {
+            if ((data[slot / 8] & (1 << (slot % 8))) != 0) {
+                slots[n++] = slot;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Decode the values of int field i of the used slots into values, in
+     * slot order, the same order as {@link #readUsedSlots}.
+     *
+     * @return the number of values read.
+     * @throws IllegalArgumentException if field i is not an int field.
+     */
+    public int readIntColumn(int i, int[] values) {
+        if (td.getFieldType(i) != Type.INT_TYPE) {
+            throw new IllegalArgumentException("field " + i + " is not an int field");
+        }
+        int n = 0;
+        int offset = columnOffsets[i];
+        for (int slot = 0; slot < numSlots; slot++, offset += 4) {
+            if ((data[slot / 8] & (1 << (slot % 8))) != 0) {
+                values[n++] = (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16
+                        | (data[offset + 2] & 0xff) << 8 | (data[offset + 3] & 0xff);
+            }
+        }
+        return n;
+    }
+
+    private Tuple readTuple(int slot) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            t.setField(i, getField(slot, i));
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    public Tuple getTuple(int i) throws NoSuchElementException {
+        if (i < 0 || i >= numSlots || !isSlotUsed(i)) {
+            throw new NoSuchElementException("slot " + i + " of page " + pid.getPageNumber() + " is not in use");
+        }
+        return readTuple(i);
+    }
+
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int next = nextUsedSlot(0);
+
+            @Override
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = readTuple(next);
+                next = nextUsedSlot(next + 1);
+                return t;
+            }
+        };
+    }
+
+    private int nextUsedSlot(int from) {
+        while (from < numSlots && !isSlotUsed(from)) {
+            from++;
+        }
+        return from;
+    }
+}
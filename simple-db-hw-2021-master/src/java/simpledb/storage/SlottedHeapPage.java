@@ -0,0 +1,382 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A page of a HeapFile in the slotted page format, which stores tuples as
+ * variable-length records: a string takes as many bytes as it has
+ * characters, where HeapPage always spends Type.STRING_LEN on it.
+ * <p>
+ * The page starts with two unsigned shorts, the number of slots and the
+ * offset at which record data begins, followed by the slot directory: the
+ * offset and length of the record in each slot, both unsigned shorts, with
+ * offset 0 for an empty slot.  Records are packed at the end of the page
+ * and grow towards the slot directory.  A page of zeros is an empty page.
+ * <p>
+ * A record holds the fields of a tuple in order: an int as 4 bytes, a
+ * string as an unsigned short length followed by its characters, one byte
+ * each as StringField writes them.
+ * <p>
+ * A tuple keeps its slot for as long as it is on the page, so RecordIds
+ * stay valid.  The space of deleted records is reclaimed by compacting the
+ * page when an insert needs it.
+ *
+ * @see HeapFile.PageFormat#SLOTTED
+ */
+public class SlottedHeapPage implements TuplePage {
+    private static final int HEADER_SIZE = 4;
+    private static final int SLOT_SIZE = 4;
+    /** Largest page whose offsets fit the unsigned shorts of the slot directory. */
+    static final int MAX_PAGE_SIZE = 1 << 16;
+
+    private final HeapPageId pid;
+    private final TupleDesc td;
+    /** Size of the smallest record of this table: all strings empty. */
+    private final int minRecordSize;
+    private byte[] data;
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+    private TransactionId tid;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk.
+     *
+     * @throws IOException if the data is not a slotted page
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()),
+                Database.getCatalog().getPageSize(id.getTableId()), ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a SlottedHeapPage of pageSize bytes of a table with the
+     * specified TupleDesc from the page data between the position and the
+     * limit of a buffer.  The buffer is not referenced after the
+     * constructor returns.
+     *
+     * @throws IOException if the data is not a slotted page
+     */
+    SlottedHeapPage(HeapPageId id, TupleDesc td, int pageSize, ByteBuffer buf) throws IOException {
+        this.pid = id;
+        this.td = td;
+        this.minRecordSize = getMinRecordSize(td);
+        this.data = new byte[pageSize];
+        buf.get(this.data, 0, Math.min(buf.remaining(), this.data.length));
+        if (HEADER_SIZE + numSlots() * SLOT_SIZE > dataStart()) {
+            throw new IOException("page " + id.getPageNumber() + " is not a slotted page");
+        }
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of bytes the tuple takes as a record on a slotted
+     *         page, not counting its slot
+     */
+    public static int getRecordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                size += 2 + Math.min(((StringField) t.getField(i)).getValue().length(), Type.STRING_LEN);
+            } else {
+                size += td.getFieldType(i).getLen();
+            }
+        }
+        return size;
+    }
+
+    private static int getMinRecordSize(TupleDesc td) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            size += td.getFieldType(i) == Type.STRING_TYPE ? 2 : td.getFieldType(i).getLen();
+        }
+        return size;
+    }
+
+    private static int getShort(byte[] b, int off) {
+        return (b[off] & 0xff) << 8 | (b[off + 1] & 0xff);
+    }
+
+    private static void putShort(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 8);
+        b[off + 1] = (byte) v;
+    }
+
+    private int numSlots() {
+        return getShort(data, 0);
+    }
+
+    // 0 stands for the end of the page, as in an empty page
+    private int dataStart() {
+        int start = getShort(data, 2);
+        return start == 0 ? data.length : start;
+    }
+
+    private void setDataStart(int start) {
+        putShort(data, 2, start == data.length ? 0 : start);
+    }
+
+    private int recordOffset(int i) {
+        return getShort(data, HEADER_SIZE + i * SLOT_SIZE);
+    }
+
+    private int recordLength(int i) {
+        return getShort(data, HEADER_SIZE + i * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int i, int offset, int length) {
+        putShort(data, HEADER_SIZE + i * SLOT_SIZE, offset);
+        putShort(data, HEADER_SIZE + i * SLOT_SIZE + 2, length);
+    }
+
+    /**
+     * @return the bytes not taken by the header, the slot directory or the
+     *         records of the tuples on the page
+     */
+    private int freeBytes() {
+        int free = data.length - HEADER_SIZE - numSlots() * SLOT_SIZE;
+        for (int i = 0; i < numSlots(); i++) {
+            free -= recordLength(i);
+        }
+        return free;
+    }
+
+    private int firstEmptySlot() {
+        for (int i = 0; i < numSlots(); i++) {
+            if (recordOffset(i) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new SlottedHeapPage(pid, td, oldDataRef.length, ByteBuffer.wrap(oldDataRef));
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = data.clone();
+        }
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.tid = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return tid;
+    }
+
+    public int getNumEmptySlots() {
+        int free = freeBytes();
+        int reusable = 0;
+        for (int i = 0; i < numSlots(); i++) {
+            if (recordOffset(i) == 0) {
+                reusable++;
+            }
+        }
+        // empty slots take the first records, then each needs a new slot too
+        int fit = Math.min(reusable, free / minRecordSize);
+        return fit + (free - fit * minRecordSize) / (minRecordSize + SLOT_SIZE);
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        int needed = getRecordSize(t) + (firstEmptySlot() >= 0 ? 0 : SLOT_SIZE);
+        return needed <= freeBytes();
+    }
+
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlots() && recordOffset(i) != 0;
+    }
+
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("TupleDesc mismatch");
+        }
+        if (!hasRoomFor(t)) {
+            throw new DbException("The page is full");
+        }
+        byte[] record = serialize(t);
+        int slot = firstEmptySlot();
+        int numSlots = numSlots();
+        int directoryEnd = HEADER_SIZE + (slot >= 0 ? numSlots : numSlots + 1) * SLOT_SIZE;
+        if (dataStart() - record.length < directoryEnd) {
+            compact();
+        }
+        int start = dataStart() - record.length;
+        System.arraycopy(record, 0, data, start, record.length);
+        setDataStart(start);
+        if (slot < 0) {
+            slot = numSlots;
+            putShort(data, 0, numSlots + 1);
+        }
+        setSlot(slot, start, record.length);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId recordId = t.getRecordId();
+        if (recordId == null || !pid.equals(recordId.getPageId())) {
+            throw new DbException("PageId mismatches.");
+        }
+        int slot = recordId.getTupleNumber();
+        if (!isSlotUsed(slot)) {
+            throw new DbException("Slot is not used");
+        }
+        int offset = recordOffset(slot);
+        int length = recordLength(slot);
+        Arrays.fill(data, offset, offset + length, (byte) 0);
+        if (offset == dataStart()) {
+            setDataStart(offset + length);
+        }
+        setSlot(slot, 0, 0);
+        // drop empty slots at the end of the directory; no RecordId refers to them
+        int numSlots = numSlots();
+        while (numSlots > 0 && recordOffset(numSlots - 1) == 0) {
+            numSlots--;
+        }
+        putShort(data, 0, numSlots);
+        if (numSlots == 0) {
+            setDataStart(data.length);
+        }
+    }
+
+    // Move the records to the end of the page, closing the gaps left by
+    // deleted ones.
+    private void compact() {
+        byte[] packed = new byte[data.length];
+        int numSlots = numSlots();
+        System.arraycopy(data, 0, packed, 0, HEADER_SIZE + numSlots * SLOT_SIZE);
+        int end = data.length;
+        for (int i = 0; i < numSlots; i++) {
+            int offset = recordOffset(i);
+            if (offset != 0) {
+                int length = recordLength(i);
+                end -= length;
+                System.arraycopy(data, offset, packed, end, length);
+                putShort(packed, HEADER_SIZE + i * SLOT_SIZE, end);
+            }
+        }
+        data = packed;
+        setDataStart(end);
+    }
+
+    private static byte[] serialize(Tuple t) throws DbException {
+        TupleDesc td = t.getTupleDesc();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(getRecordSize(t));
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                Field f = t.getField(i);
+                if (f == null) {
+                    throw new DbException("field " + i + " of the tuple is not set");
+                }
+                if (td.getFieldType(i) == Type.STRING_TYPE) {
+                    String s = ((StringField) f).getValue();
+                    if (s.length() > Type.STRING_LEN) {
+                        s = s.substring(0, Type.STRING_LEN);
+                    }
+                    dos.writeShort(s.length());
+                    dos.writeBytes(s);
+                } else {
+                    f.serialize(dos);
+                }
+            }
+        } catch (IOException e) {
+            // this really shouldn't happen
+            throw new DbException("cannot serialize tuple: " + e.getMessage());
+        }
+        return baos.toByteArray();
+    }
+
+    private Tuple readTuple(int slot) {
+        Tuple t = new Tuple(td);
+        int offset = recordOffset(slot);
+        for (int i = 0; i < td.numFields(); i++) {
+            Type type = td.getFieldType(i);
+            if (type == Type.STRING_TYPE) {
+                int length = getShort(data, offset);
+                t.setField(i, new StringField(new String(data, offset + 2, length), Type.STRING_LEN));
+                offset += 2 + length;
+            } else {
+                t.setField(i, type.parse(data, offset));
+                offset += type.getLen();
+            }
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    public Tuple getTuple(int i) throws NoSuchElementException {
+        if (!isSlotUsed(i)) {
+            throw new NoSuchElementException("slot " + i + " of page " + pid.getPageNumber() + " is not in use");
+        }
+        return readTuple(i);
+    }
+
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int next = nextUsedSlot(0);
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = readTuple(next);
+                next = nextUsedSlot(next + 1);
+                return t;
+            }
+        };
+    }
+
+    // -1 if no slot from on is used
+    private int nextUsedSlot(int from) {
+        for (int i = from; i < numSlots(); i++) {
+            if (recordOffset(i) != 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -2,6 +2,8 @@ package simpledb.storage;
 
 import simpledb.utils.IteratorWrapper;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -22,6 +24,10 @@ public class Tuple implements Serializable {
 
     private Field[] fields;
 
+    /** Serialized tuple that unset fields are decoded from on first use, if any. */
+    private transient byte[] source;
+    private transient int sourceOffset;
+
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -35,6 +41,17 @@ public class Tuple implements Serializable {
         fields = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple stored, serialized, at offset in data.  Its fields
+     * are decoded only when they are first asked for, so the caller must
+     * never change those bytes.
+     */
+    Tuple(TupleDesc td, byte[] data, int offset) {
+        this(td);
+        source = data;
+        sourceOffset = offset;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -84,7 +101,29 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        return fields[i];
+        byte[] src = source;
+        Field f = fields[i];
+        if (f == null && src != null) {
+            f = tupleDesc.getFieldType(i).parse(src, sourceOffset + tupleDesc.getFieldOffset(i));
+            fields[i] = f;
+        }
+        return f;
+    }
+
+    // Decode the fields not decoded yet, so that fields[] is complete and
+    // the serialized tuple (usually a whole page image) can be let go.
+    private void decodeAll() {
+        if (source != null) {
+            for (int i = 0; i < fields.length; ++i) {
+                getField(i);
+            }
+            source = null;
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        decodeAll();
+        out.defaultWriteObject();
     }
 
     /**
@@ -97,6 +136,7 @@ public class Tuple implements Serializable {
      */
     public String toString() {
         // some code goes here
+        decodeAll();
         StringBuilder str = new StringBuilder();
         for (int i = 0; i < fields.length; ++i) {
             if (fields[i] == null) {
@@ -117,6 +157,7 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields() {
         // some code goes here
+        decodeAll();
         return new IteratorWrapper<>(fields);
     }
 
@@ -127,5 +168,6 @@ public class Tuple implements Serializable {
         // some code goes here
         tupleDesc = td;
         fields = new Field[td.numFields()];
+        source = null;
     }
 }
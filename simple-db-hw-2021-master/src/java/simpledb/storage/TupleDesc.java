@@ -52,6 +52,8 @@ public class TupleDesc implements Serializable {
 
     private final TDItem[] tdItems;
     private final int len;
+    /** Offset of each field within a serialized tuple, computed on first use. */
+    private transient int[] fieldOffsets;
 
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
@@ -168,6 +170,22 @@ public class TupleDesc implements Serializable {
         return size;
     }
 
+    /**
+     * @return the offset of the ith field from the start of a serialized
+     *         tuple of this TupleDesc, as written by HeapPage.
+     */
+    public int getFieldOffset(int i) {
+        int[] offsets = fieldOffsets;
+        if (offsets == null) {
+            offsets = new int[len];
+            for (int j = 1; j < len; ++j) {
+                offsets[j] = offsets[j - 1] + tdItems[j - 1].fieldType.getLen();
+            }
+            fieldOffsets = offsets;
+        }
+        return offsets[i];
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
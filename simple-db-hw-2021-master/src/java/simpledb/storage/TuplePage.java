@@ -0,0 +1,62 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A page of a HeapFile, in whichever page format the file uses: the tuple
+ * level operations HeapFile and its scans need from a page.
+ *
+ * @see HeapPage
+ * @see SlottedHeapPage
+ * @see HeapFile.PageFormat
+ */
+public interface TuplePage extends Page {
+    HeapPageId getId();
+
+    /**
+     * @return the number of tuples that can still be added to this page,
+     *         for tuples of the smallest possible size.
+     */
+    int getNumEmptySlots();
+
+    /**
+     * @return true if the specified tuple can be added to this page.
+     */
+    boolean hasRoomFor(Tuple t);
+
+    /**
+     * @return true if the slot is in use.
+     */
+    boolean isSlotUsed(int i);
+
+    /**
+     * @return the tuple in slot i, with its RecordId set.
+     * @throws NoSuchElementException if slot i is not in use.
+     */
+    Tuple getTuple(int i) throws NoSuchElementException;
+
+    /**
+     * Adds the specified tuple to the page; the tuple is updated to reflect
+     * that it is now stored on this page.
+     *
+     * @throws DbException if the tuple does not fit or its TupleDesc does
+     *                     not match the page.
+     */
+    void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the specified tuple from the page.
+     *
+     * @throws DbException if the tuple is not on this page, or its slot is
+     *                     already empty.
+     */
+    void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return an iterator over the tuples on this page, in slot order.
+     */
+    Iterator<Tuple> iterator();
+}
@@ -1,11 +1,7 @@
 package simpledb.utils;
 
-import simpledb.common.Database;
 import simpledb.common.DbException;
-import simpledb.common.Permissions;
 import simpledb.storage.DbFileIterator;
-import simpledb.storage.HeapPage;
-import simpledb.storage.HeapPageId;
 import simpledb.storage.Tuple;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
@@ -16,8 +12,7 @@ public class HeapFileIterator implements DbFileIterator {
     private final int           totalPage;
     private final TransactionId transactionId;
     private final int           tableId;
-    private int                 currentPageId;
-    private PageCachePool       pageCachePool;
+    private ScanWindow          scanWindow;
 
     public HeapFileIterator(final int totalPages, final TransactionId transactionId, final int tableId) {
         this.totalPage = totalPages;
@@ -27,51 +22,21 @@ public class HeapFileIterator implements DbFileIterator {
 
     @Override
     public void open() throws DbException, TransactionAbortedException {
-        this.pageCachePool = new PageCachePool(0.2, this.totalPage);
-        this.currentPageId = 0;
-        cacheFilePages();
-    }
-
-    // Cache pages as many as have
-    public void cacheFilePages() {
-        this.pageCachePool.clear();
-        int i = this.currentPageId;
-        for (; i < this.currentPageId + this.pageCachePool.getMaxCacheNum() && i < this.totalPage; i++) {
-            try {
-                final HeapPageId pageId = new HeapPageId(this.tableId, i);
-                final HeapPage page = (HeapPage) Database.getBufferPool().getPage(this.transactionId, pageId,
-                        Permissions.READ_ONLY);
-                this.pageCachePool.addPage(page.iterator());
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+        if (this.scanWindow != null) {
+            this.scanWindow.close();
         }
-        this.currentPageId = i;
-        this.pageCachePool.init();
+        this.scanWindow = new ScanWindow(this.transactionId, this.tableId, this.totalPage);
     }
 
     @Override
     public boolean hasNext() throws DbException, TransactionAbortedException {
-        if (this.pageCachePool == null) {
-            return false;
-        }
-        if (this.pageCachePool.hasNext()) {
-            return true;
-        }
-        // Cache another batch of pages
-        while (!this.pageCachePool.hasNext()) {
-            cacheFilePages();
-            if (this.totalPage == this.currentPageId) {
-                break;
-            }
-        }
-        return this.pageCachePool.hasNext();
+        return this.scanWindow != null && this.scanWindow.hasNext();
     }
 
     @Override
     public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
         if (hasNext()) {
-            return this.pageCachePool.next();
+            return this.scanWindow.next();
         }
         throw new NoSuchElementException("The Iterator don't have more elements");
     }
@@ -83,9 +48,9 @@ public class HeapFileIterator implements DbFileIterator {
 
     @Override
     public void close() {
-        if (this.pageCachePool != null) {
-            this.pageCachePool.clear();
-            this.pageCachePool = null;
+        if (this.scanWindow != null) {
+            this.scanWindow.close();
+            this.scanWindow = null;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,84 @@
+package simpledb.utils;
+
+import simpledb.common.Permissions;
+import simpledb.storage.PageId;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Page-level shared/exclusive latches, apart from the transaction locks of
+ * {@link LockManager}.
+ * <p>
+ * A latch protects the in-memory contents of a page while one thread reads
+ * or changes it, and is released as soon as that is done rather than when
+ * the transaction completes. Latches belong to threads, not transactions,
+ * and are reentrant: a thread may take a latch it already holds, and a
+ * shared latch on a page it holds exclusively, but not the other way round.
+ * There is no deadlock detection. Threads take latches in a fixed order (top
+ * down in a B+ tree), and never wait for a transaction lock while they hold
+ * one, since the lock holder may be waiting for the latch.
+ * <p>
+ * A page has an entry in the table only while some thread holds or waits
+ * for its latch. Every latch also shares one table-wide latch, which
+ * {@link #latchAll} takes exclusively to wait until no thread holds any.
+ */
+public class LatchTable {
+    private final Map<PageId, Latch> latches = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock all = new ReentrantReadWriteLock();
+
+    /**
+     * Latch the page, shared for READ_ONLY and exclusive for READ_WRITE,
+     * blocking until the latch is granted.
+     */
+    public void latch(final PageId pid, final Permissions perm) {
+        all.readLock().lock();
+        final Latch latch = latches.compute(pid, (p, l) -> {
+            final Latch held = l == null ? new Latch() : l;
+            held.users++;
+            return held;
+        });
+        mode(latch, perm).lock();
+    }
+
+    /**
+     * Release a latch the calling thread took on the page with the same
+     * permissions.
+     */
+    public void unlatch(final PageId pid, final Permissions perm) {
+        mode(latches.get(pid), perm).unlock();
+        latches.computeIfPresent(pid, (p, l) -> --l.users == 0 ? null : l);
+        all.readLock().unlock();
+    }
+
+    /**
+     * @return true if some thread holds or waits for a latch on the page.
+     */
+    public boolean isLatched(final PageId pid) {
+        return latches.containsKey(pid);
+    }
+
+    /**
+     * Wait until no thread holds a latch, and keep every thread from taking
+     * one until {@link #unlatchAll}. The calling thread must hold none.
+     */
+    public void latchAll() {
+        all.writeLock().lock();
+    }
+
+    public void unlatchAll() {
+        all.writeLock().unlock();
+    }
+
+    private static Lock mode(final Latch latch, final Permissions perm) {
+        return perm == Permissions.READ_ONLY ? latch.readLock() : latch.writeLock();
+    }
+
+    /** A page's latch, with the number of threads holding or waiting for it. */
+    private static class Latch extends ReentrantReadWriteLock {
+        // only read and written inside the table's compute calls for the page
+        private int users = 0;
+    }
+}
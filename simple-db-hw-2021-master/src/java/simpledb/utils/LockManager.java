@@ -1,25 +1,79 @@
 package simpledb.utils;
 
+import simpledb.common.DeadlockException;
 import simpledb.common.Permissions;
 import simpledb.storage.PageId;
 import simpledb.transaction.TransactionId;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Page-level shared/exclusive lock table.
+ * <p>
+ * Every locked page has a {@link LockQueue} holding the granted locks and a
+ * FIFO of waiting requests. A transaction that cannot be granted parks on the
+ * queue's monitor and is woken when a lock on that page is released, so
+ * waiting costs no CPU and unrelated pages never share a monitor. Requests are
+ * granted in arrival order, except that a lock upgrade (shared to exclusive by
+ * a current holder) goes to the front of the queue: the upgrader already
+ * blocks every writer behind it, so letting it wait behind them only
+ * lengthens the convoy.
+ * <p>
+ * Each queue keeps its holders in a map and the modes granted so far in a
+ * bitmap, so compatibility checks are constant time. A reverse index from
+ * every transaction to the pages it has locked lets {@link #releaseAllLocks}
+ * and {@link #holdsLock} touch only that transaction's own pages.
+ * <p>
+ * Deadlocks are detected, not timed out. Whenever the waiting requests of a
+ * page change, the queue publishes who each of them is waiting for into a
+ * global waits-for graph and searches it for a cycle through them. The
+ * youngest transaction on a cycle (the one with the largest id, which has
+ * done the least work) is chosen as the victim: its waiting threads are
+ * woken and fail with a {@link DeadlockException}.
+ */
 public class LockManager {
     /** Store locks per page. */
-    private final Map<PageId, List<Lock>> lockMap;
+    private final Map<PageId, LockQueue> lockMap;
+
+    /** Pages each transaction holds a lock on; a page is added on grant and removed on release. */
+    private final Map<TransactionId, Set<PageId>> heldPages;
+
+    /**
+     * Waits-for edges: the transactions each blocked request waits for.
+     * Guarded by its own monitor, which is only ever taken while holding at
+     * most one queue monitor, and never the other way round.
+     */
+    private final Map<Waiter, Set<TransactionId>> waitsFor;
 
     public LockManager() {
         lockMap = new ConcurrentHashMap<>();
+        heldPages = new ConcurrentHashMap<>();
+        waitsFor = new HashMap<>();
     }
 
     /**
      * The transaction tid adds a lock of type lockType to the pageId page,
-     * timeout is the maximum time to try to lock.
+     * blocking until the lock is granted.
+     *
+     * @throws DeadlockException if tid was chosen as the victim of a deadlock.
+     */
+    public void acquireLock(final TransactionId tid, final PageId pageId,
+                            final Permissions lockType) throws DeadlockException {
+        acquireLock(tid, pageId, lockType, Long.MAX_VALUE);
+    }
+
+    /**
+     * The transaction tid adds a lock of type lockType to the pageId page,
+     * blocking until the lock is granted or timeout milliseconds have passed.
      *
      * @param pageId
      * @param tid
@@ -27,128 +81,360 @@ public class LockManager {
      * @param timeout
      * @return
      *      Returns true if the lock is successful, otherwise returns false.
+     * @throws DeadlockException if tid was chosen as the victim of a deadlock.
      */
-    public boolean tryAcquireLock(final TransactionId tid, final PageId pageId,
-                                  final Permissions lockType, final int timeout) {
-        final long startTime = System.currentTimeMillis();
-        // spin lock.
+    public boolean acquireLock(final TransactionId tid, final PageId pageId,
+                               final Permissions lockType, final long timeout) throws DeadlockException {
+        final long now = System.currentTimeMillis();
+        final long deadline = timeout > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + timeout;
         while (true) {
-            if (System.currentTimeMillis() - startTime >= timeout) {
-                return false;
-            }
-            if (acquireLock(tid, pageId, lockType)) {
-                return true;
+            final LockQueue queue = lockMap.computeIfAbsent(pageId, LockQueue::new);
+            synchronized (queue) {
+                // the queue was dropped from the table after we looked it up; retry with a fresh one
+                if (queue.retired) {
+                    continue;
+                }
+                return queue.acquire(tid, lockType, deadline);
             }
         }
     }
 
     /**
-     * The transaction tid adds a lock of type lockType to the pageId page.
+     * This transaction releases the lock.
      *
      * @param pageId
      * @param tid
-     * @param lockType
      * @return
-     *      Returns true if the lock is successful, otherwise returns false.
+     *      Returns true if the lock is released successfully, otherwise returns false.
      */
-    public synchronized boolean acquireLock(final TransactionId tid, final PageId pageId, final Permissions lockType) {
-        // 1. If the page is not locked, lock it directly and return true.
-        if (!this.lockMap.containsKey(pageId)) {
-            final Lock lock = new Lock(tid, lockType);
-            final List<Lock> locks = new ArrayList<>();
-            locks.add(lock);
-            lockMap.put(pageId, locks);
-            return true;
+    public boolean releaseLock(final TransactionId tid, final PageId pageId) {
+        final LockQueue queue = lockMap.get(pageId);
+        if (queue == null) {
+            return false;
         }
-
-        // The following is the case when the page has a lock:
-
-        final List<Lock> locks = lockMap.get(pageId);
-        // 2. Check if this transaction holds the lock.
-        for (final Lock lock : locks) {
-            // This transaction holds the lock.
-            if (lock.getTid().equals(tid)) {
-                if (lock.getLockType() == lockType) {
-                    return true;
-                }
-                if (lock.getLockType() == Permissions.READ_WRITE) {
-                    return true;
-                }
-                // The read lock is upgraded to a read-write lock ???
-                if (lock.getLockType() == Permissions.READ_ONLY && locks.size() == 1) {
-                    lock.setLockType(Permissions.READ_WRITE);
-                    return true;
-                }
+        synchronized (queue) {
+            if (queue.retired || !queue.release(tid)) {
                 return false;
             }
+            retireIfIdle(pageId, queue);
         }
-
-        // Other transactions hold locks:
-        // 3. Check whether exists a writeLock.
-        // Because only one write lock can be added, the element with index 0 is directly taken.
-        if (locks.size() > 0 && locks.get(0).getLockType() == Permissions.READ_WRITE) {
-            return false;
+        final Set<PageId> pages = heldPages.get(tid);
+        if (pages != null) {
+            pages.remove(pageId);
         }
+        return true;
+    }
 
-        // 4. There already exists another locks (READ_ONLY), so we just can get a readLock.
-        if (lockType == Permissions.READ_ONLY) {
-            final Lock lock = new Lock(tid, lockType);
-            locks.add(lock);
-            return true;
+    /**
+     * Release every lock held by tid, visiting only the pages it has locked.
+     */
+    public void releaseAllLocks(final TransactionId tid) {
+        final Set<PageId> pages = heldPages.remove(tid);
+        if (pages == null) {
+            return;
+        }
+        for (final PageId pageId : pages) {
+            final LockQueue queue = lockMap.get(pageId);
+            if (queue == null) {
+                continue;
+            }
+            synchronized (queue) {
+                if (!queue.retired && queue.release(tid)) {
+                    retireIfIdle(pageId, queue);
+                }
+            }
         }
+    }
 
-        // 5. Other transactions hold write locks,
-        // and this transaction also wants to add write locks,
-        // so the lock fails
-        return false;
+    /**
+     * @return a snapshot of the pages tid currently holds a lock on.
+     */
+    public Set<PageId> getLockedPages(final TransactionId tid) {
+        final Set<PageId> pages = heldPages.get(tid);
+        return pages == null ? Collections.emptySet() : new HashSet<>(pages);
     }
 
     /**
-     * This transaction releases the lock.
+     * Check if transaction tid holds lock on PageId page.
      *
      * @param pageId
      * @param tid
      * @return
-     *      Returns true if the lock is released successfully, otherwise returns false.
      */
-    public synchronized boolean releaseLock(final TransactionId tid, final PageId pageId) {
-        // Page unlocked.
-        if (!lockMap.containsKey(pageId)) {
-            return false;
+    public boolean holdsLock(final TransactionId tid, final PageId pageId) {
+        final Set<PageId> pages = heldPages.get(tid);
+        return pages != null && pages.contains(pageId);
+    }
+
+    // Caller holds the queue monitor.
+    private void retireIfIdle(final PageId pageId, final LockQueue queue) {
+        if (queue.granted.isEmpty() && queue.waiting.isEmpty()) {
+            queue.retired = true;
+            lockMap.remove(pageId, queue);
         }
+    }
 
-        final List<Lock> locks = lockMap.get(pageId);
-        for (Lock lock : locks) {
-            // Only locks held by this transaction on this page can be released.
-            if (lock.getTid().equals(tid)) {
-                locks.remove(lock);
-                if (locks.size() > 0) {
-                    lockMap.put(pageId, locks);
+    /**
+     * Replace the waits-for edges of the given waiters and look for a cycle
+     * through each of them. The victim of every cycle found is marked and
+     * its blocked threads are interrupted.
+     */
+    private void publishEdges(final Map<Waiter, Set<TransactionId>> edges) {
+        synchronized (waitsFor) {
+            waitsFor.putAll(edges);
+            for (final Waiter waiter : edges.keySet()) {
+                if (waiter.victim) {
+                    continue;
+                }
+                final List<TransactionId> cycle = findCycle(waiter.getTid());
+                if (cycle != null) {
+                    abortYoungest(cycle);
                 }
-                return true;
             }
         }
+    }
 
-        return false;
+    /**
+     * Drop the edges of a request that stopped waiting.
+     *
+     * @return true if the request was chosen as a deadlock victim.
+     */
+    private boolean forget(final Waiter waiter) {
+        synchronized (waitsFor) {
+            waitsFor.remove(waiter);
+            return waiter.victim;
+        }
     }
 
     /**
-     * Check if transaction tid holds lock on PageId page.
+     * Depth-first search of the waits-for graph for a path from start back
+     * to itself. Caller holds the waitsFor monitor.
      *
-     * @param pageId
-     * @param tid
-     * @return
+     * @return the transactions on the cycle, or null if there is none.
      */
-    public synchronized boolean holdsLock(final TransactionId tid, final PageId pageId) {
-        if (!lockMap.containsKey(pageId)) {
-            return false;
+    private List<TransactionId> findCycle(final TransactionId start) {
+        final Map<TransactionId, Set<TransactionId>> graph = new HashMap<>();
+        for (final Map.Entry<Waiter, Set<TransactionId>> entry : waitsFor.entrySet()) {
+            // a victim is already on its way out and breaks every cycle through it
+            if (!entry.getKey().victim) {
+                graph.computeIfAbsent(entry.getKey().getTid(), k -> new HashSet<>()).addAll(entry.getValue());
+            }
         }
-        final List<Lock> locks = lockMap.get(pageId);
-        for (Lock lock : locks) {
-            if (lock.getTid().equals(tid)) {
+        final List<TransactionId> path = new ArrayList<>();
+        final Set<TransactionId> visited = new HashSet<>();
+        return dfs(graph, start, start, path, visited) ? path : null;
+    }
+
+    private static boolean dfs(final Map<TransactionId, Set<TransactionId>> graph, final TransactionId start,
+                               final TransactionId node, final List<TransactionId> path,
+                               final Set<TransactionId> visited) {
+        path.add(node);
+        for (final TransactionId next : graph.getOrDefault(node, new HashSet<>())) {
+            if (next.equals(start)) {
+                return true;
+            }
+            if (visited.add(next) && dfs(graph, start, next, path, visited)) {
                 return true;
             }
         }
+        path.remove(path.size() - 1);
         return false;
     }
+
+    // Caller holds the waitsFor monitor.
+    private void abortYoungest(final List<TransactionId> cycle) {
+        TransactionId youngest = cycle.get(0);
+        for (final TransactionId tid : cycle) {
+            if (tid.getId() > youngest.getId()) {
+                youngest = tid;
+            }
+        }
+        for (final Waiter waiter : waitsFor.keySet()) {
+            if (waiter.getTid().equals(youngest)) {
+                waiter.victim = true;
+                if (waiter.thread != Thread.currentThread()) {
+                    waiter.thread.interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * A blocked lock request. The victim flag is written under the waitsFor
+     * monitor and read by the waiting thread.
+     */
+    private static class Waiter extends Lock {
+        private final Thread thread;
+        private final boolean upgrade;
+        private volatile boolean victim = false;
+
+        Waiter(final TransactionId tid, final Permissions lockType, final boolean upgrade) {
+            super(tid, lockType);
+            this.thread = Thread.currentThread();
+            this.upgrade = upgrade;
+        }
+    }
+
+    /**
+     * Granted locks and waiting requests of a single page. All methods are
+     * called with the queue monitor held, and waiters wait on that monitor.
+     */
+    private class LockQueue {
+        private static final int SHARED = 1;
+        private static final int EXCLUSIVE = 1 << 1;
+
+        private final PageId pageId;
+        private final Map<TransactionId, Permissions> granted = new HashMap<>();
+        /** Bitmap of the modes currently granted; an exclusive lock is always alone. */
+        private int grantedModes = 0;
+        private final Deque<Waiter> waiting = new ArrayDeque<>();
+        private boolean retired = false;
+
+        LockQueue(final PageId pageId) {
+            this.pageId = pageId;
+        }
+
+        boolean acquire(final TransactionId tid, final Permissions lockType, final long deadline)
+                throws DeadlockException {
+            final Permissions held = granted.get(tid);
+            // 1. This transaction already holds a lock that is strong enough.
+            if (held == Permissions.READ_WRITE || (held != null && lockType == Permissions.READ_ONLY)) {
+                return true;
+            }
+
+            // 2. Nobody is waiting and the modes are compatible: grant right away.
+            if (held != null ? granted.size() == 1 : waiting.isEmpty() && compatible(lockType)) {
+                grant(tid, lockType);
+                return true;
+            }
+
+            // A try-lock, or a request whose time is up, gives up here: queued, it
+            // could complete a waits-for cycle and get another transaction aborted.
+            if (deadline <= System.currentTimeMillis()) {
+                return false;
+            }
+
+            // 3. Queue the request: upgrades jump ahead of every other waiter.
+            final Waiter request = new Waiter(tid, lockType, held != null);
+            if (request.upgrade) {
+                waiting.addFirst(request);
+            } else {
+                waiting.addLast(request);
+            }
+            publishEdges();
+            boolean timedOut = false;
+            try {
+                while (!request.victim && !grantable(request)) {
+                    final long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        timedOut = true;
+                        break;
+                    }
+                    wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                if (!request.victim) {
+                    Thread.currentThread().interrupt();
+                    timedOut = true;
+                }
+            } finally {
+                waiting.remove(request);
+                if (forget(request)) {
+                    // the detector's interrupt may still be pending if we were not waiting at the time
+                    Thread.interrupted();
+                }
+                // our departure may unblock the requests queued behind us
+                notifyAll();
+                publishEdges();
+            }
+            if (request.victim) {
+                throw new DeadlockException();
+            }
+            if (timedOut) {
+                return false;
+            }
+
+            // 4. Grant.
+            grant(tid, lockType);
+            publishEdges();
+            return true;
+        }
+
+        private boolean compatible(final Permissions lockType) {
+            // only shared locks can be held together
+            return lockType == Permissions.READ_ONLY ? (grantedModes & EXCLUSIVE) == 0 : grantedModes == 0;
+        }
+
+        private void grant(final TransactionId tid, final Permissions lockType) {
+            granted.put(tid, lockType);
+            if (lockType == Permissions.READ_WRITE) {
+                // also right for an upgrade, which leaves no shared holder behind
+                grantedModes = EXCLUSIVE;
+            } else {
+                grantedModes |= SHARED;
+            }
+            heldPages.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pageId);
+        }
+
+        /**
+         * A request is granted once it is compatible with the current holders
+         * and no incompatible request was queued ahead of it.
+         */
+        private boolean grantable(final Waiter request) {
+            return blockers(request).isEmpty();
+        }
+
+        /**
+         * @return the transactions request has to wait for: incompatible
+         *         holders, and incompatible requests queued ahead of it.
+         */
+        private Set<TransactionId> blockers(final Waiter request) {
+            final Set<TransactionId> blockers = new HashSet<>();
+            if (request.upgrade) {
+                // upgrade: we must be the only holder
+                blockers.addAll(granted.keySet());
+                blockers.remove(request.getTid());
+                return blockers;
+            }
+            for (final Waiter ahead : waiting) {
+                if (ahead == request) {
+                    break;
+                }
+                if (ahead.getLockType() == Permissions.READ_WRITE || request.getLockType() == Permissions.READ_WRITE) {
+                    blockers.add(ahead.getTid());
+                }
+            }
+            if (!compatible(request.getLockType())) {
+                blockers.addAll(granted.keySet());
+            }
+            blockers.remove(request.getTid());
+            return blockers;
+        }
+
+        /**
+         * Publish the current waits-for edges of every waiter on this page.
+         */
+        private void publishEdges() {
+            if (waiting.isEmpty()) {
+                return;
+            }
+            final Map<Waiter, Set<TransactionId>> edges = new HashMap<>();
+            for (final Waiter waiter : waiting) {
+                edges.put(waiter, blockers(waiter));
+            }
+            LockManager.this.publishEdges(edges);
+        }
+
+        boolean release(final TransactionId tid) {
+            if (granted.remove(tid) == null) {
+                return false;
+            }
+            if (granted.isEmpty()) {
+                grantedModes = 0;
+            }
+            notifyAll();
+            publishEdges();
+            return true;
+        }
+    }
 }
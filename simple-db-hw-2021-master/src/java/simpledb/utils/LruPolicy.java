@@ -0,0 +1,43 @@
+package simpledb.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Strict least-recently-used replacement.  A single sequential scan larger
+ * than the cache flushes everything else out; see {@link TwoQueuePolicy} for
+ * a scan-resistant alternative.
+ */
+public class LruPolicy<K> implements ReplacementPolicy<K> {
+    // access-ordered: iteration starts at the least recently used key
+    private final LinkedHashMap<K, Boolean> order = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Override
+    public void recordAccess(K key) {
+        order.get(key);
+    }
+
+    @Override
+    public void recordInsert(K key) {
+        order.put(key, Boolean.TRUE);
+    }
+
+    @Override
+    public void recordRemove(K key) {
+        order.remove(key);
+    }
+
+    @Override
+    public K evict(Predicate<K> evictable) {
+        Iterator<K> it = order.keySet().iterator();
+        while (it.hasNext()) {
+            K key = it.next();
+            if (evictable.test(key)) {
+                it.remove();
+                return key;
+            }
+        }
+        return null;
+    }
+}
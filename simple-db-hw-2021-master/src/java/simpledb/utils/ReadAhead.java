@@ -0,0 +1,110 @@
+package simpledb.utils;
+
+import simpledb.common.Database;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Reads the pages of a sequential heap file scan ahead of the scan, through
+ * {@link BufferPool#readAhead}, so that reading the next pages overlaps
+ * with processing the current one.  The window of pages read ahead is
+ * topped up once the scan has consumed half of it, so pages are read in
+ * runs of at least half a window, one I/O per run.
+ * <p>
+ * The window adapts to how fast the scan consumes pages.  It doubles
+ * whenever the scan gets to a page that is still being read, and halves
+ * whenever a whole window was read by the time the scan got to its first
+ * page, since a smaller one would have done.
+ */
+public class ReadAhead {
+    private static final int MIN_WINDOW = 8;
+    private static final int DEFAULT_MAX_WINDOW = 64;
+
+    private static int maxWindow = DEFAULT_MAX_WINDOW;
+
+    private final int tableId;
+    private final int totalPages;
+    /** Reads of the pages from first on, in page order. */
+    private final ArrayDeque<Future<Page>> pending;
+    private int first;
+    private int window;
+
+    public ReadAhead(final int tableId, final int totalPages) {
+        this.tableId = tableId;
+        this.totalPages = totalPages;
+        this.pending = new ArrayDeque<>();
+        this.window = MIN_WINDOW;
+    }
+
+    /**
+     * Set the most pages a scan reads ahead; 0 turns read-ahead off.
+     */
+    public static void setMaxWindow(int pages) {
+        ReadAhead.maxWindow = pages;
+    }
+
+    public static void resetMaxWindow() {
+        ReadAhead.maxWindow = DEFAULT_MAX_WINDOW;
+    }
+
+    /**
+     * Called when the scan is about to get page pageNo: adjust the window to
+     * whether the read of that page was in time, and read ahead the pages
+     * after it.
+     */
+    public void advance(int pageNo) {
+        while (!this.pending.isEmpty() && this.first < pageNo) {
+            this.pending.poll();
+            this.first++;
+        }
+        if (!this.pending.isEmpty() && this.first == pageNo) {
+            if (!this.pending.peekFirst().isDone()) {
+                this.window = Math.min(this.window * 2, Math.max(maxWindow, MIN_WINDOW));
+            } else if (this.pending.size() >= this.window && this.pending.peekLast().isDone()) {
+                this.window = Math.max(this.window / 2, MIN_WINDOW);
+            }
+            this.pending.poll();
+            this.first++;
+        }
+        if (this.first != pageNo + 1) {
+            // the scan jumped; what was read ahead is of no use
+            close();
+            this.first = pageNo + 1;
+        }
+
+        final int end = Math.min(this.totalPages, pageNo + 1 + Math.min(this.window, maxWindow));
+        int next = this.first + this.pending.size();
+        if (next < end && this.pending.size() <= this.window / 2) {
+            final List<PageId> pids = new ArrayList<>(end - next);
+            for (; next < end; next++) {
+                pids.add(new HeapPageId(this.tableId, next));
+            }
+            this.pending.addAll(Database.getBufferPool().readAhead(pids));
+        }
+    }
+
+    /**
+     * @return the number of pages currently read ahead of the scan.
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Drop the pages read ahead that the scan has not got to.
+     */
+    public void close() {
+        final BufferPool bufferPool = Database.getBufferPool();
+        while (!this.pending.isEmpty()) {
+            this.pending.poll();
+            bufferPool.cancelReadAhead(new HeapPageId(this.tableId, this.first++));
+        }
+    }
+}
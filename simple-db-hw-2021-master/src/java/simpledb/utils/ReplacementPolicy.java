@@ -0,0 +1,35 @@
+package simpledb.utils;
+
+import java.util.function.Predicate;
+
+/**
+ * Replacement state of one {@link ShardedCache} shard.  The policy only sees
+ * keys; the shard owns the values.  All calls are made while holding the
+ * shard monitor, so implementations need no synchronization of their own.
+ */
+public interface ReplacementPolicy<K> {
+
+    /**
+     * A resident key was looked up.
+     */
+    void recordAccess(K key);
+
+    /**
+     * A key was admitted into the cache.
+     */
+    void recordInsert(K key);
+
+    /**
+     * A resident key was dropped by its owner, e.g. a discarded page.  This is
+     * not an eviction, so the policy should not remember the key.
+     */
+    void recordRemove(K key);
+
+    /**
+     * Choose a victim among the resident keys and forget it.
+     *
+     * @param evictable : Decides whether a key may be dropped.
+     * @return the victim, or null if no resident key is evictable.
+     */
+    K evict(Predicate<K> evictable);
+}
@@ -0,0 +1,109 @@
+package simpledb.utils;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TuplePage;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * The pages of a heap file scan in use: the page under the cursor and the
+ * ones after it, up to the window size.  Pages enter the window through
+ * {@link BufferPool#getPage} and are pinned there until the cursor moves
+ * past them, so they cannot be evicted while the scan still needs them.
+ * {@link ReadAhead} reads the pages beyond the window.
+ * <p>
+ * The window size is a tuning knob, see {@link #setWindowSize}; it is
+ * capped at half the BufferPool, so scans cannot pin the whole pool.
+ */
+public class ScanWindow {
+    private static final int DEFAULT_WINDOW_SIZE = 4;
+
+    private static int windowSize = DEFAULT_WINDOW_SIZE;
+
+    private final TransactionId transactionId;
+    private final int tableId;
+    private final int totalPage;
+    private final int size;
+    private final ArrayDeque<TuplePage> pages;
+    private final ReadAhead readAhead;
+    private int nextPageNo;
+    private Iterator<Tuple> current;
+
+    public ScanWindow(final TransactionId transactionId, final int tableId, final int totalPage) {
+        this.transactionId = transactionId;
+        this.tableId = tableId;
+        this.totalPage = totalPage;
+        this.size = Math.max(1, Math.min(windowSize, Database.getBufferPool().getNumPages() / 2));
+        this.pages = new ArrayDeque<>(this.size);
+        this.readAhead = new ReadAhead(tableId, totalPage);
+    }
+
+    /**
+     * Set the number of pages a scan keeps pinned, at least 1.
+     */
+    public static void setWindowSize(int pages) {
+        ScanWindow.windowSize = Math.max(1, pages);
+    }
+
+    public static int getWindowSize() {
+        return windowSize;
+    }
+
+    public static void resetWindowSize() {
+        ScanWindow.windowSize = DEFAULT_WINDOW_SIZE;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        while (this.current == null || !this.current.hasNext()) {
+            if (this.current != null) {
+                // the cursor is past the first page of the window
+                release(this.pages.poll());
+                this.current = null;
+            }
+            fill();
+            if (this.pages.isEmpty()) {
+                return false;
+            }
+            this.current = this.pages.peek().iterator();
+        }
+        return true;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException {
+        return hasNext() ? this.current.next() : null;
+    }
+
+    /**
+     * Unpin the pages in the window and drop the pages read ahead of it.
+     */
+    public void close() {
+        while (!this.pages.isEmpty()) {
+            release(this.pages.poll());
+        }
+        this.current = null;
+        this.readAhead.close();
+    }
+
+    private void fill() throws DbException, TransactionAbortedException {
+        final BufferPool bufferPool = Database.getBufferPool();
+        while (this.pages.size() < this.size && this.nextPageNo < this.totalPage) {
+            this.readAhead.advance(this.nextPageNo);
+            final HeapPageId pageId = new HeapPageId(this.tableId, this.nextPageNo++);
+            final TuplePage page = (TuplePage) bufferPool.getPage(this.transactionId, pageId, Permissions.READ_ONLY);
+            bufferPool.pinPage(this.transactionId, pageId);
+            this.pages.add(page);
+        }
+    }
+
+    private void release(final TuplePage page) {
+        Database.getBufferPool().unpinPage(this.transactionId, page.getId());
+    }
+}
@@ -0,0 +1,232 @@
+package simpledb.utils;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+/**
+ * A page table partitioned into independently locked shards.
+ * Keys are hash-partitioned across the shards, and every shard keeps its own
+ * map and its own {@link ReplacementPolicy} state, so lookups of keys that
+ * land in different shards never contend on the same monitor. The total
+ * number of entries is bounded by maxSize across all shards; eviction asks
+ * the shards for a victim round-robin, preferring shards that are full.
+ */
+public class ShardedCache<K, V> {
+    /** Upper bound on the number of shards, regardless of core count. */
+    private static final int MAX_SHARDS = 64;
+
+    /** Shards smaller than this make per-shard replacement decisions too myopic. */
+    private static final int MIN_SHARD_CAPACITY = 16;
+
+    private final int maxSize;
+    private final int shardCapacity;
+    private final Shard<K, V>[] shards;
+    private final int shardMask;
+    private final AtomicInteger size;
+    private final AtomicInteger evictCursor;
+
+    public ShardedCache(int maxSize, IntFunction<ReplacementPolicy<K>> policyFactory) {
+        this(maxSize, defaultShardCount(maxSize), policyFactory);
+    }
+
+    /**
+     * @param maxSize       maximum number of entries held across all shards.
+     * @param shardCount    number of shards, rounded down to a power of two.
+     * @param policyFactory creates the replacement state of one shard given
+     *                      the shard's capacity.
+     */
+    @SuppressWarnings("unchecked")
+    public ShardedCache(int maxSize, int shardCount, IntFunction<ReplacementPolicy<K>> policyFactory) {
+        this.maxSize = maxSize;
+        int n = Integer.highestOneBit(Math.max(1, Math.min(shardCount, MAX_SHARDS)));
+        this.shardCapacity = Math.max(1, (maxSize + n - 1) / n);
+        this.shards = new Shard[n];
+        for (int i = 0; i < n; i++) {
+            this.shards[i] = new Shard<>(policyFactory.apply(shardCapacity));
+        }
+        this.shardMask = n - 1;
+        this.size = new AtomicInteger(0);
+        this.evictCursor = new AtomicInteger(0);
+    }
+
+    /**
+     * Two shards per core, but each shard holds at least MIN_SHARD_CAPACITY
+     * entries so that small buffer pools (used heavily by the tests) still see
+     * near-global replacement decisions.
+     */
+    private static int defaultShardCount(int maxSize) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(cores * 2, maxSize / MIN_SHARD_CAPACITY));
+    }
+
+    private Shard<K, V> shardFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return shards[h & shardMask];
+    }
+
+    /**
+     * Get the value corresponding to the key and record the access with the
+     * replacement policy of its shard.
+     *
+     * @return the cached value, or null if absent.
+     */
+    public V get(K key) {
+        return shardFor(key).get(key);
+    }
+
+    /**
+     * @return true if the key is cached.  Unlike {@link #get}, this is not an
+     *         access as far as the replacement policy is concerned.
+     */
+    public boolean containsKey(K key) {
+        return shardFor(key).containsKey(key);
+    }
+
+    /**
+     * Insert or replace the value for a key.  Does not evict; callers check
+     * {@link #getSize()} against {@link #getMaxSize()} and evict themselves
+     * since only they know which entries may be dropped.
+     */
+    public void put(K key, V value) {
+        if (shardFor(key).put(key, value, true) == null) {
+            size.incrementAndGet();
+        }
+    }
+
+    /**
+     * Insert the value unless the key is already present.
+     *
+     * @return the value already cached for the key, or null if value was inserted.
+     */
+    public V putIfAbsent(K key, V value) {
+        V existing = shardFor(key).put(key, value, false);
+        if (existing == null) {
+            size.incrementAndGet();
+        }
+        return existing;
+    }
+
+    public void remove(K key) {
+        if (shardFor(key).remove(key)) {
+            size.decrementAndGet();
+        }
+    }
+
+    /**
+     * Remove and return one entry accepted by the predicate.  Shards holding
+     * at least their share of maxSize are asked first, so that a shard full of
+     * hot entries is not drained to make room in another one; within a shard
+     * the replacement policy picks the victim.
+     *
+     * @param evictable : Decides whether an entry may be dropped.
+     * @return the evicted value, or null if no shard holds an evictable entry.
+     */
+    public V evict(Predicate<V> evictable) {
+        int start = evictCursor.getAndIncrement();
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < shards.length; i++) {
+                Shard<K, V> shard = shards[(start + i) & shardMask];
+                if (pass == 0 && shard.count < shardCapacity) {
+                    continue;
+                }
+                V victim = shard.evict(evictable);
+                if (victim != null) {
+                    size.decrementAndGet();
+                    return victim;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return a snapshot of the keys currently cached.
+     */
+    public Iterator<K> keyIterator() {
+        List<K> keys = new ArrayList<>(size.get());
+        for (Shard<K, V> shard : shards) {
+            shard.collectKeys(keys);
+        }
+        return keys.iterator();
+    }
+
+    public int getSize() {
+        return size.get();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    // One partition of the cache: a hash map plus replacement state, guarded by the shard monitor.
+    private static class Shard<K, V> {
+        private final Map<K, V> map = new HashMap<>();
+        private final ReplacementPolicy<K> policy;
+        /** Number of entries; written under the monitor, read without it as an eviction hint. */
+        private volatile int count;
+
+        Shard(ReplacementPolicy<K> policy) {
+            this.policy = policy;
+        }
+
+        synchronized V get(K key) {
+            V value = map.get(key);
+            if (value != null) {
+                policy.recordAccess(key);
+            }
+            return value;
+        }
+
+        synchronized boolean containsKey(K key) {
+            return map.containsKey(key);
+        }
+
+        /**
+         * @return the previous value for the key, or null if the key was absent.
+         */
+        synchronized V put(K key, V value, boolean replace) {
+            V old = map.get(key);
+            if (old != null) {
+                if (replace) {
+                    map.put(key, value);
+                }
+                policy.recordAccess(key);
+                return old;
+            }
+            map.put(key, value);
+            policy.recordInsert(key);
+            count = map.size();
+            return null;
+        }
+
+        synchronized boolean remove(K key) {
+            if (map.remove(key) == null) {
+                return false;
+            }
+            policy.recordRemove(key);
+            count = map.size();
+            return true;
+        }
+
+        synchronized V evict(Predicate<V> evictable) {
+            K key = policy.evict(k -> evictable.test(map.get(k)));
+            if (key == null) {
+                return null;
+            }
+            V value = map.remove(key);
+            count = map.size();
+            return value;
+        }
+
+        synchronized void collectKeys(List<K> keys) {
+            keys.addAll(map.keySet());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+
+/**
+ * Scan-resistant 2Q replacement (Johnson and Shasha, VLDB '94).
+ * <p>
+ * Newly admitted keys enter A1in, a FIFO holding about a quarter of the
+ * capacity; hits while in A1in are treated as correlated references and do
+ * not promote.  Keys pushed out of A1in are remembered (without their values)
+ * in the ghost queue A1out.  A key that misses again while it is still in
+ * A1out has proven it is re-referenced, so it is admitted straight into Am,
+ * an LRU list of hot keys.  A sequential scan therefore only cycles through
+ * A1in and cannot displace the hot pages held in Am.
+ */
+public class TwoQueuePolicy<K> implements ReplacementPolicy<K> {
+    private final int maxIn;
+    private final int maxOut;
+
+    // insertion-ordered: iteration starts at the oldest admission
+    private final LinkedHashMap<K, Boolean> a1in = new LinkedHashMap<>();
+    private final LinkedHashSet<K> a1out = new LinkedHashSet<>();
+    // access-ordered: iteration starts at the least recently used hot key
+    private final LinkedHashMap<K, Boolean> am = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param capacity number of resident entries this policy manages.
+     */
+    public TwoQueuePolicy(int capacity) {
+        this.maxIn = Math.max(1, capacity / 4);
+        this.maxOut = Math.max(1, capacity / 2);
+    }
+
+    @Override
+    public void recordAccess(K key) {
+        // hits in A1in are deliberately ignored
+        am.get(key);
+    }
+
+    @Override
+    public void recordInsert(K key) {
+        if (a1out.remove(key)) {
+            am.put(key, Boolean.TRUE);
+        } else {
+            a1in.put(key, Boolean.TRUE);
+        }
+    }
+
+    @Override
+    public void recordRemove(K key) {
+        if (a1in.remove(key) == null) {
+            am.remove(key);
+        }
+    }
+
+    @Override
+    public K evict(Predicate<K> evictable) {
+        K victim;
+        if (a1in.size() > maxIn || am.isEmpty()) {
+            victim = evictFrom(a1in, evictable);
+            if (victim != null) {
+                remember(victim);
+                return victim;
+            }
+        }
+        victim = evictFrom(am, evictable);
+        if (victim != null) {
+            return victim;
+        }
+        // everything in Am is pinned; fall back to A1in even though it is small
+        victim = evictFrom(a1in, evictable);
+        if (victim != null) {
+            remember(victim);
+        }
+        return victim;
+    }
+
+    private void remember(K key) {
+        a1out.add(key);
+        if (a1out.size() > maxOut) {
+            Iterator<K> it = a1out.iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static <K> K evictFrom(LinkedHashMap<K, Boolean> queue, Predicate<K> evictable) {
+        Iterator<K> it = queue.keySet().iterator();
+        while (it.hasNext()) {
+            K key = it.next();
+            if (evictable.test(key)) {
+                it.remove();
+                return key;
+            }
+        }
+        return null;
+    }
+}
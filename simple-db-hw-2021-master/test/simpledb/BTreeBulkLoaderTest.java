@@ -0,0 +1,169 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.index.*;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeBulkLoaderTest extends SimpleDbTestBase {
+	private TransactionId tid;
+
+	@Before
+	public void setUp() {
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private BTreeFile createEmptyIndex() throws Exception {
+		File f = File.createTempFile("index", ".dat");
+		f.deleteOnExit();
+		return BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+	}
+
+	// the tuples of the tree in the order of a scan, which must be in order of their keys
+	private List<List<Integer>> scan(BTreeFile bf) throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		int prev = Integer.MIN_VALUE;
+		while(it.hasNext()) {
+			Tuple t = it.next();
+			int key = ((IntField) t.getField(0)).getValue();
+			assertTrue(prev <= key);
+			prev = key;
+			tuples.add(BTreeUtility.tupleToList(t));
+		}
+		it.close();
+		return tuples;
+	}
+
+	private BTreeInternalPage getRoot(BTreeFile bf) throws Exception {
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		return (BTreeInternalPage) Database.getBufferPool().getPage(tid, rootPtr.getRootId(), Permissions.READ_ONLY);
+	}
+
+	/**
+	 * A table sorted in more runs than are merged at once ends up in a well-formed tree
+	 * of three levels.
+	 */
+	@Test
+	public void loadMultiPassMerge() throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		HeapFile table = SystemTestUtil.createRandomHeapFile(2, 100 * 502, null, tuples);
+		BTreeFile bf = createEmptyIndex();
+		BTreeBulkLoader.load(tid, table, bf, 1.0, 1);
+
+		List<List<Integer>> loaded = scan(bf);
+		Comparator<List<Integer>> byColumns = Comparator.<List<Integer>, Integer>comparing(t -> t.get(0))
+				.thenComparing(t -> t.get(1));
+		tuples.sort(byColumns);
+		loaded.sort(byColumns);
+		assertEquals(tuples, loaded);
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+
+		// 100 full leaf pages under one root
+		assertEquals(99, getRoot(bf).getNumEntries());
+		assertEquals(101, bf.numPages());
+	}
+
+	/**
+	 * Pages are filled to the fill factor, and the tree has as many levels as it needs.
+	 */
+	@Test
+	public void fillFactor() throws Exception {
+		// 502 tuples and 502 entries to a page: 1004 leaf pages half full, and above them 3 internal
+		// pages rather than 4, which would be less than half full, under the root
+		HeapFile table = SystemTestUtil.createRandomHeapFile(2, 1004 * 251, null, null);
+		BTreeFile bf = createEmptyIndex();
+		BTreeBulkLoader.load(tid, table, bf, 0.5, BTreeBulkLoader.DEFAULT_SORT_PAGES);
+		assertEquals(1004 + 3 + 1, bf.numPages());
+		BTreeInternalPage root = getRoot(bf);
+		assertEquals(2, root.getNumEntries());
+		BTreeEntry e = root.iterator().next();
+		BTreeInternalPage left = (BTreeInternalPage) Database.getBufferPool().getPage(tid, e.getLeftChild(),
+				Permissions.READ_ONLY);
+		assertEquals(334, left.getNumEntries());
+		assertEquals(e.getRightChild(), left.getRightLinkId());
+		assertEquals(e.getKey(), left.getHighKey());
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertEquals(1004 * 251, scan(bf).size());
+	}
+
+	/**
+	 * A loaded tree takes inserts, which fill the room left on its pages before they split.
+	 */
+	@Test
+	public void insertAfterLoad() throws Exception {
+		HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10000, null, null);
+		BTreeFile bf = createEmptyIndex();
+		BTreeBulkLoader.load(tid, table, bf);
+		int pages = bf.numPages();
+		Database.getBufferPool().transactionComplete(tid);
+
+		tid = new TransactionId();
+		for(int i = 0; i < 100; i++) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(i * 600, 2));
+		}
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		assertEquals(pages, bf.numPages());
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertEquals(10100, scan(bf).size());
+	}
+
+	/**
+	 * An empty table leaves the tree empty, and ready for inserts.
+	 */
+	@Test
+	public void loadEmptyTable() throws Exception {
+		HeapFile table = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+		BTreeFile bf = createEmptyIndex();
+		BTreeBulkLoader.load(tid, table, bf);
+		assertEquals(0, scan(bf).size());
+		Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(1, 2));
+		assertEquals(1, scan(bf).size());
+	}
+
+	@Test(expected = DbException.class)
+	public void loadNonEmptyIndex() throws Exception {
+		HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+		BTreeFile bf = createEmptyIndex();
+		BTreeBulkLoader.load(tid, table, bf);
+		BTreeBulkLoader.load(tid, table, bf);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void fillFactorOutOfRange() throws Exception {
+		HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+		BTreeBulkLoader.load(tid, table, createEmptyIndex(), 0.3, BTreeBulkLoader.DEFAULT_SORT_PAGES);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeBulkLoaderTest.class);
+	}
+}
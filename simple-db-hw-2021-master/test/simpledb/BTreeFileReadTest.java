@@ -1,6 +1,7 @@
 package simpledb;
 
 import simpledb.common.Database;
+import simpledb.common.DbException;
 import simpledb.common.Utility;
 import simpledb.execution.IndexPredicate;
 import simpledb.index.*;
@@ -136,6 +137,37 @@ public class BTreeFileReadTest extends SimpleDbTestBase {
 		it.close();
 	}
 
+	/**
+	 * In read-only mode pages come from the memory mapping, index scans see
+	 * the same tuples, and modifications fail.
+	 */
+	@Test
+	public void readOnlyMode() throws Exception {
+		BTreeFile twoLeafPageFile = BTreeUtility.createBTreeFile(2, 520,
+				null, null, 0);
+		BTreeFile mapped = new BTreeFile(twoLeafPageFile.getFile(), 0, td);
+		Database.getCatalog().addTable(mapped, "mapped", "", true);
+		assertTrue(mapped.isReadOnly());
+		assertEquals(twoLeafPageFile.numPages(), mapped.numPages());
+
+		Field f = new IntField(5);
+		DbFileIterator it = mapped.indexIterator(tid, new IndexPredicate(Op.GREATER_THAN, f));
+		it.open();
+		int count = 0;
+		while(it.hasNext()) {
+			assertTrue(it.next().getField(0).compare(Op.GREATER_THAN, f));
+			count++;
+		}
+		assertEquals(515, count);
+		it.close();
+
+		try {
+			mapped.insertTuple(tid, BTreeUtility.getBTreeTuple(5, 2));
+			fail("expected exception");
+		} catch (DbException ignored) {
+		}
+	}
+
 	/**
 	 * Unit test for BTreeFile.indexIterator()
 	 */
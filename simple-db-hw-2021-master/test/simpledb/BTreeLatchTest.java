@@ -0,0 +1,265 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeLatchTest extends SimpleDbTestBase {
+	private BTreeFile bf;
+	private BTreePageId rootPtrId;
+	private BTreePageId rootId;
+
+	/**
+	 * Set up a packed B+ tree of 100 leaf pages under an internal root page.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		bf = BTreeUtility.createRandomBTreeFile(2, 50200, null, null, 0);
+		rootPtrId = BTreeRootPtrPage.getId(bf.getId());
+		TransactionId tid = new TransactionId();
+		rootId = ((BTreeRootPtrPage) Database.getBufferPool().getPage(tid, rootPtrId, Permissions.READ_ONLY)).getRootId();
+		assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	@After
+	public void tearDown() {
+		BufferPool.resetPageSize();
+	}
+
+	private void insert(int key, boolean commit) throws Exception {
+		Transaction t = new Transaction();
+		t.start();
+		try {
+			Database.getBufferPool().insertTuple(t.getId(), bf.getId(), BTreeUtility.getBTreeTuple(key, 2));
+		}
+		catch(TransactionAbortedException e) {
+			t.abort();
+			throw e;
+		}
+		t.transactionComplete(!commit);
+	}
+
+	private int countAndCheck() throws Exception {
+		TransactionId tid = new TransactionId();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		int count = 0;
+		while(it.hasNext()) {
+			it.next();
+			count++;
+		}
+		it.close();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), false);
+		Database.getBufferPool().transactionComplete(tid);
+		return count;
+	}
+
+	/**
+	 * An insert that does not split holds a lock on the leaf page only.
+	 */
+	@Test
+	public void insertLocksLeafOnly() throws Exception {
+		// split the leaf page, leaving it half empty
+		insert(1000, true);
+
+		TransactionId tid = new TransactionId();
+		Tuple t = BTreeUtility.getBTreeTuple(1000, 2);
+		Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+		assertTrue(Database.getBufferPool().holdsLock(tid, t.getRecordId().getPageId()));
+		assertFalse(Database.getBufferPool().holdsLock(tid, rootPtrId));
+		assertFalse(Database.getBufferPool().holdsLock(tid, rootId));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Splits that are rolled back leave the tree as it was.
+	 */
+	@Test
+	public void abortedSplits() throws Exception {
+		for(int key = 0; key < BTreeUtility.MAX_RAND_VALUE; key += BTreeUtility.MAX_RAND_VALUE / 20) {
+			insert(key, false);
+		}
+		assertEquals(50200, countAndCheck());
+		insert(1000, true);
+		assertEquals(50201, countAndCheck());
+	}
+
+	/**
+	 * Threads inserting into the same tree at once, splitting most leaf pages, keep
+	 * every tuple and a well-formed tree.
+	 */
+	@Test
+	public void concurrentInserts() throws Exception {
+		final int threads = 8;
+		final int rows = 100;
+		Thread[] inserters = new Thread[threads];
+		final List<Exception> errors = Collections.synchronizedList(new ArrayList<>());
+		for(int i = 0; i < threads; i++) {
+			final Random rand = new Random(i);
+			inserters[i] = new Thread(() -> {
+				try {
+					for(int n = 0; n < rows; ) {
+						try {
+							insert(rand.nextInt(BTreeUtility.MAX_RAND_VALUE), true);
+							n++;
+						}
+						catch(TransactionAbortedException e) {
+							// a deadlock victim, rolled back; insert another
+						}
+					}
+				}
+				catch(Exception e) {
+					errors.add(e);
+				}
+			});
+			inserters[i].start();
+		}
+		for(Thread inserter : inserters) {
+			inserter.join();
+		}
+		assertEquals(Collections.emptyList(), errors);
+		assertEquals(50200 + threads * rows, countAndCheck());
+	}
+
+	/**
+	 * Threads splitting neighbouring leaf pages at once, one insert to a transaction, find
+	 * the pages they need locked by each other without waiting for them, and so let go of
+	 * their latches and wait instead.  These transactions only wait for pages to their right
+	 * or for the parent page, which is locked last, so none of them ever has to be aborted.
+	 */
+	@Test
+	public void concurrentSplitsDoNotAbort() throws Exception {
+		final int threads = 8;
+		final int rows = 100;
+		Thread[] inserters = new Thread[threads];
+		final List<Exception> errors = Collections.synchronizedList(new ArrayList<>());
+		for(int i = 0; i < threads; i++) {
+			final Random rand = new Random(i);
+			inserters[i] = new Thread(() -> {
+				try {
+					for(int n = 0; n < rows; n++) {
+						// keys that go to the 10 leaf pages in the middle of the tree
+						insert(BTreeUtility.MAX_RAND_VALUE / 2 + rand.nextInt(BTreeUtility.MAX_RAND_VALUE / 10), true);
+					}
+				}
+				catch(Exception e) {
+					errors.add(e);
+				}
+			});
+			inserters[i].start();
+		}
+		for(Thread inserter : inserters) {
+			inserter.join();
+		}
+		assertEquals(Collections.emptyList(), errors);
+		assertEquals(50200 + threads * rows, countAndCheck());
+	}
+
+	/**
+	 * An insert that waits for the lock on a leaf page while another transaction splits it
+	 * moves right, to the new page, if its key went there.
+	 */
+	@Test
+	public void insertRacingSplit() throws Exception {
+		TransactionId tid = new TransactionId();
+		BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(tid, rootId, Permissions.READ_ONLY);
+		BTreePageId leafId = root.iterator().next().getLeftChild();
+		BTreeLeafPage leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid, leafId, Permissions.READ_ONLY);
+		Tuple first = leaf.iterator().next();
+		int last = ((IntField) leaf.reverseIterator().next().getField(0)).getValue();
+		Database.getBufferPool().transactionComplete(tid);
+
+		// lock the leaf page, without filling it up
+		Transaction splitter = new Transaction();
+		splitter.start();
+		Database.getBufferPool().deleteTuple(splitter.getId(), first);
+
+		final Tuple t = BTreeUtility.getBTreeTuple(last, 2);
+		final TransactionId inserter = new TransactionId();
+		final List<Exception> errors = Collections.synchronizedList(new ArrayList<>());
+		Thread thread = new Thread(() -> {
+			try {
+				Database.getBufferPool().insertTuple(inserter, bf.getId(), t);
+			}
+			catch(Exception e) {
+				errors.add(e);
+			}
+		});
+		thread.start();
+		while(thread.getState() == Thread.State.NEW || thread.getState() == Thread.State.RUNNABLE) {
+			Thread.sleep(10);
+		}
+
+		// split the leaf page, moving the largest keys to a new page on the right
+		Database.getBufferPool().insertTuple(splitter.getId(), bf.getId(), BTreeUtility.getBTreeTuple(0, 2));
+		Database.getBufferPool().insertTuple(splitter.getId(), bf.getId(), BTreeUtility.getBTreeTuple(0, 2));
+		splitter.commit();
+		thread.join();
+		assertEquals(Collections.emptyList(), errors);
+		Database.getBufferPool().transactionComplete(inserter);
+
+		tid = new TransactionId();
+		leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid, leafId, Permissions.READ_ONLY);
+		assertEquals(leaf.getRightSiblingId(), t.getRecordId().getPageId());
+		assertTrue(leaf.getHighKey().compare(Op.LESS_THAN, t.getField(0)));
+		Database.getBufferPool().transactionComplete(tid);
+		assertEquals(50200 + 2, countAndCheck());
+	}
+
+	/**
+	 * Splitting an internal page links it to the new page on its right, with the key pushed
+	 * up as the high key between them.
+	 */
+	@Test
+	public void splitLinksRight() throws Exception {
+		// a root page with 124 leaf pages under it, all full
+		BufferPool.setPageSize(1024);
+		bf = BTreeUtility.createRandomBTreeFile(2, 124 * 123, null, null, 0);
+		insert(BTreeUtility.MAX_RAND_VALUE / 2, true);
+
+		TransactionId tid = new TransactionId();
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(tid, rootPtr.getRootId(),
+				Permissions.READ_ONLY);
+		assertEquals(1, root.getNumEntries());
+		BTreeEntry e = root.iterator().next();
+		BTreeInternalPage left = (BTreeInternalPage) Database.getBufferPool().getPage(tid, e.getLeftChild(),
+				Permissions.READ_ONLY);
+		BTreeInternalPage right = (BTreeInternalPage) Database.getBufferPool().getPage(tid, e.getRightChild(),
+				Permissions.READ_ONLY);
+		assertEquals(right.getId(), left.getRightLinkId());
+		assertEquals(e.getKey(), left.getHighKey());
+		assertNull(right.getRightLinkId());
+		assertNull(right.getHighKey());
+		assertNull(root.getRightLinkId());
+		Database.getBufferPool().transactionComplete(tid);
+		assertEquals(124 * 123 + 1, countAndCheck());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeLatchTest.class);
+	}
+}
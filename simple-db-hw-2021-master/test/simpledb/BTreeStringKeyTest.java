@@ -0,0 +1,213 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeStringKeyTest extends SimpleDbTestBase {
+	private static final TupleDesc TD = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE});
+	private static final int PAGE_SIZE = 1024;
+
+	private TransactionId tid;
+
+	@Before
+	public void setUp() {
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private static String key(int i) {
+		return String.format("http://www.example.com/catalog/item-%06d.html", i);
+	}
+
+	private static Tuple tuple(int i) {
+		Tuple t = new Tuple(TD);
+		t.setField(0, new StringField(key(i), Type.STRING_LEN));
+		t.setField(1, new IntField(i));
+		return t;
+	}
+
+	private static BTreeFile createEmptyIndex() throws Exception {
+		File f = File.createTempFile("index", ".dat");
+		f.deleteOnExit();
+		BTreeFile bf = new BTreeFile(f, 0, TD, PAGE_SIZE);
+		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+		return bf;
+	}
+
+	private BTreeInternalPage getRoot(BTreeFile bf) throws Exception {
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		return (BTreeInternalPage) Database.getBufferPool().getPage(tid, rootPtr.getRootId(), Permissions.READ_ONLY);
+	}
+
+	// the values of the second column of the tree in the order of a scan, which must be in order of the keys
+	private List<Integer> scan(BTreeFile bf) throws Exception {
+		List<Integer> values = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		String prev = "";
+		while(it.hasNext()) {
+			Tuple t = it.next();
+			String key = ((StringField) t.getField(0)).getValue();
+			assertTrue(prev.compareTo(key) <= 0);
+			prev = key;
+			values.add(((IntField) t.getField(1)).getValue());
+		}
+		it.close();
+		return values;
+	}
+
+	private void assertFound(BTreeFile bf, int i) throws Exception {
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS,
+				new StringField(key(i), Type.STRING_LEN)));
+		it.open();
+		assertTrue(it.hasNext());
+		assertEquals(i, ((IntField) it.next().getField(1)).getValue());
+		assertFalse(it.hasNext());
+		it.close();
+	}
+
+	/**
+	 * Inserts split the pages of a tree on a string field into internal pages with
+	 * short keys and many more entries than keys of the greatest length would leave
+	 * room for, and the tree reads back the same from disk.
+	 */
+	@Test
+	public void insertAndSplit() throws Exception {
+		BTreeFile bf = createEmptyIndex();
+		List<Integer> order = new ArrayList<>();
+		for(int i = 0; i < 3000; i++) {
+			order.add(i);
+		}
+		Collections.shuffle(order, new Random(0));
+		for(int i : order) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(i));
+		}
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+
+		BTreeInternalPage root = getRoot(bf);
+		BTreeInternalPage child = (BTreeInternalPage) Database.getBufferPool().getPage(tid,
+				root.iterator().next().getRightChild(), Permissions.READ_ONLY);
+		assertTrue(child.getNumEntries() > child.getMaxEntries());
+		// separators are cut short after the first character that tells two leaf pages apart
+		assertTrue(((StringField) root.iterator().next().getKey()).getValue().length() < key(0).length());
+		assertEquals(root.iterator().next().getKey(), child.getLowKey());
+
+		Database.getBufferPool().transactionComplete(tid);
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		List<Integer> values = scan(bf);
+		assertEquals(3000, values.size());
+		for(int i = 0; i < 3000; i++) {
+			assertEquals(i, (int) values.get(i));
+		}
+		for(int i = 0; i < 3000; i += 97) {
+			assertFound(bf, i);
+		}
+	}
+
+	/**
+	 * A compact page keeps its keys, its low and high keys and its right link when it
+	 * is written out and read back, leaving off the prefix its keys share.
+	 */
+	@Test
+	public void compactPageRoundTrip() throws Exception {
+		BTreeFile bf = createEmptyIndex();
+		BTreePageId pid = new BTreePageId(bf.getId(), 1, BTreePageId.INTERNAL);
+		BTreeInternalPage page = new BTreeInternalPage(pid, BTreeInternalPage.createEmptyPageData(PAGE_SIZE), 0);
+		page.setLowKey(new StringField(key(0), Type.STRING_LEN));
+		page.setRightLink(new BTreePageId(bf.getId(), 99, BTreePageId.INTERNAL),
+				new StringField(key(999999), Type.STRING_LEN));
+		int n = 0;
+		while(page.getNumEmptySlots() > 0) {
+			page.insertEntry(new BTreeEntry(new StringField(key(n + 1), Type.STRING_LEN),
+					new BTreePageId(bf.getId(), n + 2, BTreePageId.LEAF),
+					new BTreePageId(bf.getId(), n + 3, BTreePageId.LEAF)));
+			n++;
+		}
+		// the keys share the 36 characters up to the number
+		assertTrue(n > 3 * page.getMaxEntries());
+
+		BTreeInternalPage read = new BTreeInternalPage(pid, page.getPageData(), 0);
+		assertEquals(n, read.getNumEntries());
+		assertEquals(page.getLowKey(), read.getLowKey());
+		assertEquals(page.getHighKey(), read.getHighKey());
+		assertEquals(page.getRightLinkId(), read.getRightLinkId());
+		Iterator<BTreeEntry> it = page.iterator();
+		Iterator<BTreeEntry> readIt = read.iterator();
+		while(it.hasNext()) {
+			BTreeEntry e = it.next();
+			BTreeEntry r = readIt.next();
+			assertEquals(e.getKey(), r.getKey());
+			assertEquals(e.getLeftChild(), r.getLeftChild());
+			assertEquals(e.getRightChild(), r.getRightChild());
+		}
+		assertFalse(readIt.hasNext());
+	}
+
+	/**
+	 * A bulk loaded tree on a string field fills its internal pages by the bytes of
+	 * their keys, and takes inserts afterwards.
+	 */
+	@Test
+	public void bulkLoad() throws Exception {
+		File f = File.createTempFile("table", ".dat");
+		f.deleteOnExit();
+		HeapFile table = new HeapFile(f, TD);
+		Database.getCatalog().addTable(table, UUID.randomUUID().toString());
+		for(int i = 0; i < 3000; i += 2) {
+			Database.getBufferPool().insertTuple(tid, table.getId(), tuple(i));
+		}
+		BTreeFile bf = createEmptyIndex();
+		BTreeBulkLoader.load(tid, table, bf);
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertEquals(1500, scan(bf).size());
+		// 300 leaf pages under a few internal pages, under the root
+		BTreeInternalPage root = getRoot(bf);
+		BTreeEntry first = root.iterator().next();
+		assertEquals(BTreePageId.INTERNAL, first.getRightChild().pgcateg());
+		BTreeInternalPage child = (BTreeInternalPage) Database.getBufferPool().getPage(tid,
+				first.getRightChild(), Permissions.READ_ONLY);
+		assertEquals(BTreePageId.LEAF, child.iterator().next().getLeftChild().pgcateg());
+		assertTrue(child.getNumEntries() > 3 * child.getMaxEntries());
+
+		for(int i = 1; i < 3000; i += 2) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(i));
+		}
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		List<Integer> values = scan(bf);
+		assertEquals(3000, values.size());
+		for(int i = 0; i < 3000; i += 89) {
+			assertFound(bf, i);
+		}
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeStringKeyTest.class);
+	}
+}
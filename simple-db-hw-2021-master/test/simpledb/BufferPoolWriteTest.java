@@ -6,6 +6,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Future;
 
 import org.junit.After;
 import org.junit.Before;
@@ -140,6 +141,68 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    /**
+     * A page read ahead before it was changed on disk and discarded from the
+     * pool, as recovery does, is not handed out afterwards.
+     */
+    @Test public void readAheadThenDiscard() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504*3, null, null);
+        List<PageId> pids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            pids.add(new HeapPageId(hf.getId(), i));
+        }
+        for (Future<Page> read : Database.getBufferPool().readAhead(pids)) {
+            assertNotNull(read.get());
+        }
+
+        hf.writePage(new HeapPage((HeapPageId) pids.get(1), HeapPage.createEmptyPageData()));
+        Database.getBufferPool().discardPage(pids.get(1));
+
+        HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pids.get(0), Permissions.READ_ONLY);
+        assertEquals(0, p.getNumEmptySlots());
+        p = (HeapPage) Database.getBufferPool().getPage(tid, pids.get(1), Permissions.READ_ONLY);
+        assertEquals(504, p.getNumEmptySlots());
+    }
+
+    /**
+     * A pinned page is not evicted until the transaction unpins it.
+     */
+    @Test public void pinnedPageIsNotEvicted() throws Exception {
+        class CountingHeapFile extends HeapFile {
+            int reads;
+
+            CountingHeapFile(File f) {
+                super(f, Utility.getTupleDesc(2));
+            }
+
+            @Override
+            public Page readPage(PageId pid) {
+                reads++;
+                return super.readPage(pid);
+            }
+        }
+        CountingHeapFile hf = new CountingHeapFile(
+                SystemTestUtil.createRandomHeapFileUnopened(2, 504*4, 1000, null, null));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        BufferPool bp = Database.resetBufferPool(2);
+        HeapPageId first = new HeapPageId(hf.getId(), 0);
+
+        bp.getPage(tid, first, Permissions.READ_ONLY);
+        bp.pinPage(tid, first);
+        for (int i = 1; i < 4; i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.getPage(tid, first, Permissions.READ_ONLY);
+        assertEquals(4, hf.reads);
+
+        bp.unpinPage(tid, first);
+        for (int i = 1; i < 4; i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.getPage(tid, first, Permissions.READ_ONLY);
+        assertEquals(8, hf.reads);
+    }
+
     /**
      * JUnit suite target
      */
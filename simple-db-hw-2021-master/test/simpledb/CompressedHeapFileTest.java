@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private static HeapFile open(File f, int columns) {
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(columns), HeapFile.PageFormat.FIXED, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".pmap").deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        return f;
+    }
+
+    /**
+     * A heap file compressed by HeapFileEncoder takes less space and reads
+     * back the same tuples, through the channel and through a mapping.
+     */
+    @Test public void compressAndScan() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        File plain = SystemTestUtil.createRandomHeapFileUnopened(4, 5000, 100, null, tuples);
+        File f = tempFile();
+        HeapFileEncoder.compress(plain, f);
+        assertTrue(f.length() < plain.length() / 2);
+
+        HeapFile hf = open(f, 4);
+        assertTrue(hf.isCompressed());
+        assertEquals(plain.length() / BufferPool.getPageSize(), hf.numPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        hf.mapReadOnly();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Pages of an empty compressed file grow and move as tuples are added;
+     * a new HeapFile on the same file finds them all through the page map.
+     */
+    @Test public void insertAndReopen() throws Exception {
+        File f = tempFile();
+        HeapFile hf = open(f, 2);
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int round = 0; round < 4; round++) {
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < 300; i++) {
+                Tuple t = Utility.getHeapTuple(new int[]{round, i});
+                Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+                tuples.add(SystemTestUtil.tupleToList(t));
+            }
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        assertTrue(hf.numPages() > 1);
+        assertTrue(f.length() < (long) hf.numPages() * BufferPool.getPageSize());
+
+        Database.reset();
+        HeapFile reopened = open(f, 2);
+        assertEquals(hf.numPages(), reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -1,12 +1,14 @@
 package simpledb;
 
 import simpledb.common.Database;
+import simpledb.common.DbException;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -125,6 +127,79 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Threads reading pages of the same file at once each get the page
+     * they asked for.
+     */
+    @Test
+    public void concurrentReadPage() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        int numPages = big.numPages();
+        assertTrue(numPages > 1);
+        byte[][] expected = new byte[numPages][];
+        for (int i = 0; i < numPages; i++) {
+            expected[i] = big.readPage(new HeapPageId(big.getId(), i)).getPageData();
+        }
+
+        AtomicInteger wrong = new AtomicInteger();
+        Thread[] readers = new Thread[8];
+        for (int t = 0; t < readers.length; t++) {
+            final int seed = t;
+            readers[t] = new Thread(() -> {
+                Random r = new Random(seed);
+                for (int n = 0; n < 500; n++) {
+                    int pageNo = r.nextInt(numPages);
+                    Page p = big.readPage(new HeapPageId(big.getId(), pageNo));
+                    if (!Arrays.equals(expected[pageNo], p.getPageData())) {
+                        wrong.incrementAndGet();
+                    }
+                }
+            });
+            readers[t].start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(0, wrong.get());
+    }
+
+    /**
+     * In read-only mode pages come from the memory mapping, scans see the
+     * same tuples, and modifications fail.
+     */
+    @Test
+    public void readOnlyMode() throws Exception {
+        HeapFile twoPageFile = SystemTestUtil.createRandomHeapFile(2, 520, null, null);
+        byte[] page1 = twoPageFile.readPage(new HeapPageId(twoPageFile.getId(), 1)).getPageData();
+
+        HeapFile mapped = new HeapFile(twoPageFile.getFile(), td);
+        Database.getCatalog().addTable(mapped, "mapped", "", true);
+        assertTrue(mapped.isReadOnly());
+        assertEquals(2, mapped.numPages());
+        assertArrayEquals(page1, mapped.readPage(new HeapPageId(mapped.getId(), 1)).getPageData());
+
+        DbFileIterator it = mapped.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertNotNull(it.next());
+            count += 1;
+        }
+        assertEquals(520, count);
+        it.close();
+
+        try {
+            mapped.insertTuple(tid, Utility.getHeapTuple(1, 2));
+            fail("expected exception");
+        } catch (DbException ignored) {
+        }
+        try {
+            mapped.readPage(new HeapPageId(mapped.getId(), 2));
+            fail("expected exception");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -90,6 +90,65 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * Inserts go straight to the first page with room, without reading or
+     * locking the full pages in front of it.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        int tableId = empty.getId();
+        byte[] full = new byte[BufferPool.getPageSize()];
+        Arrays.fill(full, 0, 63, (byte) 0xFF);
+        empty.writePage(new HeapPage(new HeapPageId(tableId, 0), full));
+        empty.writePage(new HeapPage(new HeapPageId(tableId, 1), full));
+        empty.writePage(new HeapPage(new HeapPageId(tableId, 2), HeapPage.createEmptyPageData()));
+
+        Tuple t = Utility.getHeapTuple(1, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(2, t.getRecordId().getPageId().getPageNumber());
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(tableId, 0)));
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(tableId, 1)));
+    }
+
+    /**
+     * A slot freed by a delete is reused before the file grows.
+     */
+    @Test public void insertReusesDeletedSlot() throws Exception {
+        Tuple first = Utility.getHeapTuple(0, 2);
+        empty.insertTuple(tid, first);
+        for (int i = 1; i < 505; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(2, empty.numPages());
+
+        empty.deleteTuple(tid, first);
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(2, empty.numPages());
+    }
+
+    /**
+     * A slot taken by an insert that is rolled back is used by the next
+     * insert, rather than the file growing.
+     */
+    @Test public void insertReusesAbortedSlot() throws Exception {
+        int tableId = empty.getId();
+        // a page with only its last slot empty
+        byte[] data = new byte[BufferPool.getPageSize()];
+        Arrays.fill(data, 0, 62, (byte) 0xFF);
+        data[62] = (byte) 0x7F;
+        empty.writePage(new HeapPage(new HeapPageId(tableId, 0), data));
+
+        TransactionId aborted = new TransactionId();
+        Database.getBufferPool().insertTuple(aborted, tableId, Utility.getHeapTuple(1, 2));
+        Database.getBufferPool().transactionComplete(aborted, false);
+
+        Tuple t = Utility.getHeapTuple(2, 2);
+        Database.getBufferPool().insertTuple(tid, tableId, t);
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(1, empty.numPages());
+    }
+
     /**
      * JUnit suite target
      */
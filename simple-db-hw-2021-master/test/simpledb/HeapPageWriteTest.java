@@ -131,6 +131,33 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * The iterator skips slots freed by deletes, and a tuple read before
+     * the page changed keeps its values.
+     */
+    @Test public void iterateAfterDelete() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        LinkedList<Tuple> tuples = new LinkedList<>();
+        while (it.hasNext())
+            tuples.add(it.next());
+
+        Tuple deleted = tuples.remove(1);
+        page.deleteTuple(deleted);
+        assertEquals(Utility.getHeapTuple(HeapPageReadTest.EXAMPLE_VALUES[1]).toString(), deleted.toString());
+
+        it = page.iterator();
+        for (Tuple expected : tuples) {
+            assertTrue(it.hasNext());
+            assertTrue(TestUtil.compareTuples(expected, it.next()));
+        }
+        assertFalse(it.hasNext());
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,204 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.DeadlockException;
+import simpledb.common.Permissions;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.transaction.TransactionId;
+import simpledb.utils.LockManager;
+
+public class LockManagerTest {
+    /** Time to wait before checking that a request is still blocked, in ms */
+    private static final int SETTLE = 100;
+    private static final int LONG_TIMEOUT = 5000;
+
+    private LockManager lm;
+    private PageId p0, p1;
+    private TransactionId tid1, tid2, tid3;
+
+    /** Requests a lock on another thread and remembers the outcome. */
+    private class Acquirer extends Thread {
+        private final TransactionId tid;
+        private final PageId pid;
+        private final Permissions perm;
+        private final int timeout;
+        private volatile Boolean granted = null;
+        private volatile boolean deadlocked = false;
+
+        Acquirer(TransactionId tid, Permissions perm, int timeout) {
+            this(tid, p0, perm, timeout);
+        }
+
+        Acquirer(TransactionId tid, PageId pid, Permissions perm, int timeout) {
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+            this.timeout = timeout;
+            start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                granted = lm.acquireLock(tid, pid, perm, timeout);
+            } catch (DeadlockException e) {
+                deadlocked = true;
+                granted = false;
+            }
+        }
+
+        Boolean settle() throws InterruptedException {
+            join(SETTLE);
+            return granted;
+        }
+    }
+
+    @Before public void setUp() {
+        lm = new LockManager();
+        p0 = new HeapPageId(0, 0);
+        p1 = new HeapPageId(0, 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        tid3 = new TransactionId();
+    }
+
+    /**
+     * A blocked request is granted as soon as the conflicting lock is
+     * released, long before its timeout.
+     */
+    @Test public void wakeOnRelease() throws Exception {
+        assertTrue(lm.acquireLock(tid1, p0, Permissions.READ_WRITE, 0));
+        Acquirer a = new Acquirer(tid2, Permissions.READ_ONLY, LONG_TIMEOUT);
+        assertNull(a.settle());
+
+        long start = System.currentTimeMillis();
+        assertTrue(lm.releaseLock(tid1, p0));
+        a.join();
+        assertTrue(a.granted);
+        assertTrue(System.currentTimeMillis() - start < LONG_TIMEOUT / 2);
+        assertTrue(lm.holdsLock(tid2, p0));
+    }
+
+    /**
+     * A shared request that arrives behind a waiting writer queues behind
+     * it, even though it is compatible with the current shared holder.
+     */
+    @Test public void fifoWriterNotStarved() throws Exception {
+        assertTrue(lm.acquireLock(tid1, p0, Permissions.READ_ONLY, 0));
+        Acquirer writer = new Acquirer(tid2, Permissions.READ_WRITE, LONG_TIMEOUT);
+        assertNull(writer.settle());
+
+        assertFalse(lm.acquireLock(tid3, p0, Permissions.READ_ONLY, SETTLE));
+        lm.releaseLock(tid1, p0);
+        writer.join();
+        assertTrue(writer.granted);
+    }
+
+    /**
+     * An upgrade by a shared holder is granted before writers that were
+     * already waiting.
+     */
+    @Test public void upgradeJumpsQueue() throws Exception {
+        assertTrue(lm.acquireLock(tid1, p0, Permissions.READ_ONLY, 0));
+        assertTrue(lm.acquireLock(tid2, p0, Permissions.READ_ONLY, 0));
+        Acquirer writer = new Acquirer(tid3, Permissions.READ_WRITE, LONG_TIMEOUT);
+        assertNull(writer.settle());
+        Acquirer upgrade = new Acquirer(tid1, Permissions.READ_WRITE, LONG_TIMEOUT);
+        assertNull(upgrade.settle());
+
+        lm.releaseLock(tid2, p0);
+        upgrade.join();
+        assertTrue(upgrade.granted);
+        assertNull(writer.settle());
+
+        lm.releaseLock(tid1, p0);
+        writer.join();
+        assertTrue(writer.granted);
+    }
+
+    /**
+     * A request that times out leaves the queue, so it does not block later
+     * requests.
+     */
+    @Test public void timeoutLeavesQueue() throws Exception {
+        assertTrue(lm.acquireLock(tid1, p0, Permissions.READ_ONLY, 0));
+        assertFalse(lm.acquireLock(tid2, p0, Permissions.READ_WRITE, SETTLE));
+        assertTrue(lm.acquireLock(tid3, p0, Permissions.READ_ONLY, 0));
+
+        lm.releaseAllLocks(tid1);
+        lm.releaseAllLocks(tid3);
+        assertFalse(lm.holdsLock(tid1, p0));
+        assertTrue(lm.acquireLock(tid2, p0, Permissions.READ_WRITE, 0));
+    }
+
+    /**
+     * Two transactions waiting for each other: the younger one is aborted
+     * as soon as the cycle closes, and the older one then proceeds.
+     */
+    @Test public void deadlockAbortsYoungest() throws Exception {
+        assertTrue(lm.acquireLock(tid1, p0, Permissions.READ_WRITE, 0));
+        assertTrue(lm.acquireLock(tid2, p1, Permissions.READ_WRITE, 0));
+        Acquirer older = new Acquirer(tid1, p1, Permissions.READ_WRITE, LONG_TIMEOUT);
+        assertNull(older.settle());
+
+        long start = System.currentTimeMillis();
+        Acquirer younger = new Acquirer(tid2, p0, Permissions.READ_ONLY, LONG_TIMEOUT);
+        younger.join();
+        assertTrue(younger.deadlocked);
+        assertTrue(System.currentTimeMillis() - start < LONG_TIMEOUT / 2);
+        assertNull(older.settle());
+
+        lm.releaseAllLocks(tid2);
+        older.join();
+        assertTrue(older.granted);
+        assertFalse(older.deadlocked);
+    }
+
+    /**
+     * A try-lock that would close a cycle fails at once without waiting,
+     * so it aborts neither its own transaction nor the one waiting on it.
+     */
+    @Test public void tryLockDoesNotAbort() throws Exception {
+        assertTrue(lm.acquireLock(tid1, p0, Permissions.READ_WRITE, 0));
+        assertTrue(lm.acquireLock(tid2, p1, Permissions.READ_WRITE, 0));
+        Acquirer waiter = new Acquirer(tid1, p1, Permissions.READ_WRITE, LONG_TIMEOUT);
+        assertNull(waiter.settle());
+
+        assertFalse(lm.acquireLock(tid2, p0, Permissions.READ_ONLY, 0));
+        assertNull(waiter.settle());
+        assertFalse(waiter.deadlocked);
+
+        lm.releaseAllLocks(tid2);
+        waiter.join();
+        assertTrue(waiter.granted);
+        assertFalse(waiter.deadlocked);
+    }
+
+    /**
+     * Two shared holders both upgrading is a deadlock on a single page.
+     */
+    @Test public void upgradeDeadlock() throws Exception {
+        assertTrue(lm.acquireLock(tid1, p0, Permissions.READ_ONLY, 0));
+        assertTrue(lm.acquireLock(tid2, p0, Permissions.READ_ONLY, 0));
+        Acquirer older = new Acquirer(tid1, Permissions.READ_WRITE, LONG_TIMEOUT);
+        assertNull(older.settle());
+        Acquirer younger = new Acquirer(tid2, Permissions.READ_WRITE, LONG_TIMEOUT);
+        younger.join();
+        assertTrue(younger.deadlocked);
+
+        lm.releaseAllLocks(tid2);
+        older.join();
+        assertTrue(older.granted);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
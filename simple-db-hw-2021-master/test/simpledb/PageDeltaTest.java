@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Utility;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageDelta;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageDeltaTest extends SimpleDbTestBase {
+
+    /**
+     * Redo turns the before image into the after image, undo the reverse,
+     * and both survive serialization.
+     */
+    @Test public void redoUndoRoundTrip() throws Exception {
+        byte[] before = new byte[4096];
+        byte[] after = before.clone();
+        after[0] = 1;
+        after[100] = 2;
+        after[103] = 3;
+        Arrays.fill(after, 2000, 2100, (byte) 7);
+
+        PageDelta delta = PageDelta.diff(before, after);
+        // bytes 100 and 103 are close enough to share a range
+        assertEquals(3, delta.numRanges());
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        delta.write(new DataOutputStream(baos));
+        assertTrue(baos.size() < 300);
+        delta = PageDelta.read(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+
+        byte[] page = before.clone();
+        delta.redo(page);
+        assertArrayEquals(after, page);
+        delta.redo(page);
+        assertArrayEquals(after, page);
+        delta.undo(page);
+        assertArrayEquals(before, page);
+    }
+
+    /**
+     * Inserting a tuple into a HeapPage changes one header byte and one slot.
+     */
+    @Test public void heapPageInsert() throws Exception {
+        File f = File.createTempFile("delta", ".dat");
+        f.deleteOnExit();
+        HeapPageId pid = new HeapPageId(Utility.createEmptyHeapFile(f.getAbsolutePath(), 2).getId(), 0);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        byte[] before = page.getPageData();
+        page.insertTuple(Utility.getHeapTuple(new int[]{1, 2}));
+
+        PageDelta delta = PageDelta.diff(before, page.getPageData());
+        assertEquals(2, delta.numRanges());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        delta.write(new DataOutputStream(baos));
+        assertTrue(baos.size() < 64);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lengthMismatch() {
+        PageDelta.diff(new byte[10], new byte[11]);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageDeltaTest.class);
+    }
+}
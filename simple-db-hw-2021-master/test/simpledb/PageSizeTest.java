@@ -0,0 +1,181 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class PageSizeTest extends SimpleDbTestBase {
+
+    private static File tempFile() throws IOException {
+        File f = File.createTempFile("pagesize", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        return f;
+    }
+
+    private static List<List<Integer>> insert(DbFile file, int rows) throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        Random random = new Random(6830);
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < rows; i++) {
+            Tuple tuple = Utility.getHeapTuple(new int[]{random.nextInt(100000), i});
+            Database.getBufferPool().insertTuple(t.getId(), file.getId(), tuple);
+            tuples.add(SystemTestUtil.tupleToList(tuple));
+        }
+        t.commit();
+        return tuples;
+    }
+
+    /**
+     * A heap file written with 16 KB pages is read back with that page size,
+     * next to a table with the database's page size.
+     */
+    @Test public void heapFileWithLargerPages() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            List<Integer> tuple = new ArrayList<>();
+            tuple.add(i);
+            tuple.add(i * 7);
+            tuple.add(-i);
+            tuples.add(tuple);
+        }
+        File f = tempFile();
+        HeapFileEncoder.convert(tuples, f, 16384, 3);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(3), HeapFile.PageFormat.FIXED, false, 16384);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        HeapFile small = SystemTestUtil.createRandomHeapFile(3, 100, null, null);
+
+        assertEquals(16384, Database.getCatalog().getPageSize(hf.getId()));
+        assertEquals(BufferPool.getPageSize(), Database.getCatalog().getPageSize(small.getId()));
+        assertEquals(f.length() / 16384, hf.numPages());
+        TransactionId tid = new TransactionId();
+        Page page = Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(16384, page.getPageData().length);
+        assertEquals(0, ((HeapPage) page).getNumEmptySlots());
+        Database.getBufferPool().transactionComplete(tid);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Pages of every format grow to 64 KB, the largest a slotted page can
+     * address, as tuples are inserted.
+     */
+    @Test public void insertWith64KPages() throws Exception {
+        for (HeapFile.PageFormat format : HeapFile.PageFormat.values()) {
+            HeapFile hf = new HeapFile(tempFile(), Utility.getTupleDesc(2), format, false, 65536);
+            Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+            List<List<Integer>> tuples = insert(hf, 10000);
+            assertEquals(format.toString(), 65536L * hf.numPages(), hf.getFile().length());
+            assertTrue(format.toString(), hf.numPages() < 3);
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            SystemTestUtil.matchTuples(hf, tuples);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void slottedPagesTooLarge() throws Exception {
+        new HeapFile(tempFile(), Utility.getTupleDesc(2), HeapFile.PageFormat.SLOTTED, false, 1 << 17);
+    }
+
+    /**
+     * A B+ tree with 16 KB pages splits less often and holds the same tuples.
+     */
+    @Test public void bTreeWithLargerPages() throws Exception {
+        File small = tempFile();
+        BTreeFile smallTree = new BTreeFile(small, 0, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(smallTree, SystemTestUtil.getUUID());
+        File large = tempFile();
+        BTreeFile largeTree = new BTreeFile(large, 0, Utility.getTupleDesc(2), 16384);
+        Database.getCatalog().addTable(largeTree, SystemTestUtil.getUUID());
+
+        List<List<Integer>> tuples = insert(smallTree, 5000);
+        assertEquals(tuples.size(), insert(largeTree, 5000).size());
+        assertEquals(16384, largeTree.getPageSize());
+        assertTrue(largeTree.numPages() * 3 < smallTree.numPages());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(largeTree, tuples);
+
+        // tuples come back in key order
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = largeTree.iterator(tid);
+        it.open();
+        int last = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            int key = ((IntField) it.next().getField(0)).getValue();
+            assertTrue(key >= last);
+            last = key;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Log records carry whole 16 KB pages, and recovery undoes and redoes
+     * them at that size.
+     */
+    @Test public void recoverLargerPages() throws Exception {
+        File f = tempFile();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), HeapFile.PageFormat.FIXED, false, 16384);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        List<List<Integer>> committed = insert(hf, 2000);
+
+        // flush an uncommitted insert, then crash
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[]{-1, -1}));
+        Database.getBufferPool().flushAllPages();
+
+        Database.reset();
+        hf = new HeapFile(f, Utility.getTupleDesc(2), HeapFile.PageFormat.FIXED, false, 16384);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        Database.getLogFile().recover();
+        SystemTestUtil.matchTuples(hf, committed);
+    }
+
+    /**
+     * A table in a catalog file can choose its page size.
+     */
+    @Test public void catalogPageSize() throws Exception {
+        File catalog = File.createTempFile("catalog", ".txt");
+        catalog.deleteOnExit();
+        try (FileWriter w = new FileWriter(catalog)) {
+            w.write("wide (a int, b int) pagesize=65536 pax\n");
+            w.write("narrow (a int, b int)\n");
+        }
+        new File(catalog.getParent(), "wide.dat").deleteOnExit();
+        new File(catalog.getParent(), "narrow.dat").deleteOnExit();
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+
+        int wide = Database.getCatalog().getTableId("wide");
+        assertEquals(65536, Database.getCatalog().getPageSize(wide));
+        assertEquals(HeapFile.PageFormat.PAX, ((HeapFile) Database.getCatalog().getDatabaseFile(wide)).getPageFormat());
+        assertEquals(BufferPool.getPageSize(), Database.getCatalog().getPageSize(Database.getCatalog().getTableId("narrow")));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
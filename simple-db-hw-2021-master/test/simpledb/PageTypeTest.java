@@ -0,0 +1,76 @@
+package simpledb;
+
+import java.io.File;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.PageType;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageTypeTest extends SimpleDbTestBase {
+
+    /**
+     * A heap page rebuilt by its page type has the same id and data.
+     */
+    @Test public void heapPageRoundTrip() throws Exception {
+        File f = File.createTempFile("pagetype", ".dat");
+        f.deleteOnExit();
+        HeapPageId pid = new HeapPageId(Utility.createEmptyHeapFile(f.getAbsolutePath(), 2).getId(), 3);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(new int[]{1, 2}));
+
+        PageType type = PageType.forPage(page);
+        assertSame(PageType.HEAP, type);
+        assertSame(type, PageType.forCode(type.getCode()));
+        PageId id = type.newPageId(pid.serialize());
+        assertEquals(pid, id);
+        assertArrayEquals(page.getPageData(), type.newPage(id, page.getPageData()).getPageData());
+    }
+
+    /**
+     * B+ tree leaf pages pick up the key field of their file from the catalog.
+     */
+    @Test public void btreeLeafRoundTrip() throws Exception {
+        File f = File.createTempFile("pagetype", ".dat");
+        f.deleteOnExit();
+        BTreeFile file = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 1);
+        BTreePageId pid = new BTreePageId(file.getId(), 1, BTreePageId.LEAF);
+        BTreeLeafPage leaf = BTreeUtility.createRandomLeafPage(pid, 2, 1, 0, 100);
+
+        PageType type = PageType.forPage(leaf);
+        assertSame(PageType.BTREE_LEAF, type);
+        Page copy = type.newPage(type.newPageId(pid.serialize()), leaf.getPageData());
+        assertTrue(copy instanceof BTreeLeafPage);
+        assertEquals(pid, copy.getId());
+        assertArrayEquals(leaf.getPageData(), copy.getPageData());
+        // any type with the same id class can rebuild a bare page id
+        assertEquals(pid, PageType.forPageId(pid).newPageId(pid.serialize()));
+    }
+
+    @Test public void unknownCode() {
+        assertNull(PageType.forCode(255));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateCode() {
+        PageType.register(PageType.HEAP.getCode(), HeapPage.class, HeapPageId.class,
+                fields -> null, (pid, data) -> null);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageTypeTest.class);
+    }
+}
@@ -0,0 +1,170 @@
+package simpledb;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.ColumnScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class PaxPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE});
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int i) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("s" + i, Type.STRING_LEN));
+        t.setField(2, new IntField(-i));
+        return t;
+    }
+
+    /**
+     * A PaxPage holds as many tuples as a HeapPage, returns them with their
+     * RecordIds, and survives a round trip through its page data.
+     */
+    @Test public void insertDeleteRoundTrip() throws Exception {
+        PaxPage page = new PaxPage(pid, HeapPage.createEmptyPageData());
+        int slots = page.getNumEmptySlots();
+        assertEquals((BufferPool.getPageSize() * 8) / (TD.getSize() * 8 + 1), slots);
+        for (int i = 0; i < slots; i++) {
+            Tuple t = tuple(i);
+            page.insertTuple(t);
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+        assertFalse(page.hasRoomFor(tuple(0)));
+        try {
+            page.insertTuple(tuple(0));
+            fail("page should be full; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+
+        page.deleteTuple(withRecordId(tuple(3), 3));
+        assertEquals(1, page.getNumEmptySlots());
+
+        PaxPage copy = new PaxPage(pid, page.getPageData());
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < slots; i++) {
+            if (i == 3)
+                continue;
+            assertTrue(it.hasNext());
+            Tuple t = it.next();
+            assertTrue(TestUtil.compareTuples(tuple(i), t));
+            assertEquals(i, t.getRecordId().getTupleNumber());
+        }
+        assertFalse(it.hasNext());
+
+        int[] used = new int[copy.getNumSlots()];
+        int[] values = new int[copy.getNumSlots()];
+        assertEquals(slots - 1, copy.readUsedSlots(used));
+        assertEquals(slots - 1, copy.readIntColumn(2, values));
+        assertEquals(4, used[3]);
+        assertEquals(-4, values[3]);
+    }
+
+    private Tuple withRecordId(Tuple t, int slot) {
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    /**
+     * ColumnScan over a PAX table returns every row, projected to the
+     * requested fields, including tuples inserted after the table was
+     * written, and starts over after a rewind.
+     */
+    @Test public void columnScan() throws Exception {
+        File text = File.createTempFile("pax", ".txt");
+        text.deleteOnExit();
+        File data = File.createTempFile("pax", ".dat");
+        data.deleteOnExit();
+        int rows = 1000;
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(text))) {
+            for (int i = 0; i < rows; i++)
+                bw.write(i + ",s" + i + "," + (-i) + "\n");
+        }
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 3,
+                new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE}, ',', HeapFile.PageFormat.PAX);
+        HeapFile hf = new HeapFile(data, TD, HeapFile.PageFormat.PAX);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        hf.insertTuple(tid, tuple(rows));
+
+        ColumnScan scan = new ColumnScan(tid, hf.getId(), "t", Arrays.asList(2, 1));
+        assertEquals(Type.INT_TYPE, scan.getTupleDesc().getFieldType(0));
+        assertEquals(Type.STRING_TYPE, scan.getTupleDesc().getFieldType(1));
+        scan.open();
+        List<Integer> seen = new ArrayList<>();
+        for (int pass = 0; pass < 2; pass++) {
+            while (scan.hasNext()) {
+                Tuple t = scan.next();
+                int i = -((IntField) t.getField(0)).getValue();
+                assertEquals("s" + i, ((StringField) t.getField(1)).getValue());
+                seen.add(i);
+            }
+            scan.rewind();
+        }
+
+        // and a page of int values at a time
+        int batched = 0;
+        for (int n = scan.nextBatch(); n > 0; n = scan.nextBatch()) {
+            int[] values = scan.getIntColumn(0);
+            for (int i = 0; i < n; i++)
+                assertEquals(seen.get(batched++), (Integer) (-values[i]));
+        }
+        assertEquals(rows + 1, batched);
+        assertFalse(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertEquals(2 * (rows + 1), seen.size());
+        for (int i = 0; i <= rows; i++)
+            assertEquals(i, (int) seen.get(i));
+    }
+
+    /**
+     * ColumnScan only reads PAX tables.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void columnScanNeedsPax() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        new ColumnScan(new TransactionId(), hf.getId(), "t", Arrays.asList(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxPageTest.class);
+    }
+}
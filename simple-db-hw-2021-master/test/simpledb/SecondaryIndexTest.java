@@ -0,0 +1,180 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+	private TransactionId tid;
+
+	@Before
+	public void setUp() {
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	// an empty index on the second field of the table, in the catalog
+	private SecondaryIndex addIndex(HeapFile table) throws Exception {
+		File f = File.createTempFile("index", ".dat");
+		f.deleteOnExit();
+		BTreeFile tree = new BTreeFile(f, 0, SecondaryIndex.getTupleDesc(Type.INT_TYPE));
+		SecondaryIndex index = new SecondaryIndex(table, 1, tree);
+		Database.getCatalog().addIndex(index);
+		return index;
+	}
+
+	// the tuples the index finds for the predicate, as lists of their fields
+	private List<List<Integer>> lookup(SecondaryIndex index, Op op, int value) throws Exception {
+		List<List<Integer>> found = new ArrayList<>();
+		OpIterator scan = new SecondaryIndexScan(tid, index, new IndexPredicate(op, new IntField(value)));
+		scan.open();
+		int prev = Integer.MIN_VALUE;
+		while(scan.hasNext()) {
+			Tuple t = scan.next();
+			List<Integer> fields = BTreeUtility.tupleToList(t);
+			assertTrue(prev <= fields.get(1));
+			prev = fields.get(1);
+			found.add(fields);
+		}
+		scan.close();
+		return found;
+	}
+
+	// the tuples of a list that the predicate holds for, in order of the second field
+	private static List<List<Integer>> select(List<List<Integer>> tuples, Op op, int value) {
+		List<List<Integer>> selected = new ArrayList<>();
+		for(List<Integer> t : tuples) {
+			if(new IntField(t.get(1)).compare(op, new IntField(value))) {
+				selected.add(t);
+			}
+		}
+		selected.sort(Comparator.<List<Integer>, Integer>comparing(t -> t.get(1)).thenComparing(t -> t.get(0)));
+		return selected;
+	}
+
+	private static void assertSameTuples(List<List<Integer>> expected, List<List<Integer>> actual) {
+		Comparator<List<Integer>> byColumns = Comparator.<List<Integer>, Integer>comparing(t -> t.get(1))
+				.thenComparing(t -> t.get(0));
+		actual.sort(byColumns);
+		assertEquals(expected, actual);
+	}
+
+	/**
+	 * An index built on a table that already holds tuples finds the tuples that
+	 * match a predicate on its field, with their RecordIds.
+	 */
+	@Test
+	public void buildAndLookup() throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		HeapFile table = SystemTestUtil.createRandomHeapFile(2, 5000, 500, null, tuples);
+		SecondaryIndex index = addIndex(table);
+		index.build(tid);
+		BTreeChecker.checkRep(index.getFile(), tid, new HashMap<>(), true);
+
+		for(int value : new int[]{0, 17, 250, 499}) {
+			assertSameTuples(select(tuples, Op.EQUALS, value), lookup(index, Op.EQUALS, value));
+		}
+		assertSameTuples(select(tuples, Op.LESS_THAN, 40), lookup(index, Op.LESS_THAN, 40));
+		assertSameTuples(select(tuples, Op.GREATER_THAN_OR_EQ, 480), lookup(index, Op.GREATER_THAN_OR_EQ, 480));
+
+		OpIterator scan = new SecondaryIndexScan(tid, index, new IndexPredicate(Op.EQUALS, new IntField(17)));
+		scan.open();
+		while(scan.hasNext()) {
+			Tuple t = scan.next();
+			assertEquals(table.getId(), t.getRecordId().getPageId().getTableId());
+		}
+		scan.close();
+	}
+
+	/**
+	 * Insert and Delete keep the index up to date with the table.
+	 */
+	@Test
+	public void insertAndDelete() throws Exception {
+		HeapFile table = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+		SecondaryIndex index = addIndex(table);
+		List<List<Integer>> tuples = new ArrayList<>();
+		List<Tuple> inserted = new ArrayList<>();
+		for(int i = 0; i < 3000; i++) {
+			inserted.add(BTreeUtility.getBTreeTuple(Arrays.asList(i, i % 100)));
+			tuples.add(Arrays.asList(i, i % 100));
+		}
+		Insert insert = new Insert(tid, new TupleIterator(table.getTupleDesc(), inserted), table.getId());
+		insert.open();
+		assertEquals(3000, ((IntField) insert.next().getField(0)).getValue());
+		insert.close();
+		assertSameTuples(select(tuples, Op.EQUALS, 42), lookup(index, Op.EQUALS, 42));
+
+		// delete the tuples whose first field is even
+		Predicate even = new Predicate(0, Op.EQUALS, new IntField(0)) {
+			@Override
+			public boolean filter(Tuple t) {
+				return ((IntField) t.getField(0)).getValue() % 2 == 0;
+			}
+		};
+		Delete delete = new Delete(tid, new Filter(even, new SeqScan(tid, table.getId(), "t")));
+		delete.open();
+		assertEquals(1500, ((IntField) delete.next().getField(0)).getValue());
+		delete.close();
+		tuples.removeIf(t -> t.get(0) % 2 == 0);
+
+		// pages the deletes leave less than half full are not merged with their siblings yet
+		BTreeChecker.checkRep(index.getFile(), tid, new HashMap<>(), false);
+		assertTrue(lookup(index, Op.EQUALS, 42).isEmpty());
+		assertSameTuples(select(tuples, Op.EQUALS, 43), lookup(index, Op.EQUALS, 43));
+		assertSameTuples(select(tuples, Op.GREATER_THAN, 90), lookup(index, Op.GREATER_THAN, 90));
+	}
+
+	/**
+	 * The entries added by a transaction that aborts are rolled back with its
+	 * tuples.
+	 */
+	@Test
+	public void abort() throws Exception {
+		HeapFile table = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+		SecondaryIndex index = addIndex(table);
+		Database.getBufferPool().insertTuple(tid, table.getId(), BTreeUtility.getBTreeTuple(Arrays.asList(1, 7)));
+		Database.getBufferPool().transactionComplete(tid, false);
+
+		tid = new TransactionId();
+		assertTrue(lookup(index, Op.EQUALS, 7).isEmpty());
+		Database.getBufferPool().insertTuple(tid, table.getId(), BTreeUtility.getBTreeTuple(Arrays.asList(2, 7)));
+		assertEquals(Collections.singletonList(Arrays.asList(2, 7)), lookup(index, Op.EQUALS, 7));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void treeDoesNotMatchField() throws Exception {
+		HeapFile table = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+		File f = File.createTempFile("index", ".dat");
+		f.deleteOnExit();
+		new SecondaryIndex(table, 1, new BTreeFile(f, 0, Utility.getTupleDesc(3)));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(SecondaryIndexTest.class);
+	}
+}
@@ -0,0 +1,114 @@
+package simpledb;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.utils.LruPolicy;
+import simpledb.utils.ShardedCache;
+import simpledb.utils.TwoQueuePolicy;
+
+public class ShardedCacheTest {
+
+    /**
+     * Unit test for ShardedCache.put() and get()
+     */
+    @Test public void putAndGet() {
+        ShardedCache<Integer, String> cache = new ShardedCache<>(100, 8, c -> new LruPolicy<>());
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, "v" + i);
+        }
+        assertEquals(100, cache.getSize());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("v" + i, cache.get(i));
+        }
+        assertNull(cache.get(100));
+
+        // put replaces, putIfAbsent keeps the existing value
+        cache.put(7, "x");
+        assertEquals("x", cache.get(7));
+        assertEquals("x", cache.putIfAbsent(7, "y"));
+        assertEquals("x", cache.get(7));
+        assertEquals(100, cache.getSize());
+
+        cache.remove(7);
+        assertNull(cache.get(7));
+        assertEquals(99, cache.getSize());
+    }
+
+    /**
+     * Unit test for ShardedCache.evict(): within a shard the least
+     * recently used acceptable entry goes first.
+     */
+    @Test public void evictLeastRecentlyUsed() {
+        ShardedCache<Integer, Integer> cache = new ShardedCache<>(4, 1, c -> new LruPolicy<>());
+        for (int i = 0; i < 4; i++) {
+            cache.put(i, i);
+        }
+        cache.get(0);
+        assertEquals(Integer.valueOf(1), cache.evict(v -> true));
+        // skip entries the predicate rejects
+        assertEquals(Integer.valueOf(3), cache.evict(v -> v != 2));
+        assertEquals(2, cache.getSize());
+        assertNull(cache.evict(v -> false));
+    }
+
+    /**
+     * Unit test for ShardedCache.evict() across shards: every entry is
+     * eventually reachable.
+     */
+    @Test public void evictAllShards() {
+        ShardedCache<Integer, Integer> cache = new ShardedCache<>(64, 16, TwoQueuePolicy::new);
+        assertEquals(16, cache.getShardCount());
+        for (int i = 0; i < 64; i++) {
+            cache.put(i, i);
+        }
+        Set<Integer> keys = new HashSet<>();
+        Iterator<Integer> it = cache.keyIterator();
+        while (it.hasNext()) {
+            keys.add(it.next());
+        }
+        assertEquals(64, keys.size());
+
+        Set<Integer> evicted = new HashSet<>();
+        Integer v;
+        while ((v = cache.evict(x -> true)) != null) {
+            evicted.add(v);
+        }
+        assertEquals(keys, evicted);
+        assertEquals(0, cache.getSize());
+    }
+
+    /**
+     * Unit test for TwoQueuePolicy: a key that comes back while remembered in
+     * A1out is promoted to Am and then survives a scan of new keys.
+     */
+    @Test public void twoQueueScanResistance() {
+        TwoQueuePolicy<Integer> policy = new TwoQueuePolicy<>(8);
+        // hot key 0 is admitted, pushed out by a few new keys, then re-referenced
+        policy.recordInsert(0);
+        for (int i = 1; i <= 3; i++) {
+            policy.recordInsert(i);
+        }
+        assertEquals(Integer.valueOf(0), policy.evict(k -> true));
+        policy.recordInsert(0);
+
+        // a long scan only cycles through A1in
+        for (int i = 100; i < 200; i++) {
+            policy.recordInsert(i);
+            Integer victim = policy.evict(k -> true);
+            assertNotNull(victim);
+            assertNotEquals(Integer.valueOf(0), victim);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ShardedCacheTest.class);
+    }
+}
@@ -0,0 +1,219 @@
+package simpledb;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    // a string of i % 20 characters
+    private static String string(int i) {
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < i % 20; j++) {
+            sb.append((char) ('a' + (i + j) % 26));
+        }
+        return sb.toString();
+    }
+
+    private static List<Tuple> tuples(TuplePage page) {
+        List<Tuple> tuples = new ArrayList<>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            tuples.add(it.next());
+        return tuples;
+    }
+
+    /**
+     * An empty page has room for as many of the smallest records as fit
+     * with their slots.
+     */
+    @Test public void emptyPage() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        assertFalse(page.iterator().hasNext());
+        assertEquals((BufferPool.getPageSize() - 4) / (4 + 2 + 4), page.getNumEmptySlots());
+    }
+
+    /**
+     * Tuples with short strings are packed far more densely than on a
+     * HeapPage, and each keeps its values and RecordId.
+     */
+    @Test public void insertUntilFull() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        List<Tuple> inserted = new ArrayList<>();
+        for (int i = 0; page.hasRoomFor(tuple(i, string(i))); i++) {
+            Tuple t = tuple(i, string(i));
+            page.insertTuple(t);
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+            inserted.add(t);
+        }
+        assertTrue(inserted.size() > 4 * ((BufferPool.getPageSize() * 8) / (TD.getSize() * 8 + 1)));
+
+        List<Tuple> read = tuples(page);
+        assertEquals(inserted.size(), read.size());
+        for (int i = 0; i < read.size(); i++) {
+            assertTrue(TestUtil.compareTuples(inserted.get(i), read.get(i)));
+            assertEquals(inserted.get(i).getRecordId(), read.get(i).getRecordId());
+        }
+
+        try {
+            page.insertTuple(tuple(0, string(19)));
+            fail("page should be full; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+    }
+
+    /**
+     * Deleting frees a slot, an insert reuses it, and an insert that only
+     * fits once the holes left by deletes are closed compacts the page.
+     */
+    @Test public void deleteReuseAndCompact() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        String longString = string(19) + string(19) + string(19);
+        for (int i = 0; page.hasRoomFor(tuple(i, longString)); i++)
+            page.insertTuple(tuple(i, longString));
+        List<Tuple> before = tuples(page);
+
+        // free every other record; no single hole is big enough for the
+        // larger tuples below, but the holes together are
+        for (int i = 0; i < before.size(); i += 2)
+            page.deleteTuple(before.get(i));
+        assertFalse(page.isSlotUsed(0));
+        assertTrue(page.isSlotUsed(1));
+        try {
+            page.deleteTuple(before.get(4));
+            fail("slot should be empty; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+
+        Tuple small = tuple(-1, "x");
+        page.insertTuple(small);
+        assertEquals(0, small.getRecordId().getTupleNumber());
+
+        Tuple large = tuple(-2, longString + longString);
+        assertTrue(page.hasRoomFor(large));
+        page.insertTuple(large);
+        assertEquals(2, large.getRecordId().getTupleNumber());
+        int added = 0;
+        for (; page.hasRoomFor(large); added++)
+            page.insertTuple(tuple(added, longString + longString));
+        assertTrue(added > before.size() / 8);
+
+        // the surviving tuples moved but kept their slots
+        for (Tuple t : tuples(page)) {
+            int slot = t.getRecordId().getTupleNumber();
+            if (slot % 2 == 1)
+                assertTrue(TestUtil.compareTuples(before.get(slot), t));
+        }
+    }
+
+    /**
+     * A page rebuilt from its data holds the same tuples.
+     */
+    @Test public void roundTrip() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 100; i++)
+            page.insertTuple(tuple(i, string(i)));
+        page.deleteTuple(tuples(page).get(10));
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        List<Tuple> expected = tuples(page);
+        List<Tuple> actual = tuples(copy);
+        assertEquals(99, actual.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertTrue(TestUtil.compareTuples(expected.get(i), actual.get(i)));
+
+        // deleting the last tuples gives back an empty page
+        for (Tuple t : actual)
+            copy.deleteTuple(t);
+        assertArrayEquals(HeapPage.createEmptyPageData(), copy.getPageData());
+    }
+
+    /**
+     * A table written by HeapFileEncoder in the slotted format can be
+     * scanned and inserted into through HeapFile.
+     */
+    @Test public void slottedHeapFile() throws Exception {
+        File text = File.createTempFile("slotted", ".txt");
+        text.deleteOnExit();
+        File data = File.createTempFile("slotted", ".dat");
+        data.deleteOnExit();
+        int rows = 2000;
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(text))) {
+            for (int i = 0; i < rows; i++)
+                bw.write(i + "," + string(i) + "\n");
+        }
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 2,
+                new Type[]{Type.INT_TYPE, Type.STRING_TYPE}, ',', HeapFile.PageFormat.SLOTTED);
+
+        HeapFile hf = new HeapFile(data, TD, HeapFile.PageFormat.SLOTTED);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        hf.insertTuple(tid, tuple(rows, string(rows)));
+
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        // the inserted tuple goes wherever there is room, so it may not come last
+        boolean[] seen = new boolean[rows + 1];
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertFalse(seen[i]);
+            seen[i] = true;
+            assertTrue(TestUtil.compareTuples(tuple(i, string(i)), t));
+        }
+        it.close();
+        for (boolean b : seen)
+            assertTrue(b);
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(hf.numPages() < rows / ((BufferPool.getPageSize() * 8) / (TD.getSize() * 8 + 1)) / 4);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -0,0 +1,116 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.index.BTreeBulkLoader;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Building a B+ tree on the first column of a heap table of ROWS rows of two
+ * int columns, whose first column holds random keys: with BTreeBulkLoader,
+ * at fill factors 1 and 0.9, and by inserting the rows one by one through
+ * the buffer pool, in transactions of INSERT_BATCH rows, the way an index
+ * is filled without a bulk loader.  Inserting is given INSERT_BUDGET_MILLIS;
+ * if it does not get through the table by then, the time to insert all of
+ * it is worked out from its rate so far.  The number of rows may be given
+ * as the first argument.
+ * <p>
+ * Reported: seconds taken, rows per second, and the pages in the tree.
+ *
+ * Run with: ant runbench -Dbench=BTreeBulkLoadBenchmark
+ */
+public class BTreeBulkLoadBenchmark {
+    private static final int ROWS = 10_000_000;
+    private static final int POOL_PAGES = 10_000;
+    private static final int INSERT_BATCH = 1000;
+    private static final long INSERT_BUDGET_MILLIS = 120_000;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : ROWS;
+        File heap = File.createTempFile("table", ".dat");
+        heap.deleteOnExit();
+        new File(heap.getPath() + ".fsm").deleteOnExit();
+        writeHeapFile(heap, rows);
+
+        for (double fillFactor : new double[]{1.0, 0.9}) {
+            Database.reset();
+            Database.resetBufferPool(POOL_PAGES);
+            HeapFile table = Utility.openHeapFile(2, heap);
+            BTreeFile tree = createEmptyTree();
+            long start = System.nanoTime();
+            TransactionId tid = new TransactionId();
+            BTreeBulkLoader.load(tid, table, tree, fillFactor, BTreeBulkLoader.DEFAULT_SORT_PAGES);
+            Database.getBufferPool().transactionComplete(tid);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("bulk load, fill %.1f:  rows=%,d  %,8.1f s  rows/s=%,10.0f  pages=%,d%n",
+                    fillFactor, rows, seconds, rows / seconds, tree.numPages());
+        }
+
+        Database.reset();
+        Database.resetBufferPool(POOL_PAGES);
+        HeapFile table = Utility.openHeapFile(2, heap);
+        BTreeFile tree = createEmptyTree();
+        long start = System.nanoTime();
+        long deadline = System.currentTimeMillis() + INSERT_BUDGET_MILLIS;
+        TransactionId reader = new TransactionId();
+        DbFileIterator it = table.iterator(reader);
+        it.open();
+        long n = 0;
+        while (it.hasNext() && System.currentTimeMillis() < deadline) {
+            Transaction t = new Transaction();
+            t.start();
+            for (int i = 0; i < INSERT_BATCH && it.hasNext(); i++, n++) {
+                Database.getBufferPool().insertTuple(t.getId(), tree.getId(), it.next());
+            }
+            t.commit();
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(reader);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("insertTuple:           rows=%,d  %,8.1f s  rows/s=%,10.0f  pages=%,d  (all rows: %,.0f s)%n",
+                n, seconds, n / seconds, tree.numPages(), seconds * rows / n);
+        new File("log").delete();
+    }
+
+    private static BTreeFile createEmptyTree() throws IOException {
+        File f = File.createTempFile("index", ".dat");
+        f.deleteOnExit();
+        return BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+    }
+
+    // Write the heap file page by page: a header marking the slots in use, then the rows.
+    private static void writeHeapFile(File f, int rows) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int slots = (pageSize * 8) / (2 * 4 * 8 + 1);
+        int headerBytes = (slots + 7) / 8;
+        Random r = new Random(0);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 20))) {
+            for (int row = 0; row < rows; row += slots) {
+                int used = Math.min(slots, rows - row);
+                byte[] header = new byte[headerBytes];
+                for (int i = 0; i < used; i++) {
+                    header[i / 8] |= (byte) (1 << (i % 8));
+                }
+                out.write(header);
+                for (int i = 0; i < slots; i++) {
+                    out.writeInt(i < used ? r.nextInt(Integer.MAX_VALUE) : 0);
+                    out.writeInt(i < used ? row + i : 0);
+                }
+                out.write(new byte[pageSize - headerBytes - slots * 2 * 4]);
+            }
+        }
+    }
+}
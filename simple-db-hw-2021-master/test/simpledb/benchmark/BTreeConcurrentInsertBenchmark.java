@@ -0,0 +1,109 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.index.BTreeChecker;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.DbFileIterator;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrent inserts into one B+ tree of two int columns, keyed on the
+ * first, which starts out with INITIAL_ROWS rows (a root and a few hundred
+ * leaves).  Every thread runs transactions of one or ten inserts of random
+ * keys and commits them, starting a new one when a transaction is aborted
+ * to break a deadlock.  Run with 1 and 16 threads.
+ * <p>
+ * Reported: committed rows per second, aborted transactions, and at the
+ * end the rows in the tree, which must be INITIAL_ROWS plus the committed
+ * rows, and a check of the tree's structure (run with -ea).
+ *
+ * Run with: ant runbench -Dbench=BTreeConcurrentInsertBenchmark
+ */
+public class BTreeConcurrentInsertBenchmark {
+    private static final int[] THREADS = {1, 16};
+    private static final int INITIAL_ROWS = 100_000;
+    private static final int[] ROWS_PER_TXN = {1, 10};
+    private static final int POOL_PAGES = 2000;
+    private static final long RUN_MILLIS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        for (int rowsPerTxn : ROWS_PER_TXN) {
+            for (int threads : THREADS) {
+                Database.reset();
+                BTreeFile tree = BTreeUtility.createRandomBTreeFile(2, INITIAL_ROWS, null, null, 0);
+                Database.resetBufferPool(POOL_PAGES);
+                run(tree, threads, rowsPerTxn);
+            }
+        }
+        new File("log").delete();
+    }
+
+    private static void run(final BTreeFile tree, int threads, final int rowsPerTxn) throws Exception {
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLong aborts = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] deadline = new long[1];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                    while (System.currentTimeMillis() < deadline[0]) {
+                        Transaction txn = new Transaction();
+                        txn.start();
+                        try {
+                            for (int i = 0; i < rowsPerTxn; i++) {
+                                Database.getBufferPool().insertTuple(txn.getId(), tree.getId(),
+                                        BTreeUtility.getBTreeTuple(new int[]{r.nextInt(BTreeUtility.MAX_RAND_VALUE), i}));
+                            }
+                            txn.commit();
+                            rows.addAndGet(rowsPerTxn);
+                        } catch (TransactionAbortedException e) {
+                            txn.abort();
+                            aborts.incrementAndGet();
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            workers[t].start();
+        }
+        long begin = System.currentTimeMillis();
+        deadline[0] = begin + RUN_MILLIS;
+        start.countDown();
+        for (Thread w : workers) {
+            w.join();
+        }
+        double seconds = (System.currentTimeMillis() - begin) / 1000.0;
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = tree.iterator(tid);
+        it.open();
+        long n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        String check = n == INITIAL_ROWS + rows.get() ? "ok" : "LOST " + (INITIAL_ROWS + rows.get() - n) + " rows";
+        try {
+            BTreeChecker.checkRep(tree, tid, new HashMap<>(), false);
+        } catch (AssertionError e) {
+            check += ", BROKEN TREE";
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        System.out.printf("rows/txn=%2d  threads=%2d  rows/s=%,8.0f  aborts=%5d  %s%n", rowsPerTxn, threads,
+                rows.get() / seconds, aborts.get(), check);
+    }
+}
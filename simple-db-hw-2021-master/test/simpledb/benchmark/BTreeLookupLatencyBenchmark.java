@@ -0,0 +1,145 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency of point lookups in one B+ tree of two int columns, keyed on the
+ * first, which starts out with INITIAL_ROWS rows.  READERS threads look up
+ * random keys, every lookup a transaction of its own: first with nothing
+ * else running, then while WRITERS more threads insert random keys as fast
+ * as they can, one row per transaction, which splits leaf pages all the
+ * time and internal pages now and then.  The writers insert either into the
+ * half of the key range the readers do not look in ("apart"), so that only
+ * the splits stand in the readers' way, or all over it ("mixed"), so that a
+ * lookup also waits for the lock of an insert into its leaf page until the
+ * insert commits.
+ * <p>
+ * Reported: the median, 90th, 99th percentile and largest lookup latency,
+ * lookups per second, and inserts per second while they run.
+ *
+ * Run with: ant runbench -Dbench=BTreeLookupLatencyBenchmark
+ */
+public class BTreeLookupLatencyBenchmark {
+    private static final int INITIAL_ROWS = 100_000;
+    private static final int READERS = 4;
+    private static final int WRITERS = 4;
+    private static final int POOL_PAGES = 2000;
+    private static final long RUN_MILLIS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        for (String writes : new String[]{"none", "apart", "mixed"}) {
+            Database.reset();
+            BTreeFile tree = BTreeUtility.createRandomBTreeFile(2, INITIAL_ROWS, null, null, 0);
+            Database.resetBufferPool(POOL_PAGES);
+            run(tree, writes);
+        }
+        new File("log").delete();
+    }
+
+    private static void run(final BTreeFile tree, String writes) throws Exception {
+        final int writers = writes.equals("none") ? 0 : WRITERS;
+        // readers look in the lower half of the key range, and writers write in the upper
+        // half if they are to keep apart
+        final int half = BTreeUtility.MAX_RAND_VALUE / 2;
+        final int writeFrom = writes.equals("apart") ? half : 0;
+        final AtomicLong inserts = new AtomicLong();
+        final long[][] latencies = new long[READERS][];
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] deadline = new long[1];
+        Thread[] threads = new Thread[READERS + writers];
+        for (int t = 0; t < READERS; t++) {
+            final int reader = t;
+            threads[t] = new Thread(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                long[] nanos = new long[1 << 16];
+                int n = 0;
+                try {
+                    start.await();
+                    while (System.currentTimeMillis() < deadline[0]) {
+                        IndexPredicate key = new IndexPredicate(Predicate.Op.EQUALS,
+                                new IntField(r.nextInt(half)));
+                        long begin = System.nanoTime();
+                        Transaction txn = new Transaction();
+                        txn.start();
+                        try {
+                            DbFileIterator it = tree.indexIterator(txn.getId(), key);
+                            it.open();
+                            while (it.hasNext()) {
+                                it.next();
+                            }
+                            it.close();
+                            txn.commit();
+                        } catch (TransactionAbortedException e) {
+                            txn.abort();
+                            continue;
+                        }
+                        if (n == nanos.length) {
+                            nanos = Arrays.copyOf(nanos, n * 2);
+                        }
+                        nanos[n++] = System.nanoTime() - begin;
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                latencies[reader] = Arrays.copyOf(nanos, n);
+            });
+        }
+        for (int t = READERS; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                    while (System.currentTimeMillis() < deadline[0]) {
+                        Transaction txn = new Transaction();
+                        txn.start();
+                        try {
+                            Database.getBufferPool().insertTuple(txn.getId(), tree.getId(),
+                                    BTreeUtility.getBTreeTuple(new int[]{r.nextInt(writeFrom, BTreeUtility.MAX_RAND_VALUE), 0}));
+                            txn.commit();
+                            inserts.incrementAndGet();
+                        } catch (TransactionAbortedException e) {
+                            txn.abort();
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        long begin = System.currentTimeMillis();
+        deadline[0] = begin + RUN_MILLIS;
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        double seconds = (System.currentTimeMillis() - begin) / 1000.0;
+
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("writes=%-5s  p50=%,7.1f us  p90=%,7.1f us  p99=%,8.1f us  max=%,9.1f us"
+                        + "  lookups/s=%,7.0f  inserts/s=%,6.0f%n",
+                writes, percentile(all, 0.50), percentile(all, 0.90), percentile(all, 0.99),
+                all[all.length - 1] / 1e3, all.length / seconds, inserts.get() / seconds);
+    }
+
+    // The latency below which the given fraction of lookups took, in microseconds.
+    private static double percentile(long[] sorted, double fraction) {
+        return sorted[(int) Math.min(sorted.length - 1, (long) (sorted.length * fraction))] / 1e3;
+    }
+}
@@ -0,0 +1,180 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
+import simpledb.index.BTreeBulkLoader;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.StringField;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The shape of a B+ tree on a string column, and the pages a point lookup
+ * in it reads.  A heap table of ROWS rows of a URL-like string key and an
+ * int is bulk loaded into a B+ tree on the key at the default fill factor.
+ * Then LOOKUPS random keys are looked up, each in a transaction of its own:
+ * first with the buffer pool emptied before every lookup, so that each
+ * reads the whole path from the root down, and then with a buffer pool of
+ * POOL_PAGES pages, warmed up with as many lookups beforehand.  The number
+ * of rows may be given as the first argument.
+ * <p>
+ * Reported: the height of the tree, counting the leaf level, the number of
+ * internal and leaf pages, the entries on the root, and the index pages
+ * read from disk per lookup, cold and warm.
+ *
+ * Run with: ant runbench -Dbench=BTreeStringKeyBenchmark
+ */
+public class BTreeStringKeyBenchmark {
+    private static final int ROWS = 1_000_000;
+    private static final int LOOKUPS = 20_000;
+    private static final int POOL_PAGES = 1000;
+    private static final TupleDesc TD = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE});
+
+    /** A B+ tree file that counts the pages it reads from disk. */
+    private static class CountingBTreeFile extends BTreeFile {
+        final AtomicLong reads = new AtomicLong();
+
+        CountingBTreeFile(File f) {
+            super(f, 0, TD, BufferPool.getPageSize());
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            return super.readPage(pid);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : ROWS;
+        File heap = File.createTempFile("table", ".dat");
+        heap.deleteOnExit();
+        new File(heap.getPath() + ".fsm").deleteOnExit();
+        writeHeapFile(heap, rows);
+
+        Database.reset();
+        HeapFile table = Utility.openHeapFile(2, "", heap, TD);
+        File index = File.createTempFile("index", ".dat");
+        index.deleteOnExit();
+        CountingBTreeFile tree = new CountingBTreeFile(index);
+        Database.getCatalog().addTable(tree, UUID.randomUUID().toString());
+        TransactionId tid = new TransactionId();
+        BTreeBulkLoader.load(tid, table, tree);
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(POOL_PAGES);
+        tid = new TransactionId();
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+                BTreeRootPtrPage.getId(tree.getId()), Permissions.READ_ONLY);
+        // down the left-most pages, counting the pages of each internal level along its right links
+        BTreePageId pid = rootPtr.getRootId();
+        int rootEntries = 0;
+        int height = 1;
+        int internal = 0;
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            BTreeInternalPage page = (BTreeInternalPage) Database.getBufferPool().getPage(tid, pid,
+                    Permissions.READ_ONLY);
+            if (height == 1) {
+                rootEntries = page.getNumEntries();
+            }
+            pid = page.iterator().next().getLeftChild();
+            for (BTreePageId next = page.getId(); next != null; internal++) {
+                next = ((BTreeInternalPage) Database.getBufferPool().getPage(tid, next,
+                        Permissions.READ_ONLY)).getRightLinkId();
+            }
+            Database.getBufferPool().transactionComplete(tid);
+            tid = new TransactionId();
+            height++;
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        System.out.printf("rows=%,d  height=%d  internal pages=%,d  leaf pages=%,d  root entries=%d%n",
+                rows, height, internal, tree.numPages() - internal, rootEntries);
+
+        Random r = new Random(1);
+        long cold = 0;
+        for (int i = 0; i < LOOKUPS; i++) {
+            Database.resetBufferPool(POOL_PAGES);
+            long before = tree.reads.get();
+            lookup(tree, r.nextInt(rows));
+            cold += tree.reads.get() - before;
+        }
+        Database.resetBufferPool(POOL_PAGES);
+        for (int i = 0; i < LOOKUPS; i++) {
+            lookup(tree, r.nextInt(rows));
+        }
+        long before = tree.reads.get();
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            lookup(tree, r.nextInt(rows));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("pages read per lookup: cold=%.2f  warm (%d pages)=%.3f  warm lookups/s=%,.0f%n",
+                (double) cold / LOOKUPS, POOL_PAGES, (double) (tree.reads.get() - before) / LOOKUPS,
+                LOOKUPS / seconds);
+        new File("log").delete();
+    }
+
+    private static String key(int row) {
+        long h = (row * 0x9E3779B97F4A7C15L) >>> 34;
+        return String.format("https://www.example.com/catalog/category-%03d/item-%010d.html", h % 1000, h);
+    }
+
+    private static void lookup(BTreeFile tree, int row) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = tree.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS,
+                new StringField(key(row), Type.STRING_LEN)));
+        it.open();
+        if (!it.hasNext()) {
+            throw new IllegalStateException("row " + row + " not found");
+        }
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    // Write the heap file page by page: a header marking the slots in use, then the rows.
+    private static void writeHeapFile(File f, int rows) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int slots = (pageSize * 8) / (TD.getSize() * 8 + 1);
+        int headerBytes = (slots + 7) / 8;
+        StringField empty = new StringField("", Type.STRING_LEN);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 20))) {
+            for (int row = 0; row < rows; row += slots) {
+                int used = Math.min(slots, rows - row);
+                byte[] header = new byte[headerBytes];
+                for (int i = 0; i < used; i++) {
+                    header[i / 8] |= (byte) (1 << (i % 8));
+                }
+                out.write(header);
+                for (int i = 0; i < slots; i++) {
+                    (i < used ? new StringField(key(row + i), Type.STRING_LEN) : empty).serialize(out);
+                    out.writeInt(i < used ? row + i : 0);
+                }
+                out.write(new byte[pageSize - headerBytes - slots * TD.getSize()]);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures BufferPool.getPage() hit throughput with 1, 2, 4, ... threads up
+ * to the number of available cores.  The table fits entirely in the buffer
+ * pool and is warmed before measuring, so every call is a cache hit and the
+ * numbers reflect contention on the page table only.
+ *
+ * Run with: ant runbench -Dbench=BufferPoolHitBenchmark
+ */
+public class BufferPoolHitBenchmark {
+    private static final int TABLE_PAGES = 256;
+    private static final int POOL_PAGES = 512;
+    private static final long RUN_MILLIS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        // ~500 two-int tuples fit on a 4 KB page
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, TABLE_PAGES * 500, null, null);
+        final BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        final int tableId = f.getId();
+        final int numPages = f.numPages();
+
+        TransactionId warm = new TransactionId();
+        for (int i = 0; i < numPages; i++) {
+            bp.getPage(warm, new HeapPageId(tableId, i), Permissions.READ_ONLY);
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("pages=" + numPages + " cores=" + cores);
+        double single = 0;
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            double opsPerSec = run(bp, tableId, numPages, threads);
+            if (threads == 1) {
+                single = opsPerSec;
+            }
+            System.out.printf("threads=%2d  hits/s=%,14.0f  speedup=%.2fx%n",
+                    threads, opsPerSec, opsPerSec / single);
+        }
+    }
+
+    private static double run(final BufferPool bp, final int tableId, final int numPages,
+                              int threads) throws InterruptedException {
+        final AtomicLong ops = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] deadline = new long[1];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                TransactionId tid = new TransactionId();
+                PageId[] pids = new PageId[numPages];
+                for (int i = 0; i < numPages; i++) {
+                    pids[i] = new HeapPageId(tableId, i);
+                }
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                long n = 0;
+                try {
+                    start.await();
+                    while (System.currentTimeMillis() < deadline[0]) {
+                        for (int i = 0; i < 1024; i++) {
+                            bp.getPage(tid, pids[r.nextInt(numPages)], Permissions.READ_ONLY);
+                        }
+                        n += 1024;
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                ops.addAndGet(n);
+            });
+            workers[t].start();
+        }
+        long begin = System.currentTimeMillis();
+        deadline[0] = begin + RUN_MILLIS;
+        start.countDown();
+        for (Thread w : workers) {
+            w.join();
+        }
+        long elapsed = System.currentTimeMillis() - begin;
+        return ops.get() * 1000.0 / elapsed;
+    }
+}
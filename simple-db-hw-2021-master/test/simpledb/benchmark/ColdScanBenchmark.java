@@ -0,0 +1,102 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+import simpledb.utils.ReadAhead;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Cold-cache scan time of a heap file far larger than the BufferPool, with
+ * and without read-ahead.  Before each scan the OS page cache is dropped
+ * (which needs root; without it the scans are warm and the output says
+ * so), so every page really comes from disk.  The scan is a SeqScan under
+ * a Filter on the first column.
+ * <p>
+ * The OS reads ahead of sequential reads as well, which hides most of the
+ * difference; to see what the scan's own read-ahead does where the OS does
+ * not help, turn the device read-ahead off first, e.g.
+ * <code>echo 0 &gt; /sys/block/vda/queue/read_ahead_kb</code>.
+ *
+ * Run with: ant runbench -Dbench=ColdScanBenchmark
+ */
+public class ColdScanBenchmark {
+    private static final int PAGES = 100_000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        File f = File.createTempFile("cold", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        writeRandomPages(f, 2, PAGES);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int maxWindow : new int[]{0, 64}) {
+                ReadAhead.setMaxWindow(maxWindow);
+                Database.reset();
+                HeapFile table = Utility.openHeapFile(2, f);
+                boolean cold = dropCaches();
+                TransactionId tid = new TransactionId();
+                long start = System.nanoTime();
+                OpIterator it = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100)),
+                        new SeqScan(tid, table.getId()));
+                it.open();
+                int selected = 0;
+                while (it.hasNext()) {
+                    it.next();
+                    selected++;
+                }
+                it.close();
+                double secs = (System.nanoTime() - start) / 1e9;
+                Database.getBufferPool().transactionComplete(tid);
+                System.out.printf("max read-ahead %2d pages  %s  %,d pages (%,d MB)  %,d selected  %,6.0f ms  %,6.0f MB/s%n",
+                        maxWindow, cold ? "cold" : "WARM", PAGES, f.length() >> 20, selected,
+                        secs * 1e3, (f.length() >> 20) / secs);
+            }
+        }
+        ReadAhead.resetMaxWindow();
+        new File("log").delete();
+    }
+
+    private static boolean dropCaches() throws Exception {
+        Process p = new ProcessBuilder("sh", "-c", "sync && echo 3 > /proc/sys/vm/drop_caches").start();
+        return p.waitFor() == 0;
+    }
+
+    // Write full pages of random ints in [0, 10000).
+    private static void writeRandomPages(File f, int columns, int pages) throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        int slots = (pageSize * 8) / (columns * 4 * 8 + 1);
+        int headerSize = (slots + 7) / 8;
+        byte[] page = new byte[pageSize];
+        for (int i = 0; i < slots; i++) {
+            page[i / 8] |= (byte) (1 << (i % 8));
+        }
+        Random r = new Random(0);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(f), 1 << 20)) {
+            for (int p = 0; p < pages; p++) {
+                for (int i = 0; i < slots * columns; i++) {
+                    int v = r.nextInt(10_000);
+                    int off = headerSize + i * 4;
+                    page[off] = (byte) (v >>> 24);
+                    page[off + 1] = (byte) (v >>> 16);
+                    page[off + 2] = (byte) (v >>> 8);
+                    page[off + 3] = (byte) v;
+                }
+                out.write(page);
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package simpledb.benchmark;
+
+import simpledb.common.Permissions;
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.TransactionId;
+import simpledb.utils.LockManager;
+
+import java.util.Arrays;
+
+/**
+ * Measures how long it takes to release every lock of a committing
+ * transaction, for transactions holding 1k to 16k page locks, while other
+ * open transactions keep a large number of unrelated pages locked.  This is
+ * the lock-table part of BufferPool.transactionComplete(); its cost should
+ * follow the committing transaction's own locks, not the table size.
+ *
+ * Run with: ant runbench -Dbench=CommitLatencyBenchmark
+ */
+public class CommitLatencyBenchmark {
+    private static final int BACKGROUND_TXNS = 64;
+    private static final int BACKGROUND_LOCKS = 1000;
+    private static final int[] LOCKS_PER_TXN = {1000, 4000, 16000};
+    private static final int ROUNDS = 20;
+
+    public static void main(String[] args) throws Exception {
+        LockManager lm = new LockManager();
+        int table = 0;
+        for (int t = 0; t < BACKGROUND_TXNS; t++) {
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < BACKGROUND_LOCKS; i++) {
+                lm.acquireLock(tid, new HeapPageId(1, t * BACKGROUND_LOCKS + i), Permissions.READ_ONLY, 0);
+            }
+        }
+        System.out.println("background locks=" + BACKGROUND_TXNS * BACKGROUND_LOCKS);
+
+        for (int n : LOCKS_PER_TXN) {
+            long[] micros = new long[ROUNDS];
+            for (int r = 0; r < ROUNDS; r++) {
+                TransactionId tid = new TransactionId();
+                for (int i = 0; i < n; i++) {
+                    lm.acquireLock(tid, new HeapPageId(2, i), Permissions.READ_WRITE, 0);
+                }
+                long start = System.nanoTime();
+                lm.releaseAllLocks(tid);
+                micros[r] = (System.nanoTime() - start) / 1000;
+            }
+            Arrays.sort(micros);
+            System.out.printf("locks=%6d  release median=%,8d us  min=%,8d us  max=%,8d us%n",
+                    n, micros[ROUNDS / 2], micros[0], micros[ROUNDS - 1]);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.transaction.TransactionId;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Bytes on disk and full-scan time of a heap file stored plain and with
+ * compressed pages, with the OS page cache dropped before the scan (cold,
+ * needs root) and not (warm).  The table has four int columns of the kind
+ * reporting tables have: a sequential id, a code out of ten, a measure in
+ * [0, 10000) and a batch number that changes every thousand rows.
+ *
+ * Run with: ant runbench -Dbench=CompressedScanBenchmark
+ */
+public class CompressedScanBenchmark {
+    private static final int COLUMNS = 4;
+    private static final int PAGES = 50_000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        File plain = File.createTempFile("plain", ".dat");
+        plain.deleteOnExit();
+        new File(plain.getPath() + ".fsm").deleteOnExit();
+        long rows = writePages(plain);
+        File compressed = File.createTempFile("compressed", ".dat");
+        compressed.deleteOnExit();
+        new File(compressed.getPath() + ".fsm").deleteOnExit();
+        new File(compressed.getPath() + ".pmap").deleteOnExit();
+        long start = System.nanoTime();
+        HeapFileEncoder.compress(plain, compressed);
+        System.out.printf("compressed %,d pages in %,.0f ms%n", PAGES, (System.nanoTime() - start) / 1e6);
+
+        // best of ROUNDS, taking turns, since the machine's speed drifts
+        boolean dropped = true;
+        double[][] best = {{Double.MAX_VALUE, Double.MAX_VALUE}, {Double.MAX_VALUE, Double.MAX_VALUE}};
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int cold = 0; cold < 2; cold++) {
+                for (int c = 0; c < 2; c++) {
+                    File f = c == 1 ? compressed : plain;
+                    Database.reset();
+                    HeapFile table = new HeapFile(f, Utility.getTupleDesc(COLUMNS), HeapFile.PageFormat.FIXED, c == 1);
+                    Database.getCatalog().addTable(table, f.getName());
+                    if (cold == 0) {
+                        dropped &= dropCaches();
+                    }
+                    best[c][cold] = Math.min(best[c][cold], scan(table, rows));
+                }
+            }
+        }
+        for (int c = 0; c < 2; c++) {
+            for (int cold = 0; cold < 2; cold++) {
+                File f = c == 1 ? compressed : plain;
+                System.out.printf("%-10s  %s  %,12d bytes  %,6.0f ms  %,11.0f tuples/s%n",
+                        c == 1 ? "compressed" : "plain", cold == 0 ? (dropped ? "cold" : "WARM") : "warm",
+                        f.length(), best[c][cold] * 1e3, rows / best[c][cold]);
+            }
+        }
+        new File("log").delete();
+    }
+
+    // Time of a full scan, in seconds.
+    private static double scan(HeapFile table, long rows) throws Exception {
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        long n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        double secs = (System.nanoTime() - start) / 1e9;
+        Database.getBufferPool().transactionComplete(tid);
+        if (n != rows) {
+            throw new IllegalStateException("scanned " + n + " of " + rows + " rows");
+        }
+        return secs;
+    }
+
+    private static boolean dropCaches() throws Exception {
+        Process p = new ProcessBuilder("sh", "-c", "sync && echo 3 > /proc/sys/vm/drop_caches").start();
+        return p.waitFor() == 0;
+    }
+
+    // Write full pages; returns the number of rows.
+    private static long writePages(File f) throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        int slots = (pageSize * 8) / (COLUMNS * 4 * 8 + 1);
+        int headerSize = (slots + 7) / 8;
+        byte[] page = new byte[pageSize];
+        for (int i = 0; i < slots; i++) {
+            page[i / 8] |= (byte) (1 << (i % 8));
+        }
+        Random r = new Random(0);
+        int id = 0;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(f), 1 << 20)) {
+            for (int p = 0; p < PAGES; p++) {
+                for (int i = 0; i < slots; i++, id++) {
+                    int[] values = {id, r.nextInt(10), r.nextInt(10_000), id / 1000};
+                    for (int j = 0; j < COLUMNS; j++) {
+                        int off = headerSize + (i * COLUMNS + j) * 4;
+                        page[off] = (byte) (values[j] >>> 24);
+                        page[off + 1] = (byte) (values[j] >>> 16);
+                        page[off + 2] = (byte) (values[j] >>> 8);
+                        page[off + 3] = (byte) values[j];
+                    }
+                }
+                out.write(page);
+            }
+        }
+        return (long) PAGES * slots;
+    }
+}
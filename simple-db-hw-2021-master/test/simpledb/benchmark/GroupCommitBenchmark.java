@@ -0,0 +1,130 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.LogFile;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Commits per second with 1, 8 and 64 committing threads, comparing a force
+ * per commit with group commit at several maximum batch delays, in two
+ * modes.  In the log mode each transaction writes a BEGIN and a COMMIT
+ * record straight through a LogFile.  In the buffer pool mode each
+ * transaction inserts a tuple through the buffer pool and commits with
+ * Transaction.commit, so its dirty page is logged and forced along with its
+ * COMMIT record; every thread inserts into a table of its own, so the
+ * threads do not wait on each other's page locks.  The logs live in the
+ * system temp directory and in the working directory respectively, so the
+ * numbers reflect those devices' fsync latency.
+ * <p>
+ * Reported: commits per second for each mode, number of threads and
+ * commit policy.
+ *
+ * Run with: ant runbench -Dbench=GroupCommitBenchmark
+ */
+public class GroupCommitBenchmark {
+    private static final int[] THREADS = {1, 8, 64};
+    private static final long[] DELAYS_MICROS = {0, 200, 1000};
+    private static final long RUN_MILLIS = 3000;
+    private static final int POOL_PAGES = 1000;
+
+    /** One transaction of a worker thread, committed before it returns. */
+    private interface Commit {
+        void run(int thread) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        File f = File.createTempFile("groupcommit", ".log");
+        f.deleteOnExit();
+        for (int threads : THREADS) {
+            LogFile log = new LogFile(f);
+            log.setGroupCommit(false, 0);
+            report("log", "force-per-commit", threads, run(logCommit(log), threads));
+            for (long delay : DELAYS_MICROS) {
+                log = new LogFile(f);
+                log.setGroupCommit(true, delay);
+                report("log", "group delay=" + delay + "us", threads, run(logCommit(log), threads));
+            }
+        }
+        for (int threads : THREADS) {
+            report("buffer pool", "force-per-commit", threads, run(insertCommit(threads, false, 0), threads));
+            for (long delay : DELAYS_MICROS) {
+                report("buffer pool", "group delay=" + delay + "us", threads,
+                        run(insertCommit(threads, true, delay), threads));
+            }
+        }
+        new File("log").delete();
+    }
+
+    private static void report(String mode, String policy, int threads, double commitsPerSec) {
+        System.out.printf("%-11s threads=%2d  %-22s commits/s=%,10.0f%n", mode, threads, policy, commitsPerSec);
+    }
+
+    // a BEGIN and a COMMIT record written straight to the log
+    private static Commit logCommit(LogFile log) {
+        return thread -> {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            log.logCommit(tid);
+        };
+    }
+
+    // a tuple inserted into the thread's own table through the buffer pool,
+    // on a fresh database whose log has the given commit policy
+    private static Commit insertCommit(int threads, boolean groupCommit, long delay) throws Exception {
+        Database.reset();
+        Database.resetBufferPool(POOL_PAGES);
+        Database.getLogFile().setGroupCommit(groupCommit, delay);
+        int[] tables = new int[threads];
+        for (int t = 0; t < threads; t++) {
+            File f = File.createTempFile("groupcommit", ".dat");
+            f.deleteOnExit();
+            new File(f.getPath() + ".fsm").deleteOnExit();
+            HeapFile table = Utility.createEmptyHeapFile(f.getPath(), 1);
+            tables[t] = table.getId();
+        }
+        return thread -> {
+            Transaction t = new Transaction();
+            t.start();
+            Database.getBufferPool().insertTuple(t.getId(), tables[thread], Utility.getHeapTuple(thread));
+            t.commit();
+        };
+    }
+
+    private static double run(final Commit commit, int threads) throws InterruptedException {
+        final AtomicLong commits = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] deadline = new long[1];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            workers[t] = new Thread(() -> {
+                long n = 0;
+                try {
+                    start.await();
+                    while (System.currentTimeMillis() < deadline[0]) {
+                        commit.run(thread);
+                        n++;
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                commits.addAndGet(n);
+            });
+            workers[t].start();
+        }
+        long begin = System.currentTimeMillis();
+        deadline[0] = begin + RUN_MILLIS;
+        start.countDown();
+        for (Thread w : workers) {
+            w.join();
+        }
+        return commits.get() * 1000.0 / (System.currentTimeMillis() - begin);
+    }
+}
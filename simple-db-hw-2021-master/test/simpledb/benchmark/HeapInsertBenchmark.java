@@ -0,0 +1,74 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.Transaction;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Insert latency into a large heap file whose pages are all full.  Each
+ * insert is its own transaction, so every insert has to find room in the
+ * file again.  The table is opened twice: the first insert after the
+ * first open may have to build whatever HeapFile uses to find free space,
+ * the first insert after the second open shows what it costs to load it.
+ *
+ * Run with: ant runbench -Dbench=HeapInsertBenchmark
+ */
+public class HeapInsertBenchmark {
+    private static final int PAGES = 100_000;
+    private static final int MAX_INSERTS = 5000;
+    private static final long TIME_BUDGET_NANOS = 60_000_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        File f = File.createTempFile("insert", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        writeFullPages(f, 2, PAGES);
+
+        for (int open = 1; open <= 2; open++) {
+            Database.reset();
+            HeapFile table = Utility.openHeapFile(2, f);
+            long first = insert(table, 0);
+            int n = 1;
+            long start = System.nanoTime();
+            while (n < MAX_INSERTS && System.nanoTime() - start < TIME_BUDGET_NANOS) {
+                insert(table, n++);
+            }
+            double rest = (System.nanoTime() - start) / 1e3 / (n - 1);
+            System.out.printf("open %d: pages=%,d  first insert=%,.1f ms  then %,d inserts at %,.1f us each%n",
+                    open, table.numPages(), first / 1e6, n - 1, rest);
+        }
+        new File("log").delete();
+    }
+
+    private static long insert(HeapFile table, int i) throws Exception {
+        long start = System.nanoTime();
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(new int[]{i, i}));
+        t.commit();
+        return System.nanoTime() - start;
+    }
+
+    // Write pages whose header marks every slot as used.
+    private static void writeFullPages(File f, int columns, int pages) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int slots = (pageSize * 8) / (columns * 4 * 8 + 1);
+        byte[] page = new byte[pageSize];
+        for (int i = 0; i < slots; i++) {
+            page[i / 8] |= (byte) (1 << (i % 8));
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(f), 1 << 20)) {
+            for (int p = 0; p < pages; p++) {
+                out.write(page);
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Time LogFile.recover() spends replaying a log of a million small
+ * update records.  The log is written directly: 1000 committed
+ * transactions each delete and re-insert tuples on the pages of a heap
+ * file, logging every change, while the pages themselves are never
+ * written back.  After a simulated crash, recovery has to read and redo
+ * every record.
+ *
+ * Run with: ant runbench -Dbench=LogReplayBenchmark
+ */
+public class LogReplayBenchmark {
+    private static final int TRANSACTIONS = 1000;
+    private static final int UPDATES_PER_TXN = 1000;
+
+    public static void main(String[] args) throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+        HeapPage[] pages = new HeapPage[table.numPages()];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = (HeapPage) table.readPage(new HeapPageId(table.getId(), i));
+        }
+
+        LogFile log = Database.getLogFile();
+        Random r = new Random(0);
+        long start = System.nanoTime();
+        for (int t = 0; t < TRANSACTIONS; t++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            for (int u = 0; u < UPDATES_PER_TXN; u += 2) {
+                HeapPage page = pages[r.nextInt(pages.length)];
+                Tuple tuple = page.iterator().next();
+                page.deleteTuple(tuple);
+                log.logWrite(tid, page.getBeforeImage(), page);
+                page.setBeforeImage();
+                page.insertTuple(tuple);
+                log.logWrite(tid, page.getBeforeImage(), page);
+                page.setBeforeImage();
+            }
+            log.logCommit(tid);
+        }
+        System.out.printf("wrote %,d update records, %,d bytes of log in %,.0f ms%n",
+                TRANSACTIONS * UPDATES_PER_TXN, new File("log").length(),
+                (System.nanoTime() - start) / 1e6);
+
+        // crash and restart
+        Database.reset();
+        Utility.openHeapFile(2, table.getFile());
+        start = System.nanoTime();
+        Database.getLogFile().recover();
+        System.out.printf("recover=%,.0f ms%n", (System.nanoTime() - start) / 1e6);
+        new File("log").delete();
+    }
+}
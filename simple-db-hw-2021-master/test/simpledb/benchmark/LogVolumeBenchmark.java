@@ -0,0 +1,45 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.Transaction;
+
+import java.io.File;
+
+/**
+ * Bytes of log written per inserted tuple, for the InsertTest workload of
+ * two-column integer tuples inserted into an empty heap file.  One run
+ * commits every tuple in its own transaction, the other commits tuples in
+ * batches; the log includes BEGIN and COMMIT records and the UPDATE records
+ * BufferPool writes when it flushes the dirty pages at commit.
+ *
+ * Run with: ant runbench -Dbench=LogVolumeBenchmark
+ */
+public class LogVolumeBenchmark {
+    private static final int TUPLES = 5000;
+    private static final int[] TUPLES_PER_TXN = {1, 10, 1000};
+
+    public static void main(String[] args) throws Exception {
+        for (int perTxn : TUPLES_PER_TXN) {
+            Database.reset();
+            File f = File.createTempFile("logvolume", ".dat");
+            f.deleteOnExit();
+            HeapFile table = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+
+            int inserted = 0;
+            while (inserted < TUPLES) {
+                Transaction t = new Transaction();
+                t.start();
+                for (int i = 0; i < perTxn; i++, inserted++) {
+                    Database.getBufferPool().insertTuple(t.getId(), table.getId(),
+                            Utility.getHeapTuple(new int[]{inserted, -inserted}));
+                }
+                t.commit();
+            }
+            long bytes = new File("log").length();
+            System.out.printf("tuples/txn=%5d  log=%,12d bytes  per tuple=%,8.1f bytes%n",
+                    perTxn, bytes, (double) bytes / TUPLES);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package simpledb.benchmark;
+
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Page;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Throughput of LogFile.logWrite() for full-page UPDATE records (a 4 KB
+ * before image and a 4 KB after image each), written by 1 and 4 threads and
+ * forced once at the end.  Reports records and megabytes of log per second.
+ *
+ * Run with: ant runbench -Dbench=LogWriteBenchmark
+ */
+public class LogWriteBenchmark {
+    private static final int RECORDS = 10000;
+    private static final int[] THREADS = {1, 4};
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 500, null, null);
+        final Page after = table.readPage(new HeapPageId(table.getId(), 0));
+        final Page before = after.getBeforeImage();
+        File f = File.createTempFile("logwrite", ".log");
+        f.deleteOnExit();
+
+        for (int threads : THREADS) {
+            for (int round = 0; round < ROUNDS; round++) {
+                final LogFile log = new LogFile(f);
+                final int perThread = RECORDS / threads;
+                final CountDownLatch start = new CountDownLatch(1);
+                Thread[] workers = new Thread[threads];
+                for (int t = 0; t < threads; t++) {
+                    workers[t] = new Thread(() -> {
+                        TransactionId tid = new TransactionId();
+                        try {
+                            start.await();
+                            for (int i = 0; i < perThread; i++) {
+                                log.logWrite(tid, before, after);
+                            }
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    });
+                    workers[t].start();
+                }
+                long begin = System.nanoTime();
+                start.countDown();
+                for (Thread w : workers) {
+                    w.join();
+                }
+                log.force();
+                double seconds = (System.nanoTime() - begin) / 1e9;
+                double mb = f.length() / (1024.0 * 1024.0);
+                System.out.printf("threads=%d  round=%d  records/s=%,10.0f  MB/s=%,8.1f%n",
+                        threads, round, perThread * threads / seconds, mb / seconds);
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Full-scan throughput of a heap file and of a B+ tree file, read through
+ * the ordinary file I/O path and in read-only mode, where pages are served
+ * from a memory mapping (Catalog.addTable(file, name, pkey, true)).  The
+ * files fit in the OS page cache and the BufferPool is much smaller than
+ * either, so every page of every scan goes through DbFile.readPage.
+ *
+ * Run with: ant runbench -Dbench=MappedScanBenchmark
+ */
+public class MappedScanBenchmark {
+    private static final int HEAP_PAGES = 20_000;
+    private static final int BTREE_ROWS = 300_000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        File heap = File.createTempFile("mapped", ".dat");
+        heap.deleteOnExit();
+        writeFullPages(heap, 2, HEAP_PAGES);
+        File btree = BTreeUtility.createRandomBTreeFile(2, BTREE_ROWS, null, null, 0).getFile();
+
+        for (boolean readOnly : new boolean[]{false, true}) {
+            Database.reset();
+            HeapFile hf = new HeapFile(heap, Utility.getTupleDesc(2));
+            Database.getCatalog().addTable(hf, "heap", "", readOnly);
+            scan("heap", hf, readOnly);
+
+            Database.reset();
+            BTreeFile bf = new BTreeFile(btree, 0, Utility.getTupleDesc(2));
+            Database.getCatalog().addTable(bf, "btree", "", readOnly);
+            scan("btree", bf, readOnly);
+        }
+    }
+
+    private static void scan(String name, DbFile file, boolean readOnly) throws Exception {
+        double best = Double.MAX_VALUE;
+        long tuples = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            DbFileIterator it = file.iterator(tid);
+            it.open();
+            tuples = 0;
+            while (it.hasNext()) {
+                it.next();
+                tuples++;
+            }
+            it.close();
+            best = Math.min(best, (System.nanoTime() - start) / 1e9);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        System.out.printf("%-5s  read-only=%-5b  %,9d tuples  %,7.0f ms  %,11.0f tuples/s%n",
+                name, readOnly, tuples, best * 1e3, tuples / best);
+    }
+
+    // Write pages whose header marks every slot as used.
+    private static void writeFullPages(File f, int columns, int pages) throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        int slots = (pageSize * 8) / (columns * 4 * 8 + 1);
+        byte[] page = new byte[pageSize];
+        for (int i = 0; i < slots; i++) {
+            page[i / 8] |= (byte) (1 << (i % 8));
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(f), 1 << 20)) {
+            for (int p = 0; p < pages; p++) {
+                out.write(page);
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package simpledb.benchmark;
+
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Random page reads straight from a HeapFile (bypassing the BufferPool)
+ * with 1, 4 and 16 threads.  The file fits in the OS page cache, so this
+ * measures the cost of HeapFile.readPage itself.  Every page stores its own
+ * page number in its first tuple, and the benchmark counts pages that come
+ * back with another page's contents.
+ *
+ * Run with: ant runbench -Dbench=PageReadBenchmark
+ */
+public class PageReadBenchmark {
+    private static final int PAGES = 20_000;
+    private static final int[] THREADS = {1, 4, 16};
+    private static final long RUN_NANOS = 5_000_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        File f = File.createTempFile("pageread", ".dat");
+        f.deleteOnExit();
+        writePages(f, PAGES);
+        HeapFile table = Utility.openHeapFile(2, f);
+
+        for (int threads : THREADS) {
+            AtomicLong reads = new AtomicLong();
+            AtomicLong wrong = new AtomicLong();
+            long deadline = System.nanoTime() + RUN_NANOS;
+            Thread[] workers = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                workers[i] = new Thread(() -> {
+                    ThreadLocalRandom r = ThreadLocalRandom.current();
+                    long n = 0;
+                    while (System.nanoTime() < deadline) {
+                        int pageNo = r.nextInt(PAGES);
+                        HeapPage page = (HeapPage) table.readPage(new HeapPageId(table.getId(), pageNo));
+                        if (page == null || !page.iterator().hasNext()
+                                || ((IntField) page.iterator().next().getField(0)).getValue() != pageNo) {
+                            wrong.incrementAndGet();
+                        }
+                        n++;
+                    }
+                    reads.addAndGet(n);
+                });
+            }
+            long start = System.nanoTime();
+            for (Thread w : workers) {
+                w.start();
+            }
+            for (Thread w : workers) {
+                w.join();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("threads=%2d  %,10.0f pages/s  wrong pages=%,d%n",
+                    threads, reads.get() / seconds, wrong.get());
+        }
+    }
+
+    // Write pages holding a single tuple (pageNo, pageNo) in their first slot.
+    private static void writePages(File f, int pages) throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        int slots = (pageSize * 8) / (2 * 4 * 8 + 1);
+        int headerSize = (slots + 7) / 8;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 20))) {
+            for (int p = 0; p < pages; p++) {
+                out.writeByte(1);
+                out.write(new byte[headerSize - 1]);
+                out.writeInt(p);
+                out.writeInt(p);
+                out.write(new byte[pageSize - headerSize - 8]);
+            }
+        }
+    }
+}
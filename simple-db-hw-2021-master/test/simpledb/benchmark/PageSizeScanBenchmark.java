@@ -0,0 +1,125 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Full-scan time of the same 64 MB heap file of four int columns written
+ * with 4 KB, 16 KB and 64 KB pages, with the OS page cache dropped before
+ * the scan (cold, needs root) and right after a cold scan of the same file
+ * (warm).  The BufferPool holds the same number of bytes for every page
+ * size, POOL_BYTES, since a pool of a fixed number of pages would hold
+ * sixteen times as many tuples, and keep them alive for the garbage
+ * collector, with 64 KB pages as with 4 KB ones.
+ *
+ * Run with: ant runbench -Dbench=PageSizeScanBenchmark
+ */
+public class PageSizeScanBenchmark {
+    private static final int COLUMNS = 4;
+    private static final long TABLE_BYTES = 64L << 20;
+    private static final int[] PAGE_SIZES = {4096, 16384, 65536};
+    private static final int ROUNDS = 3;
+    private static final int POOL_BYTES = 4 << 20;
+
+    public static void main(String[] args) throws Exception {
+        File[] files = new File[PAGE_SIZES.length];
+        long[] rows = new long[PAGE_SIZES.length];
+        for (int s = 0; s < PAGE_SIZES.length; s++) {
+            files[s] = File.createTempFile("pagesize" + PAGE_SIZES[s], ".dat");
+            files[s].deleteOnExit();
+            new File(files[s].getPath() + ".fsm").deleteOnExit();
+            rows[s] = writePages(files[s], PAGE_SIZES[s]);
+        }
+
+        // best of ROUNDS, taking turns, since the machine's speed drifts
+        boolean dropped = true;
+        double[][] best = new double[PAGE_SIZES.length][2];
+        for (double[] b : best) {
+            b[0] = b[1] = Double.MAX_VALUE;
+        }
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int s = 0; s < PAGE_SIZES.length; s++) {
+                for (int cold = 0; cold < 2; cold++) {
+                    Database.reset();
+                    Database.resetBufferPool(POOL_BYTES / PAGE_SIZES[s]);
+                    HeapFile table = new HeapFile(files[s], Utility.getTupleDesc(COLUMNS),
+                            HeapFile.PageFormat.FIXED, false, PAGE_SIZES[s]);
+                    Database.getCatalog().addTable(table, files[s].getName());
+                    if (cold == 0) {
+                        dropped &= dropCaches();
+                    }
+                    best[s][cold] = Math.min(best[s][cold], scan(table, rows[s]));
+                }
+            }
+        }
+        for (int s = 0; s < PAGE_SIZES.length; s++) {
+            for (int cold = 0; cold < 2; cold++) {
+                System.out.printf("%,6d B pages  %s  %,7d pages  %,6.0f ms  %,11.0f tuples/s%n",
+                        PAGE_SIZES[s], cold == 0 ? (dropped ? "cold" : "WARM") : "warm",
+                        files[s].length() / PAGE_SIZES[s], best[s][cold] * 1e3, rows[s] / best[s][cold]);
+            }
+        }
+        new File("log").delete();
+    }
+
+    // Time of a full scan, in seconds.
+    private static double scan(HeapFile table, long rows) throws Exception {
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        long n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        double secs = (System.nanoTime() - start) / 1e9;
+        Database.getBufferPool().transactionComplete(tid);
+        if (n != rows) {
+            throw new IllegalStateException("scanned " + n + " of " + rows + " rows");
+        }
+        return secs;
+    }
+
+    private static boolean dropCaches() throws Exception {
+        Process p = new ProcessBuilder("sh", "-c", "sync && echo 3 > /proc/sys/vm/drop_caches").start();
+        return p.waitFor() == 0;
+    }
+
+    // Write TABLE_BYTES of full pages of pageSize bytes; returns the number of rows.
+    private static long writePages(File f, int pageSize) throws Exception {
+        int slots = (pageSize * 8) / (COLUMNS * 4 * 8 + 1);
+        int headerSize = (slots + 7) / 8;
+        byte[] page = new byte[pageSize];
+        for (int i = 0; i < slots; i++) {
+            page[i / 8] |= (byte) (1 << (i % 8));
+        }
+        long pages = TABLE_BYTES / pageSize;
+        int id = 0;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(f), 1 << 20)) {
+            for (long p = 0; p < pages; p++) {
+                for (int i = 0; i < slots; i++, id++) {
+                    for (int j = 0; j < COLUMNS; j++) {
+                        int v = id + j;
+                        int off = headerSize + (i * COLUMNS + j) * 4;
+                        page[off] = (byte) (v >>> 24);
+                        page[off + 1] = (byte) (v >>> 16);
+                        page[off + 2] = (byte) (v >>> 8);
+                        page[off + 3] = (byte) v;
+                    }
+                }
+                out.write(page);
+            }
+        }
+        return pages * slots;
+    }
+}
@@ -0,0 +1,147 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.ColumnScan;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Sum of 2 of the 20 int columns of a wide table, read by a SeqScan and
+ * Project over fixed-format (HeapPage) and PAX pages, and by a ColumnScan
+ * over PAX pages, both tuple by tuple and a page of int arrays at a time.
+ * The table fits in the BufferPool and the scans are warm, so they measure
+ * decoding rather than I/O.
+ *
+ * Run with: ant runbench -Dbench=PaxScanBenchmark
+ */
+public class PaxScanBenchmark {
+    private static final int COLUMNS = 20;
+    private static final int ROWS = 200_000;
+    private static final int ROUNDS = 5;
+    private static final List<Integer> PROJECTED = Arrays.asList(3, 17);
+
+    public static void main(String[] args) throws Exception {
+        Type[] types = new Type[COLUMNS];
+        Arrays.fill(types, Type.INT_TYPE);
+        File text = File.createTempFile("wide", ".txt");
+        text.deleteOnExit();
+        writeRows(text);
+
+        Database.reset();
+        Database.resetBufferPool(2 * ROWS / ((BufferPool.getPageSize() * 8) / (COLUMNS * 4 * 8 + 1)));
+        HeapFile fixed = encode(text, types, HeapFile.PageFormat.FIXED);
+        HeapFile pax = encode(text, types, HeapFile.PageFormat.PAX);
+
+        // the first pass only warms up the JIT and the BufferPool
+        for (int pass = 0; pass < 2; pass++) {
+            long expected = 0;
+            for (int plan = 0; plan < 4; plan++) {
+                double best = Double.MAX_VALUE;
+                long sum = 0;
+                for (int round = 0; round < ROUNDS; round++) {
+                    TransactionId tid = new TransactionId();
+                    long start = System.nanoTime();
+                    sum = sum(plan(plan, tid, fixed, pax), plan == 3);
+                    best = Math.min(best, (System.nanoTime() - start) / 1e9);
+                    Database.getBufferPool().transactionComplete(tid);
+                }
+                if (plan == 0) {
+                    expected = sum;
+                } else if (sum != expected) {
+                    throw new IllegalStateException("plan " + plan + " summed " + sum + ", expected " + expected);
+                }
+                if (pass == 1) {
+                    System.out.printf("%-28s %,6.0f ms  %,11.0f rows/s%n",
+                            name(plan), best * 1e3, ROWS / best);
+                }
+            }
+        }
+        new File("log").delete();
+    }
+
+    private static String name(int plan) {
+        switch (plan) {
+            case 0:
+                return "SeqScan+Project, FIXED";
+            case 1:
+                return "SeqScan+Project, PAX";
+            case 2:
+                return "ColumnScan tuples, PAX";
+            default:
+                return "ColumnScan batches, PAX";
+        }
+    }
+
+    private static OpIterator plan(int plan, TransactionId tid, HeapFile fixed, HeapFile pax) {
+        Type[] projected = {Type.INT_TYPE, Type.INT_TYPE};
+        switch (plan) {
+            case 0:
+                return new Project(PROJECTED, projected, new SeqScan(tid, fixed.getId(), "t"));
+            case 1:
+                return new Project(PROJECTED, projected, new SeqScan(tid, pax.getId(), "t"));
+            default:
+                return new ColumnScan(tid, pax.getId(), "t", PROJECTED);
+        }
+    }
+
+    private static long sum(OpIterator it, boolean batches) throws Exception {
+        long sum = 0;
+        it.open();
+        if (batches) {
+            ColumnScan scan = (ColumnScan) it;
+            for (int n = scan.nextBatch(); n > 0; n = scan.nextBatch()) {
+                int[] a = scan.getIntColumn(0);
+                int[] b = scan.getIntColumn(1);
+                for (int i = 0; i < n; i++) {
+                    sum += a[i] + b[i];
+                }
+            }
+            it.close();
+            return sum;
+        }
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            sum += ((IntField) t.getField(0)).getValue() + ((IntField) t.getField(1)).getValue();
+        }
+        it.close();
+        return sum;
+    }
+
+    private static HeapFile encode(File text, Type[] types, HeapFile.PageFormat format) throws Exception {
+        File f = File.createTempFile("wide", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        HeapFileEncoder.convert(text, f, BufferPool.getPageSize(), COLUMNS, types, ',', format);
+        HeapFile table = new HeapFile(f, new TupleDesc(types), format);
+        Database.getCatalog().addTable(table, format.name());
+        return table;
+    }
+
+    private static void writeRows(File f) throws Exception {
+        Random random = new Random(6830);
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(f), 1 << 20)) {
+            for (int i = 0; i < ROWS; i++) {
+                for (int j = 0; j < COLUMNS; j++) {
+                    bw.write(Integer.toString(random.nextInt(1000)));
+                    bw.write(j + 1 < COLUMNS ? ',' : '\n');
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.Transaction;
+
+import java.io.File;
+
+/**
+ * Restart time as a function of log length.  Commits a number of
+ * single-tuple insert transactions, leaves one more transaction open with
+ * its page flushed (so that recovery has something to undo), optionally
+ * takes a checkpoint, then simulates a crash and times LogFile.recover().
+ * Without a checkpoint recovery has to scan and redo the whole log; after
+ * a fuzzy checkpoint it starts from the checkpoint.
+ *
+ * Run with: ant runbench -Dbench=RecoveryBenchmark
+ */
+public class RecoveryBenchmark {
+    private static final int[] COMMITS = {1000, 4000, 16000};
+
+    public static void main(String[] args) throws Exception {
+        for (int commits : COMMITS) {
+            for (boolean checkpoint : new boolean[]{false, true}) {
+                Database.reset();
+                File f = File.createTempFile("recovery", ".dat");
+                f.deleteOnExit();
+                HeapFile table = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+
+                for (int i = 0; i < commits; i++) {
+                    Transaction t = new Transaction();
+                    t.start();
+                    Database.getBufferPool().insertTuple(t.getId(), table.getId(),
+                            Utility.getHeapTuple(new int[]{i, i}));
+                    t.commit();
+                }
+                Transaction open = new Transaction();
+                open.start();
+                Database.getBufferPool().insertTuple(open.getId(), table.getId(),
+                        Utility.getHeapTuple(new int[]{-1, -1}));
+                Database.getBufferPool().flushAllPages();
+                if (checkpoint) {
+                    Database.getLogFile().logCheckpoint();
+                }
+                long logBytes = new File("log").length();
+
+                // crash and restart
+                Database.reset();
+                Utility.openHeapFile(2, f);
+                long start = System.nanoTime();
+                Database.getLogFile().recover();
+                double millis = (System.nanoTime() - start) / 1e6;
+                System.out.printf("commits=%6d  checkpoint=%-5b  log=%,11d bytes  recover=%,9.1f ms%n",
+                        commits, checkpoint, logBytes, millis);
+            }
+        }
+        new File("log").delete();
+    }
+}
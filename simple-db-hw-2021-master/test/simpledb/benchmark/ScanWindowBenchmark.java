@@ -0,0 +1,88 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+import simpledb.utils.ScanWindow;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Full-scan throughput of a heap file for a range of scan window sizes
+ * (the number of pages a scan keeps pinned in the BufferPool, see
+ * ScanWindow).  The file is larger than the BufferPool but fits in the OS
+ * page cache, so the scans measure the cost of moving pages through the
+ * pool rather than the disk.
+ *
+ * Run with: ant runbench -Dbench=ScanWindowBenchmark
+ */
+public class ScanWindowBenchmark {
+    private static final int PAGES = 20_000;
+    private static final int POOL_PAGES = 128;
+    private static final int ROUNDS = 3;
+    private static final long TUPLES = (long) PAGES * ((BufferPool.getPageSize() * 8) / (2 * 4 * 8 + 1));
+    private static final int[] WINDOW_SIZES = {1, 2, 4, 8, 16, 32, 64};
+
+    public static void main(String[] args) throws Exception {
+        File f = File.createTempFile("window", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        writeFullPages(f, 2, PAGES);
+
+        // the first pass only warms up the JIT
+        for (int pass = 0; pass < 2; pass++) {
+            for (int size : WINDOW_SIZES) {
+                double best = scan(f, size);
+                if (pass == 1) {
+                    System.out.printf("window %2d pages  %,6.0f ms  %,11.0f tuples/s%n",
+                            size, best * 1e3, TUPLES / best);
+                }
+            }
+        }
+        ScanWindow.resetWindowSize();
+        new File("log").delete();
+    }
+
+    // Best time of ROUNDS full scans with the given window size, in seconds.
+    private static double scan(File f, int size) throws Exception {
+        ScanWindow.setWindowSize(size);
+        Database.reset();
+        Database.resetBufferPool(POOL_PAGES);
+        HeapFile table = Utility.openHeapFile(2, f);
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            DbFileIterator it = table.iterator(tid);
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+            }
+            it.close();
+            best = Math.min(best, (System.nanoTime() - start) / 1e9);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        return best;
+    }
+
+    // Write pages whose header marks every slot as used.
+    private static void writeFullPages(File f, int columns, int pages) throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        int slots = (pageSize * 8) / (columns * 4 * 8 + 1);
+        byte[] page = new byte[pageSize];
+        for (int i = 0; i < slots; i++) {
+            page[i / 8] |= (byte) (1 << (i % 8));
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(f), 1 << 20)) {
+            for (int p = 0; p < pages; p++) {
+                out.write(page);
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.SecondaryIndex;
+import simpledb.index.SecondaryIndexScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Selective lookups on a heap table through a secondary index, against a
+ * sequential scan with a filter.  The table has ROWS rows of four int
+ * columns; column i holds random values out of DISTINCT[i], so an equality
+ * predicate on it matches ROWS / DISTINCT[i] rows.  A secondary index is
+ * built on each column, and QUERIES queries for random values are run on
+ * each, each in a transaction of its own, both ways: first with the buffer
+ * pool emptied before every query, and then with a buffer pool of
+ * POOL_PAGES pages, which holds the table and its indexes, warmed up with a
+ * query beforehand.  The number of rows may be given as the first argument.
+ * <p>
+ * Reported: for each column, the rows each query matches, and the
+ * milliseconds per query for SeqScan+Filter and for SecondaryIndexScan,
+ * cold and warm.
+ *
+ * Run with: ant runbench -Dbench=SecondaryIndexBenchmark
+ */
+public class SecondaryIndexBenchmark {
+    private static final int ROWS = 1_000_000;
+    private static final int[] DISTINCT = {1_000_000, 100_000, 10_000, 1_000};
+    private static final int QUERIES = 20;
+    private static final int POOL_PAGES = 20_000;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : ROWS;
+        File heap = File.createTempFile("table", ".dat");
+        heap.deleteOnExit();
+        new File(heap.getPath() + ".fsm").deleteOnExit();
+        writeHeapFile(heap, rows);
+
+        Database.reset();
+        HeapFile table = Utility.openHeapFile(DISTINCT.length, heap);
+        SecondaryIndex[] indexes = new SecondaryIndex[DISTINCT.length];
+        for (int i = 0; i < DISTINCT.length; i++) {
+            File f = File.createTempFile("index", ".dat");
+            f.deleteOnExit();
+            indexes[i] = new SecondaryIndex(table, i, new BTreeFile(f, 0, SecondaryIndex.getTupleDesc(Type.INT_TYPE)));
+            Database.getCatalog().addIndex(indexes[i]);
+            TransactionId tid = new TransactionId();
+            indexes[i].build(tid);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        System.out.printf("rows=%,d  table pages=%,d  index pages=%,d%n", rows, table.numPages(),
+                indexes[0].getFile().numPages());
+
+        for (int i = 0; i < DISTINCT.length; i++) {
+            Random r = new Random(i);
+            int[] values = new int[QUERIES];
+            for (int q = 0; q < QUERIES; q++) {
+                values[q] = r.nextInt(DISTINCT[i]);
+            }
+            long matched = 0;
+            double[] millis = new double[4];
+            for (int way = 0; way < 2; way++) {
+                for (int q = 0; q < QUERIES; q++) {
+                    Database.resetBufferPool(POOL_PAGES);
+                    long start = System.nanoTime();
+                    matched += query(table, indexes[i], way == 1, values[q]);
+                    millis[way] += (System.nanoTime() - start) / 1e6;
+                }
+                query(table, indexes[i], way == 1, values[0]);
+                for (int q = 0; q < QUERIES; q++) {
+                    long start = System.nanoTime();
+                    query(table, indexes[i], way == 1, values[q]);
+                    millis[2 + way] += (System.nanoTime() - start) / 1e6;
+                }
+            }
+            System.out.printf("column %d (1 in %,9d):  rows/query=%,8.1f  cold ms: scan=%8.2f index=%8.2f"
+                            + "  warm ms: scan=%8.2f index=%8.2f%n",
+                    i, DISTINCT[i], matched / (2.0 * QUERIES), millis[0] / QUERIES, millis[1] / QUERIES,
+                    millis[2] / QUERIES, millis[3] / QUERIES);
+        }
+        new File("log").delete();
+    }
+
+    // the number of rows whose column holds the value, read through the index or by a scan
+    private static int query(HeapFile table, SecondaryIndex index, boolean useIndex, int value) throws Exception {
+        TransactionId tid = new TransactionId();
+        IntField field = new IntField(value);
+        OpIterator it = useIndex
+                ? new SecondaryIndexScan(tid, index, new IndexPredicate(Predicate.Op.EQUALS, field))
+                : new Filter(new Predicate(index.getField(), Predicate.Op.EQUALS, field),
+                        new SeqScan(tid, table.getId(), "t"));
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    // Write the heap file page by page: a header marking the slots in use, then the rows.
+    private static void writeHeapFile(File f, int rows) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int tupleSize = DISTINCT.length * 4;
+        int slots = (pageSize * 8) / (tupleSize * 8 + 1);
+        int headerBytes = (slots + 7) / 8;
+        Random r = new Random(0);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 20))) {
+            for (int row = 0; row < rows; row += slots) {
+                int used = Math.min(slots, rows - row);
+                byte[] header = new byte[headerBytes];
+                for (int i = 0; i < used; i++) {
+                    header[i / 8] |= (byte) (1 << (i % 8));
+                }
+                out.write(header);
+                for (int i = 0; i < slots; i++) {
+                    for (int distinct : DISTINCT) {
+                        out.writeInt(i < used ? r.nextInt(distinct) : 0);
+                    }
+                }
+                out.write(new byte[pageSize - headerBytes - slots * tupleSize]);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Random;
+
+/**
+ * Size and full-scan time of a string-heavy table stored in the fixed
+ * (HeapPage) and slotted (SlottedHeapPage) page formats.  The table has an
+ * int and two strings of up to 24 characters, so most of a fixed-size
+ * tuple is padding.
+ *
+ * Run with: ant runbench -Dbench=SlottedPageBenchmark
+ */
+public class SlottedPageBenchmark {
+    private static final int ROWS = 200_000;
+    private static final int MAX_STRING = 24;
+    private static final int ROUNDS = 5;
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE};
+
+    public static void main(String[] args) throws Exception {
+        File text = File.createTempFile("slotted", ".txt");
+        text.deleteOnExit();
+        writeRows(text);
+
+        for (HeapFile.PageFormat format : HeapFile.PageFormat.values()) {
+            File f = File.createTempFile("slotted", ".dat");
+            f.deleteOnExit();
+            new File(f.getPath() + ".fsm").deleteOnExit();
+            HeapFileEncoder.convert(text, f, BufferPool.getPageSize(), TYPES.length, TYPES, ',', format);
+
+            Database.reset();
+            HeapFile table = new HeapFile(f, new TupleDesc(TYPES), format);
+            Database.getCatalog().addTable(table, format.name());
+            double best = Double.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                best = Math.min(best, scan(table));
+            }
+            System.out.printf("%-8s %,6d pages  %,10d bytes  %,6.0f ms  %,11.0f tuples/s%n",
+                    format, table.numPages(), f.length(), best * 1e3, ROWS / best);
+        }
+        new File("log").delete();
+    }
+
+    // Time of a full scan, in seconds.
+    private static double scan(HeapFile table) throws Exception {
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next().getField(1);
+            n++;
+        }
+        it.close();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Database.getBufferPool().transactionComplete(tid);
+        if (n != ROWS) {
+            throw new IllegalStateException("scanned " + n + " of " + ROWS + " rows");
+        }
+        return seconds;
+    }
+
+    private static void writeRows(File f) throws Exception {
+        Random random = new Random(6830);
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(f), 1 << 20)) {
+            for (int i = 0; i < ROWS; i++) {
+                bw.write(i + "," + word(random) + "," + word(random) + "\n");
+            }
+        }
+    }
+
+    private static String word(Random random) {
+        char[] chars = new char[1 + random.nextInt(MAX_STRING)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+}
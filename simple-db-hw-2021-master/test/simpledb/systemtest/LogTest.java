@@ -435,6 +435,91 @@ public class LogTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    @Test public void TestCheckpointDoesNotFlush()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 inserts but does not commit
+        // checkpoint: T1's page stays in the buffer pool only
+        // T1 commits
+        // crash: T1 data should be there
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 14);
+
+        Database.getLogFile().logCheckpoint();
+
+        HeapPage onDisk = (HeapPage) hf1.readPage(new HeapPageId(hf1.getId(), 0));
+        Iterator<Tuple> it = onDisk.iterator();
+        while (it.hasNext()) {
+            assertNotEquals(14, ((IntField) it.next().getField(0)).getValue());
+        }
+        t1.commit();
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 14, true);
+        t.commit();
+    }
+
+    @Test public void TestTornRecordCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // crash in the middle of appending a record
+        // recovery ignores the partial record, and the log stays usable
+
+        RandomAccessFile log = new RandomAccessFile("log", "rw");
+        log.seek(log.length());
+        log.writeInt(3); // record type, and nothing else
+        log.close();
+
+        crash();
+        doInsert(hf1, 15, -1);
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 15, true);
+        t.commit();
+    }
+
+    @Test public void TestOpenCrashTwice()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 inserts but does not commit
+        // crash, then crash again right after recovery
+        // the second recovery must not redo what the first one undid
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 16);
+        Database.getBufferPool().flushAllPages(); // XXX something to UNDO
+
+        crash();
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 16, false);
+        t.commit();
+    }
+
 
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
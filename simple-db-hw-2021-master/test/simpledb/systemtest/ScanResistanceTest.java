@@ -0,0 +1,152 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.IntFunction;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+import simpledb.utils.LruPolicy;
+import simpledb.utils.ReplacementPolicy;
+import simpledb.utils.TwoQueuePolicy;
+
+/**
+ * Mixed workload: point lookups through BTreeFile.indexIterator() on a small
+ * set of hot keys while a sequential scan walks a heap file several times
+ * larger than the buffer pool.  With a scan-resistant replacement policy the
+ * B+ tree pages touched by the lookups must stay cached for the whole scan.
+ */
+public class ScanResistanceTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 64;
+    private static final int LEAF_PAGES = 40;
+    private static final int HOT_KEYS = 16;
+    private static final int SCAN_PAGES = 6 * POOL_PAGES;
+    /** During the measured phase, lookups run in bursts this many scan pages apart. */
+    private static final int BURST_INTERVAL = 2 * POOL_PAGES;
+
+    /** Counts the number of readPage operations. */
+    static class InstrumentedBTreeFile extends BTreeFile {
+        public InstrumentedBTreeFile(File f, int keyField, TupleDesc td) {
+            super(f, keyField, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+
+        public int readCount = 0;
+    }
+
+    private InstrumentedBTreeFile index;
+    private HeapFile table;
+    private int[] hotKeys;
+    private int lookups;
+
+    private void createTables() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile f = BTreeUtility.createBTreeFile(2, LEAF_PAGES * 502, null, tuples, 0);
+        index = new InstrumentedBTreeFile(f.getFile(), 0, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(index, SystemTestUtil.getUUID());
+
+        // one hot key per leaf, spread over the whole key range
+        hotKeys = new int[HOT_KEYS];
+        for (int i = 0; i < HOT_KEYS; i++) {
+            hotKeys[i] = tuples.get(i * (tuples.size() / HOT_KEYS)).get(0);
+        }
+
+        table = SystemTestUtil.createRandomHeapFile(2, SCAN_PAGES * 504, null, null);
+    }
+
+    private void lookup(TransactionId tid, int key) throws DbException, TransactionAbortedException {
+        DbFileIterator it = index.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)));
+        it.open();
+        assertTrue(it.hasNext());
+        while (it.hasNext()) {
+            assertEquals(key, ((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        lookups++;
+    }
+
+    /**
+     * Runs the workload and returns the number of B+ tree pages read from disk
+     * while the scan flushes the pool.  The first half of the scan interleaves
+     * one lookup per scanned page, which is how the hot pages earn their place
+     * in the pool; the second half only issues a burst of lookups every
+     * BURST_INTERVAL pages, longer than the pool can remember by recency alone.
+     */
+    private int runMixedWorkload(IntFunction<ReplacementPolicy<PageId>> policy)
+            throws DbException, TransactionAbortedException {
+        Database.resetBufferPool(POOL_PAGES, policy);
+        TransactionId tid = new TransactionId();
+
+        SeqScan scan = new SeqScan(tid, table.getId(), "");
+        scan.open();
+        int lastPage = -1;
+        int pagesScanned = 0;
+        int next = 0;
+        while (scan.hasNext()) {
+            int pageNo = scan.next().getRecordId().getPageId().getPageNumber();
+            if (pageNo == lastPage) {
+                continue;
+            }
+            lastPage = pageNo;
+            pagesScanned++;
+            if (pagesScanned <= SCAN_PAGES / 2) {
+                lookup(tid, hotKeys[next++ % HOT_KEYS]);
+            } else {
+                if (pagesScanned == SCAN_PAGES / 2 + 1) {
+                    index.readCount = 0;
+                    lookups = 0;
+                }
+                if (pagesScanned % BURST_INTERVAL == 0) {
+                    for (int key : hotKeys) {
+                        lookup(tid, key);
+                    }
+                }
+            }
+        }
+        scan.close();
+        assertEquals(SCAN_PAGES, pagesScanned);
+        assertTrue(lookups > 0);
+        Database.getBufferPool().transactionComplete(tid);
+        return index.readCount;
+    }
+
+    @Test public void testTwoQueueKeepsIndexPages() throws Exception {
+        createTables();
+        int twoQueueReads = runMixedWorkload(TwoQueuePolicy::new);
+        int measuredLookups = lookups;
+        int lruReads = runMixedWorkload(capacity -> new LruPolicy<>());
+
+        // every lookup touches at least the root pointer, the root and a leaf
+        double twoQueueHitRate = 1.0 - twoQueueReads / (3.0 * measuredLookups);
+        double lruHitRate = 1.0 - lruReads / (3.0 * measuredLookups);
+        assertTrue("2Q lost index pages to the scan: hit rate " + twoQueueHitRate,
+                twoQueueHitRate >= 0.95);
+        // the workload really does flush a strict LRU pool
+        assertTrue("LRU kept index pages through the scan: hit rate " + lruHitRate
+                + ", 2Q hit rate " + twoQueueHitRate, lruReads > twoQueueReads);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ScanResistanceTest.class);
+    }
+}